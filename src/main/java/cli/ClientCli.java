@@ -3,8 +3,11 @@ package cli;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import remote.Response;
+import remote.protocol.ReplyType;
+import remote.responses.AggregateResponse;
 import common.utils.StringUtil;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
@@ -19,6 +22,7 @@ public class ClientCli {
 
     private ClientConfig config;    // 客户端配置
     private ClientContext context;  // 客户端运行上下文
+    private NearCache nearCache;    // 近端缓存，没有开启时为null
 
     public ClientCli() {
         // 初始化默认配置
@@ -83,8 +87,12 @@ public class ClientCli {
                 config.setBigkeys(true);
             } else if ("--eval".equals(args[index]) && !lastarg) {
                 config.setEval(args[++index]);
+            } else if ("--near-cache".equals(args[index])) {
+                config.setNearCache(true);
             } else if ("-c".equals(args[index])) {
                 config.setClusterMode(true);
+            } else if ("-3".equals(args[index])) {
+                config.setResp3(true);
             } else if ("-d".equals(args[index]) && !lastarg) {
                 config.setMbDelim(args[++index]);
             } else if ("-v".equals(args[index]) || "--version".equals(args[index])) {
@@ -106,7 +114,22 @@ public class ClientCli {
     private boolean cliConnect(boolean force) {
         if (this.context == null || force) {
             this.context = new ClientContext();
-            this.context.connectTcp(this.config.getHostip(), this.config.getHostport());
+            // 指定了-s时通过Unix域套接字连接，忽略主机和端口
+            if (this.config.getHostsocket() != null) {
+                this.context.connectUnix(this.config.getHostsocket());
+            } else {
+                this.context.connectTcp(this.config.getHostip(), this.config.getHostport());
+            }
+
+            // 切换到RESP3
+            if (this.config.isResp3()) {
+                cliSwitchProto();
+            }
+
+            // 开启近端缓存，新的连接需要重新开启跟踪，之前缓存的内容也不再可信
+            if (this.config.isNearCache()) {
+                cliEnableNearCache();
+            }
 
             // 判断是否认证了以及是否选择的正确的db
             // if (!cliAuth()) {
@@ -120,6 +143,75 @@ public class ClientCli {
         return true;
     }
 
+    /**
+     * 通过HELLO 3切换到RESP3，服务器不支持时打印警告，继续使用RESP2
+     */
+    private void cliSwitchProto() {
+        this.context.appendCommandArgv(0, new String[] {"HELLO", "3"});
+        Response response = this.context.getResponse();
+        if (response == null || response.getType() != ReplyType.MAP) {
+            System.err.println("Warning: could not switch to RESP3: "
+                + (response == null ? this.context.getErrInfo() : response.getContent()));
+            this.config.setResp3(false);
+        }
+    }
+
+    /**
+     * 开启近端缓存
+     * RESP3下主连接开启CLIENT TRACKING后，失效消息以push的形式在主连接上到达；
+     * RESP2下建立接收失效消息的订阅连接，并让主连接开启CLIENT TRACKING，把失效消息重定向到订阅连接
+     * 失败时只打印警告，cli不使用近端缓存继续运行
+     */
+    private void cliEnableNearCache() {
+        if (this.nearCache != null) {
+            this.nearCache.close();
+            this.nearCache = null;
+        }
+
+        NearCache nearCache;
+        String[] argv;
+        if (this.config.isResp3()) {
+            nearCache = NearCache.inBand();
+            this.context.setPushHandler(nearCache::onPush);
+            argv = new String[] {"CLIENT", "TRACKING", "on"};
+        } else {
+            try {
+                nearCache = NearCache.open(this.config);
+            } catch (IOException e) {
+                System.err.println("Warning: could not enable near cache: " + e.getMessage());
+                return;
+            }
+            argv = new String[] {"CLIENT", "TRACKING", "on", "REDIRECT", String.valueOf(nearCache.getClientId())};
+        }
+
+        this.context.appendCommandArgv(0, argv);
+        Response response = this.context.getResponse();
+        if (response == null || response.getType() == ReplyType.ERROR) {
+            System.err.println("Warning: could not enable near cache: "
+                + (response == null ? this.context.getErrInfo() : response.getContent()));
+            this.context.setPushHandler(null);
+            nearCache.close();
+            return;
+        }
+
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * 开启了近端缓存时，查找GET命令的缓存回复
+     * @return 缓存的回复，不是GET命令或者没有命中时返回null
+     */
+    private Response lookupNearCache(String command, int argc, int startIndex, String [] argv) {
+        if (this.nearCache == null || !"get".equals(command) || argc != 2) {
+            return null;
+        }
+        // 先处理空闲期间到达的失效消息
+        if (this.nearCache.isInBand()) {
+            this.context.drainPushes();
+        }
+        return this.nearCache.lookup(argv[startIndex + 1]);
+    }
+
     /**
      * 打印congtext的错误信息
      */
@@ -182,9 +274,14 @@ public class ClientCli {
 
         /* Setup argument length */
         while (repeat > 0) {
+            // 开启了近端缓存时，GET命令命中本地缓存就不再发送给服务器
+            Response cached = lookupNearCache(command, argc, startIndex, argv);
+
             // 解析输入的命令参数，按照协议将其生成命令
             // 将命令缓存到客户端context的输出缓冲区outBuffer
-            context.appendCommandArgv(startIndex, argv);
+            if (cached == null) {
+                context.appendCommandArgv(startIndex, argv);
+            }
 
             while (config.isMonitorMode()) {
                 // todo
@@ -196,7 +293,7 @@ public class ClientCli {
                     System.out.println("Reading messages... (press Ctrl-C to quit)\n");
                 }
                 while (true) {
-                    if (!readReply(outputRaw)) {
+                    if (!readReply(outputRaw, null)) {
                         System.exit(1);
                     }
                 }
@@ -206,7 +303,7 @@ public class ClientCli {
                 // todo
             }
 
-            if (!readReply(outputRaw)) {
+            if (!readReply(outputRaw, cached)) {
                 return false;
             } else {
                 if ("select".equals(command) && argc == 2) {
@@ -236,13 +333,14 @@ public class ClientCli {
     /**
      * 读取服务器回复信息
      * @param outputRawString
+     * @param cached 近端缓存中命中的回复，不为null时直接输出，不再从服务器读取
      * @return
      */
-    private boolean readReply(boolean outputRawString) {
+    private boolean readReply(boolean outputRawString, Response cached) {
         boolean output = true;
         StringBuilder out = new StringBuilder();
 
-        Response response = this.context.getResponse();
+        Response response = cached != null ? cached : this.context.getResponse();
 
         // 如果获取回复失败
         if (response == null) {
@@ -255,6 +353,11 @@ public class ClientCli {
             return false;
         }
 
+        // 缓存没有命中的GET命令的回复
+        if (cached == null && this.nearCache != null) {
+            this.nearCache.store(response);
+        }
+
         // todo: Check if we need to connect to a different node and reissue the request.
 
         // 是否输出
@@ -289,19 +392,33 @@ public class ClientCli {
                 break;
             case STATUS:
             case BULK:
+            case BIG_NUMBER:
                 out.append(response.getContent());
                 break;
             case INTEGER:
                 out.append(String.valueOf(response.getContent()));
                 break;
+            case DOUBLE:
+                out.append(formatDouble((Double) response.getContent()));
+                break;
+            case BOOLEAN:
+                out.append((Boolean) response.getContent() ? "1" : "0");
+                break;
+            case NIL:
+                break;
             case MULTI_BULK:
-                List<String> contents = (List<String>)response.getContent();
+            case MAP:
+            case SET:
+            case PUSH:
+            case ATTRIBUTE:
+                List<?> contents = (List<?>) response.getContent();
                 int len = contents.size();
                 for (int i = 0; i < len; i++) {
                     if (i > 0) {
                         out.append(this.config.getMbDelim());
                     }
-                    out.append(contents.get(i));
+                    Object item = contents.get(i);
+                    out.append(item instanceof Response ? formatResponseRaw((Response) item) : item);
                 }
                 break;
             default:
@@ -312,6 +429,14 @@ public class ClientCli {
     }
 
     private String formatResponseTTY(Response response) {
+        return formatResponseTTY(response, "");
+    }
+
+    /**
+     * 以终端的格式输出回复，嵌套的聚合回复按层级缩进
+     * @param prefix 聚合回复中除第一个元素外，每个元素前的缩进
+     */
+    private String formatResponseTTY(Response response, String prefix) {
         StringBuilder out = new StringBuilder();
 
         switch (response.getType()) {
@@ -336,7 +461,24 @@ public class ClientCli {
                 out.append(String.valueOf(response.getContent()));
                 out.append("\n");
                 break;
+            case DOUBLE:
+                out.append("(double) ");
+                out.append(formatDouble((Double) response.getContent()));
+                out.append("\n");
+                break;
+            case BOOLEAN:
+                out.append((Boolean) response.getContent() ? "(true)\n" : "(false)\n");
+                break;
+            case BIG_NUMBER:
+                out.append("(big number) ");
+                out.append(response.getContent());
+                out.append("\n");
+                break;
             case MULTI_BULK:
+                if (response instanceof AggregateResponse) {
+                    out.append(formatAggregateTTY((AggregateResponse) response, prefix));
+                    break;
+                }
                 List<String> contents = (List<String>)response.getContent();
                 int len = contents.size();
 
@@ -344,6 +486,9 @@ public class ClientCli {
                     out.append("(empty list or set)\n");
                 } else {
                     for (int i = 0; i < len; i++) {
+                        if (i > 0) {
+                            out.append(prefix);
+                        }
                         out.append(i + 1);
                         out.append(") ");
                         out.append(contents.get(i));
@@ -351,6 +496,12 @@ public class ClientCli {
                     }
                 }
                 break;
+            case MAP:
+            case SET:
+            case PUSH:
+            case ATTRIBUTE:
+                out.append(formatAggregateTTY((AggregateResponse) response, prefix));
+                break;
             default:
                 System.err.println("Unknown reply type");
                 System.exit(1);
@@ -358,6 +509,52 @@ public class ClientCli {
         return out.toString();
     }
 
+    /**
+     * 以终端的格式输出元素可以是任意类型的聚合回复，map和attribute每行输出一个键值对"1# key => value"，set以"~"标记序号
+     */
+    private String formatAggregateTTY(AggregateResponse response, String prefix) {
+        StringBuilder out = new StringBuilder();
+        List<Response> elements = response.getElements();
+        boolean isMap = response.getType() == ReplyType.MAP || response.getType() == ReplyType.ATTRIBUTE;
+        int len = isMap ? elements.size() / 2 : elements.size();
+
+        if (len == 0) {
+            out.append(isMap ? "(empty hash)\n" : "(empty list or set)\n");
+            return out.toString();
+        }
+
+        String mark = response.getType() == ReplyType.SET ? "~ " : isMap ? "# " : ") ";
+        int indexLength = String.valueOf(len).length();
+        // 嵌套的元素在当前前缀的基础上，再缩进序号和标记的宽度
+        StringBuilder elementPrefix = new StringBuilder(prefix);
+        for (int i = 0; i < indexLength + 2; i++) {
+            elementPrefix.append(' ');
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (i > 0) {
+                out.append(prefix);
+            }
+            String index = String.valueOf(i + 1);
+            for (int j = index.length(); j < indexLength; j++) {
+                out.append(' ');
+            }
+            out.append(index);
+            out.append(mark);
+
+            if (isMap) {
+                String key = formatResponseTTY(elements.get(i * 2), elementPrefix.toString());
+                // 键后面的换行替换为" => "，值接着输出在同一行
+                out.append(key, 0, key.length() - 1);
+                out.append(" => ");
+                out.append(formatResponseTTY(elements.get(i * 2 + 1), elementPrefix.toString()));
+            } else {
+                out.append(formatResponseTTY(elements.get(i), elementPrefix.toString()));
+            }
+        }
+        return out.toString();
+    }
+
     private String formatResponseCSV(Response response) {
         StringBuilder out = new StringBuilder();
 
@@ -379,15 +576,34 @@ public class ClientCli {
                 out.append("\"");
                 break;
             case INTEGER:
+            case BIG_NUMBER:
                 out.append(String.valueOf(response.getContent()));
                 break;
+            case DOUBLE:
+                out.append(formatDouble((Double) response.getContent()));
+                break;
+            case BOOLEAN:
+                out.append((Boolean) response.getContent() ? "true" : "false");
+                break;
+            case NIL:
+                out.append("NULL");
+                break;
             case MULTI_BULK:
-                List<String> contents = (List<String>)response.getContent();
+            case MAP:
+            case SET:
+            case PUSH:
+            case ATTRIBUTE:
+                List<?> contents = (List<?>) response.getContent();
                 int len = contents.size();
                 for (int i = 0; i < len; i++) {
-                    out.append("\"");
-                    out.append(contents.get(i));
-                    out.append("\"");
+                    Object item = contents.get(i);
+                    if (item instanceof Response) {
+                        out.append(formatResponseCSV((Response) item));
+                    } else {
+                        out.append("\"");
+                        out.append(item);
+                        out.append("\"");
+                    }
                     if (i != len - 1) {
                         out.append(", ");
                     }
@@ -400,6 +616,22 @@ public class ClientCli {
         return out.toString();
     }
 
+    /**
+     * 按RESP3的写法输出浮点数：inf、-inf、nan，整数值不带小数部分
+     */
+    private static String formatDouble(double value) {
+        if (Double.isNaN(value)) {
+            return "nan";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e17) {
+            return String.valueOf((long) value);
+        }
+        return String.valueOf(value);
+    }
+
 
 
     private String getCliVersion() {
@@ -496,8 +728,8 @@ public class ClientCli {
 
         // 初始化CLI及其默认配置
         ClientCli cli = new ClientCli();
-        // 解析输入参数
-        cli.parseOption(args);
+        // 解析输入参数，返回第一个不是选项的参数的位置
+        int firstArg = cli.parseOption(args);
 
         /* Latency mode */
         if (cli.config.getLatencyMode()) {
@@ -564,8 +796,8 @@ public class ClientCli {
             // todo: intrinsicLatencyMode();
         }
 
-        // 当没有提供任何参数时，以交互模式启动
-        if (args.length == 0 && cli.config.getEval() == null) {
+        // 除了选项之外没有提供命令时，以交互模式启动
+        if (args.length == firstArg && cli.config.getEval() == null) {
             cli.cliConnect(false);
             cli.runReplMode();
         }
@@ -31,6 +31,7 @@ public class ClientCliHelper {
         usage.append("  -x                 Read last argument from STDIN.\n");
         usage.append("  -d <delimiter>     Multi-bulk delimiter in for raw formatting (default: \\n).\n");
         usage.append("  -c                 Enable cluster mode (follow -ASK and -MOVED redirections).\n");
+        usage.append("  -3                 Start session in RESP3 protocol mode.\n");
         usage.append("  --raw              Use raw formatting for replies (default when STDOUT is\n");
         usage.append("                     not a tty).\n");
         usage.append("  --csv              Output in CSV format.\n");
@@ -49,6 +50,8 @@ public class ClientCliHelper {
         usage.append("  --intrinsic-latency <sec> Run a test to measure intrinsic system latency.\n");
         usage.append("                     The test will run for the specified amount of seconds.\n");
         usage.append("  --eval <file>      Send an EVAL command using the Lua script at <file>.\n");
+        usage.append("  --near-cache       Cache GET replies locally, invalidated by the server via\n");
+        usage.append("                     CLIENT TRACKING.\n");
         usage.append("  --help             Output this help and exit.\n");
         usage.append("  --version          Output version and exit.\n");
         usage.append("\n");
@@ -37,6 +37,8 @@ public class ClientConfig {
     private String mbDelim;
 //    char prompt[128];
     private String eval;
+    private boolean nearCache;  // 是否开启近端缓存，GET的结果缓存在本地，由服务器的失效消息保证一致
+    private boolean resp3;      // 是否通过HELLO 3使用RESP3
 
     public static final int CLI_DEFAULT_PIPE_TIMEOUT = 30;  // seconds
 
@@ -76,6 +78,8 @@ public class ClientConfig {
         this.auth = null;
         this.mbDelim = null;
         this.eval = null;
+        this.nearCache = false;
+        this.resp3 = false;
 
         // todo
         if (!(System.console() == null) && System.getenv("FAKETTY") == null) {
@@ -286,4 +290,20 @@ public class ClientConfig {
     String getEval() {
         return this.eval;
     }
+
+    void setNearCache(boolean nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    boolean isNearCache() {
+        return this.nearCache;
+    }
+
+    void setResp3(boolean resp3) {
+        this.resp3 = resp3;
+    }
+
+    boolean isResp3() {
+        return this.resp3;
+    }
 }
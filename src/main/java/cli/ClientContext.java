@@ -5,14 +5,17 @@ import common.struct.impl.Sds;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import remote.Response;
+import remote.protocol.ReplyType;
 import remote.protocol.Protocol;
 import remote.protocol.ResponseParser;
 import common.utils.SafeEncoder;
+import common.utils.UnixSocketUtil;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.function.Predicate;
 
 /**
  * @Description
@@ -30,6 +33,9 @@ public class ClientContext {
     private StringBuilder outBuffer;    // 要发送的命令都存储在这里
     private Sds responseBuffer;            // 回复缓冲区
     private int responseBufferParsePos;    // 表示回复缓冲区中当前解析到的位置
+    private boolean closed;                // 服务器是否已经关闭了连接
+    private Predicate<Response> pushHandler;   // RESP3的push回复的处理器，返回true表示已经处理，不再作为命令的回复返回
+    private Response lastAttribute;        // 最近一次收到的RESP3 attribute
 
     public ClientContext() {
         this.err = null;
@@ -40,6 +46,9 @@ public class ClientContext {
         this.outBuffer = new StringBuilder();
         this.responseBuffer = Sds.createEmptySds();
         this.responseBufferParsePos = 0;
+        this.closed = false;
+        this.pushHandler = null;
+        this.lastAttribute = null;
     }
 
     public void connectTcp(String ip, int port) {
@@ -57,6 +66,22 @@ public class ClientContext {
         }
     }
 
+    /**
+     * 通过Unix域套接字连接服务器
+     * @param path 服务器监听的套接字文件路径
+     */
+    public void connectUnix(String path) {
+        try {
+            this.socketChannel = UnixSocketUtil.connect(path);
+            this.socketChannel.configureBlocking(false);
+
+            logger.info("Connect to server " + path);
+        } catch (IOException e) {
+            logger.fatal("Could not connect to Redis at " + path + ": " + e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+
     /**
      * 解析输入的命令参数，按照协议将其生成命令
      * 将命令缓存到客户端context的输出缓冲区outBuffer
@@ -185,7 +210,7 @@ public class ClientContext {
 
         // 根据最后一次读取的返回值判断返回情况
         if (readNum == -1) {
-            // todo: 可能需要特殊处理关闭连接
+            this.closed = true;
         } else if (readNum == 0) {
             // 正常情况，读到stream末尾
         }
@@ -193,39 +218,32 @@ public class ClientContext {
         return readSum > 0 ?true : false;
     }
 
+    /**
+     * 从回复缓冲区的当前位置解析一个回复
+     * @return 解析出的回复，缓冲区中的数据还不完整时返回null
+     */
     public Response parseItem() {
-        char prefix = this.responseBuffer.charAt(0);
         byte [] buf = this.responseBuffer.toArray();
-        Response response = null;
-        switch (prefix) {
-            case '-':
-                response = ResponseParser.parseErrorResponse(buf, this.responseBufferParsePos);
-                break;
-            case '+':
-                response = ResponseParser.parseStatusResponse(buf, this.responseBufferParsePos);
-                break;
-            case ':':
-                response = ResponseParser.parseIntegerResponse(buf, this.responseBufferParsePos);
-                break;
-            case '$':
-                response = ResponseParser.parseBulkResponse(buf, this.responseBufferParsePos);
-                break;
-            case '*':
-                response = ResponseParser.parseMultiBulkResponse(buf, this.responseBufferParsePos);
-                break;
-            default:
-                // 异常情况
+        Response response = ResponseParser.parseResponse(buf, this.responseBufferParsePos);
+        if (response == null) {
+            return null;
         }
 
+        consume(response.byteSize());
+        return response;
+    }
+
+    /**
+     * 跳过回复缓冲区中已经解析的数据，全部解析完后清空缓冲区
+     */
+    private void consume(int byteSize) {
         // 调整缓冲区大小
-        this.responseBufferParsePos += response.byteSize();
+        this.responseBufferParsePos += byteSize;
 
         if (this.responseBufferParsePos == this.responseBuffer.length()) {
             this.responseBufferParsePos = 0;
             this.responseBuffer.resize(0,1024 * 16);
         }
-
-        return response;
     }
 
 
@@ -237,21 +255,66 @@ public class ClientContext {
         }
     }
 
+    /**
+     * 发送缓存的命令并读取一个回复
+     * RESP3下回复之间可能夹杂着push和attribute：push交给pushHandler，处理器不处理的push作为回复返回（比如订阅模式下的消息），
+     * attribute保存下来，通过getLastAttribute()获取
+     * @return 命令的回复，发送失败或者连接已经关闭时返回null
+     */
     public Response getResponse() {
-        Response response = getResponseFromBuffer();
-        if (response != null) {
-            return response;
-        } else {
-            // 先向服务器发送命令
-            if (write()) {
+        while (true) {
+            Response response = getResponseFromBuffer();
+            if (response == null) {
+                if (this.closed) {
+                    return null;
+                }
+                // 先向服务器发送命令
+                if (!write()) {
+                    return null;
+                }
                 // 然后从服务器读取命令的回复
                 // 必须要读到信息才返回，不然会一直在这里尝试读取
-                while (!read()) {
+                while (!read() && !this.closed) {
                 }
-                response = getResponseFromBuffer();
+                continue;
             }
 
+            if (response.getType() == ReplyType.ATTRIBUTE) {
+                this.lastAttribute = response;
+                continue;
+            }
+            if (response.getType() == ReplyType.PUSH && this.pushHandler != null && this.pushHandler.test(response)) {
+                continue;
+            }
             return response;
         }
     }
+
+    /**
+     * 不阻塞地读取已经到达的数据，处理回复缓冲区开头的push，用于在发送命令前处理空闲期间收到的失效消息等
+     * 遇到不是push或者pushHandler不处理的回复时停止，这些回复留给getResponse()
+     */
+    public void drainPushes() {
+        if (this.pushHandler == null) {
+            return;
+        }
+        read();
+
+        while (this.responseBuffer.length() > 0 && this.responseBufferParsePos != this.responseBuffer.length()
+            && this.responseBuffer.charAt(this.responseBufferParsePos) == '>') {
+            Response response = ResponseParser.parseResponse(this.responseBuffer.toArray(), this.responseBufferParsePos);
+            if (response == null || !this.pushHandler.test(response)) {
+                return;
+            }
+            consume(response.byteSize());
+        }
+    }
+
+    public void setPushHandler(Predicate<Response> pushHandler) {
+        this.pushHandler = pushHandler;
+    }
+
+    public Response getLastAttribute() {
+        return this.lastAttribute;
+    }
 }
@@ -0,0 +1,298 @@
+package cli;
+
+import common.utils.SafeEncoder;
+import common.utils.UnixSocketUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import remote.Response;
+import remote.protocol.Protocol;
+import remote.protocol.ReplyType;
+import remote.responses.AggregateResponse;
+import remote.responses.MultiBulkResponse;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * cli的近端缓存
+ *
+ * 开启后额外建立一条订阅__redis__:invalidate频道的连接，主连接以REDIRECT到这条连接的方式开启CLIENT TRACKING，
+ * GET的结果缓存在本地，命中时不再访问服务器；服务器上的键被修改时，失效消息从订阅连接到达，由后台线程从缓存中删除
+ *
+ * 回复和失效消息走的是两条连接，为了避免先收到失效消息、后收到旧值，发送GET前先在缓存中放入占位对象，
+ * 收到回复时只有占位对象还在（期间没有收到这个键的失效消息）才缓存回复
+ * 订阅连接断开后无法再得知键的修改，此时清空缓存并不再使用
+ *
+ * 主连接通过HELLO 3切换到RESP3时不需要额外的连接：失效消息以push的形式和回复在同一个连接上到达，
+ * 由ClientContext交给onPush()处理，见inBand()
+ * @Author huzihan
+ * @Date 2021/10/17
+ **/
+public class NearCache {
+    private static final Log logger = LogFactory.getLog(NearCache.class);
+
+    private static final String INVALIDATE_CHANNEL = "__redis__:invalidate";
+
+    private final SocketChannel channel;        // 接收失效消息的连接，RESP3下失效消息走主连接，为null
+    private final DataInputStream input;
+    private final long clientId;                // 订阅连接在服务器中的id，作为CLIENT TRACKING的REDIRECT参数
+    private final ConcurrentHashMap<String, Object> cache;  // 键 -> GET的回复，或者正在等待回复的占位对象
+    private volatile boolean connected;
+
+    private String pendingKey;      // 正在等待回复的GET命令的键
+    private Object pendingToken;    // 放入缓存的占位对象
+
+    private NearCache(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        this.cache = new ConcurrentHashMap<>();
+
+        // 查询订阅连接的id，然后订阅失效消息的频道
+        sendCommand("CLIENT", "ID");
+        Object id = readFrame();
+        if (!(id instanceof Long)) {
+            throw new IOException("Unexpected reply for CLIENT ID: " + id);
+        }
+        this.clientId = (Long) id;
+
+        sendCommand("SUBSCRIBE", INVALIDATE_CHANNEL);
+        readFrame();
+
+        this.connected = true;
+    }
+
+    private NearCache() {
+        this.channel = null;
+        this.input = null;
+        this.clientId = 0;
+        this.cache = new ConcurrentHashMap<>();
+        this.connected = true;
+    }
+
+    /**
+     * 创建RESP3下使用的近端缓存，失效消息由主连接以push的形式接收，主连接开启CLIENT TRACKING时不需要REDIRECT
+     * @return 近端缓存，需要把onPush()设置为主连接的push处理器
+     */
+    public static NearCache inBand() {
+        return new NearCache();
+    }
+
+    public boolean isInBand() {
+        return this.channel == null;
+    }
+
+    /**
+     * 处理主连接上收到的push，格式为 ["invalidate", [key1, key2, ...]]，键的数组为空回复时表示清空所有的键
+     * @param push push回复
+     * @return 是否是失效消息，其他push（比如订阅消息）不处理
+     */
+    public boolean onPush(Response push) {
+        List<Response> message = ((AggregateResponse) push).getElements();
+        if (message.size() != 2 || !"invalidate".equals(message.get(0).getContent())) {
+            return false;
+        }
+
+        Response keys = message.get(1);
+        if (keys instanceof MultiBulkResponse) {
+            for (Object key : (List<?>) keys.getContent()) {
+                this.cache.remove(key);
+            }
+        } else {
+            this.cache.clear();
+        }
+        return true;
+    }
+
+    /**
+     * 按cli的配置建立订阅连接，并启动接收失效消息的后台线程
+     * @param config cli配置，指定了-s时通过Unix域套接字连接
+     * @return 近端缓存
+     * @throws IOException 连接失败，或者服务器不支持CLIENT ID
+     */
+    public static NearCache open(ClientConfig config) throws IOException {
+        SocketChannel channel;
+        if (config.getHostsocket() != null) {
+            channel = UnixSocketUtil.connect(config.getHostsocket());
+        } else {
+            channel = SocketChannel.open(new InetSocketAddress(config.getHostip(), config.getHostport()));
+        }
+
+        NearCache nearCache;
+        try {
+            nearCache = new NearCache(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        Thread thread = new Thread(nearCache::receiveInvalidations, "pandis-cli-invalidate");
+        thread.setDaemon(true);
+        thread.start();
+        return nearCache;
+    }
+
+    public long getClientId() {
+        return this.clientId;
+    }
+
+    /**
+     * 查找GET命令的缓存回复
+     * 没有命中时放入占位对象，之后由store()缓存这次GET的回复
+     * @param key 键
+     * @return 缓存的回复，没有命中时返回null
+     */
+    public Response lookup(String key) {
+        if (!this.connected) {
+            return null;
+        }
+
+        Object value = this.cache.get(key);
+        if (value instanceof Response) {
+            return (Response) value;
+        }
+
+        this.pendingKey = key;
+        this.pendingToken = new Object();
+        this.cache.put(key, this.pendingToken);
+        return null;
+    }
+
+    /**
+     * 缓存上一次没有命中的GET命令的回复，等待回复期间键已经失效时不缓存
+     * @param response GET命令的回复
+     */
+    public void store(Response response) {
+        if (this.pendingKey == null) {
+            return;
+        }
+
+        if (response.getType() == ReplyType.BULK || response.getType() == ReplyType.NIL) {
+            this.cache.replace(this.pendingKey, this.pendingToken, response);
+        } else {
+            this.cache.remove(this.pendingKey, this.pendingToken);
+        }
+        this.pendingKey = null;
+        this.pendingToken = null;
+    }
+
+    public void close() {
+        this.connected = false;
+        this.cache.clear();
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // 关闭时忽略错误
+        }
+    }
+
+    /**
+     * 后台线程：接收失效消息并从缓存中删除对应的键
+     * 消息的格式为 ["message", "__redis__:invalidate", [key1, key2, ...]]，键的数组为空回复时表示清空所有的键
+     */
+    private void receiveInvalidations() {
+        try {
+            while (true) {
+                Object frame = readFrame();
+                if (!(frame instanceof List)) {
+                    continue;
+                }
+
+                List<?> message = (List<?>) frame;
+                if (message.size() != 3 || !"message".equals(message.get(0)) || !INVALIDATE_CHANNEL.equals(message.get(1))) {
+                    continue;
+                }
+
+                Object keys = message.get(2);
+                if (keys == null) {
+                    this.cache.clear();
+                } else if (keys instanceof List) {
+                    for (Object key : (List<?>) keys) {
+                        this.cache.remove(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (this.connected) {
+                logger.warn("Invalidation connection lost, near cache disabled", e);
+            }
+        } finally {
+            this.connected = false;
+            this.cache.clear();
+        }
+    }
+
+    private void sendCommand(String... argv) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(SafeEncoder.encode(Protocol.formatCommand(0, argv)));
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+    }
+
+    /**
+     * 从订阅连接中阻塞地读取一个完整的回复，支持嵌套的多条回复
+     * @return 状态和bulk回复返回String，整数回复返回Long，多条回复返回List，空回复返回null
+     * @throws IOException 连接断开，或者收到了错误回复
+     */
+    private Object readFrame() throws IOException {
+        int prefix = this.input.read();
+        if (prefix == -1) {
+            throw new EOFException("Connection closed by server");
+        }
+
+        String line = readLine();
+        switch (prefix) {
+            case '+':
+                return line;
+            case '-':
+                throw new IOException(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] content = new byte[length];
+                this.input.readFully(content);
+                readLine();
+                return SafeEncoder.encode(content);
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                if (count < 0) {
+                    return null;
+                }
+                List<Object> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    items.add(readFrame());
+                }
+                return items;
+            }
+            default:
+                throw new IOException("Protocol error, got '" + (char) prefix + "' as reply type byte");
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = this.input.read()) != '\r') {
+            if (b == -1) {
+                throw new EOFException("Connection closed by server");
+            }
+            line.write(b);
+        }
+        // 跳过'\n'
+        this.input.read();
+        return SafeEncoder.encode(line.toByteArray());
+    }
+}
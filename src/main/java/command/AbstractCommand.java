@@ -9,23 +9,90 @@ import server.client.InnerClient;
  */
 public abstract class AbstractCommand implements Command{
 
+    /**
+     * 命令的属性，对应构造函数中stringFlags的各个字符
+     */
+    public static final int CMD_WRITE = 1 << 0;             // "w" 写入命令，可能会修改数据库
+    public static final int CMD_READONLY = 1 << 1;          // "r" 只读命令，不会修改数据库
+    public static final int CMD_DENYOOM = 1 << 2;           // "m" 可能会占用大量内存，内存不足时拒绝执行
+    public static final int CMD_ADMIN = 1 << 3;             // "a" 管理命令，比如SAVE、BGSAVE
+    public static final int CMD_PUBSUB = 1 << 4;            // "p" 发布与订阅相关的命令
+    public static final int CMD_NOSCRIPT = 1 << 5;          // "s" 不允许在脚本中使用
+    public static final int CMD_RANDOM = 1 << 6;            // "R" 随机命令，相同的参数和数据库可能返回不同的结果
+    public static final int CMD_SORT_FOR_SCRIPT = 1 << 7;   // "S" 在脚本中使用时需要对输出结果排序
+    public static final int CMD_LOADING = 1 << 8;           // "l" 服务器载入数据时也允许执行
+    public static final int CMD_STALE = 1 << 9;             // "t" 从服务器持有过期数据时也允许执行
+    public static final int CMD_SKIP_MONITOR = 1 << 10;     // "M" 不会被传播给MONITOR
+    public static final int CMD_ASKING = 1 << 11;           // "k" 集群模式下的ASKING
+    public static final int CMD_FAST = 1 << 12;             // "F" 复杂度为O(1)或O(log(N))的快速命令
+
     // 命令名字
     private String name;
+    // 命令id，由命令表在注册时分配，可以作为按命令区分的统计信息等数组的下标
+    private int id;
     // 参数个数
     private int arity;
     // 表示参数数量是否 >= arity的值
     private boolean isGreaterThanArity;
-    // 字符串表示的 FLAG，记录了命令的属性
-    private String stringFlags;
-    // 实际的 FLAG，对stringFlags进行分析得到
-    private int flags;
+    // 实际的 FLAG，对字符串表示的 FLAG 进行分析得到
+    private final int flags;
+    // 参数中第一个键的位置，为0时命令没有键
+    private int firstKey;
+    // 参数中最后一个键的位置，为负数时从参数末尾倒数，比如-1表示最后一个参数
+    private int lastKey;
+    // 相邻两个键之间的距离
+    private int keyStep;
 
     public AbstractCommand(String name, int arity,boolean isGreaterThanArity,  String stringFlags) {
         this.name = name;
+        this.id = -1;
         this.arity = arity;
         this.isGreaterThanArity = isGreaterThanArity;
-        this.stringFlags = stringFlags;
-        this.flags = 0;
+        this.flags = parseFlags(stringFlags);
+        this.firstKey = 0;
+        this.lastKey = 0;
+        this.keyStep = 0;
+    }
+
+    /**
+     * 设置命令参数中键的位置，用于从命令参数中找出命令访问的键，比如客户端缓存跟踪读取过的键
+     * @param firstKey 第一个键的位置
+     * @param lastKey 最后一个键的位置，负数表示从参数末尾倒数
+     * @param keyStep 相邻两个键之间的距离
+     */
+    protected void setKeySpec(int firstKey, int lastKey, int keyStep) {
+        this.firstKey = firstKey;
+        this.lastKey = lastKey;
+        this.keyStep = keyStep;
+    }
+
+    /**
+     * 将字符串表示的 FLAG 转换为位掩码
+     * @param stringFlags 字符串表示的 FLAG，比如"wm"
+     * @return FLAG 位掩码
+     */
+    public static int parseFlags(String stringFlags) {
+        int flags = 0;
+        for (int i = 0; i < stringFlags.length(); i++) {
+            switch (stringFlags.charAt(i)) {
+                case 'w': flags |= CMD_WRITE; break;
+                case 'r': flags |= CMD_READONLY; break;
+                case 'm': flags |= CMD_DENYOOM; break;
+                case 'a': flags |= CMD_ADMIN; break;
+                case 'p': flags |= CMD_PUBSUB; break;
+                case 's': flags |= CMD_NOSCRIPT; break;
+                case 'R': flags |= CMD_RANDOM; break;
+                case 'S': flags |= CMD_SORT_FOR_SCRIPT; break;
+                case 'l': flags |= CMD_LOADING; break;
+                case 't': flags |= CMD_STALE; break;
+                case 'M': flags |= CMD_SKIP_MONITOR; break;
+                case 'k': flags |= CMD_ASKING; break;
+                case 'F': flags |= CMD_FAST; break;
+                default:
+                    throw new IllegalArgumentException("Unsupported command flag '" + stringFlags.charAt(i) + "'");
+            }
+        }
+        return flags;
     }
 
     /**
@@ -36,6 +103,62 @@ public abstract class AbstractCommand implements Command{
         return this.name;
     }
 
+    /**
+     * 获取命令id
+     * @return 命令表中的id，未注册时为-1
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * 获取命令的 FLAG 位掩码
+     * @return
+     */
+    public int getFlags() {
+        return this.flags;
+    }
+
+    /**
+     * 命令是否具有指定的属性
+     * @param flag CMD_WRITE等属性
+     * @return
+     */
+    public boolean hasFlag(int flag) {
+        return (this.flags & flag) != 0;
+    }
+
+    /**
+     * 获取命令参数中第一个键的位置，和getLastKey、getKeyStep一起遍历命令的键，不需要为每次调用分配数组：
+     * for (int pos = command.getFirstKey(); pos <= last; pos += command.getKeyStep())
+     * @return 第一个键的下标，命令没有键时为0
+     */
+    public int getFirstKey() {
+        return this.firstKey;
+    }
+
+    /**
+     * 获取命令参数中最后一个键的位置
+     * @param argc 命令参数的个数
+     * @return 最后一个键的下标，命令没有键时小于getFirstKey的返回值
+     */
+    public int getLastKey(int argc) {
+        if (this.firstKey == 0) {
+            return -1;
+        }
+
+        int last = this.lastKey < 0 ? argc + this.lastKey : this.lastKey;
+        return last >= argc ? argc - 1 : last;
+    }
+
+    public int getKeyStep() {
+        return this.keyStep;
+    }
+
     /**
      * 获取命令参数个数
      * @return
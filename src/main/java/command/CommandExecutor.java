@@ -1,16 +1,16 @@
 package command;
 
+import common.constants.ErrorConstants;
 import common.persistence.AOFPersistence;
 import common.persistence.AofFsyncFrequency;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 import server.ServerContext;
+import server.Tracking;
 import server.client.InnerClient;
 import command.commands.*;
 import server.config.ServerConfig;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @Description 命令执行器
@@ -21,37 +21,47 @@ public class CommandExecutor {
     private final static CommandExecutor executor = new CommandExecutor();
 
     // Pandis的所有命令映射表
-    private Map<String, AbstractCommand> commandTable = new HashMap<>();
+    private final CommandTable commandTable = new CommandTable();
+
+    // 按命令id记录的统计信息：调用次数和总耗时（微秒），只在主事件循环中修改
+    private final long[] commandCalls;
+    private final long[] commandMicroseconds;
 
     private CommandExecutor() {
         // 将所有命令的实现写入表中
-        commandTable.put("get", new GetCommand());
-        commandTable.put("set", new SetCommand());
-        commandTable.put("setnx", new SetnxCommand());
-        commandTable.put("setex", new SetexCommand());
-        commandTable.put("psetex", new PsetexCommand());
-        commandTable.put("append", new AppendCommand());
-        commandTable.put("strlen", new StrlenCommand());
-        commandTable.put("del", new DelCommand());
-        commandTable.put("exists", new ExistsCommand());
-        commandTable.put("select", new SelectCommand());
-        commandTable.put("ping", new PingCommand());
-        commandTable.put("echo", new EchoCommand());
-        commandTable.put("expire", new ExpireCommand());
-        commandTable.put("expireat", new ExpireAtCommand());
-        commandTable.put("pexpire", new PexpireCommand());
-        commandTable.put("pexpireat", new PexpireAtCommand());
-        commandTable.put("ttl", new TtlCommand());
-        commandTable.put("pttl", new PttlCommand());
-        commandTable.put("persist", new PersistCommand());
-        commandTable.put("subscribe", new SubscribeCommand());
-        commandTable.put("unsubscribe", new UnsubscribeCommand());
-        commandTable.put("psubscribe", new PsubscribeCommand());
-        commandTable.put("punsubscribe", new PunsubscribeCommand());
-        commandTable.put("publish", new PublishCommand());
-        commandTable.put("pubsub", new PubsubCommand());
-        commandTable.put("save", new SaveCommand());
-        commandTable.put("bgsave", new BackgroundSaveCommand());
+        commandTable.register("get", new GetCommand());
+        commandTable.register("set", new SetCommand());
+        commandTable.register("setnx", new SetnxCommand());
+        commandTable.register("setex", new SetexCommand());
+        commandTable.register("psetex", new PsetexCommand());
+        commandTable.register("append", new AppendCommand());
+        commandTable.register("strlen", new StrlenCommand());
+        commandTable.register("del", new DelCommand());
+        commandTable.register("exists", new ExistsCommand());
+        commandTable.register("select", new SelectCommand());
+        commandTable.register("ping", new PingCommand());
+        commandTable.register("echo", new EchoCommand());
+        commandTable.register("expire", new ExpireCommand());
+        commandTable.register("expireat", new ExpireAtCommand());
+        commandTable.register("pexpire", new PexpireCommand());
+        commandTable.register("pexpireat", new PexpireAtCommand());
+        commandTable.register("ttl", new TtlCommand());
+        commandTable.register("pttl", new PttlCommand());
+        commandTable.register("persist", new PersistCommand());
+        commandTable.register("subscribe", new SubscribeCommand());
+        commandTable.register("unsubscribe", new UnsubscribeCommand());
+        commandTable.register("psubscribe", new PsubscribeCommand());
+        commandTable.register("punsubscribe", new PunsubscribeCommand());
+        commandTable.register("publish", new PublishCommand());
+        commandTable.register("pubsub", new PubsubCommand());
+        commandTable.register("save", new SaveCommand());
+        commandTable.register("bgsave", new BackgroundSaveCommand());
+        commandTable.register("info", new InfoCommand());
+        commandTable.register("client", new ClientCommand());
+        commandTable.register("hello", new HelloCommand());
+
+        this.commandCalls = new long[commandTable.size()];
+        this.commandMicroseconds = new long[commandTable.size()];
     }
 
     public static CommandExecutor getExecutor() {
@@ -59,44 +69,90 @@ public class CommandExecutor {
     }
 
     /**
-     * 从命令表中根据名字查找命令实现
+     * 从命令表中根据名字查找命令实现，不区分大小写
      * @param commandName 命令名称
      * @return 命令实现
      */
-    public Command lookupCommand(String commandName) {
-        return commandTable.get(commandName);
+    public AbstractCommand lookupCommand(String commandName) {
+        return commandTable.lookup(commandName);
+    }
+
+    /**
+     * 从命令表中根据名字查找命令实现，不区分大小写，直接比较参数的字节，不创建String
+     * @param commandName 命令名称，通常是命令的第一个参数
+     * @return 命令实现
+     */
+    public AbstractCommand lookupCommand(PandisString commandName) {
+        return commandTable.lookup(commandName);
+    }
+
+    public CommandTable getCommandTable() {
+        return this.commandTable;
     }
 
     /**
      * 核心方法执行命令
      * @param command 命令实现
      */
-    public void execute(Command command, InnerClient client) {
-        beforeExecute(client);
-        // 执行命令
+    public void execute(AbstractCommand command, InnerClient client) {
+        if (!beforeExecute(command, client)) {
+            return;
+        }
+        // 执行命令，并记录命令的调用次数和耗时
+        long start = System.nanoTime();
         command.execute(client);
-        afterExecute(client);
+        int id = command.getId();
+        this.commandCalls[id]++;
+        this.commandMicroseconds[id] += (System.nanoTime() - start) / 1000;
+        afterExecute(command, client);
+    }
+
+    public long getCommandCalls(AbstractCommand command) {
+        return this.commandCalls[command.getId()];
+    }
+
+    public long getCommandMicroseconds(AbstractCommand command) {
+        return this.commandMicroseconds[command.getId()];
     }
 
     /**
      * 在命令执行之前执行
+     * (1) 如果设置了maxmemory，在执行写入命令前淘汰键，内存仍然超过限制时拒绝可能占用大量内存的命令
+     * @param command
      * @param client
+     * @return 是否继续执行命令
      */
-    public void beforeExecute(InnerClient client) {
-
+    public boolean beforeExecute(AbstractCommand command, InnerClient client) {
+        ServerConfig config = ServerContext.getContext().getServerConfig();
+        if (config.getMaxMemory() > 0 && command.hasFlag(AbstractCommand.CMD_WRITE)) {
+            boolean outOfMemory = !ServerContext.getContext().getServerInstance().getEvictor().performEvictions();
+            if (outOfMemory && command.hasFlag(AbstractCommand.CMD_DENYOOM)) {
+                client.replyError(ErrorConstants.OOM_ERROR);
+                return false;
+            }
+        }
+        return true;
     }
+
     /**
      * 在命令执行之后进行
-     * (1) 如果AOF启用，则进行AOF持久化
+     * (1) 如果AOF启用，则对写入命令进行AOF持久化
+     * (2) 如果客户端开启了跟踪，记录只读命令读取的键
+     * @param command
      * @param client
      */
-    public void afterExecute(InnerClient client) {
-        // 将命令传播到AOF模块，进行AOF持久化
+    public void afterExecute(AbstractCommand command, InnerClient client) {
+        // 将写入命令传播到AOF模块，进行AOF持久化，只读命令不会修改数据库，不需要持久化
         ServerConfig config = ServerContext.getContext().getServerConfig();
-        if (config.isAofOn()) {
+        if (config.isAofOn() && command.hasFlag(AbstractCommand.CMD_WRITE)) {
             AOFPersistence aofPersistence = ServerContext.getContext().getServerInstance().getAofPersistence();
-            List<Sds> commands = client.getCommandArgs();
+            List<PandisString> commands = client.getCommandArgs();
             aofPersistence.feedCommand(commands, client.getDatabase().getId());
         }
+
+        // 开启了跟踪的客户端执行只读命令后，记录它读取过的键，这些键被修改时向它发送失效消息
+        if (client.hasFlags(InnerClient.CLIENT_TRACKING) && command.hasFlag(AbstractCommand.CMD_READONLY)) {
+            Tracking.getTracking().rememberKeys(client, command);
+        }
     }
 }
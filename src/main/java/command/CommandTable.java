@@ -0,0 +1,163 @@
+package command;
+
+import common.struct.PandisString;
+import common.struct.impl.Sds;
+import common.struct.impl.SdsView;
+import common.utils.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 命令表，按命令名称的字节查找命令实现
+ *
+ * 命令名称不区分大小写，查找时直接对参数的字节按ASCII折叠大小写计算哈希并逐字节比较，
+ * 不需要先把命令名称转换成小写的String，也不产生任何临时对象
+ * 使用开放地址法（线性探测）的哈希表，命令表在服务器启动时构建完成，之后只读，因此可以在多个线程中同时查找
+ *
+ * 注册的命令按注册顺序分配从0开始的id，命令统计等按命令区分的数据可以直接用id作为数组下标
+ * @Author huzihan
+ * @Date 2021/10/15
+ **/
+public class CommandTable {
+    private byte[][] names;                 // 小写的命令名称
+    private AbstractCommand[] slots;        // 与names一一对应的命令实现
+    private int mask;
+    private final List<AbstractCommand> commands;  // 按id排列的所有命令
+
+    public CommandTable() {
+        this.names = new byte[16][];
+        this.slots = new AbstractCommand[16];
+        this.mask = 15;
+        this.commands = new ArrayList<>();
+    }
+
+    /**
+     * 注册命令，为命令分配id
+     * @param name 命令名称
+     * @param command 命令实现
+     */
+    public void register(String name, AbstractCommand command) {
+        byte[] lowerName = SafeEncoder.encode(name.toLowerCase());
+        if (lookup(lowerName, 0, lowerName.length) != null) {
+            throw new IllegalArgumentException("Duplicate command: " + name);
+        }
+
+        // 装载因子保持在0.5以下
+        if ((this.commands.size() + 1) * 2 > this.slots.length) {
+            resize(this.slots.length << 1);
+        }
+
+        command.setId(this.commands.size());
+        this.commands.add(command);
+        insert(lowerName, command);
+    }
+
+    /**
+     * 按命令名称查找命令，不区分大小写
+     * @param buf 命令名称所在的数组
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 命令实现，不存在时返回null
+     */
+    public AbstractCommand lookup(byte[] buf, int offset, int length) {
+        int index = hash(buf, offset, length) & this.mask;
+        byte[] name;
+        while ((name = this.names[index]) != null) {
+            if (equalsIgnoreCase(name, buf, offset, length)) {
+                return this.slots[index];
+            }
+            index = (index + 1) & this.mask;
+        }
+        return null;
+    }
+
+    /**
+     * 按命令名称查找命令，Sds和参数视图直接使用内部的字节数组
+     * @param name 命令名称
+     * @return 命令实现，不存在时返回null
+     */
+    public AbstractCommand lookup(PandisString name) {
+        if (name instanceof Sds) {
+            Sds sds = (Sds) name;
+            return lookup(sds.toArrayWithOutCopy(), 0, sds.length());
+        } else if (name instanceof SdsView) {
+            SdsView view = (SdsView) name;
+            return lookup(view.array(), view.offset(), view.length());
+        }
+        return lookup(name.toString());
+    }
+
+    public AbstractCommand lookup(String name) {
+        byte[] bytes = SafeEncoder.encode(name);
+        return lookup(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param id 命令id
+     * @return 对应的命令
+     */
+    public AbstractCommand getCommand(int id) {
+        return this.commands.get(id);
+    }
+
+    /**
+     * @return 按id排列的所有命令
+     */
+    public List<AbstractCommand> getCommands() {
+        return this.commands;
+    }
+
+    public int size() {
+        return this.commands.size();
+    }
+
+    private void insert(byte[] lowerName, AbstractCommand command) {
+        int index = hash(lowerName, 0, lowerName.length) & this.mask;
+        while (this.names[index] != null) {
+            index = (index + 1) & this.mask;
+        }
+        this.names[index] = lowerName;
+        this.slots[index] = command;
+    }
+
+    private void resize(int capacity) {
+        byte[][] oldNames = this.names;
+        AbstractCommand[] oldSlots = this.slots;
+        this.names = new byte[capacity][];
+        this.slots = new AbstractCommand[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                insert(oldNames[i], oldSlots[i]);
+            }
+        }
+    }
+
+    /**
+     * 计算哈希时把大写字母折叠为小写
+     */
+    private static int hash(byte[] buf, int offset, int length) {
+        int h = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + toLower(buf[i]);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(byte[] lowerName, byte[] buf, int offset, int length) {
+        if (lowerName.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (lowerName[i] != toLower(buf[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+}
@@ -2,9 +2,9 @@ package command.commands;
 
 import server.client.InnerClient;
 import command.AbstractCommand;
+import common.evict.Evictor;
 import common.struct.PandisObject;
 import common.struct.PandisString;
-import common.struct.impl.Sds;
 import database.Database;
 
 import java.util.List;
@@ -18,6 +18,7 @@ public class AppendCommand extends AbstractCommand {
 
     public AppendCommand() {
         super("append", 3, false, "wm");
+        setKeySpec(1, 1, 1);
     }
 
     @Override
@@ -30,10 +31,10 @@ public class AppendCommand extends AbstractCommand {
         Database db = client.getDatabase();
         long newLength = 0;
 
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
-        Sds key = commandArgs.get(1);
-        Sds appendContent = commandArgs.get(2);
+        PandisString key = commandArgs.get(1);
+        PandisString appendContent = commandArgs.get(2);
 
         PandisObject value = db.lookupByKey(key);
 
@@ -52,10 +53,15 @@ public class AppendCommand extends AbstractCommand {
                 return;
             }
 
+            long oldMemory = Evictor.objectMemory(value);
             ((PandisString) value).append(appendContent);
+            db.valueResized(oldMemory, value);
             newLength = ((PandisString) value).length();
         }
 
+        // 通知键已经被修改
+        db.signalModifiedKey(key);
+
         client.replyInteger(newLength);
     }
 }
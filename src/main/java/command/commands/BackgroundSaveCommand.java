@@ -30,8 +30,10 @@ public class BackgroundSaveCommand extends AbstractCommand {
             return;
         } else {
             // 执行BGSAVE
-            if (!rdbPersistence.backgroundSave()) {
+            if (rdbPersistence.backgroundSave()) {
                 client.replyStatus("Background saving started");
+            } else {
+                client.replyError("Background save already in progress");
             }
         }
 
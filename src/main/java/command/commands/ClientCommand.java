@@ -0,0 +1,124 @@
+package command.commands;
+
+import command.AbstractCommand;
+import common.constants.ErrorConstants;
+import common.constants.StatusConstants;
+import common.struct.PandisString;
+import common.struct.impl.SdsView;
+import common.utils.SdsUtil;
+import server.PandisServer;
+import server.Tracking;
+import server.client.InnerClient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Description CLIENT命令实现，目前支持以下子命令：
+ * CLIENT ID
+ * CLIENT TRACKING on|off [REDIRECT client-id] [BCAST] [PREFIX prefix [PREFIX prefix ...]] [NOLOOP]
+ * CLIENT GETREDIR
+ * @Author huzihan
+ * @Date 2021/10/17
+ **/
+public class ClientCommand extends AbstractCommand {
+    public ClientCommand() {
+        super("client", 2, true, "asRlt");
+    }
+
+    @Override
+    public boolean checkCommandArgs(InnerClient client) {
+        return true;
+    }
+
+    @Override
+    public void doExecute(InnerClient client) {
+        List<PandisString> commandArgs = client.getCommandArgs();
+        String subCommand = commandArgs.get(1).toString().toLowerCase();
+
+        if ("id".equals(subCommand) && commandArgs.size() == 2) {
+            client.replyInteger(client.getId());
+        } else if ("tracking".equals(subCommand) && commandArgs.size() >= 3) {
+            tracking(client, commandArgs);
+        } else if ("getredir".equals(subCommand) && commandArgs.size() == 2) {
+            // 没有开启跟踪时返回-1，没有重定向时返回0
+            if (client.hasFlags(InnerClient.CLIENT_TRACKING)) {
+                client.replyInteger(client.getTrackingRedirect());
+            } else {
+                client.replyInteger(-1);
+            }
+        } else {
+            client.replyError("Unknown subcommand or wrong number of arguments for '" + commandArgs.get(1) + "'");
+        }
+    }
+
+    /**
+     * CLIENT TRACKING on|off [REDIRECT client-id] [BCAST] [PREFIX prefix ...] [NOLOOP]
+     */
+    private void tracking(InnerClient client, List<PandisString> commandArgs) {
+        long redirect = 0;
+        boolean bcast = false;
+        boolean noloop = false;
+        List<PandisString> prefixes = new ArrayList<>();
+
+        // 解析选项
+        for (int i = 3; i < commandArgs.size(); i++) {
+            String option = commandArgs.get(i).toString().toLowerCase();
+            boolean moreArgs = i + 1 < commandArgs.size();
+
+            if ("redirect".equals(option) && moreArgs) {
+                i++;
+                if (redirect != 0) {
+                    client.replyError("A client can only redirect to a single other client");
+                    return;
+                }
+                try {
+                    redirect = SdsUtil.stringToLong(commandArgs.get(i));
+                } catch (NumberFormatException e) {
+                    client.replyError("value is not an integer or out of range");
+                    return;
+                }
+                // 重定向的目标客户端必须存在
+                if (PandisServer.getInstance().lookupClientById(redirect) == null) {
+                    client.replyError("The client ID you want redirect to does not exist");
+                    return;
+                }
+            } else if ("bcast".equals(option)) {
+                bcast = true;
+            } else if ("noloop".equals(option)) {
+                noloop = true;
+            } else if ("prefix".equals(option) && moreArgs) {
+                i++;
+                // 命令参数可能是引用查询缓冲区的视图，作为前缀表的键前复制为独立的Sds
+                prefixes.add(SdsView.toOwned(commandArgs.get(i)));
+            } else {
+                client.replyError(ErrorConstants.SYNTAX_ERROR);
+                return;
+            }
+        }
+
+        String mode = commandArgs.get(2).toString().toLowerCase();
+        Tracking tracking = Tracking.getTracking();
+
+        if ("on".equals(mode)) {
+            if (!bcast && !prefixes.isEmpty()) {
+                client.replyError("PREFIX option requires BCAST mode to be enabled");
+                return;
+            }
+            if (client.hasFlags(InnerClient.CLIENT_TRACKING)
+                && bcast != client.hasFlags(InnerClient.CLIENT_TRACKING_BCAST)) {
+                client.replyError("You can't switch BCAST mode on/off before disabling tracking for this client, "
+                    + "and then re-enabling it with a different mode.");
+                return;
+            }
+            tracking.enableTracking(client, redirect, bcast, noloop, prefixes);
+        } else if ("off".equals(mode)) {
+            tracking.disableTracking(client);
+        } else {
+            client.replyError(ErrorConstants.SYNTAX_ERROR);
+            return;
+        }
+
+        client.replyStatus(StatusConstants.OK_STATUS);
+    }
+}
@@ -2,7 +2,7 @@ package command.commands;
 
 import server.client.InnerClient;
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 import database.Database;
 
 import java.util.List;
@@ -15,6 +15,7 @@ import java.util.List;
 public class DelCommand extends AbstractCommand {
     public DelCommand() {
         super("del", 2, true, "w");
+        setKeySpec(1, -1, 1);
     }
 
     @Override
@@ -24,7 +25,7 @@ public class DelCommand extends AbstractCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
         Database db = client.getDatabase();
 
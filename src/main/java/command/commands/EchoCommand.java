@@ -2,7 +2,7 @@ package command.commands;
 
 import server.client.InnerClient;
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 
 import java.util.List;
 
@@ -23,9 +23,9 @@ public class EchoCommand extends AbstractCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
-        Sds content = commandArgs.get(1);
+        PandisString content = commandArgs.get(1);
         client.replyBulk(content);
     }
 }
@@ -2,7 +2,8 @@ package command.commands;
 
 import server.client.InnerClient;
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
+import common.utils.SdsUtil;
 import database.Database;
 
 import java.util.List;
@@ -16,6 +17,7 @@ import java.util.concurrent.TimeUnit;
 public abstract class GenericExpireCommand extends AbstractCommand {
     public GenericExpireCommand(String name, int arity, boolean isGreaterThanArity, String stringFlags) {
         super(name, arity, isGreaterThanArity, stringFlags);
+        setKeySpec(1, 1, 1);
     }
 
     /**
@@ -28,16 +30,17 @@ public abstract class GenericExpireCommand extends AbstractCommand {
      * @param unit 时间单位second/millisecond
      */
     protected void genericExpire(InnerClient client, long baseTime, TimeUnit unit) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
-        Sds key = commandArgs.get(1);
-        Sds expireTime = commandArgs.get(2);
+        PandisString key = commandArgs.get(1);
+        PandisString expireTime = commandArgs.get(2);
 
         long when;
 
         try {
-           when = Long.parseLong(expireTime.toString());
+           when = SdsUtil.stringToLong(expireTime);
         } catch (NumberFormatException e) {
+            client.replyError("value is not an integer or out of range");
             return;
         }
 
@@ -58,6 +61,7 @@ public abstract class GenericExpireCommand extends AbstractCommand {
             client.replyInteger(1);
         } else {
             db.setExpire(key, when);
+            db.signalModifiedKey(key);
             client.replyInteger(1);
         }
     }
@@ -5,7 +5,6 @@ import command.AbstractCommand;
 import common.struct.ObjectType;
 import common.struct.PandisObject;
 import common.struct.PandisString;
-import common.struct.impl.Sds;
 import common.constants.ErrorConstants;
 import database.Database;
 
@@ -18,11 +17,12 @@ public abstract class GenericGetCommand extends AbstractCommand {
 
     public GenericGetCommand(String name, int arity, boolean isGreaterThanArity, String stringFlags) {
         super(name, arity, isGreaterThanArity, stringFlags);
+        setKeySpec(1, 1, 1);
     }
 
     protected void genericGet(InnerClient client) {
         Database db = client.getDatabase();
-        Sds[] args = client.getCommandArgs().toArray(new Sds[0]);
+        PandisString[] args = client.getCommandArgs().toArray(new PandisString[0]);
 
         // 尝试从数据库中取出键 c->argv[1] 对应的值对象
         // 如果键不存在时，向客户端发送回复信息，并返回 NULL
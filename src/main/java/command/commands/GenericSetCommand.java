@@ -4,6 +4,7 @@ import server.client.InnerClient;
 import command.AbstractCommand;
 import common.struct.PandisString;
 import common.constants.StatusConstants;
+import common.utils.SdsUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import database.Database;
@@ -25,6 +26,7 @@ public abstract class GenericSetCommand extends AbstractCommand {
 
     public GenericSetCommand(String name, int arity, boolean isGreaterThanArity, String stringFlags) {
         super(name, arity, isGreaterThanArity, stringFlags);
+        setKeySpec(1, 1, 1);
     }
 
     protected void genericSet(InnerClient client, int flags, PandisString key, PandisString value, PandisString expireTime, TimeUnit unit) {
@@ -34,7 +36,7 @@ public abstract class GenericSetCommand extends AbstractCommand {
         if (expireTime != null) {
             // 取出expire参数的值
             try {
-                milliseconds = Long.parseLong(expireTime.toString());
+                milliseconds = SdsUtil.stringToLong(expireTime);
             } catch (NumberFormatException e) {
                 client.replyError("value is not an integer or out of range");
                 return;
@@ -1,7 +1,7 @@
 package command.commands;
 
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 import database.Database;
 import server.client.InnerClient;
 
@@ -19,12 +19,13 @@ public abstract class GenericTtlCommand extends AbstractCommand {
 
     public GenericTtlCommand(String name, int arity, boolean isGreaterThanArity, String stringFlags) {
         super(name, arity, isGreaterThanArity, stringFlags);
+        setKeySpec(1, 1, 1);
     }
 
     public void genericTtl(InnerClient client, TimeUnit unit) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
-        Sds key = commandArgs.get(1);
+        PandisString key = commandArgs.get(1);
 
         Database db = client.getDatabase();
 
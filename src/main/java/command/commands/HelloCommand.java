@@ -0,0 +1,123 @@
+package command.commands;
+
+import command.AbstractCommand;
+import common.struct.PandisString;
+import common.utils.SdsUtil;
+import server.PandisServer;
+import server.client.InnerClient;
+
+import java.util.List;
+
+/**
+ * @Description hello命令实现：HELLO [protover [AUTH username password] [SETNAME clientname]]
+ * 切换客户端使用的协议版本（2或3），同时可以完成认证和设置客户端名字，
+ * 成功时以map的形式回复服务器信息，RESP2客户端收到的是键值交替的多条回复
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class HelloCommand extends AbstractCommand {
+    private static final String PANDIS_VERSION = "1.0.0";
+
+    public HelloCommand() {
+        super("hello", 1, true, "sltF");
+    }
+
+    @Override
+    public boolean checkCommandArgs(InnerClient client) {
+        return true;
+    }
+
+    @Override
+    public void doExecute(InnerClient client) {
+        List<PandisString> commandArgs = client.getCommandArgs();
+        int ver = 0;
+        int nextArg = 1;
+
+        if (commandArgs.size() >= 2) {
+            long protover;
+            try {
+                protover = SdsUtil.stringToLong(commandArgs.get(nextArg++));
+            } catch (NumberFormatException e) {
+                client.replyError("Protocol version is not an integer or out of range");
+                return;
+            }
+            if (protover < 2 || protover > 3) {
+                client.replyError("-NOPROTO unsupported protocol version");
+                return;
+            }
+            ver = (int) protover;
+        }
+
+        // 先检查所有选项，全部正确后才修改客户端的状态
+        String username = null;
+        String password = null;
+        String clientName = null;
+        for (int j = nextArg; j < commandArgs.size(); j++) {
+            int moreArgs = commandArgs.size() - 1 - j;
+            String option = commandArgs.get(j).toString();
+            if ("auth".equalsIgnoreCase(option) && moreArgs >= 2) {
+                username = commandArgs.get(j + 1).toString();
+                password = commandArgs.get(j + 2).toString();
+                j += 2;
+            } else if ("setname".equalsIgnoreCase(option) && moreArgs >= 1) {
+                clientName = commandArgs.get(j + 1).toString();
+                if (clientName.indexOf(' ') >= 0 || clientName.indexOf('\n') >= 0) {
+                    client.replyError("Client names cannot contain spaces, newlines or special characters.");
+                    return;
+                }
+                j++;
+            } else {
+                client.replyError("Syntax error in HELLO option '" + option + "'");
+                return;
+            }
+        }
+
+        String requirePassword = PandisServer.getInstance().getServerConfig().getRequirePassword();
+        if (password != null) {
+            // 只有默认用户，没有设置密码时接受任意密码
+            if (!"default".equals(username) || (requirePassword != null && !requirePassword.equals(password))) {
+                client.replyError("-WRONGPASS invalid username-password pair or user is disabled.");
+                return;
+            }
+            client.setAuthenticated(true);
+        } else if (requirePassword != null && !client.isAuthenticated()) {
+            client.replyError("-NOAUTH HELLO must be called with the client already authenticated, "
+                + "otherwise the HELLO AUTH <user> <pass> option can be used to authenticate the client "
+                + "and select the RESP protocol version at the same time");
+            return;
+        }
+
+        if (clientName != null) {
+            client.setName(clientName.isEmpty() ? null : clientName);
+        }
+
+        // 没有指定协议版本时保持当前版本
+        if (ver != 0) {
+            client.setResp(ver);
+        }
+
+        // 按新的协议版本回复服务器信息
+        client.replyMapLength(7);
+
+        client.replyBulk("server");
+        client.replyBulk("pandis");
+
+        client.replyBulk("version");
+        client.replyBulk(PANDIS_VERSION);
+
+        client.replyBulk("proto");
+        client.replyInteger(client.getResp());
+
+        client.replyBulk("id");
+        client.replyInteger(client.getId());
+
+        client.replyBulk("mode");
+        client.replyBulk("standalone");
+
+        client.replyBulk("role");
+        client.replyBulk(PandisServer.getInstance().getMasterHost() == null ? "master" : "replica");
+
+        client.replyBulk("modules");
+        client.replyMultiBulkLength(0);
+    }
+}
@@ -0,0 +1,167 @@
+package command.commands;
+
+import command.AbstractCommand;
+import command.CommandExecutor;
+import database.Database;
+import server.PandisServer;
+import server.ServerContext;
+import server.Tracking;
+import server.client.InnerClient;
+import server.config.ServerConfig;
+
+import java.util.List;
+
+/**
+ * INFO [section]
+ * 以文本的形式返回服务器的状态信息，各部分信息以"# <Section>"开头，每行一个"field:value"
+ * 不指定section或指定"default"时，返回除commandstats以外的所有部分，指定"all"时返回所有部分
+ * @Author huzihan
+ * @Date 2021/10/14
+ **/
+public class InfoCommand extends AbstractCommand {
+    private static final String CRLF = "\r\n";
+
+    public InfoCommand() {
+        super("info", 1, true, "rlt");
+    }
+
+    @Override
+    public boolean checkCommandArgs(InnerClient client) {
+        if (client.getCommandArgs().size() > 2) {
+            client.replyError("syntax error");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void doExecute(InnerClient client) {
+        String section = client.getCommandArgs().size() == 2 ? client.getCommandArgs().get(1).toString().toLowerCase() : "default";
+        boolean all = "all".equals(section);
+        boolean defaults = all || "default".equals(section);
+
+        PandisServer server = ServerContext.getContext().getServerInstance();
+        StringBuilder info = new StringBuilder();
+
+        if (defaults || "clients".equals(section)) {
+            genClientsInfo(server, info);
+        }
+
+        if (defaults || "memory".equals(section)) {
+            if (info.length() > 0) {
+                info.append(CRLF);
+            }
+            genMemoryInfo(server, info);
+        }
+
+        if (defaults || "stats".equals(section)) {
+            if (info.length() > 0) {
+                info.append(CRLF);
+            }
+            genStatsInfo(server, info);
+        }
+
+        if (defaults || "keyspace".equals(section)) {
+            if (info.length() > 0) {
+                info.append(CRLF);
+            }
+            genKeyspaceInfo(server, info);
+        }
+
+        if (all || "commandstats".equals(section)) {
+            if (info.length() > 0) {
+                info.append(CRLF);
+            }
+            genCommandStatsInfo(info);
+        }
+
+        client.replyBulk(info.toString());
+    }
+
+    private void genClientsInfo(PandisServer server, StringBuilder info) {
+        List<InnerClient> clients = server.getClients();
+
+        // 所有客户端中最大的回复缓冲区
+        long maxOutputBuffer = 0;
+        for (InnerClient c : clients) {
+            maxOutputBuffer = Math.max(maxOutputBuffer, c.getOutputBufferMemoryUsage());
+        }
+
+        info.append("# Clients").append(CRLF);
+        info.append("connected_clients:").append(clients.size()).append(CRLF);
+        info.append("maxclients:").append(server.getServerConfig().getMaxClients()).append(CRLF);
+        info.append("client_recent_max_output_buffer:").append(maxOutputBuffer).append(CRLF);
+        info.append("tracking_clients:").append(Tracking.getTracking().getTrackingClients()).append(CRLF);
+    }
+
+    private void genMemoryInfo(PandisServer server, StringBuilder info) {
+        ServerConfig config = server.getServerConfig();
+        info.append("# Memory").append(CRLF);
+        // 数据集占用内存的估计值，maxmemory限制的就是这个值
+        info.append("used_memory:").append(server.getEvictor().usedMemory()).append(CRLF);
+        info.append("maxmemory:").append(config.getMaxMemory()).append(CRLF);
+        info.append("maxmemory_policy:").append(config.getMaxMemoryPolicy().getConfigName()).append(CRLF);
+    }
+
+    private void genStatsInfo(PandisServer server, StringBuilder info) {
+        info.append("# Stats").append(CRLF);
+        info.append("client_output_buffer_limit_disconnections:").append(server.getStatClientOutputBufferLimitDisconnections()).append(CRLF);
+        info.append("rejected_connections:").append(server.getStatRejectedConnections()).append(CRLF);
+        info.append("tracking_total_keys:").append(Tracking.getTracking().getTrackingKeys()).append(CRLF);
+        info.append("tracking_total_items:").append(Tracking.getTracking().getTrackingItems()).append(CRLF);
+        info.append("tracking_total_prefixes:").append(Tracking.getTracking().getTrackingPrefixes()).append(CRLF);
+        info.append("expired_keys:").append(server.getStatExpiredKeys()).append(CRLF);
+        info.append("expired_stale_perc:").append(String.format("%.2f", server.getStatExpiredStalePerc() * 100)).append(CRLF);
+        info.append("expired_keys_resident:").append(countExpiredResident(server)).append(CRLF);
+        info.append("evicted_keys:").append(server.getEvictor().getStatEvictedKeys()).append(CRLF);
+    }
+
+    /**
+     * 已经过期、但还留在数据库中的键的数量
+     * 开启了过期键索引的数据库可以精确统计，否则按定期删除采样得到的过期比例估计
+     */
+    private long countExpiredResident(PandisServer server) {
+        long now = System.currentTimeMillis();
+        long count = 0;
+        for (Database db : server.getDatabases()) {
+            if (db.hasExpireIndex()) {
+                count += db.countExpiredResident(now);
+            } else {
+                count += Math.round(db.expiredKeyNums() * server.getStatExpiredStalePerc());
+            }
+        }
+        return count;
+    }
+
+    private void genKeyspaceInfo(PandisServer server, StringBuilder info) {
+        info.append("# Keyspace").append(CRLF);
+        for (Database db : server.getDatabases()) {
+            int keys = db.getKeySpace().size();
+            if (keys == 0) {
+                continue;
+            }
+            info.append("db").append(db.getId())
+                .append(":keys=").append(keys)
+                .append(",expires=").append(db.expiredKeyNums())
+                .append(CRLF);
+        }
+    }
+
+    private void genCommandStatsInfo(StringBuilder info) {
+        CommandExecutor executor = CommandExecutor.getExecutor();
+
+        info.append("# Commandstats").append(CRLF);
+        for (AbstractCommand command : executor.getCommandTable().getCommands()) {
+            long calls = executor.getCommandCalls(command);
+            if (calls == 0) {
+                continue;
+            }
+            long usec = executor.getCommandMicroseconds(command);
+            info.append("cmdstat_").append(command.getName())
+                .append(":calls=").append(calls)
+                .append(",usec=").append(usec)
+                .append(",usec_per_call=").append(String.format("%.2f", (double) usec / calls))
+                .append(CRLF);
+        }
+    }
+}
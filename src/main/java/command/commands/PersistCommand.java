@@ -1,7 +1,7 @@
 package command.commands;
 
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 import database.Database;
 import server.client.InnerClient;
 
@@ -15,6 +15,7 @@ import java.util.List;
 public class PersistCommand extends AbstractCommand {
     public PersistCommand() {
         super("persist", 2, false, "w");
+        setKeySpec(1, 1, 1);
     }
 
     @Override
@@ -24,9 +25,9 @@ public class PersistCommand extends AbstractCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
-        Sds key = commandArgs.get(1);
+        PandisString key = commandArgs.get(1);
 
         Database db = client.getDatabase();
 
@@ -36,6 +37,7 @@ public class PersistCommand extends AbstractCommand {
         } else {
             if (db.removeExpire(key) != null) {
                 // 删除过期时间成功
+                db.signalModifiedKey(key);
                 client.replyInteger(1);
             } else {
                 // 过期时间不存在
@@ -11,7 +11,7 @@ import common.constants.StatusConstants;
  **/
 public class PingCommand extends AbstractCommand {
     public PingCommand() {
-        super("pong", 1, false, "rt");
+        super("ping", 1, false, "rt");
     }
 
     @Override
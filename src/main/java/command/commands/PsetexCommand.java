@@ -2,8 +2,7 @@ package command.commands;
 
 import server.client.InnerClient;
 import common.struct.PandisString;
-import common.struct.impl.Sds;
-import common.utils.StringUtil;
+import common.utils.SdsUtil;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -26,11 +25,13 @@ public class PsetexCommand extends GenericSetCommand {
 
     @Override
     public boolean checkCommandArgs(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
-        Sds expireTime = commandArgs.get(2);                  // 超时时间
+        PandisString expireTime = commandArgs.get(2);    // 超时时间
 
-        if (!StringUtil.isInteger(expireTime.toString())) {
+        try {
+            SdsUtil.stringToLong(expireTime);
+        } catch (NumberFormatException e) {
             client.replyError("wrong type of args of command " + this.getName());
             return false;
         }
@@ -40,11 +41,11 @@ public class PsetexCommand extends GenericSetCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
         // 调用通用的set方法，将key/value保存
         PandisString key = commandArgs.get(1);
-        Sds expireTime = commandArgs.get(2);                  // 超时时间
+        PandisString expireTime = commandArgs.get(2);    // 超时时间
         PandisString value = commandArgs.get(3);
 
         genericSet(client, SET_NO_FLAGS, key, value, expireTime, TimeUnit.MILLISECONDS);
@@ -1,7 +1,7 @@
 package command.commands;
 
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 import pubsub.PubSub;
 import server.ServerContext;
 import server.client.InnerClient;
@@ -25,7 +25,7 @@ public class PsubscribeCommand extends AbstractCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
         PubSub pubSub = ServerContext.getContext().getServerInstance().getPubSub();
 
         for (int i = 1; i < commandArgs.size(); i++) {
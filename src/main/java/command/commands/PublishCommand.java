@@ -1,7 +1,7 @@
 package command.commands;
 
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 import pubsub.PubSub;
 import server.ServerContext;
 import server.client.InnerClient;
@@ -26,10 +26,10 @@ public class PublishCommand extends AbstractCommand {
     @Override
     public void doExecute(InnerClient client) {
         PubSub pubSub = ServerContext.getContext().getServerInstance().getPubSub();
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
-        Sds channelName = commandArgs.get(1);
-        Sds message = commandArgs.get(2);
+        PandisString channelName = commandArgs.get(1);
+        PandisString message = commandArgs.get(2);
         int receivers = pubSub.publishMessage(channelName.toString(), message);
 
         client.replyInteger(receivers);
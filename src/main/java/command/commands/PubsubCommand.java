@@ -1,7 +1,7 @@
 package command.commands;
 
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 import pubsub.Channel;
 import pubsub.PubSub;
 import server.ServerContext;
@@ -30,7 +30,7 @@ public class PubsubCommand extends AbstractCommand {
     @Override
     public void doExecute(InnerClient client) {
         PubSub pubSub = ServerContext.getContext().getServerInstance().getPubSub();
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
         InnerClient innerClient = (InnerClient)client;
         List<String> multiReply = new LinkedList<>();
 
@@ -77,7 +77,11 @@ public class PubsubCommand extends AbstractCommand {
                 multiReply.add(channel.getName());
                 multiReply.add(String.valueOf(channel.getSubscriberNums()));
             }
-            client.replyMultiBulk(multiReply);
+            // 频道 -> 订阅者数量，RESP3客户端收到的是map
+            client.replyMapLength(multiReply.size() / 2);
+            for (String bulk : multiReply) {
+                client.replyBulk(bulk);
+            }
         } else if ("numpat".equals(subCommand) && commandArgs.size() == 2) {
             // PUBSUB NUMPAT 子命令
             client.replyInteger(pubSub.getPubSubPatternNums());
@@ -1,7 +1,7 @@
 package command.commands;
 
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 import pubsub.PubSub;
 import server.ServerContext;
 import server.client.InnerClient;
@@ -26,7 +26,7 @@ public class PunsubscribeCommand extends AbstractCommand {
     @Override
     public void doExecute(InnerClient client) {
         PubSub pubSub = ServerContext.getContext().getServerInstance().getPubSub();
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
         if (commandArgs.size() == 1) {
             pubSub.unsubscribeAllPatterns(client, true);
         } else {
@@ -13,7 +13,7 @@ import server.client.InnerClient;
  **/
 public class SaveCommand extends AbstractCommand {
     public SaveCommand() {
-        super("save", 1, false, "arg");
+        super("save", 1, false, "ars");
     }
 
     @Override
@@ -2,11 +2,11 @@ package command.commands;
 
 import server.client.InnerClient;
 import command.AbstractCommand;
-import common.struct.impl.Sds;
+import common.struct.PandisString;
 import common.constants.StatusConstants;
 import database.Database;
 import server.ServerContext;
-import common.utils.StringUtil;
+import common.utils.SdsUtil;
 
 import java.util.List;
 
@@ -23,9 +23,11 @@ public class SelectCommand extends AbstractCommand {
 
     @Override
     public boolean checkCommandArgs(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
-        if (!StringUtil.isInteger(commandArgs.get(1).toString())) {
+        try {
+            SdsUtil.stringToLong(commandArgs.get(1));
+        } catch (NumberFormatException e) {
             client.replyError("invalid DB index");
             return false;
         }
@@ -35,13 +37,13 @@ public class SelectCommand extends AbstractCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
         // todo
         // 判断是否是cluster模式，如果是cluster模式，则select命令禁用
 
-        int dbId = 0;
+        long dbId = 0;
         try {
-            dbId = Integer.parseInt(commandArgs.get(1).toString());
+            dbId = SdsUtil.stringToLong(commandArgs.get(1));
         } catch (NumberFormatException e) {
             client.replyError("invalid DB index");
             return;
@@ -53,7 +55,7 @@ public class SelectCommand extends AbstractCommand {
             return;
         }
 
-        client.selectDatabase(dbs[dbId]);
+        client.selectDatabase(dbs[(int) dbId]);
         client.replyStatus(StatusConstants.OK_STATUS);
 
     }
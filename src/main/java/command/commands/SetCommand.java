@@ -2,7 +2,6 @@ package command.commands;
 
 import server.client.InnerClient;
 import common.struct.PandisString;
-import common.struct.impl.Sds;
 import common.constants.ErrorConstants;
 
 import java.util.List;
@@ -27,22 +26,22 @@ public class SetCommand extends GenericSetCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
         // set命令的参数标志，由于set命令有许多参数，flags中记录了当前命令使用了哪些标志
         int flags = SET_NO_FLAGS;
 
         // 解析参数，记录标记
-        Sds expireTime = null;                  // 超时时间
+        PandisString expireTime = null;         // 超时时间
         TimeUnit timeUnit = TimeUnit.SECONDS;   // 超时时间的单位
 
 
         // 从下标3开始解析，解析set命令的其他选项（NX XX EX PX）
         for (int i = 3; i < commandArgs.size(); i++) {
             // 当前待解析的选项
-            Sds option = commandArgs.get(i);
+            PandisString option = commandArgs.get(i);
             // 当前待解析选项的后一个选项
-            Sds nextOption = (i == commandArgs.size() - 1) ? null : commandArgs.get(i + 1);
+            PandisString nextOption = (i == commandArgs.size() - 1) ? null : commandArgs.get(i + 1);
 
             // 判断当前解析到的选项是哪个
             if (option.length() == 2
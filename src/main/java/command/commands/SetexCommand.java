@@ -2,7 +2,6 @@ package command.commands;
 
 import server.client.InnerClient;
 import common.struct.PandisString;
-import common.struct.impl.Sds;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -26,11 +25,11 @@ public class SetexCommand extends GenericSetCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
         // 调用通用的set方法，将key/value保存
         PandisString key = commandArgs.get(1);
-        Sds expireTime = commandArgs.get(2);                  // 超时时间
+        PandisString expireTime = commandArgs.get(2);    // 超时时间
         PandisString value = commandArgs.get(3);
 
         genericSet(client, SET_NO_FLAGS, key, value, expireTime, TimeUnit.SECONDS);
@@ -2,7 +2,6 @@ package command.commands;
 
 import server.client.InnerClient;
 import common.struct.PandisString;
-import common.struct.impl.Sds;
 
 import java.util.List;
 
@@ -25,7 +24,7 @@ public class SetnxCommand extends GenericSetCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
         // 调用通用的set方法，将key/value保存
         PandisString key = commandArgs.get(1);
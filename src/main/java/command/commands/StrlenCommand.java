@@ -4,7 +4,6 @@ import server.client.InnerClient;
 import command.AbstractCommand;
 import common.struct.PandisObject;
 import common.struct.PandisString;
-import common.struct.impl.Sds;
 import common.constants.ErrorConstants;
 import database.Database;
 
@@ -18,6 +17,7 @@ import java.util.List;
 public class StrlenCommand extends AbstractCommand {
     public StrlenCommand() {
         super("strlen", 2, false, "r");
+        setKeySpec(1, 1, 1);
     }
 
     @Override
@@ -27,9 +27,9 @@ public class StrlenCommand extends AbstractCommand {
 
     @Override
     public void doExecute(InnerClient client) {
-        List<Sds> commandArgs = client.getCommandArgs();
+        List<PandisString> commandArgs = client.getCommandArgs();
 
-        Sds key = commandArgs.get(1);
+        PandisString key = commandArgs.get(1);
 
         Database db = client.getDatabase();
 
@@ -8,4 +8,5 @@ package common.constants;
 public class ErrorConstants {
     public static final String WRONG_TYPE_ERROR = "WRONGTYPE Operation against a key holding the wrong kind of value";
     public static final String SYNTAX_ERROR = "syntax error";
+    public static final String OOM_ERROR = "-OOM command not allowed when used memory > 'maxmemory'.";
 }
@@ -0,0 +1,79 @@
+package common.evict;
+
+import common.struct.PandisString;
+
+/**
+ * @Description 淘汰池，对应redis中的EvictionPoolLRU
+ * 按空闲程度从小到大保存最多EVPOOL_SIZE个候选键，空位在末尾，池中的候选键在多次淘汰之间保留
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+final class EvictionPool {
+    static final int EVPOOL_SIZE = 16;          // 淘汰池的大小
+
+    private final Entry[] entries;
+
+    static final class Entry {
+        final long idle;            // 空闲程度，越大越应该被淘汰
+        final PandisString key;
+        final int dbId;
+
+        Entry(long idle, PandisString key, int dbId) {
+            this.idle = idle;
+            this.key = key;
+            this.dbId = dbId;
+        }
+    }
+
+    EvictionPool() {
+        this.entries = new Entry[EVPOOL_SIZE];
+    }
+
+    /**
+     * 获取位置k上的候选键
+     * @param k 位置，越大越空闲
+     * @return 候选键，空位返回null
+     */
+    Entry get(int k) {
+        return this.entries[k];
+    }
+
+    /**
+     * 取出位置k上的候选键，该位置变为空位，空位之后的候选键不移动，和redis一样由下一次插入填补
+     * @param k 位置，越大越空闲
+     * @return 候选键，空位返回null
+     */
+    Entry take(int k) {
+        Entry entry = this.entries[k];
+        this.entries[k] = null;
+        return entry;
+    }
+
+    /**
+     * 把候选键插入按idle排序的位置，池满时丢弃idle最小的候选键
+     * @param idle 空闲程度
+     * @param key 键
+     * @param dbId 键所在的数据库
+     */
+    void insert(long idle, PandisString key, int dbId) {
+        int k = 0;
+        while (k < EVPOOL_SIZE && this.entries[k] != null && this.entries[k].idle < idle) {
+            k++;
+        }
+
+        if (k == 0 && this.entries[EVPOOL_SIZE - 1] != null) {
+            // 比池中所有的候选键都更不应该被淘汰，并且池已经满了
+            return;
+        } else if (k < EVPOOL_SIZE && this.entries[k] == null) {
+            // 插入空位
+        } else if (this.entries[EVPOOL_SIZE - 1] == null) {
+            // 右边还有空位，把k及之后的候选键右移
+            System.arraycopy(this.entries, k, this.entries, k + 1, EVPOOL_SIZE - k - 1);
+        } else {
+            // 池满了，丢弃最左边idle最小的候选键，k左边的候选键左移
+            k--;
+            System.arraycopy(this.entries, 1, this.entries, 0, k);
+        }
+        this.entries[k] = new Entry(idle, key, dbId);
+    }
+}
@@ -0,0 +1,318 @@
+package common.evict;
+
+import common.struct.PandisObject;
+import common.struct.PandisString;
+import common.struct.impl.Dict;
+import common.struct.impl.Sds;
+import database.Database;
+import server.ServerContext;
+import server.config.ServerConfig;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @Description 内存超过maxmemory时淘汰键，对应redis中的evict.c
+ *
+ * 和Redis一样使用近似的LRU/LFU：每个值在lru字段中记录24位的访问时钟或者LFU计数器，
+ * 淘汰时从每个数据库中随机采样maxmemory-samples个键放入淘汰池，淘汰池按空闲程度从小到大保存最多16个候选键，
+ * 每次淘汰池中最空闲的键，池中的候选键在多次淘汰之间保留，采样越多结果越接近真正的LRU/LFU
+ *
+ * Java无法准确得到数据占用的内存，maxmemory限制的是由Database维护的数据集大小的估计值，
+ * 见objectMemory()和entryMemory()，不包括客户端缓冲区等其他内存
+ * 只在事件循环线程中使用
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class Evictor {
+    public static final int LRU_BITS = 24;
+    public static final int LRU_CLOCK_MAX = (1 << LRU_BITS) - 1;    // 对象lru字段的最大值
+    public static final int LRU_CLOCK_RESOLUTION = 1000;            // LRU时钟的精度，单位为毫秒
+
+    public static final int LFU_INIT_VAL = 5;                       // 新对象的LFU计数器，避免刚写入的键马上被淘汰
+
+    // 估计内存时使用的对象大小，按开启压缩指针的64位JVM计算
+    private static final int OBJECT_SDS_SIZE = 32;                  // Sds对象本身，不包括字节数组
+    private static final int ARRAY_HEADER_SIZE = 16;                // 数组对象头
+    private static final int OBJECT_DEFAULT_SIZE = 64;              // 其他类型的对象，目前不会出现在数据库中
+    private static final int DICT_ENTRY_SIZE = 24;                  // Dict中一个键值对占用的槽位，按平均使用率计算
+    public static final int EXPIRE_ENTRY_SIZE = DICT_ENTRY_SIZE + 16;   // 过期字典中的一个键值对，包括Long对象
+
+    private final Database[] dbs;
+    private final EvictionPool pool;            // 淘汰池
+    private int nextDb;                         // random策略下一次淘汰的数据库
+    private long statEvictedKeys;               // 被淘汰的键数量
+
+    public Evictor() {
+        this.dbs = ServerContext.getContext().getDatabases();
+        this.pool = new EvictionPool();
+        this.nextDb = 0;
+    }
+
+    /******************************************
+     * LRU时钟和LFU计数器
+     ******************************************/
+
+    /**
+     * @return 当前的LRU时钟，以秒为单位并按24位回绕
+     */
+    public static int getLruClock() {
+        return (int) ((System.currentTimeMillis() / LRU_CLOCK_RESOLUTION) & LRU_CLOCK_MAX);
+    }
+
+    /**
+     * 估计对象有多长时间没有被访问，考虑了时钟的回绕
+     * @param o 对象
+     * @return 空闲的毫秒数
+     */
+    public static long estimateIdleTime(PandisObject o) {
+        int clock = getLruClock();
+        int lru = o.getLru();
+        if (clock >= lru) {
+            return (long) (clock - lru) * LRU_CLOCK_RESOLUTION;
+        } else {
+            return (long) (clock + (LRU_CLOCK_MAX - lru)) * LRU_CLOCK_RESOLUTION;
+        }
+    }
+
+    /**
+     * @return 以分钟为单位、按16位回绕的当前时间，用于LFU计数器的衰减
+     */
+    private static int lfuTimeInMinutes() {
+        return (int) ((System.currentTimeMillis() / 1000 / 60) & 65535);
+    }
+
+    private static int lfuTimeElapsed(int ldt) {
+        int now = lfuTimeInMinutes();
+        if (now >= ldt) {
+            return now - ldt;
+        }
+        return 65535 - ldt + now;
+    }
+
+    /**
+     * 按对数增长的方式增加LFU计数器，计数器越大增加的概率越小，8位计数器可以表示上百万次访问
+     */
+    private static int lfuLogIncr(int counter, int logFactor) {
+        if (counter == 255) {
+            return 255;
+        }
+        double r = ThreadLocalRandom.current().nextDouble();
+        double baseval = Math.max(counter - LFU_INIT_VAL, 0);
+        double p = 1.0 / (baseval * logFactor + 1);
+        if (r < p) {
+            counter++;
+        }
+        return counter;
+    }
+
+    /**
+     * 按距离上一次衰减的时间递减LFU计数器，每过lfu-decay-time分钟减一
+     * @param o 对象
+     * @param decayTime lfu-decay-time
+     * @return 衰减后的计数器，不修改对象
+     */
+    public static int lfuDecrAndReturn(PandisObject o, int decayTime) {
+        int ldt = o.getLru() >>> 8;
+        int counter = o.getLru() & 255;
+        int periods = decayTime > 0 ? lfuTimeElapsed(ldt) / decayTime : 0;
+        if (periods > 0) {
+            counter = periods > counter ? 0 : counter - periods;
+        }
+        return counter;
+    }
+
+    /**
+     * 初始化新写入数据库的值的lru字段
+     * @param o 新的值
+     * @param config 服务器配置
+     */
+    public static void initAccessTime(PandisObject o, ServerConfig config) {
+        if (config.getMaxMemoryPolicy().isLfu()) {
+            o.setLru((lfuTimeInMinutes() << 8) | LFU_INIT_VAL);
+        } else {
+            o.setLru(getLruClock());
+        }
+    }
+
+    /**
+     * 键被访问时更新值的lru字段，由Database.lookupByKey调用
+     * @param o 被访问的值
+     * @param config 服务器配置
+     */
+    public static void updateAccessTime(PandisObject o, ServerConfig config) {
+        if (config.getMaxMemoryPolicy().isLfu()) {
+            int counter = lfuDecrAndReturn(o, config.getLfuDecayTime());
+            counter = lfuLogIncr(counter, config.getLfuLogFactor());
+            o.setLru((lfuTimeInMinutes() << 8) | counter);
+        } else {
+            o.setLru(getLruClock());
+        }
+    }
+
+    /******************************************
+     * 内存估计
+     ******************************************/
+
+    private static long align8(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * 估计对象占用的内存
+     * @param o 对象
+     * @return 字节数
+     */
+    public static long objectMemory(PandisObject o) {
+        if (o instanceof Sds) {
+            return OBJECT_SDS_SIZE + align8(ARRAY_HEADER_SIZE + ((Sds) o).capacity());
+        }
+        if (o instanceof PandisString) {
+            return OBJECT_SDS_SIZE + align8(ARRAY_HEADER_SIZE + ((PandisString) o).length());
+        }
+        return OBJECT_DEFAULT_SIZE;
+    }
+
+    /**
+     * 估计键空间中一个键值对占用的内存，键按长度计算，保证删除时用于查找的键（可能是视图）得到相同的结果
+     * @param key 键
+     * @param value 值
+     * @return 字节数
+     */
+    public static long entryMemory(PandisString key, PandisObject value) {
+        return DICT_ENTRY_SIZE + OBJECT_SDS_SIZE + align8(ARRAY_HEADER_SIZE + key.length()) + objectMemory(value);
+    }
+
+    /**
+     * @return 所有数据库的数据集占用内存的估计值
+     */
+    public long usedMemory() {
+        long used = 0;
+        for (Database db : this.dbs) {
+            used += db.getUsedMemory();
+        }
+        return used;
+    }
+
+    public long getStatEvictedKeys() {
+        return this.statEvictedKeys;
+    }
+
+    /******************************************
+     * 淘汰
+     ******************************************/
+
+    /**
+     * 内存超过maxmemory时按淘汰策略删除键，直到内存回到限制以内，在执行写入命令前调用
+     * @return 内存没有超过限制时返回true；策略为noeviction或者没有可以淘汰的键时返回false
+     */
+    public boolean performEvictions() {
+        ServerConfig config = ServerContext.getContext().getServerConfig();
+        long maxMemory = config.getMaxMemory();
+        if (maxMemory == 0 || usedMemory() <= maxMemory) {
+            return true;
+        }
+
+        MaxMemoryPolicy policy = config.getMaxMemoryPolicy();
+        if (policy == MaxMemoryPolicy.NOEVICTION) {
+            return false;
+        }
+
+        while (usedMemory() > maxMemory) {
+            Database bestDb = null;
+            PandisString bestKey = null;
+
+            if (policy.getKind() == MaxMemoryPolicy.Kind.RANDOM) {
+                // 轮流从每个数据库中随机选择一个键
+                for (int i = 0; i < this.dbs.length && bestKey == null; i++) {
+                    Database db = this.dbs[this.nextDb];
+                    this.nextDb = (this.nextDb + 1) % this.dbs.length;
+                    Map.Entry<PandisString, ?> entry = evictionDict(db, policy).randomEntry();
+                    if (entry != null) {
+                        bestDb = db;
+                        bestKey = entry.getKey();
+                    }
+                }
+            } else {
+                while (bestKey == null) {
+                    // 从每个数据库中采样，填充淘汰池
+                    int candidates = 0;
+                    for (Database db : this.dbs) {
+                        Dict<?> dict = evictionDict(db, policy);
+                        if (!dict.isEmpty()) {
+                            candidates += populatePool(db, dict, policy, config);
+                        }
+                    }
+                    if (candidates == 0) {
+                        break;
+                    }
+
+                    // 从最空闲的候选键开始，跳过已经被删除的键
+                    for (int k = EvictionPool.EVPOOL_SIZE - 1; k >= 0; k--) {
+                        EvictionPool.Entry entry = this.pool.take(k);
+                        if (entry == null) {
+                            continue;
+                        }
+
+                        Database db = this.dbs[entry.dbId];
+                        if (evictionDict(db, policy).getKey(entry.key) != null) {
+                            bestDb = db;
+                            bestKey = entry.key;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            // 没有可以淘汰的键
+            if (bestKey == null) {
+                return false;
+            }
+
+            bestDb.evictKey(bestKey);
+            this.statEvictedKeys++;
+        }
+        return true;
+    }
+
+    private static Dict<?> evictionDict(Database db, MaxMemoryPolicy policy) {
+        return policy.isAllKeys() ? db.getKeySpace() : db.getExpires();
+    }
+
+    /**
+     * 从字典中随机采样maxmemory-samples个键，按空闲程度插入淘汰池
+     * @return 采样到的有效候选键数量
+     */
+    int populatePool(Database db, Dict<?> dict, MaxMemoryPolicy policy, ServerConfig config) {
+        int samples = config.getMaxMemorySamples();
+        int candidates = 0;
+        for (int j = 0; j < samples; j++) {
+            Map.Entry<PandisString, ?> sample = dict.randomEntry();
+            PandisString key = sample.getKey();
+
+            long idle;
+            if (policy.getKind() == MaxMemoryPolicy.Kind.TTL) {
+                // 越早过期越应该被淘汰
+                idle = Long.MAX_VALUE - (Long) sample.getValue();
+            } else {
+                PandisObject value = policy.isAllKeys() ? (PandisObject) sample.getValue() : db.getKeySpace().get(key);
+                if (value == null) {
+                    continue;
+                }
+                if (policy.isLfu()) {
+                    idle = 255 - lfuDecrAndReturn(value, config.getLfuDecayTime());
+                } else {
+                    idle = estimateIdleTime(value);
+                }
+            }
+
+            this.pool.insert(idle, key, db.getId());
+            candidates++;
+        }
+        return candidates;
+    }
+
+    EvictionPool getPool() {
+        return this.pool;
+    }
+}
@@ -0,0 +1,69 @@
+package common.evict;
+
+/**
+ * @Description 内存超过maxmemory时的键淘汰策略
+ * allkeys-*从所有的键中淘汰，volatile-*只淘汰设置了过期时间的键
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public enum MaxMemoryPolicy {
+    VOLATILE_LRU("volatile-lru", false, Kind.LRU),          // 淘汰设置了过期时间的键中最久没有被访问的
+    VOLATILE_LFU("volatile-lfu", false, Kind.LFU),          // 淘汰设置了过期时间的键中访问频率最低的
+    VOLATILE_RANDOM("volatile-random", false, Kind.RANDOM), // 随机淘汰设置了过期时间的键
+    VOLATILE_TTL("volatile-ttl", false, Kind.TTL),          // 淘汰最先过期的键
+    ALLKEYS_LRU("allkeys-lru", true, Kind.LRU),             // 淘汰所有键中最久没有被访问的
+    ALLKEYS_LFU("allkeys-lfu", true, Kind.LFU),             // 淘汰所有键中访问频率最低的
+    ALLKEYS_RANDOM("allkeys-random", true, Kind.RANDOM),    // 随机淘汰任意的键
+    NOEVICTION("noeviction", false, Kind.NONE);             // 不淘汰，拒绝会占用更多内存的写入命令
+
+    enum Kind {
+        LRU, LFU, RANDOM, TTL, NONE
+    }
+
+    private final String configName;
+    private final boolean allKeys;
+    private final Kind kind;
+
+    MaxMemoryPolicy(String configName, boolean allKeys, Kind kind) {
+        this.configName = configName;
+        this.allKeys = allKeys;
+        this.kind = kind;
+    }
+
+    public String getConfigName() {
+        return this.configName;
+    }
+
+    /**
+     * @return 是否从所有的键中淘汰，否则只从过期字典中淘汰
+     */
+    public boolean isAllKeys() {
+        return this.allKeys;
+    }
+
+    /**
+     * @return 对象的lru字段是否保存LFU数据
+     */
+    public boolean isLfu() {
+        return this.kind == Kind.LFU;
+    }
+
+    Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * 根据配置文件中的策略名称查找淘汰策略
+     * @param name 策略名称
+     * @return 淘汰策略，名称无效时返回null
+     */
+    public static MaxMemoryPolicy fromConfigName(String name) {
+        String lowerName = name.toLowerCase();
+        for (MaxMemoryPolicy policy : values()) {
+            if (policy.configName.equals(lowerName)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,107 @@
+package common.expire;
+
+import common.struct.PandisString;
+import common.struct.impl.Dict;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * @Description 按过期时间分桶的过期键索引，开启active-expire-index时每个数据库持有一个
+ *
+ * 随机采样在只有少量键过期时很难命中它们，过期时间集中的场景（比如会话缓存）中过期键会长时间占用内存
+ * 索引把键按过期时间放入宽度为 EXPIRE_INDEX_BUCKET_MS 的桶中，桶按时间排序，
+ * 定期删除时按顺序回收所有已经完全到期的桶，不再依赖采样
+ * 当前时间所在的桶只有部分键到期，要等整个桶到期后才回收，期间被访问的键仍然由惰性删除处理
+ *
+ * 索引中的键和键空间共用同一个对象，只在事件循环线程中访问
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class ExpireIndex {
+    public static final long EXPIRE_INDEX_BUCKET_MS = 100;     // 桶的宽度，和默认hz下serverCron的周期相同
+
+    private final TreeMap<Long, Set<PandisString>> buckets;    // 桶号（过期时间 / 桶宽）-> 桶中的键
+    private int size;
+
+    public ExpireIndex() {
+        this.buckets = new TreeMap<>();
+        this.size = 0;
+    }
+
+    private static long bucketOf(long when) {
+        return Math.floorDiv(when, EXPIRE_INDEX_BUCKET_MS);
+    }
+
+    public void add(PandisString key, long when) {
+        if (this.buckets.computeIfAbsent(bucketOf(when), k -> new HashSet<>()).add(key)) {
+            this.size++;
+        }
+    }
+
+    /**
+     * 从索引中删除键
+     * @param key 键
+     * @param when 键在过期字典中的过期时间，用于定位所在的桶
+     */
+    public void remove(PandisString key, long when) {
+        long bucket = bucketOf(when);
+        Set<PandisString> keys = this.buckets.get(bucket);
+        if (keys == null || !keys.remove(key)) {
+            return;
+        }
+        this.size--;
+        if (keys.isEmpty()) {
+            this.buckets.remove(bucket);
+        }
+    }
+
+    public void clear() {
+        this.buckets.clear();
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * 返回最早的已经完全到期的桶中的任意一个键，调用者删除这个键后再次调用，直到返回null
+     * @param now 当前时间
+     * @return 已经过期的键，没有完全到期的桶时返回null
+     */
+    public PandisString firstDue(long now) {
+        Map.Entry<Long, Set<PandisString>> first = this.buckets.firstEntry();
+        if (first == null || (first.getKey() + 1) * EXPIRE_INDEX_BUCKET_MS > now) {
+            return null;
+        }
+        return first.getValue().iterator().next();
+    }
+
+    /**
+     * 统计已经过期、但还没有被删除的键的数量
+     * 完全到期的桶直接累加大小，只逐个检查当前时间所在的桶
+     * @param now 当前时间
+     * @param expires 过期字典，用于检查当前桶中每个键的过期时间
+     * @return 已经过期的键的数量
+     */
+    public long countDue(long now, Dict<Long> expires) {
+        long count = 0;
+        long current = bucketOf(now);
+        for (Map.Entry<Long, Set<PandisString>> entry : this.buckets.headMap(current, true).entrySet()) {
+            if (entry.getKey() < current) {
+                count += entry.getValue().size();
+                continue;
+            }
+            for (PandisString key : entry.getValue()) {
+                Long when = expires.get(key);
+                if (when != null && when <= now) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
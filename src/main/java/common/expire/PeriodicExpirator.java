@@ -2,6 +2,7 @@ package common.expire;
 
 import common.struct.PandisString;
 import database.Database;
+import server.PandisServer;
 import server.ServerContext;
 import server.config.ServerConfig;
 
@@ -14,13 +15,14 @@ import java.util.Map;
  **/
 public class PeriodicExpirator implements PeriodicExpiration {
     private int currentDb;      // 由于定期清理过期键是分多次逐步处理的，因此，保存了当前处理的数据库id
-    private boolean timeLimitExit;   //
-    private long lastFastCycle;
+    private boolean timeLimitExit;   // 上一次执行是否因为达到时间上限而退出
+    private long lastFastCycle;      // 上一次快速模式开始的时间，单位为微秒
     private Database[] dbs;     // 数据库
 
     public static final int PROCESS_DBS_PER_CALL = 16;
     public static final int EXPIRE_CYCLE_SLOW_TIME_PER_CALL = 25;   // 默认为 25 ，也即是 25 % 的 CPU 时间
     public static final int EXPIRE_CYCLE_LOOKUPS_PER_LOOP = 20;
+    public static final int EXPIRE_CYCLE_ACCEPTABLE_STALE = 10;     // 可以接受的过期键比例（%），超过时继续清理
 
 
     public PeriodicExpirator() {
@@ -29,8 +31,8 @@ public class PeriodicExpirator implements PeriodicExpiration {
 
     @Override
     public void delExpiredPeriodicaly(int mode) {
-        // 函数开始的时间
-        long startTime = System.currentTimeMillis();
+        // 函数开始的时间，时间上限以微秒为单位，这里也使用微秒
+        long startTime = System.nanoTime() / 1000;
 
         // 记录迭代次数
         int iteration = 0;
@@ -38,9 +40,29 @@ public class PeriodicExpirator implements PeriodicExpiration {
         // 默认每次处理的数据库数量
         int processDbsPerCall = PROCESS_DBS_PER_CALL;
 
+        // 按active-expire-effort调整每轮采样的键数量、时间上限和可以接受的过期键比例，
+        // effort越大，过期键占用的内存越少，消耗的CPU越多
+        ServerConfig config = ServerContext.getContext().getServerConfig();
+        PandisServer server = ServerContext.getContext().getServerInstance();
+        int effort = config.getActiveExpireEffort() - 1;
+        int lookupsPerLoop = EXPIRE_CYCLE_LOOKUPS_PER_LOOP + EXPIRE_CYCLE_LOOKUPS_PER_LOOP / 4 * effort;
+        long fastDuration = EXPIRE_CYCLE_FAST_DURATION + EXPIRE_CYCLE_FAST_DURATION / 4 * effort;
+        int slowTimePerCall = EXPIRE_CYCLE_SLOW_TIME_PER_CALL + 2 * effort;
+        int acceptableStale = EXPIRE_CYCLE_ACCEPTABLE_STALE - effort;
+
         // 快速模式
         if (mode == FAST_MODE) {
-            // todo
+            // 上一次执行没有因为超时退出，并且估计的过期键比例可以接受时，说明慢速模式已经足够，不执行快速模式
+            if (!timeLimitExit && server.getStatExpiredStalePerc() * 100 < acceptableStale) {
+                return;
+            }
+
+            // 两次快速模式之间至少间隔两倍的执行时间
+            if (startTime < lastFastCycle + fastDuration * 2) {
+                return;
+            }
+
+            lastFastCycle = startTime;
         }
 
         /*
@@ -49,7 +71,6 @@ public class PeriodicExpirator implements PeriodicExpiration {
          * (1)当前数据库的数量小于 REDIS_DBCRON_DBS_PER_CALL
          * (2)如果上次处理遇到了时间上限，那么这次需要对所有数据库进行扫描，这可以避免过多的过期键占用空间
          */
-        ServerConfig config = ServerContext.getContext().getServerConfig();
         int dbNums = config.getDbNumber();
         if (processDbsPerCall > dbNums || timeLimitExit) {
             processDbsPerCall = dbNums;
@@ -58,7 +79,7 @@ public class PeriodicExpirator implements PeriodicExpiration {
         // 确定函数处理的微秒时间上限，不能让出来过期键的过程占用太长时间
         // EXPIRE_CYCLE_SLOW_TIME_PER_CALL 默认为 25 ，也即是 25 % 的 CPU 时间
         int serverHz = config.getHz();
-        long timeLimit = 1000000 * EXPIRE_CYCLE_SLOW_TIME_PER_CALL / serverHz / 100;
+        long timeLimit = 1000000 * slowTimePerCall / serverHz / 100;
 
         timeLimitExit = false;
 
@@ -70,22 +91,37 @@ public class PeriodicExpirator implements PeriodicExpiration {
         // 那么最多只能运行 FAST_DURATION 微秒
         // 默认值为 1000 （微秒）
         if (mode == FAST_MODE) {
-            timeLimit = EXPIRE_CYCLE_FAST_DURATION; /* in microseconds. */
+            timeLimit = fastDuration; /* in microseconds. */
         }
 
+        // 本次采样的键数量和其中已经过期的键数量，用于统计过期键的比例
+        long totalSampled = 0;
+        long totalExpired = 0;
+
         // 遍历数据库
-        for (int i = 0; i < processDbsPerCall; i++) {
+        for (int i = 0; i < processDbsPerCall && !timeLimitExit; i++) {
             Database db = dbs[(currentDb % dbNums)];
 
             int expired = 0;
+            int sampled = 0;
 
             // 为 DB 计数器加一，如果进入 do 循环之后因为超时而跳出
             // 那么下次会直接从下个 DB 开始处理
             currentDb++;
 
+            // 开启了过期键索引时按桶回收所有已经到期的键，不需要采样
+            if (db.hasExpireIndex()) {
+                reclaimDueKeys(db, startTime, timeLimit);
+                continue;
+            }
+
             do {
                 long now = System.currentTimeMillis();
 
+                // 每一轮单独统计过期键的数量，决定是否继续处理这个数据库
+                expired = 0;
+                sampled = 0;
+
                 // 获取数据库中带过期时间的键的数量
                 // 如果该数量为 0 ，直接跳过这个数据库
                 int expiredKeyNums = db.expiredKeyNums();
@@ -94,8 +130,8 @@ public class PeriodicExpirator implements PeriodicExpiration {
                 }
 
                 // 每次最多只能检查 LOOKUPS_PER_LOOP 个键
-                if (expiredKeyNums > EXPIRE_CYCLE_LOOKUPS_PER_LOOP) {
-                    expiredKeyNums = EXPIRE_CYCLE_LOOKUPS_PER_LOOP;
+                if (expiredKeyNums > lookupsPerLoop) {
+                    expiredKeyNums = lookupsPerLoop;
                 }
 
                 // 开始遍历数据库
@@ -108,10 +144,13 @@ public class PeriodicExpirator implements PeriodicExpiration {
 
                     // 如果键已经过期，那么删除它，并将 expired 计数器增一
                     if (expiresTime <= now) {
-                        db.remove(key);
+                        db.expireKey(key);
                         expired++;
                     }
+                    sampled++;
                 }
+                totalSampled += sampled;
+                totalExpired += expired;
 
                 // 我们不能用太长时间处理过期键，
                 // 所以这个函数执行一定时间之后就要返回
@@ -120,7 +159,7 @@ public class PeriodicExpirator implements PeriodicExpiration {
 
                 // 每遍历 16 次执行一次
                 if ((iteration & 0xf) == 0
-                    && (System.currentTimeMillis() - startTime) > timeLimit) {
+                    && (System.nanoTime() / 1000 - startTime) > timeLimit) {
                     // 如果遍历次数正好是 16 的倍数
                     // 并且遍历的时间超过了 timeLimit
                     // 那么断开 timeLimitExit
@@ -129,12 +168,46 @@ public class PeriodicExpirator implements PeriodicExpiration {
 
                 // 已经超时了，返回
                 if (timeLimitExit) {
-                    return;
+                    break;
                 }
 
-                // 如果已删除的过期键占当前总数据库带过期时间的键数量的 25 %
-                // 那么不再遍历
-            } while (expired > EXPIRE_CYCLE_LOOKUPS_PER_LOOP / 4);
+                // 本轮采样到的键中过期键的比例不超过可以接受的比例时，
+                // 说明这个数据库中剩下的过期键已经不多，不再遍历
+            } while (expired * 100 > acceptableStale * sampled);
+        }
+
+        // 按本次采样的结果平滑地更新过期键的比例，没有开启过期键索引时INFO用它估计还没有被删除的过期键数量
+        if (totalSampled > 0) {
+            double currentPerc = (double) totalExpired / totalSampled;
+            server.setStatExpiredStalePerc(currentPerc * 0.05 + server.getStatExpiredStalePerc() * 0.95);
+        }
+    }
+
+    /**
+     * 设置上一次执行是否因为达到时间上限而退出，用于测试快速模式的触发条件
+     */
+    void setTimeLimitExit(boolean timeLimitExit) {
+        this.timeLimitExit = timeLimitExit;
+    }
+
+    /**
+     * 按过期键索引回收数据库中所有已经完全到期的桶，超过时间上限时设置timeLimitExit并返回，剩下的键下次继续回收
+     * @param db 数据库
+     * @param startTime 本次定期删除开始的时间，单位为微秒
+     * @param timeLimit 时间上限，单位为微秒
+     */
+    private void reclaimDueKeys(Database db, long startTime, long timeLimit) {
+        long now = System.currentTimeMillis();
+        int reclaimed = 0;
+        PandisString key;
+        while ((key = db.firstDueExpire(now)) != null) {
+            db.expireKey(key);
+
+            // 每删除 16 个键检查一次时间
+            if ((++reclaimed & 0xf) == 0 && (System.nanoTime() / 1000 - startTime) > timeLimit) {
+                timeLimitExit = true;
+                return;
+            }
         }
     }
 }
@@ -1,5 +1,6 @@
 package common.persistence;
 
+import common.struct.PandisString;
 import common.struct.impl.Sds;
 import common.utils.SafeEncoder;
 import org.apache.commons.logging.Log;
@@ -186,7 +187,7 @@ public class AOFPersistence {
      * @param command
      * @param dbId
      */
-    public void feedCommand(List<Sds> command, int dbId) {
+    public void feedCommand(List<PandisString> command, int dbId) {
         // 使用 SELECT 命令，显式设置数据库，确保之后的命令被设置到正确的数据库
         if (dbId != this.aofSelectedDbId) {
             this.aofSelectedDbId = dbId;
@@ -261,14 +262,14 @@ public class AOFPersistence {
         return this.aofFlushPostponedStart;
     }
 
-    public String transformCommandToProtocalFormat(List<Sds> commands) {
+    public String transformCommandToProtocalFormat(List<PandisString> commands) {
         StringBuilder message = new StringBuilder();
 
         message.append(Protocol.MULTI_BULK_PREFIX);
         message.append(commands.size());
         message.append(Protocol.DELIMITER);
 
-        for (Sds str : commands) {
+        for (PandisString str : commands) {
             message.append(Protocol.BULK_PREFIX);
             // 这里记录的长度不是String类型content本身的长度，而应该是String转为UTF-8的bytes数组的长度
             int contentByteLength = str.length();
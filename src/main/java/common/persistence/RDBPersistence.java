@@ -1,6 +1,7 @@
 package common.persistence;
 
 import common.struct.*;
+import common.struct.impl.Dict;
 import common.utils.ByteUtil;
 import common.utils.SafeEncoder;
 import database.Database;
@@ -8,12 +9,16 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import server.PandisServer;
 
+import event.CycleTimeEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * @Description
@@ -28,13 +33,22 @@ public class RDBPersistence {
 
     private volatile boolean inBackgroundSaveProcess; // BGSAVE正在执行中
 
-    private long lastSaveTime;  // 最近一次保存时间
-    private SaveStatus lastBackgroundSaveStatus;
+    // 后台保存时由写入线程设置，事件循环读取
+    private volatile long lastSaveTime;  // 最近一次保存时间
+    private volatile SaveStatus lastBackgroundSaveStatus;
 
     public static final byte RDB_OPCODE_SELECTDB = (byte)254;
     public static final byte RDB_OPCODE_EOF = (byte)255;
     public static final byte RDB_OPCODE_EXPIRETIME_MS = (byte)252;
 
+    private static final byte[] RDB_VERSION = SafeEncoder.encode("REDIS0006");
+
+    private static final long BGSAVE_STEP_MICROSECONDS = 1000;  // BGSAVE每一步序列化的时间上限
+    private static final long BGSAVE_STEP_PERIOD = 1;           // BGSAVE两步之间的间隔，单位为毫秒，期间事件循环处理请求
+    private static final int BGSAVE_CHUNK_BYTES = 64 * 1024;    // 交给写入线程的字节块大小
+    private static final int BGSAVE_MAX_PENDING_CHUNKS = 16;    // 等待写入的字节块数量上限
+    private static final byte[] END_OF_SAVE = new byte[0];      // 写入线程的结束标记
+
     public static final byte STRING = (byte)0;
     public static final byte LIST = (byte)1;
     public static final byte HASH = (byte)2;
@@ -54,125 +68,261 @@ public class RDBPersistence {
     }
 
     /**
-     * 将数据库保存到磁盘上
+     * 在事件循环线程中将数据库保存到磁盘上，保存期间服务器不处理请求
      * @return 返回是否保存成功
      */
     public boolean save() {
+        File tempFile = new File("temp-" + Thread.currentThread().getId() + ".rdb");
         FileOutputStream fos = null;
-        File tempFile = null;
-        long now = System.currentTimeMillis();
 
         try {
-            // 创建临时文件
-            tempFile = new File("temp-"+Thread.currentThread().getId() + ".rdb");
-            if (tempFile.exists()) {
-                tempFile.delete();
+            fos = createTempFile(tempFile);
+            BufferedOutputStream bos = new BufferedOutputStream(fos, BGSAVE_CHUNK_BYTES);
+
+            // 写入 RDB 版本号
+            bos.write(RDB_VERSION);
+
+            // 遍历所有数据库，跳过空数据库
+            Database[] dbs = server.getDatabases();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < dbs.length; i++) {
+                Database db = dbs[i];
+                if (db.getKeySpace().isEmpty()) {
+                    continue;
+                }
+
+                // 写入 DB 选择器
+                saveType(bos, RDB_OPCODE_SELECTDB);
+                saveLength(bos, i);
+
+                // 遍历数据库，并写入每个键值对的数据
+                Dict<Long> expires = db.getExpires();
+                db.getKeySpace().forEach((key, value) -> saveKeyValuePair(bos, key, value, expires.get(key), now));
             }
-            tempFile.createNewFile();
 
-            fos = new FileOutputStream(tempFile);
+            // 写入 EOF 代码
+            saveType(bos, RDB_OPCODE_EOF);
+            bos.flush();
 
-            // 写入 RDB 版本号
-            fos.write(SafeEncoder.encode("REDIS0006"));
+            return finishSave(fos, tempFile);
+        } catch (IOException e) {
+            abortSave(fos, tempFile, e);
+            return false;
+        }
+    }
 
-            // 遍历所有数据库
-            for (int i = 0; i < server.getServerConfig().getDbNumber(); i++) {
-                // 指向数据库
-                Database db = server.getDatabases()[i];
+    /**
+     * 在后台保存数据库
+     * 数据库只能在事件循环线程中访问，因此由事件循环按时间片分多步遍历键空间，
+     * 每一步最多BGSAVE_STEP_MICROSECONDS微秒，把遍历到的键值对序列化成字节块，交给后台线程写入磁盘，
+     * 序列化时复制了值的内容，后台线程不会访问数据库中的对象，之后被原地修改（比如APPEND）的值不影响已经序列化的内容
+     *
+     * 和redis中fork出的子进程不同，这样保存的不是某一时刻的快照：
+     * 每个键保存的是遍历到它时的值，保存期间新增的键可能不会被保存，保存期间删除的键可能已经被保存
+     * 遍历使用Dict.scan，保存期间不缩小字典，保证每个键只被保存一次，见GlobalCycleTimeEvent.databasesCron
+     * @return 是否开始了后台保存
+     */
+    public boolean backgroundSave() {
+        if (this.inBackgroundSaveProcess) {
+            return false;
+        }
 
-                // 指向数据库键空间
-                Map<PandisString, PandisObject> keySpace = db.getKeySpace();
+        BackgroundSave save = new BackgroundSave();
+        Thread writer = new Thread(save::writeChunks, "pandis-bgsave");
+        this.inBackgroundSaveProcess = true;
+        writer.start();
+        save.id = server.getEventLoop().registerTimeEvent(save);
 
-                // 跳过空数据库
-                if (keySpace.isEmpty()) {
-                    continue;
-                }
+        return true;
+    }
+
+    private FileOutputStream createTempFile(File tempFile) throws IOException {
+        if (tempFile.exists()) {
+            tempFile.delete();
+        }
+        tempFile.createNewFile();
+        return new FileOutputStream(tempFile);
+    }
 
-                // 创建键空间迭代器
-                Iterator<Map.Entry<PandisString, PandisObject>> iterator = keySpace.entrySet().iterator();
+    /**
+     * 数据已经全部写入临时文件，同步到磁盘后原子地替换原来的RDB文件
+     */
+    private boolean finishSave(FileOutputStream fos, File tempFile) throws IOException {
+        // 冲洗缓存，确保数据已写入磁盘
+        fos.getFD().sync();
+        fos.close();
 
-                /* Write the SELECT DB opcode
-                 * 写入 DB 选择器
-                 */
+        //* 使用 RENAME ，原子性地对临时文件进行改名，覆盖原来的 RDB 文件。
+        tempFile.renameTo(new File(this.rdbFileName));
 
-                saveType(fos, RDB_OPCODE_SELECTDB);
-                saveLength(fos, i);
+        // 写入完成，打印日志
+        logger.info("DB saved on disk");
 
-                /*
-                 * 遍历数据库，并写入每个键值对的数据
-                 */
-                while (iterator.hasNext()) {
-                    Map.Entry<PandisString, PandisObject> e = iterator.next();
-                    PandisString key = e.getKey();
-                    PandisObject value = e.getValue();
-                    Long expire = db.getExpire(key);
+        // 记录最后一次完成 SAVE 的时间
+        this.lastSaveTime = System.currentTimeMillis();
 
-                    saveKeyValuePair(fos, key, value, expire, now);
-                }
+        // 记录最后一次执行 SAVE 的状态
+        this.lastBackgroundSaveStatus = SaveStatus.OK;
 
-            }
-            /*
-             * 写入 EOF 代码
-             */
-            saveType(fos, RDB_OPCODE_EOF);
+        return true;
+    }
 
-            /* CRC64 校验和。
-             *
-             * 如果校验和功能已关闭，那么 rdb.cksum 将为 0 ，
-             * 在这种情况下， RDB 载入时会跳过校验和检查。*/
+    private void abortSave(FileOutputStream fos, File tempFile, IOException e) {
+        // 关闭文件
+        if (fos != null) {
+            try {
+                fos.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+        }
+        // 删除文件
+        tempFile.delete();
+        logger.error("Write error saving DB on disk", e);
+    }
 
+    /**
+     * 一次后台保存
+     * 事件循环通过时间事件分步序列化数据库，写入线程把序列化出的字节块写入临时文件，两者通过有界队列交接
+     * 队列满时事件循环本步不再序列化，避免磁盘写得慢时积压的字节块占用过多内存
+     */
+    private final class BackgroundSave implements CycleTimeEvent {
+        private final BlockingQueue<byte[]> chunks;
+        private final ByteArrayOutputStream buffer;  // 正在填充的字节块
+        private final Database[] dbs;
+        private int dbIndex;            // 正在遍历的数据库
+        private boolean dbStarted;      // 是否已经写入了该数据库的SELECTDB
+        private long cursor;            // 该数据库的scan游标
+        private boolean eofWritten;     // 是否已经写入了 EOF 代码
+        private boolean finished;       // 所有数据都已交给写入线程
+        private volatile boolean failed;    // 写入线程出错，停止序列化
+        private long id;
+        private long when;
+
+        BackgroundSave() {
+            this.chunks = new ArrayBlockingQueue<>(BGSAVE_MAX_PENDING_CHUNKS);
+            this.buffer = new ByteArrayOutputStream(BGSAVE_CHUNK_BYTES * 2);
+            this.dbs = server.getDatabases();
+            this.when = System.currentTimeMillis();
+            saveBytes(this.buffer, RDB_VERSION);
+        }
 
-            // 冲洗缓存，确保数据已写入磁盘
-            fos.flush();
-            fos.getFD().sync();
-            fos.close();
+        @Override
+        public long getWhen() {
+            return this.when;
+        }
 
-            //* 使用 RENAME ，原子性地对临时文件进行改名，覆盖原来的 RDB 文件。
-            tempFile.renameTo(new File(this.rdbFileName));
+        @Override
+        public CycleTimeEvent nextCycleTimeEvent() {
+            return null;
+        }
 
-            // 写入完成，打印日志
-            logger.info("DB saved on disk");
+        @Override
+        public void resetFireTime() {
+            this.when = System.currentTimeMillis() + BGSAVE_STEP_PERIOD;
+        }
 
-            // 记录最后一次完成 SAVE 的时间
-            this.lastSaveTime = System.currentTimeMillis();
+        /**
+         * 在事件循环线程中执行一步序列化
+         */
+        @Override
+        public void execute() {
+            if (this.failed) {
+                server.getEventLoop().unregisterTimeEvent(this.id);
+                return;
+            }
 
-            // 记录最后一次执行 SAVE 的状态
-            this.lastBackgroundSaveStatus = SaveStatus.OK;
+            long start = System.nanoTime() / 1000;
+            long now = System.currentTimeMillis();
+            while (!this.finished) {
+                // 字节块已满，交给写入线程，写入线程跟不上时等下一步再继续
+                if (this.buffer.size() >= BGSAVE_CHUNK_BYTES && !offerBuffer()) {
+                    return;
+                }
 
-            return true;
-        } catch (IOException e) {
-            // 关闭文件
-            if (fos != null) {
-                try {
-                    fos.close();
-                } catch (IOException ioException) {
-                    ioException.printStackTrace();
+                if (this.dbIndex == this.dbs.length) {
+                    // 写入 EOF 代码，然后交出最后的字节块和结束标记，队列满时下一步重试，EOF 只写一次
+                    if (!this.eofWritten) {
+                        saveType(this.buffer, RDB_OPCODE_EOF);
+                        this.eofWritten = true;
+                    }
+                    if (this.buffer.size() > 0 && !offerBuffer()) {
+                        return;
+                    }
+                    if (!this.chunks.offer(END_OF_SAVE)) {
+                        return;
+                    }
+                    this.finished = true;
+                    server.getEventLoop().unregisterTimeEvent(this.id);
+                    return;
                 }
-            }
-            // 删除文件
-            tempFile.delete();
-            logger.error("Write error saving DB on disk", e);
 
-            return false;
-        }
-    }
+                Database db = this.dbs[this.dbIndex];
+                if (!this.dbStarted) {
+                    // 跳过空数据库
+                    if (db.getKeySpace().isEmpty()) {
+                        this.dbIndex++;
+                        continue;
+                    }
+                    saveType(this.buffer, RDB_OPCODE_SELECTDB);
+                    saveLength(this.buffer, this.dbIndex);
+                    this.dbStarted = true;
+                    this.cursor = 0;
+                }
 
+                Dict<Long> expires = db.getExpires();
+                this.cursor = db.getKeySpace().scan(this.cursor, (key, value) -> saveKeyValuePair(this.buffer, key, value, expires.get(key), now));
+                if (this.cursor == 0) {
+                    this.dbIndex++;
+                    this.dbStarted = false;
+                }
 
-    public boolean backgroundSave() {
-        if (this.inBackgroundSaveProcess) {
-            return false;
+                if (System.nanoTime() / 1000 - start > BGSAVE_STEP_MICROSECONDS) {
+                    return;
+                }
+            }
         }
 
-        Thread t = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                boolean ret = save();
+        private boolean offerBuffer() {
+            if (!this.chunks.offer(this.buffer.toByteArray())) {
+                return false;
             }
-        });
+            this.buffer.reset();
+            return true;
+        }
 
-        t.start();
+        /**
+         * 在写入线程中执行，把字节块依次写入临时文件，直到收到结束标记
+         */
+        void writeChunks() {
+            File tempFile = new File("temp-" + Thread.currentThread().getId() + ".rdb");
+            FileOutputStream fos = null;
+            try {
+                fos = createTempFile(tempFile);
+                byte[] chunk;
+                while ((chunk = this.chunks.take()) != END_OF_SAVE) {
+                    fos.write(chunk);
+                }
+                finishSave(fos, tempFile);
+            } catch (IOException e) {
+                this.failed = true;
+                abortSave(fos, tempFile, e);
+            } catch (InterruptedException e) {
+                this.failed = true;
+                abortSave(fos, tempFile, new IOException("Background save interrupted", e));
+                Thread.currentThread().interrupt();
+            } finally {
+                inBackgroundSaveProcess = false;
+            }
+        }
+    }
 
-        return true;
+    private void saveBytes(OutputStream os, byte[] bytes) {
+        try {
+            os.write(bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private void saveType(OutputStream os, byte type) {
@@ -1,11 +1,41 @@
 package common.shared;
 
+import common.utils.SafeEncoder;
+
 /**
  * 共享对象
  * 为了优化内存，对于一些经常使用的字符串对象，将其提前创建，需要时直接共享
+ *
+ * 以_BYTES结尾的是已经按协议编码好的回复，回复时直接复制到客户端的回复缓冲区，不需要再次编码
  * @Author huzihan
  * @Date 2021/9/28
  **/
 public class SharedObjects {
     public static final String NULL_BULK = "$-1\r\n";
+
+    public static final int SHARED_BULKHDR_LEN = 32;    // 预先编码的bulk/multi bulk长度头的数量
+
+    public static final byte[] OK_BYTES = SafeEncoder.encode("+OK\r\n");
+    public static final byte[] PONG_BYTES = SafeEncoder.encode("+PONG\r\n");
+    public static final byte[] CZERO_BYTES = SafeEncoder.encode(":0\r\n");
+    public static final byte[] CONE_BYTES = SafeEncoder.encode(":1\r\n");
+    public static final byte[] NULL_BULK_BYTES = SafeEncoder.encode(NULL_BULK);
+    public static final byte[] EMPTY_MULTI_BULK_BYTES = SafeEncoder.encode("*0\r\n");
+    public static final byte[] CRLF_BYTES = SafeEncoder.encode("\r\n");
+    public static final byte[] NULL_ARRAY_BYTES = SafeEncoder.encode("*-1\r\n");
+    // RESP3的空值和布尔值
+    public static final byte[] NULL_BYTES = SafeEncoder.encode("_\r\n");
+    public static final byte[] TRUE_BYTES = SafeEncoder.encode("#t\r\n");
+    public static final byte[] FALSE_BYTES = SafeEncoder.encode("#f\r\n");
+
+    // "$<len>\r\n"和"*<len>\r\n"，len小于SHARED_BULKHDR_LEN
+    public static final byte[][] BULK_HEADERS = new byte[SHARED_BULKHDR_LEN][];
+    public static final byte[][] MULTI_BULK_HEADERS = new byte[SHARED_BULKHDR_LEN][];
+
+    static {
+        for (int i = 0; i < SHARED_BULKHDR_LEN; i++) {
+            BULK_HEADERS[i] = SafeEncoder.encode("$" + i + "\r\n");
+            MULTI_BULK_HEADERS[i] = SafeEncoder.encode("*" + i + "\r\n");
+        }
+    }
 }
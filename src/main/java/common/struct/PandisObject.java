@@ -8,4 +8,13 @@ package common.struct;
  */
 public interface PandisObject {
     ObjectType getType();
+
+    /**
+     * 对象的24位LRU时钟，或者LFU数据（高16位为上一次衰减计数器的分钟时间，低8位为对数计数器），
+     * 对应redis中robj的lru字段，由maxmemory的淘汰策略使用
+     * @return LRU时钟或LFU数据
+     */
+    int getLru();
+
+    void setLru(int lru);
 }
@@ -0,0 +1,521 @@
+package common.struct.impl;
+
+import common.struct.PandisString;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+/**
+ * @Description 数据库键空间使用的字典，只能在事件循环线程中访问，不做任何同步
+ *
+ * 采用开放定址（线性探测）的哈希表，键、值和键的哈希值分别保存在三个并行的数组中，每个键值对不再需要额外的节点对象
+ * 和Redis的dict一样持有两张表：扩容或缩容时新建ht1，之后每次增删查操作以及serverCron中的主动rehash
+ * 把ht0中的若干个槽位迁移到ht1，全部迁移完后ht1变为ht0，避免一次性rehash整张大表造成长时间的停顿
+ *
+ * rehash期间新的键只插入ht1，ht0中被迁移或者删除的槽位标记为墓碑，保证查找时的探测序列不会被截断；
+ * 没有rehash时删除采用后移（backward shift）的方式，表中不会残留墓碑
+ *
+ * scan()使用Redis的反向二进制游标遍历字典，游标对应键的初始桶（哈希值 & mask），
+ * 两次调用之间即使字典发生了扩容或缩容，遍历开始时就存在并且一直没有被删除的键至少会被返回一次
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class Dict<V> {
+    public static final int DICT_HT_INITIAL_SIZE = 16;          // 哈希表的初始大小，必须是2的幂
+    private static final int DICT_REHASH_EMPTY_VISITS = 10;     // rehash一个键最多访问的空槽位数量
+    private static final int DICT_SHRINK_RATIO = 8;             // 使用率低于 1/8 时缩容
+
+    private static final Object TOMBSTONE = new Object();       // 已经迁移或者删除的槽位
+
+    private Table ht0;
+    private Table ht1;          // 只在rehash期间不为null
+    private int rehashIdx;      // ht0中下一个需要迁移的槽位，没有进行rehash时为-1
+
+    public Dict() {
+        this.ht0 = new Table(DICT_HT_INITIAL_SIZE);
+        this.ht1 = null;
+        this.rehashIdx = -1;
+    }
+
+    /**
+     * 哈希表，容量总是2的幂，使用率不超过3/4
+     */
+    private static final class Table {
+        final Object[] keys;        // null表示空槽位，TOMBSTONE表示已迁移或删除的槽位
+        final Object[] values;
+        final int[] hashes;         // 缓存键的哈希值，rehash和比较时不用重新计算
+        final int mask;
+        int used;                   // 保存的键值对数量，不包括墓碑
+
+        Table(int size) {
+            this.keys = new Object[size];
+            this.values = new Object[size];
+            this.hashes = new int[size];
+            this.mask = size - 1;
+            this.used = 0;
+        }
+
+        int size() {
+            return this.keys.length;
+        }
+
+        boolean isOverloaded(int extra) {
+            return (long) (this.used + extra) * 4 > (long) size() * 3;
+        }
+
+        /**
+         * 查找键所在的槽位
+         * @return 槽位下标，不存在时返回-1
+         */
+        int find(PandisString key, int hash) {
+            int i = hash & this.mask;
+            Object k;
+            while ((k = this.keys[i]) != null) {
+                if (k != TOMBSTONE && this.hashes[i] == hash && key.equals(k)) {
+                    return i;
+                }
+                i = (i + 1) & this.mask;
+            }
+            return -1;
+        }
+
+        /**
+         * 插入一个确定不存在的键，跳过墓碑只使用空槽位，调用者保证表中还有空间
+         */
+        void insert(Object key, Object value, int hash) {
+            int i = hash & this.mask;
+            while (this.keys[i] != null) {
+                i = (i + 1) & this.mask;
+            }
+            this.keys[i] = key;
+            this.values[i] = value;
+            this.hashes[i] = hash;
+            this.used++;
+        }
+
+        /**
+         * 删除槽位i中的键，把后面探测序列中的键向前移动填补空位，表中不能有墓碑
+         */
+        void shiftDelete(int i) {
+            int j = i;
+            while (true) {
+                j = (j + 1) & this.mask;
+                if (this.keys[j] == null) {
+                    break;
+                }
+                // 键的初始桶循环地落在 (i, j] 中时不能移动到i，否则会在探测时被跳过
+                int home = this.hashes[j] & this.mask;
+                boolean stay = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!stay) {
+                    this.keys[i] = this.keys[j];
+                    this.values[i] = this.values[j];
+                    this.hashes[i] = this.hashes[j];
+                    i = j;
+                }
+            }
+            this.keys[i] = null;
+            this.values[i] = null;
+            this.used--;
+        }
+
+        /**
+         * 把槽位i标记为墓碑，只在rehash期间用于ht0
+         */
+        void markDeleted(int i) {
+            this.keys[i] = TOMBSTONE;
+            this.values[i] = null;
+            this.used--;
+        }
+
+        /**
+         * 遍历初始桶为bucket的所有键，它们一定位于从bucket开始的连续非空槽位中
+         */
+        @SuppressWarnings("unchecked")
+        <V> void scanBucket(int bucket, BiConsumer<PandisString, V> fn) {
+            int i = bucket;
+            Object k;
+            while ((k = this.keys[i]) != null) {
+                if (k != TOMBSTONE && (this.hashes[i] & this.mask) == bucket) {
+                    fn.accept((PandisString) k, (V) this.values[i]);
+                }
+                i = (i + 1) & this.mask;
+            }
+        }
+    }
+
+    /**
+     * Sds的哈希值是 31 * h + b 的形式，低位分布不均匀，线性探测前需要再打散一次
+     */
+    private static int hash(PandisString key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return this.ht0.used + (this.ht1 == null ? 0 : this.ht1.used);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isRehashing() {
+        return this.rehashIdx != -1;
+    }
+
+    /**
+     * 查找键的值
+     * @param key 键，可以是引用查询缓冲区的视图
+     * @return 值，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(PandisString key) {
+        if (isRehashing()) {
+            rehash(1);
+        }
+        int h = hash(key);
+        int i = this.ht0.find(key, h);
+        if (i >= 0) {
+            return (V) this.ht0.values[i];
+        }
+        if (this.ht1 != null) {
+            i = this.ht1.find(key, h);
+            if (i >= 0) {
+                return (V) this.ht1.values[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(PandisString key) {
+        return get(key) != null;
+    }
+
+    /**
+     * 返回字典中保存的与key相等的键对象，其他表可以复用这个对象而不用再复制一份
+     * @param key 键
+     * @return 字典中的键，不存在时返回null
+     */
+    public PandisString getKey(PandisString key) {
+        int h = hash(key);
+        int i = this.ht0.find(key, h);
+        if (i >= 0) {
+            return (PandisString) this.ht0.keys[i];
+        }
+        if (this.ht1 != null) {
+            i = this.ht1.find(key, h);
+            if (i >= 0) {
+                return (PandisString) this.ht1.keys[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 添加或者覆盖键值对，键已经存在时保留原来的键对象
+     * 新插入的键直接保存，调用者需要保证它不会再被修改
+     * @param key 键
+     * @param value 值，不能为null
+     * @return 原来的值，键不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(PandisString key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value in Dict can't be null.");
+        }
+        // 插入比查找多迁移一个键，保证rehash先于ht1被填满之前完成
+        if (isRehashing()) {
+            rehash(2);
+        }
+
+        int h = hash(key);
+        Table t = this.ht0;
+        int i = t.find(key, h);
+        if (i < 0 && this.ht1 != null) {
+            t = this.ht1;
+            i = t.find(key, h);
+        }
+        if (i >= 0) {
+            V old = (V) t.values[i];
+            t.values[i] = value;
+            return old;
+        }
+
+        expandIfNeeded();
+        if (this.ht1 != null && this.ht1.isOverloaded(1)) {
+            // 缩容期间插入了大量的键，ht1已经放不下剩余的键，按当前的键数量重新分配一张表，一次性完成这次rehash
+            finishRehashInto(tableSizeFor((size() + 1) * 2));
+        }
+        (this.ht1 != null ? this.ht1 : this.ht0).insert(key, value, h);
+        return null;
+    }
+
+    /**
+     * 删除键值对
+     * @param key 键
+     * @return 被删除的值，键不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(PandisString key) {
+        if (isRehashing()) {
+            rehash(1);
+        }
+
+        int h = hash(key);
+        int i = this.ht0.find(key, h);
+        if (i >= 0) {
+            V old = (V) this.ht0.values[i];
+            if (isRehashing()) {
+                this.ht0.markDeleted(i);
+            } else {
+                this.ht0.shiftDelete(i);
+            }
+            return old;
+        }
+        if (this.ht1 != null) {
+            i = this.ht1.find(key, h);
+            if (i >= 0) {
+                V old = (V) this.ht1.values[i];
+                this.ht1.shiftDelete(i);
+                return old;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 随机返回一个键值对，用于定期删除过期键时的采样
+     * 随机选择一个槽位后向后找到第一个保存着键的槽位，cron会把使用率保持在1/8以上，期望只需要探测常数个槽位
+     * 位于连续段开头的键被选中的概率略低，对采样来说足够
+     * rehash期间ht0中rehashIdx之前的槽位已经全部迁移，只在剩余的槽位和ht1中选择
+     * @return 键值对，字典为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public Map.Entry<PandisString, V> randomEntry() {
+        if (isEmpty()) {
+            return null;
+        }
+        if (isRehashing()) {
+            rehash(1);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            Table t = this.ht0;
+            int i;
+            if (isRehashing()) {
+                int remaining = this.ht0.size() - this.rehashIdx;
+                i = random.nextInt(remaining + this.ht1.size());
+                if (i < remaining) {
+                    i += this.rehashIdx;
+                } else {
+                    t = this.ht1;
+                    i -= remaining;
+                }
+            } else {
+                i = random.nextInt(t.size());
+            }
+
+            // 选中的表可能是空的（rehash刚开始时的ht1），这时重新选择
+            for (int n = t.used == 0 ? t.size() : 0; n < t.size(); n++) {
+                Object k = t.keys[i];
+                if (k != null && k != TOMBSTONE) {
+                    return new AbstractMap.SimpleImmutableEntry<>((PandisString) k, (V) t.values[i]);
+                }
+                i = (i + 1) & t.mask;
+            }
+        }
+    }
+
+    public void clear() {
+        this.ht0 = new Table(DICT_HT_INITIAL_SIZE);
+        this.ht1 = null;
+        this.rehashIdx = -1;
+    }
+
+    /**
+     * 使用率超过3/4时开始扩容，新表的大小为键数量两倍向上取整的2的幂
+     */
+    private void expandIfNeeded() {
+        if (isRehashing() || !this.ht0.isOverloaded(1)) {
+            return;
+        }
+        startRehash(tableSizeFor((this.ht0.used + 1) * 2));
+    }
+
+    /**
+     * 使用率低于1/8时开始缩容，由serverCron调用，不在删除键时触发，避免反复扩容缩容
+     * @return 是否开始了缩容
+     */
+    public boolean resizeIfNeeded() {
+        if (isRehashing() || this.ht0.size() <= DICT_HT_INITIAL_SIZE
+            || (long) this.ht0.used * DICT_SHRINK_RATIO >= this.ht0.size()) {
+            return false;
+        }
+        startRehash(tableSizeFor(Math.max(this.ht0.used * 2, DICT_HT_INITIAL_SIZE)));
+        return true;
+    }
+
+    private void startRehash(int size) {
+        this.ht1 = new Table(size);
+        this.rehashIdx = 0;
+    }
+
+    /**
+     * 把ht0中还没有迁移的键和ht1中的键全部移入一张大小为size的新表，结束rehash
+     * @param size 新表的大小，调用者保证能放下所有的键
+     */
+    private void finishRehashInto(int size) {
+        Table to = new Table(size);
+        for (Table from : new Table[] {this.ht0, this.ht1}) {
+            int start = from == this.ht0 ? this.rehashIdx : 0;
+            for (int i = start; i < from.size(); i++) {
+                Object k = from.keys[i];
+                if (k != null && k != TOMBSTONE) {
+                    to.insert(k, from.values[i], from.hashes[i]);
+                }
+            }
+        }
+        this.ht0 = to;
+        this.ht1 = null;
+        this.rehashIdx = -1;
+    }
+
+    private static int tableSizeFor(int n) {
+        int size = DICT_HT_INITIAL_SIZE;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * 执行n步渐进式rehash，每步把ht0中的一个键迁移到ht1
+     * 为了不在很稀疏的表上花费太多时间，最多访问 n * DICT_REHASH_EMPTY_VISITS 个空槽位
+     * @param n 迁移的键数量
+     * @return 还有键需要迁移时返回true，rehash已经完成时返回false
+     */
+    public boolean rehash(int n) {
+        if (!isRehashing()) {
+            return false;
+        }
+
+        Table from = this.ht0;
+        int size = from.size();
+        long emptyVisits = (long) n * DICT_REHASH_EMPTY_VISITS;
+        while (n > 0 && this.rehashIdx < size) {
+            Object k = from.keys[this.rehashIdx];
+            if (k == null || k == TOMBSTONE) {
+                this.rehashIdx++;
+                if (--emptyVisits == 0) {
+                    return true;
+                }
+                continue;
+            }
+            this.ht1.insert(k, from.values[this.rehashIdx], from.hashes[this.rehashIdx]);
+            from.markDeleted(this.rehashIdx);
+            this.rehashIdx++;
+            n--;
+        }
+
+        if (this.rehashIdx < size) {
+            return true;
+        }
+
+        // 迁移完成，ht1变为ht0
+        this.ht0 = this.ht1;
+        this.ht1 = null;
+        this.rehashIdx = -1;
+        return false;
+    }
+
+    /**
+     * 在指定的时间内以100步为单位执行rehash，由serverCron调用
+     * @param ms 时间上限，单位为毫秒
+     * @return 执行的步数
+     */
+    public int rehashMilliseconds(long ms) {
+        long start = System.currentTimeMillis();
+        int rehashes = 0;
+        while (rehash(100)) {
+            rehashes += 100;
+            if (System.currentTimeMillis() - start > ms) {
+                break;
+            }
+        }
+        return rehashes;
+    }
+
+    /**
+     * 按游标遍历字典，每次调用返回游标对应的一个桶（rehash期间还包括大表中由它扩展出的桶）中的键
+     * 第一次调用时游标为0，返回的游标再次为0时遍历结束
+     * 回调中不能修改字典
+     * @param cursor 游标
+     * @param fn 对每个键值对调用的函数
+     * @return 下一次调用使用的游标
+     */
+    public long scan(long cursor, BiConsumer<PandisString, V> fn) {
+        if (isEmpty()) {
+            return 0;
+        }
+
+        long v = cursor;
+        if (!isRehashing()) {
+            Table t0 = this.ht0;
+            long m0 = t0.mask;
+            t0.scanBucket((int) (v & m0), fn);
+
+            // 对游标中掩码以内的位做反向二进制加一
+            v |= ~m0;
+            v = Long.reverse(v);
+            v++;
+            v = Long.reverse(v);
+        } else {
+            Table t0 = this.ht0;
+            Table t1 = this.ht1;
+            // t0总是较小的表
+            if (t0.size() > t1.size()) {
+                t0 = this.ht1;
+                t1 = this.ht0;
+            }
+            long m0 = t0.mask;
+            long m1 = t1.mask;
+
+            t0.scanBucket((int) (v & m0), fn);
+
+            // 遍历大表中由小表的这个桶扩展出的所有桶
+            do {
+                t1.scanBucket((int) (v & m1), fn);
+
+                v |= ~m1;
+                v = Long.reverse(v);
+                v++;
+                v = Long.reverse(v);
+            } while ((v & (m0 ^ m1)) != 0);
+        }
+        return v;
+    }
+
+    /**
+     * 遍历字典中的所有键值对，回调中不能修改字典
+     * @param fn 对每个键值对调用的函数
+     */
+    public void forEach(BiConsumer<PandisString, V> fn) {
+        forEach(this.ht0, fn);
+        if (this.ht1 != null) {
+            forEach(this.ht1, fn);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void forEach(Table t, BiConsumer<PandisString, V> fn) {
+        for (int i = 0; i < t.size(); i++) {
+            Object k = t.keys[i];
+            if (k != null && k != TOMBSTONE) {
+                fn.accept((PandisString) k, (V) t.values[i]);
+            }
+        }
+    }
+}
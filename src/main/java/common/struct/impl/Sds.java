@@ -5,6 +5,9 @@ import common.struct.PandisString;
 import remote.protocol.Protocol;
 import common.utils.SafeEncoder;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
 
 /**
@@ -26,6 +29,7 @@ public class Sds implements PandisString, Comparable<Sds> {
      */
     private int len;        // 表示字符串长度
     private int free;       // 记录buf数组中未使用的字节长度
+    private int lru;        // 作为数据库中的值时记录LRU时钟或LFU数据，见PandisObject.getLru()
 
     public static final int SDS_MAX_PREALLOC = 1024 * 1024; // 1MB
     public static final int SDS_DEFAULT_LENGTH = 1024;      // 1KB
@@ -122,6 +126,16 @@ public class Sds implements PandisString, Comparable<Sds> {
         return ObjectType.STRING;
     }
 
+    @Override
+    public int getLru() {
+        return this.lru;
+    }
+
+    @Override
+    public void setLru(int lru) {
+        this.lru = lru;
+    }
+
     /******************************************
      * PandisString接口的方法
      ******************************************/
@@ -203,18 +217,44 @@ public class Sds implements PandisString, Comparable<Sds> {
     }
 
     public void append(byte [] bytes) {
-        int length = bytes.length;
+        append(bytes, 0, bytes.length);
+    }
 
+    /**
+     * 追加数组中的一段数据
+     * @param bytes 数据所在的数组
+     * @param offset 起始位置
+     * @param length 长度
+     */
+    public void append(byte [] bytes, int offset, int length) {
         // 扩展空间，保证有足够的存储空间
         this.expand(length);
 
         // 填充数据
-        System.arraycopy(bytes, 0, this.buf, this.len, length);
+        System.arraycopy(bytes, offset, this.buf, this.len, length);
 
         // 更新Sds长度属性
         increaseLength(length);
     }
 
+    /**
+     * 从channel中读取数据，直接追加到buf数组的空闲空间中，不经过中间缓冲区
+     * 读取前保证至少有readLen的空闲空间
+     * @param channel 数据来源
+     * @param readLen 本次最少预留的读取空间
+     * @return channel.read()的返回值，即读取的字节数，-1表示连接已关闭
+     * @throws IOException 读取出错
+     */
+    public int readFrom(ReadableByteChannel channel, int readLen) throws IOException {
+        this.expand(readLen);
+
+        int nread = channel.read(ByteBuffer.wrap(this.buf, this.len, this.free));
+        if (nread > 0) {
+            increaseLength(nread);
+        }
+        return nread;
+    }
+
     /**
      * 截取字符串，保留指定的截取范围[start, end)
      * @param start 截取开始范围，包括该下标
@@ -407,6 +447,9 @@ public class Sds implements PandisString, Comparable<Sds> {
                 && this.compareTo(o) == 0) {
                 return true;
             }
+        } else if (other instanceof SdsView) {
+            // 内容相同的视图和Sds相等，保证键空间中可以用参数视图查找Sds键
+            return ((SdsView) other).contentEquals(this.buf, 0, this.len);
         }
 
         return false;
@@ -0,0 +1,194 @@
+package common.struct.impl;
+
+import common.struct.ObjectType;
+import common.struct.PandisString;
+import remote.protocol.Protocol;
+
+import java.util.Arrays;
+
+/**
+ * 只读的字符串视图，引用另一个字节数组（通常是客户端查询缓冲区的底层数组）中的一段[offset, offset + len)
+ * 解析请求时，multi bulk中的参数不再复制成新的Sds，而是创建指向查询缓冲区的视图，
+ * 对于GET、EXISTS、TTL、STRLEN这类只读取参数的命令，参数的内容完全不需要复制
+ *
+ * 视图只在命令执行期间有效，命令执行完后查询缓冲区中的数据会被覆盖，
+ * 因此需要保存参数的地方（比如作为键或值存入数据库）必须先通过toSds复制出一个独立的Sds
+ *
+ * hashCode和equals与Sds一致，内容相同的视图和Sds互相相等，可以直接用视图在键空间中查找
+ * @Author huzihan
+ * @Date 2021/10/14
+ **/
+public final class SdsView implements PandisString {
+    private final byte[] buf;
+    private final int offset;
+    private final int len;
+
+    public SdsView(byte[] buf, int offset, int len) {
+        if (offset < 0 || len < 0 || offset + len > buf.length) {
+            throw new IllegalArgumentException("The 'offset' or 'len' argument is illegal");
+        }
+        this.buf = buf;
+        this.offset = offset;
+        this.len = len;
+    }
+
+    /**
+     * 复制视图的内容，得到一个独立的Sds
+     * @return 新的Sds
+     */
+    public Sds toSds() {
+        return Sds.createSds(Arrays.copyOfRange(this.buf, this.offset, this.offset + this.len));
+    }
+
+    /**
+     * 将参数转换为可以长期保存的字符串：视图复制为新的Sds，其他字符串原样返回
+     * @param str 字符串
+     * @return 不依赖查询缓冲区的字符串
+     */
+    public static PandisString toOwned(PandisString str) {
+        return str instanceof SdsView ? ((SdsView) str).toSds() : str;
+    }
+
+    /**
+     * 返回视图引用的数组，不复制，内容位于[offset(), offset() + length())
+     */
+    public byte[] array() {
+        return this.buf;
+    }
+
+    public int offset() {
+        return this.offset;
+    }
+
+    /******************************************
+     * PandisObject接口的方法
+     ******************************************/
+
+    @Override
+    public ObjectType getType() {
+        return ObjectType.STRING;
+    }
+
+    /**
+     * 视图存入数据库前会被复制为Sds，不需要记录LRU时钟
+     */
+    @Override
+    public int getLru() {
+        return 0;
+    }
+
+    @Override
+    public void setLru(int lru) {
+    }
+
+    /******************************************
+     * PandisString接口的方法
+     ******************************************/
+
+    @Override
+    public int length() {
+        return this.len;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= this.len) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        return (char) this.buf[this.offset + index];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.len == 0;
+    }
+
+    @Override
+    public int indexOf(char c) {
+        return indexOf(0, c);
+    }
+
+    @Override
+    public int indexOf(int start, char c) {
+        byte byteC = (byte) c;
+        for (int i = start; i < this.len; i++) {
+            if (this.buf[this.offset + i] == byteC) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public void append(char c) {
+        throw new UnsupportedOperationException("SdsView is read-only");
+    }
+
+    @Override
+    public void append(PandisString str) {
+        throw new UnsupportedOperationException("SdsView is read-only");
+    }
+
+    @Override
+    public void append(String str) {
+        throw new UnsupportedOperationException("SdsView is read-only");
+    }
+
+    @Override
+    public void cut(int start, int end) {
+        throw new UnsupportedOperationException("SdsView is read-only");
+    }
+
+    /**
+     * 与Sds.hashCode的计算方式相同
+     */
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int i = this.offset, end = this.offset + this.len; i < end; i++) {
+            h = 31 * h + this.buf[i];
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (other instanceof SdsView) {
+            SdsView o = (SdsView) other;
+            return contentEquals(o.buf, o.offset, o.len);
+        }
+
+        if (other instanceof Sds) {
+            Sds o = (Sds) other;
+            return contentEquals(o.toArrayWithOutCopy(), 0, o.length());
+        }
+
+        return false;
+    }
+
+    /**
+     * 比较视图的内容和给定数组中的一段是否相同
+     */
+    boolean contentEquals(byte[] bytes, int from, int length) {
+        if (length != this.len) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (this.buf[this.offset + i] != bytes[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.buf, this.offset, this.len, Protocol.CHARSET);
+    }
+}
@@ -17,6 +17,7 @@ public class SkipList<E> implements PandisZSet<E> {
     private SkipListNode<E> tail;
     private int level;
     private int length;
+    private int lru;        // 作为数据库中的值时记录LRU时钟或LFU数据，见PandisObject.getLru()
 
     private static final double SKIPLIST_P = 0.5;       // 随机层高每升高一层的概率
     private static final int SKIPLIST_MAX_LEVEL = 32;   // SkipList最大层高
@@ -573,6 +574,16 @@ public class SkipList<E> implements PandisZSet<E> {
         return ObjectType.ZSET;
     }
 
+    @Override
+    public int getLru() {
+        return this.lru;
+    }
+
+    @Override
+    public void setLru(int lru) {
+        this.lru = lru;
+    }
+
     @Override
     public int size() {
         return 0;
@@ -1,7 +1,10 @@
 package common.utils;
 
+import common.struct.PandisString;
 import common.struct.impl.Sds;
+import common.struct.impl.SdsView;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -152,4 +155,242 @@ public class SdsUtil {
             }
         }
     }
+
+    /**
+     * 将long整数按十进制写入字节数组，不创建中间的String对象，对应redis中的ll2string
+     * @param dest 目标数组，从offset开始至少要有20个字节的空间
+     * @param offset 写入的起始位置
+     * @param value 整数
+     * @return 写入的字节数
+     */
+    public static int longToString(byte[] dest, int offset, long value) {
+        if (value == Long.MIN_VALUE) {
+            byte[] min = SafeEncoder.encode(String.valueOf(Long.MIN_VALUE));
+            System.arraycopy(min, 0, dest, offset, min.length);
+            return min.length;
+        }
+
+        int length = 0;
+        if (value < 0) {
+            dest[offset + length++] = '-';
+            value = -value;
+        }
+
+        // 先计算位数，再从低位向高位填充
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+
+        int index = offset + length + digits - 1;
+        do {
+            dest[index--] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+
+        return length + digits;
+    }
+
+    /**
+     * 将字节数组[offset, offset + length)中的十进制整数解析为long，不创建中间的String对象，对应redis中的string2ll
+     * 格式要求与redis一致：可以有一个前导的'-'，不能有'+'、空白字符和前导0（"0"本身除外），不能超出long的范围
+     * @param buf 字节数组
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 解析出的整数
+     * @throws NumberFormatException 格式错误或溢出
+     */
+    public static long stringToLong(byte[] buf, int offset, int length) {
+        if (length <= 0 || length > 20) {
+            throw numberFormatException(buf, offset, length);
+        }
+
+        int index = offset;
+        int end = offset + length;
+
+        // 特殊情况："0"
+        if (length == 1 && buf[index] == '0') {
+            return 0;
+        }
+
+        boolean negative = false;
+        if (buf[index] == '-') {
+            negative = true;
+            if (++index == end) {
+                throw numberFormatException(buf, offset, length);
+            }
+        }
+
+        // 第一个数字必须是1-9
+        if (buf[index] < '1' || buf[index] > '9') {
+            throw numberFormatException(buf, offset, length);
+        }
+
+        // 按负数累加，这样Long.MIN_VALUE也可以表示
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long result = 0;
+        for (; index < end; index++) {
+            int digit = buf[index] - '0';
+            if (digit < 0 || digit > 9 || result < multmin) {
+                throw numberFormatException(buf, offset, length);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw numberFormatException(buf, offset, length);
+            }
+            result -= digit;
+        }
+
+        return negative ? result : -result;
+    }
+
+    /**
+     * 将字符串解析为long，Sds和参数视图直接解析内部的字节数组
+     * @param str 字符串
+     * @return 解析出的整数
+     * @throws NumberFormatException 格式错误或溢出
+     */
+    public static long stringToLong(PandisString str) {
+        if (str instanceof Sds) {
+            Sds sds = (Sds) str;
+            return stringToLong(sds.toArrayWithOutCopy(), 0, sds.length());
+        } else if (str instanceof SdsView) {
+            SdsView view = (SdsView) str;
+            return stringToLong(view.array(), view.offset(), view.length());
+        }
+
+        byte[] bytes = SafeEncoder.encode(str.toString());
+        return stringToLong(bytes, 0, bytes.length);
+    }
+
+    // 10的0~22次方都可以用double精确表示
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * 将字节数组[offset, offset + length)中的浮点数解析为double，对应redis中的string2ld
+     * 有效数字不超过2^53且十进制指数不超过22的常见情况（比如"3.14"、"-0.5"、"1e10"），
+     * 尾数和10的幂都能用double精确表示，一次乘法或除法的结果就是正确舍入的，不创建中间的String对象；
+     * 其他情况交给Double.parseDouble
+     * 支持"inf"、"+inf"、"-inf"，不允许空白字符，结果不能是NaN
+     * @param buf 字节数组
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 解析出的浮点数
+     * @throws NumberFormatException 格式错误
+     */
+    public static double stringToDouble(byte[] buf, int offset, int length) {
+        if (length <= 0) {
+            throw numberFormatException(buf, offset, length);
+        }
+
+        int index = offset;
+        int end = offset + length;
+
+        boolean negative = false;
+        if (buf[index] == '-' || buf[index] == '+') {
+            negative = buf[index] == '-';
+            index++;
+        }
+
+        if (end - index == 3 && isInf(buf, index)) {
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean exact = true;
+        boolean dot = false;
+        for (; index < end; index++) {
+            byte b = buf[index];
+            if (b >= '0' && b <= '9') {
+                digits++;
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (dot) {
+                        exponent--;
+                    }
+                } else {
+                    exact = false;
+                }
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            throw numberFormatException(buf, offset, length);
+        }
+
+        if (index < end) {
+            // 指数部分
+            if (buf[index] != 'e' && buf[index] != 'E') {
+                throw numberFormatException(buf, offset, length);
+            }
+            index++;
+            boolean negativeExponent = false;
+            if (index < end && (buf[index] == '-' || buf[index] == '+')) {
+                negativeExponent = buf[index] == '-';
+                index++;
+            }
+            if (index == end) {
+                throw numberFormatException(buf, offset, length);
+            }
+            int exp = 0;
+            for (; index < end; index++) {
+                int digit = buf[index] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw numberFormatException(buf, offset, length);
+                }
+                if (exp < 10000) {
+                    exp = exp * 10 + digit;
+                }
+            }
+            exponent += negativeExponent ? -exp : exp;
+        }
+
+        if (exact && exponent >= -22 && exponent <= 22) {
+            double value = mantissa;
+            value = exponent >= 0 ? value * POWERS_OF_TEN[exponent] : value / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+
+        // 格式已经验证过，只有精度无法保证的情况才会走到这里
+        return Double.parseDouble(new String(buf, offset, length, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 将字符串解析为double，Sds和参数视图直接解析内部的字节数组
+     * @param str 字符串
+     * @return 解析出的浮点数
+     * @throws NumberFormatException 格式错误
+     */
+    public static double stringToDouble(PandisString str) {
+        if (str instanceof Sds) {
+            Sds sds = (Sds) str;
+            return stringToDouble(sds.toArrayWithOutCopy(), 0, sds.length());
+        } else if (str instanceof SdsView) {
+            SdsView view = (SdsView) str;
+            return stringToDouble(view.array(), view.offset(), view.length());
+        }
+
+        byte[] bytes = SafeEncoder.encode(str.toString());
+        return stringToDouble(bytes, 0, bytes.length);
+    }
+
+    private static boolean isInf(byte[] buf, int index) {
+        return (buf[index] == 'i' || buf[index] == 'I')
+            && (buf[index + 1] == 'n' || buf[index + 1] == 'N')
+            && (buf[index + 2] == 'f' || buf[index + 2] == 'F');
+    }
+
+    private static NumberFormatException numberFormatException(byte[] buf, int offset, int length) {
+        return new NumberFormatException("For input string: \"" + new String(buf, offset, Math.max(length, 0), StandardCharsets.US_ASCII) + "\"");
+    }
 }
@@ -190,6 +190,54 @@ public class StringUtil {
         return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
     }
 
+    /**
+     * 将表示内存大小的字符串转换为字节数，对应redis中的memtoll
+     * 支持的单位：b、k、kb、m、mb、g、gb（不区分大小写），其中k=1000、kb=1024，以此类推
+     * 比如 "1gb" 返回 1073741824
+     * @param str 内存大小
+     * @return 字节数
+     * @throws NumberFormatException 格式错误
+     */
+    public static long memToLong(String str) {
+        String lower = str.trim().toLowerCase();
+
+        int unitIndex = 0;
+        while (unitIndex < lower.length() && (Character.isDigit(lower.charAt(unitIndex)) || (unitIndex == 0 && lower.charAt(0) == '-'))) {
+            unitIndex++;
+        }
+
+        long mul;
+        String unit = lower.substring(unitIndex);
+        switch (unit) {
+            case "":
+            case "b":
+                mul = 1;
+                break;
+            case "k":
+                mul = 1000L;
+                break;
+            case "kb":
+                mul = 1024L;
+                break;
+            case "m":
+                mul = 1000L * 1000;
+                break;
+            case "mb":
+                mul = 1024L * 1024;
+                break;
+            case "g":
+                mul = 1000L * 1000 * 1000;
+                break;
+            case "gb":
+                mul = 1024L * 1024 * 1024;
+                break;
+            default:
+                throw new NumberFormatException("Invalid memory unit: " + str);
+        }
+
+        return Long.parseLong(lower.substring(0, unitIndex)) * mul;
+    }
+
     /**
      * 判断字符串是否是一个整数
      * @param str
@@ -0,0 +1,155 @@
+package common.utils;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * @Description Unix域套接字工具类
+ * NIO从Java 16开始才支持Unix域套接字（UnixDomainSocketAddress、StandardProtocolFamily.UNIX），
+ * 而项目按Java 8编译，因此这里通过反射获取这些API，在低版本JVM上运行时isSupported()返回false，
+ * 打开的通道和TCP通道一样是ServerSocketChannel/SocketChannel，可以直接注册到事件循环
+ * @Author huzihan
+ * @Date 2021/10/16
+ **/
+public class UnixSocketUtil {
+    private static final ProtocolFamily UNIX;
+    private static final Method ADDRESS_OF;             // UnixDomainSocketAddress.of(String)
+    private static final Method OPEN_SERVER_CHANNEL;    // ServerSocketChannel.open(ProtocolFamily)
+    private static final Method OPEN_CHANNEL;           // SocketChannel.open(ProtocolFamily)
+
+    static {
+        ProtocolFamily unix = null;
+        Method addressOf = null, openServerChannel = null, openChannel = null;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            openServerChannel = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            openChannel = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            unix = null;
+        }
+        UNIX = unix;
+        ADDRESS_OF = addressOf;
+        OPEN_SERVER_CHANNEL = openServerChannel;
+        OPEN_CHANNEL = openChannel;
+    }
+
+    public UnixSocketUtil() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /**
+     * @return 当前JVM是否支持Unix域套接字
+     */
+    public static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    /**
+     * 在path上监听Unix域套接字，path上已有的文件（通常是上次运行遗留的套接字文件）会先被删除
+     * @param path 套接字文件路径
+     * @param backlog 连接队列长度
+     * @param perm 套接字文件的权限，如0700，为0时不修改
+     * @return 非阻塞的监听通道
+     * @throws IOException 当前JVM不支持或者监听出错
+     */
+    public static ServerSocketChannel listen(String path, int backlog, int perm) throws IOException {
+        checkSupported();
+
+        Files.deleteIfExists(Paths.get(path));
+        ServerSocketChannel serverChannel = (ServerSocketChannel) invoke(OPEN_SERVER_CHANNEL, null, UNIX);
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(address(path), backlog);
+            if (perm != 0) {
+                Files.setPosixFilePermissions(Paths.get(path), toPermissions(perm));
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            serverChannel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        return serverChannel;
+    }
+
+    /**
+     * 连接path上的Unix域套接字
+     * @param path 套接字文件路径
+     * @return 已连接的阻塞通道
+     * @throws IOException 当前JVM不支持或者连接出错
+     */
+    public static SocketChannel connect(String path) throws IOException {
+        checkSupported();
+
+        SocketChannel channel = (SocketChannel) invoke(OPEN_CHANNEL, null, UNIX);
+        try {
+            channel.connect(address(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * 删除套接字文件
+     * @param path 套接字文件路径
+     */
+    public static void unlink(String path) {
+        try {
+            Files.deleteIfExists(Paths.get(path));
+        } catch (IOException e) {
+            // 退出时的清理工作，忽略错误
+        }
+    }
+
+    /**
+     * 将八进制的权限位（如0755）转换为PosixFilePermission集合
+     */
+    static Set<PosixFilePermission> toPermissions(int perm) {
+        // PosixFilePermission的声明顺序为OWNER_READ、OWNER_WRITE、OWNER_EXECUTE、GROUP_READ...OTHERS_EXECUTE，
+        // 正好对应从最高位到最低位的9个权限位
+        PosixFilePermission[] all = PosixFilePermission.values();
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < all.length; i++) {
+            if ((perm & (1 << (all.length - 1 - i))) != 0) {
+                permissions.add(all[i]);
+            }
+        }
+        return permissions;
+    }
+
+    private static SocketAddress address(String path) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, null, path);
+    }
+
+    private static void checkSupported() throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unix domain sockets require Java 16 or later");
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object arg) throws IOException {
+        try {
+            return method.invoke(target, arg);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+}
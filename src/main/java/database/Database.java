@@ -1,39 +1,52 @@
 package database;
 
+import common.evict.Evictor;
+import common.expire.ExpireIndex;
 import common.expire.InertExpiration;
 import common.expire.PeriodicExpiration;
 import common.struct.PandisObject;
 import common.struct.PandisString;
+import common.struct.impl.Dict;
+import common.struct.impl.SdsView;
+import server.PandisServer;
+import server.Tracking;
+import server.config.ServerConfig;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 数据库结构
+ * 数据库只在事件循环线程中访问，键空间和过期字典使用不做同步、渐进式rehash的Dict，其余的表使用HashMap
  * @author: huzihan
  * @create: 2021-07-20
  */
 public class Database implements InertExpiration {
 
-    private Map<PandisString, PandisObject> keySpace;       // 数据库健空间，保存着数据库中所有的键值对, key是字符串，value是5种类型
-    private Map<PandisString, Long> expires;                // 记录键的过期时间，key为键，值为过期时间 UNIX 时间戳
+    private Dict<PandisObject> keySpace;                    // 数据库健空间，保存着数据库中所有的键值对, key是字符串，value是5种类型
+    private Dict<Long> expires;                             // 记录键的过期时间，key为键，值为过期时间 UNIX 时间戳
     private Map<PandisString, PandisObject> blockingKeys;   // 正处于阻塞状态的健
     private Map<PandisString, PandisObject> readyKeys;      // 可以解除阻塞状态的健
     private Map<PandisString, PandisObject> watchedKeys;    // 正在被watch命令监视的健
+    private ExpireIndex expireIndex;                        // 按过期时间分桶的过期键索引，没有开启active-expire-index时为null
 
     private int id;         // 数据库号码
     private long avgTtl;    // 统计信息，数据库健的评价TTL
-
-    private Random random = new Random();
+    private long usedMemory;    // 键空间和过期字典占用内存的估计值，用于maxmemory
 
     public Database(int id) {
-        this.keySpace = new ConcurrentHashMap<>();
-        this.expires = new ConcurrentHashMap<>();
-        this.blockingKeys = new ConcurrentHashMap<>();
-        this.readyKeys = new ConcurrentHashMap<>();
-        this.watchedKeys = new ConcurrentHashMap<>();
+        this(id, false);
+    }
+
+    public Database(int id, boolean useExpireIndex) {
+        this.keySpace = new Dict<>();
+        this.expires = new Dict<>();
+        this.blockingKeys = new HashMap<>();
+        this.readyKeys = new HashMap<>();
+        this.watchedKeys = new HashMap<>();
+        this.expireIndex = useExpireIndex ? new ExpireIndex() : null;
         this.id = id;
         this.avgTtl = 0;
+        this.usedMemory = 0;
     }
 
     /**
@@ -50,6 +63,7 @@ public class Database implements InertExpiration {
 
         if (res != null) {
             // 更新对象的访问lru时间等
+            Evictor.updateAccessTime(res, PandisServer.getInstance().getServerConfig());
             return res;
         } else {
             return null;
@@ -58,11 +72,40 @@ public class Database implements InertExpiration {
 
     /**
      * 尝试将键值对 key 和 val 添加到数据库中。
+     * 命令参数可能是引用查询缓冲区的视图，存入数据库前复制为独立的Sds
      * @param key
      * @param value
      */
     public void add(PandisString key, PandisObject value) {
-        PandisObject oldValue = this.keySpace.put(key, value);
+        if (value instanceof SdsView) {
+            value = ((SdsView) value).toSds();
+        }
+        ServerConfig config = PandisServer.getInstance().getServerConfig();
+        // 键已经存在时Dict保留原来的键对象，不需要再复制一份
+        PandisString storedKey = this.keySpace.getKey(key);
+        if (storedKey != null) {
+            PandisObject oldValue = this.keySpace.put(storedKey, value);
+            this.usedMemory += Evictor.objectMemory(value) - Evictor.objectMemory(oldValue);
+            // 覆盖写入不清空LFU计数器，避免频繁更新的键被当作新键淘汰
+            if (config.getMaxMemoryPolicy().isLfu()) {
+                value.setLru(oldValue.getLru());
+            } else {
+                Evictor.initAccessTime(value, config);
+            }
+        } else {
+            this.keySpace.put(SdsView.toOwned(key), value);
+            this.usedMemory += Evictor.entryMemory(key, value);
+            Evictor.initAccessTime(value, config);
+        }
+    }
+
+    /**
+     * 值被原地修改（比如APPEND）后调用，更新数据库占用内存的估计值
+     * @param oldMemory 修改前值占用的内存，见Evictor.objectMemory()
+     * @param value 修改后的值
+     */
+    public void valueResized(long oldMemory, PandisObject value) {
+        this.usedMemory += Evictor.objectMemory(value) - oldMemory;
     }
 
     /**
@@ -79,6 +122,16 @@ public class Database implements InertExpiration {
         // 移除键的过期时间
 
         // 发送键修改通知
+        signalModifiedKey(key);
+    }
+
+    /**
+     * 键被修改时调用，向缓存了这个键的客户端发送失效消息
+     * 键的值被原地修改（比如APPEND）或者过期时间改变时，由命令实现自己调用
+     * @param key 被修改的键
+     */
+    public void signalModifiedKey(PandisString key) {
+        Tracking.getTracking().invalidateKey(key);
     }
 
     /**
@@ -103,11 +156,13 @@ public class Database implements InertExpiration {
         // 惰性删除策略，访问数据前如果数据到期，则进行惰性删除
         delExpiredIfNeeded(key);
 
-        PandisObject oldVal = this.keySpace.remove(key);
+        PandisObject oldVal = removeFromKeySpace(key);
 
         if (oldVal == null) {
             return false;
         } else {
+            removeExpire(key);
+            signalModifiedKey(key);
             return true;
         }
     }
@@ -117,8 +172,34 @@ public class Database implements InertExpiration {
      * @param key
      */
     public void remove(PandisString key) {
-        this.keySpace.remove(key);
-        this.expires.remove(key);
+        removeFromKeySpace(key);
+        removeExpire(key);
+        signalModifiedKey(key);
+    }
+
+    private PandisObject removeFromKeySpace(PandisString key) {
+        PandisObject oldVal = this.keySpace.remove(key);
+        if (oldVal != null) {
+            this.usedMemory -= Evictor.entryMemory(key, oldVal);
+        }
+        return oldVal;
+    }
+
+    /**
+     * 内存超过maxmemory时淘汰一个键，由Evictor调用
+     * @param key 被淘汰的键
+     */
+    public void evictKey(PandisString key) {
+        remove(key);
+    }
+
+    /**
+     * 删除一个已经过期的键，由惰性删除和定期删除调用
+     * @param key 过期的键
+     */
+    public void expireKey(PandisString key) {
+        remove(key);
+        PandisServer.getInstance().incrStatExpiredKeys();
     }
 
     /**
@@ -128,14 +209,37 @@ public class Database implements InertExpiration {
     public void clear() {
         this.keySpace.clear();
         this.expires.clear();
+        if (this.expireIndex != null) {
+            this.expireIndex.clear();
+        }
+        this.usedMemory = 0;
     }
 
     public int expiredKeyNums() {
         return this.expires.size();
     }
 
+    /**
+     * 设置键的过期时间，过期字典和键空间共用同一个键对象
+     * @param key 键
+     * @param when 过期时间 UNIX 时间戳
+     */
     public void setExpire(PandisString key, long when) {
-        this.expires.put(key, when);
+        PandisString storedKey = this.keySpace.getKey(key);
+        if (storedKey == null) {
+            storedKey = SdsView.toOwned(key);
+        }
+        Long oldWhen = this.expires.put(storedKey, when);
+        if (oldWhen == null) {
+            this.usedMemory += Evictor.EXPIRE_ENTRY_SIZE;
+        }
+
+        if (this.expireIndex != null) {
+            if (oldWhen != null) {
+                this.expireIndex.remove(storedKey, oldWhen);
+            }
+            this.expireIndex.add(storedKey, when);
+        }
     }
 
     public long getExpire(PandisString key) {
@@ -143,11 +247,19 @@ public class Database implements InertExpiration {
         delExpiredIfNeeded(key);
 
         // 返回key的过期时间，如果不存在，则返回-1
-        return this.expires.getOrDefault(key, -1L);
+        Long expire = this.expires.get(key);
+        return expire == null ? -1L : expire;
     }
 
     public Long removeExpire(PandisString key) {
-        return this.expires.remove(key);
+        Long when = this.expires.remove(key);
+        if (when != null) {
+            this.usedMemory -= Evictor.EXPIRE_ENTRY_SIZE;
+            if (this.expireIndex != null) {
+                this.expireIndex.remove(key, when);
+            }
+        }
+        return when;
     }
 
     @Override
@@ -167,22 +279,78 @@ public class Database implements InertExpiration {
     @Override
     public void delExpiredIfNeeded(PandisString key) {
         if (isExpired(key)) {
-            this.expires.remove(key);
-            this.keySpace.remove(key);
+            expireKey(key);
         }
     }
 
+    public boolean hasExpireIndex() {
+        return this.expireIndex != null;
+    }
+
+    /**
+     * 从过期键索引中取出一个已经过期的键，只在开启了active-expire-index时使用
+     * @param now 当前时间
+     * @return 过期的键，没有完全到期的桶时返回null
+     */
+    public PandisString firstDueExpire(long now) {
+        return this.expireIndex.firstDue(now);
+    }
+
+    /**
+     * 统计已经过期、但还留在数据库中的键的数量，只在开启了active-expire-index时使用
+     * @param now 当前时间
+     * @return 过期的键的数量
+     */
+    public long countExpiredResident(long now) {
+        return this.expireIndex.countDue(now, this.expires);
+    }
+
+    /**
+     * 从过期字典中随机取出一个键和它的过期时间，不需要复制整个字典
+     * @return 键和过期时间，没有设置了过期时间的键时返回null
+     */
     public Map.Entry<PandisString, Long> randomExpire() {
-        List<Map.Entry<PandisString, Long>> keys = new ArrayList<>(this.expires.entrySet());
-        Map.Entry<PandisString, Long> randomEntry = keys.get(random.nextInt(keys.size()));
-        return randomEntry;
+        return this.expires.randomEntry();
+    }
+
+    /**
+     * 由serverCron调用，使用率过低时缩小键空间和过期字典
+     */
+    public void tryResizeHashTables() {
+        this.keySpace.resizeIfNeeded();
+        this.expires.resizeIfNeeded();
+    }
+
+    /**
+     * 由serverCron调用，在指定的时间内对正在rehash的字典执行主动rehash，每次只处理一个字典，键空间优先
+     * @param ms 时间上限，单位为毫秒
+     * @return 是否执行了rehash
+     */
+    public boolean incrementallyRehash(long ms) {
+        if (this.keySpace.isRehashing()) {
+            this.keySpace.rehashMilliseconds(ms);
+            return true;
+        }
+        if (this.expires.isRehashing()) {
+            this.expires.rehashMilliseconds(ms);
+            return true;
+        }
+        return false;
     }
 
     public int getId() {
         return this.id;
     }
 
-    public Map<PandisString, PandisObject> getKeySpace() {
+    public long getUsedMemory() {
+        return this.usedMemory;
+    }
+
+    public Dict<PandisObject> getKeySpace() {
         return this.keySpace;
     }
+
+    public Dict<Long> getExpires() {
+        return this.expires;
+    }
 }
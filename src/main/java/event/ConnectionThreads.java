@@ -0,0 +1,117 @@
+package event;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import server.client.InnerClient;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * connection-threads模式下的连接线程，作为NIO事件循环之外的另一种服务器引擎
+ *
+ * 每个连接由一个独立的线程以阻塞的方式读取和解析请求，解析出的一批命令通过EventLoop.execute()
+ * 交给主事件循环执行（主事件循环的任务队列就是唯一的命令执行队列，数据库等数据结构依然不需要加锁），
+ * 连接线程等待这批命令执行完后，再以阻塞的方式发送回复。
+ * 订阅消息等不是由客户端自己的命令产生的回复，由另外的线程发送，不会阻塞主事件循环。
+ *
+ * 运行在Java 21及以上时使用虚拟线程，大量空闲连接只占用很少的内存，每次发送也使用一个新的虚拟线程；
+ * 项目按Java 8编译，因此通过反射创建虚拟线程，低版本JVM上退化为普通的守护线程，
+ * 这时发送由一个共享的有界线程池完成，一条消息发布给大量空闲连接时不会为每个连接创建一个系统线程
+ *
+ * @Author huzihan
+ * @Date 2021/10/16
+ **/
+public class ConnectionThreads {
+    private static final Log logger = LogFactory.getLog(ConnectionThreads.class);
+
+    // 不使用虚拟线程时，发送回复的线程池中的线程数量上限
+    private static final int MAX_FLUSH_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final long FLUSH_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadFactory threadFactory;
+    private final boolean virtual;          // 是否使用虚拟线程
+    private final AtomicLong nextId;        // 普通线程的编号
+    private final ExecutorService flushExecutor;    // 不使用虚拟线程时发送回复的线程池，使用虚拟线程时为null
+
+    public ConnectionThreads() {
+        ThreadFactory factory = virtualThreadFactory();
+        this.virtual = factory != null;
+        this.threadFactory = factory;
+        this.nextId = new AtomicLong(0);
+        this.flushExecutor = this.virtual ? null : newFlushExecutor();
+
+        if (this.virtual) {
+            logger.info("Connection threads use virtual threads");
+        } else {
+            logger.warn("Virtual threads are not available, connection threads fall back to platform threads");
+        }
+    }
+
+    /**
+     * 为新连接启动连接线程，之后该连接的读取、解析和回复发送都在这个线程中完成
+     * 只在主事件循环中调用
+     * @param client 连接对应的客户端对象
+     */
+    public void serve(InnerClient client) {
+        newThread(client::serveOnConnectionThread, "pandis-conn-").start();
+    }
+
+    /**
+     * 在另外的线程中发送客户端待发送的回复：使用虚拟线程时启动一个新的虚拟线程，否则交给共享的线程池
+     * 用于连接线程阻塞在读取上时，主事件循环为该客户端产生了回复（比如订阅的频道有新消息）
+     * @param client 客户端
+     */
+    public void flushAsync(InnerClient client) {
+        if (this.virtual) {
+            newThread(client::flushReplyOnConnectionThread, "pandis-flush-").start();
+        } else {
+            this.flushExecutor.execute(client::flushReplyOnConnectionThread);
+        }
+    }
+
+    public boolean isVirtual() {
+        return this.virtual;
+    }
+
+    private Thread newThread(Runnable task, String prefix) {
+        if (this.virtual) {
+            return this.threadFactory.newThread(task);
+        }
+
+        Thread thread = new Thread(task, prefix + this.nextId.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * 创建发送回复的线程池：最多MAX_FLUSH_THREADS个守护线程，空闲一段时间后退出，超过的任务排队等待
+     * 某个客户端接收得很慢时只会占用其中一个线程
+     */
+    private ExecutorService newFlushExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_FLUSH_THREADS, MAX_FLUSH_THREADS,
+            FLUSH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            task -> newThread(task, "pandis-flush-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 通过反射调用Thread.ofVirtual().name("pandis-conn-", 0).factory()
+     * @return 创建虚拟线程的工厂，当前JVM不支持虚拟线程时返回null
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "pandis-conn-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -10,6 +10,8 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 /**
@@ -20,22 +22,34 @@ import java.util.function.Function;
 public class EventLoop {
     private static final Log logger = LogFactory.getLog(EventLoop.class);
 
+    // 同一个key上多个事件同时就绪时，处理器的调用顺序
+    private static final int[] FIRE_ORDER = {
+            SelectionKey.OP_ACCEPT, SelectionKey.OP_CONNECT, SelectionKey.OP_READ, SelectionKey.OP_WRITE
+    };
+
     // 表示事件循环是否进行的标识
     private volatile boolean stop;
     // nio核心组件，用于监听多个channel上发生的事件
     private Selector selector;
-    // io事件表，表的key是每一个channel注册到该selector生成的SelectionKey
-    // 表的value是个FileEvent结构，该结构中也是一个map，保持了该channel上4中类型发生时的处理器
-    private Map<SelectionKey, FileEvent> fileEvents;
-    // 时间事件列表，每次事件循环都会重中取出最近的时间事件进行处理
-    private LinkedList<TimeEvent> timeEvents;
+    // io事件不再单独维护一张表：每一个channel注册到该selector生成的SelectionKey上，
+    // 都通过SelectionKey.attach()挂着一个FileEvent结构，其中保存了该channel上4种类型事件发生时的处理器
+    // 时间事件队列（按触发时间组织的最小堆），每次事件循环都会从中取出到期的时间事件进行处理
+    private TimeEventQueue timeEvents;
 
     private Procedure<EventLoop> beforeSleep;
 
+    // 运行该事件循环的线程，在eventLoopMain被调用时记录
+    private volatile Thread thread;
+    // 其他线程提交给该事件循环执行的任务，使用无锁队列，保证跨线程交接时不需要加锁
+    private final Queue<Runnable> taskQueue;
+    // 标记selector是否已经被唤醒，避免提交多个任务时重复调用selector.wakeup()
+    private final AtomicBoolean wakenUp;
+
     private EventLoop() {
         this.stop = false;
-        this.timeEvents = new LinkedList<>();
-        this.fileEvents = new HashMap<>();
+        this.timeEvents = new TimeEventQueue();
+        this.taskQueue = new ConcurrentLinkedQueue<>();
+        this.wakenUp = new AtomicBoolean(false);
 
         try {
             this.selector = Selector.open();
@@ -57,6 +71,7 @@ public class EventLoop {
      */
     public void eventLoopMain() {
         this.stop = false;
+        this.thread = Thread.currentThread();
 
         while (!stop) {
             // 如果有需要在事件处理之前执行的函数，就执行
@@ -79,7 +94,10 @@ public class EventLoop {
         long blockTime = 0;
 
         // 获取最近的时间事件，根据时间事件计算需要阻塞的时长
-        if (nearestTimeEvent != null) {
+        if (!this.taskQueue.isEmpty()) {
+            // 有其他线程提交的任务等待执行，不能阻塞
+            blockTime = -1;
+        } else if (nearestTimeEvent != null) {
             // 如果时间事件存在的话
             // 那么根据最近可执行时间事件和现在时间的时间差来决定文件事件的阻塞时间
             long when = nearestTimeEvent.getWhen();
@@ -102,12 +120,67 @@ public class EventLoop {
 
         processed += processFileEvents(blockTime);
 
+        // 处理其他线程提交的任务
+        processed += runAllTasks();
+
         // 处理时间事件
         processed += processTimeEvents();
 
         return processed;
     }
 
+    /**
+     * 执行其他线程提交给该事件循环的所有任务
+     * @return 执行的任务个数
+     */
+    private int runAllTasks() {
+        // 先复位唤醒标记，之后提交的任务会再次唤醒selector
+        this.wakenUp.set(false);
+
+        int processed = 0;
+        Runnable task;
+        while ((task = this.taskQueue.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Run task in event loop error", e);
+            }
+            processed++;
+        }
+
+        return processed;
+    }
+
+    /**
+     * 提交一个任务，由该事件循环所在的线程执行
+     * 这是其他线程与该事件循环交互的唯一方式，事件循环内部的数据结构都不是线程安全的
+     * @param task 任务
+     */
+    public void execute(Runnable task) {
+        this.taskQueue.offer(task);
+
+        // 如果事件循环正阻塞在select上，需要唤醒它
+        if (!inEventLoop() && this.wakenUp.compareAndSet(false, true)) {
+            this.selector.wakeup();
+        }
+    }
+
+    /**
+     * 判断当前线程是否就是运行该事件循环的线程
+     * @return 是否在事件循环线程中
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * 停止事件循环，可以在任意线程中调用
+     */
+    public void stop() {
+        this.stop = true;
+        this.selector.wakeup();
+    }
+
     /**
      * 处理文件事件
      * @param timeout Selector的超时时间
@@ -130,32 +203,9 @@ public class EventLoop {
 
                 while (keyIterator.hasNext()) {
                     SelectionKey key = keyIterator.next();
-                    FileEvent firedFileEvent = this.fileEvents.get(key);
-
-                    int interestOp = 0;
-                    if (key.isAcceptable()) {
-                        interestOp = SelectionKey.OP_ACCEPT;
-                    } else if (key.isConnectable()) {
-                        interestOp = SelectionKey.OP_CONNECT;
-                    } else if (key.isReadable()) {
-                        interestOp = SelectionKey.OP_READ;
-                    } else if (key.isWritable()) {
-                        interestOp = SelectionKey.OP_WRITE;
-                    } else {
-                        // 异常情况
-                        logger.error("异常情况，监听到未知类型的事件");
-                    }
-
-                    FileEventHandler handler = firedFileEvent.getEventHandler(interestOp);
-                    if (handler != null) {
-                        handler.handle(PandisServer.getInstance(), key, firedFileEvent.getClientData());
-                    } else {
-                        // 异常情况，没有相应的处理器
-                        logger.error("异常情况，没有相应的处理器处理事件");
-                    }
-
-                    processed++;
                     keyIterator.remove();
+
+                    processed += fireFileEvents(key);
                 }
             }
         } catch (IOException e) {
@@ -166,6 +216,43 @@ public class EventLoop {
     }
 
 
+    /**
+     * 依次调用key上所有就绪事件的处理器，一个key同时可读可写时，在同一轮事件循环中都会被处理
+     * 处理顺序为：accept、connect、read、write，这样本轮读入的请求产生的回复可以在同一轮中发送
+     * @param key 就绪的SelectionKey
+     * @return 处理的事件个数
+     */
+    private int fireFileEvents(SelectionKey key) {
+        FileEvent firedFileEvent = (FileEvent) key.attachment();
+        if (firedFileEvent == null || !key.isValid()) {
+            return 0;
+        }
+
+        int processed = 0;
+        int readyOps = key.readyOps();
+        for (int op : FIRE_ORDER) {
+            if ((readyOps & op) == 0) {
+                continue;
+            }
+
+            // 前一个处理器可能关闭了连接，或者取消了对该事件的监听
+            if (!key.isValid() || (firedFileEvent.getInterestSet() & op) == 0) {
+                continue;
+            }
+
+            FileEventHandler handler = firedFileEvent.getEventHandler(op);
+            if (handler != null) {
+                handler.handle(PandisServer.getInstance(), key, firedFileEvent.getClientData());
+                processed++;
+            } else {
+                // 异常情况，没有相应的处理器
+                logger.error("异常情况，没有相应的处理器处理事件");
+            }
+        }
+
+        return processed;
+    }
+
     /**
      * 注册新的监听事件
      * @param channel 要注册监听事件的channel
@@ -212,8 +299,13 @@ public class EventLoop {
 
         // 更新完底层selector注册的事件类型，还要更新FileEvent中注册的事件类型，使FileEvent和SelectionKey中的事件类型保持一致
 
+        // channel已经关闭，注册失败
+        if (registedKey == null) {
+            return;
+        }
+
         // 先判断该channel是否注册过，是否有相应的fileEvent结构
-        FileEvent fileEvent = this.fileEvents.get(registedKey);
+        FileEvent fileEvent = (FileEvent) registedKey.attachment();
 
         if (fileEvent == null) {
             // 该channel是第一次注册
@@ -224,7 +316,7 @@ public class EventLoop {
         }
 
         // 更新注册的channel和其事件及处理器
-        this.fileEvents.put(registedKey, fileEvent);
+        registedKey.attach(fileEvent);
     }
 
     /**
@@ -249,7 +341,7 @@ public class EventLoop {
         // 再将channel对应的FileEvent结构中的事件类型及处理器清除
 
         // 获取该key表示的channel对应的FileEvent结构
-        FileEvent fileEvent = this.fileEvents.get(key);
+        FileEvent fileEvent = (FileEvent) key.attachment();
 
         // 若没有fileEvent结构，就不用删除，直接返回
         if (fileEvent == null) {
@@ -266,58 +358,78 @@ public class EventLoop {
 
         // 判断是否在该channel上未监听任何事件，若没有监听任何事件，则将相应的key和FileEvent结构删除
         if (key.interestOps() == 0) {
-            this.fileEvents.remove(key);
-            key.channel();
+            key.attach(null);
         }
     }
 
     /**
-     * 处理时间事件（暂未实现）
-     * @return
+     * 处理时间事件
+     * 只处理在本次调用开始时已经到期的事件，周期性事件执行后重新计算触发时间再放回队列，
+     * 这样即使周期性事件的周期为0，也不会在一次调用中被无限次地执行
+     * @return 处理的事件个数
      */
     private int processTimeEvents() {
+        if (this.timeEvents.isEmpty()) {
+            return 0;
+        }
+
         int processed = 0;
+        long now = System.currentTimeMillis();
+        List<TimeEventQueue.Entry> fired = null;
+
+        TimeEventQueue.Entry entry;
+        while ((entry = this.timeEvents.pollExpired(now)) != null) {
+            if (fired == null) {
+                fired = new ArrayList<>();
+            }
+            fired.add(entry);
+        }
 
-        Iterator<TimeEvent> iterator = timeEvents.iterator();
+        if (fired == null) {
+            return 0;
+        }
 
-        while (iterator.hasNext()) {
-            TimeEvent e = iterator.next();
+        for (TimeEventQueue.Entry e : fired) {
+            // 事件可能被之前执行的事件取消
+            if (e.cancelled) {
+                continue;
+            }
 
-            // 当前时间到达事件的时间, 则可以处理这些事件
-            if (e.getWhen() <= System.currentTimeMillis()) {
-                e.execute();
+            e.event.execute();
+            processed++;
 
-                if (e instanceof CycleTimeEvent) {
-                    ((CycleTimeEvent) e).resetFireTime();
-                } else {
-                    iterator.remove();
-                }
+            if (e.event instanceof CycleTimeEvent) {
+                ((CycleTimeEvent) e.event).resetFireTime();
+                this.timeEvents.readd(e);
+            } else {
+                this.timeEvents.release(e);
             }
         }
 
         return processed;
     }
 
-    public void registerTimeEvent(TimeEvent event) {
-        timeEvents.add(event);
+    /**
+     * 注册时间事件，O(log n)
+     * @param event 时间事件
+     * @return 事件id，可以用于取消事件
+     */
+    public long registerTimeEvent(TimeEvent event) {
+        return this.timeEvents.add(event);
     }
 
-    private TimeEvent getNearestTimer() {
-        TimeEvent nearestTimer = null;
-
-        if (!timeEvents.isEmpty()) {
-            for (TimeEvent e : timeEvents) {
-                if (nearestTimer == null) {
-                    nearestTimer = e;
-                } else {
-                    if (e.getWhen() < nearestTimer.getWhen()) {
-                        nearestTimer = e;
-                    }
-                }
-            }
-        }
+    /**
+     * 取消注册的时间事件，O(log n)
+     * 可以在事件自身或其他事件的执行过程中调用，被取消的周期性事件不会再被调度
+     * @param id 注册时返回的事件id
+     * @return 事件是否存在并被取消
+     */
+    public boolean unregisterTimeEvent(long id) {
+        return this.timeEvents.remove(id);
+    }
 
-        return nearestTimer;
+    private TimeEvent getNearestTimer() {
+        return this.timeEvents.peek();
     }
 
     /**
@@ -325,7 +437,13 @@ public class EventLoop {
      * @return
      */
     public Map<SelectionKey, FileEvent> getFileEvents() {
-        return Collections.unmodifiableMap(this.fileEvents);
+        Map<SelectionKey, FileEvent> fileEvents = new HashMap<>();
+        for (SelectionKey key : this.selector.keys()) {
+            if (key.attachment() != null) {
+                fileEvents.put(key, (FileEvent) key.attachment());
+            }
+        }
+        return Collections.unmodifiableMap(fileEvents);
     }
 
     public Selector getSelector() {
@@ -1,7 +1,10 @@
 package event;
 
+import common.expire.PeriodicExpirator;
 import common.persistence.AOFPersistence;
+import server.PandisServer;
 import server.ServerContext;
+import server.Tracking;
 
 /**
  * 每次处理事件之前执行
@@ -11,7 +14,28 @@ import server.ServerContext;
 public class EventLoopBeforeSleepProcedure implements Procedure<EventLoop> {
     @Override
     public void call(EventLoop eventLoop) {
+        PandisServer server = ServerContext.getContext().getServerInstance();
+
+        // io-threads模式下，由IO线程读取并解析上一次事件循环中可读的客户端，然后执行命令
+        server.handleClientsWithPendingReadsUsingThreads();
+
+        // 上一次慢速定期删除因为超时退出，或者估计的过期键比例过高时，执行一次快速定期删除
+        if (server.getServerConfig().isActiveExpiredEnable() && server.getMasterHost() == null) {
+            server.getPeriodicExpirator().delExpiredPeriodicaly(PeriodicExpirator.FAST_MODE);
+        }
+
         // 将 AOF 缓冲区的内容写入到 AOF 文件
-        ServerContext.getContext().getServerInstance().getAofPersistence().flushAppendOnlyFile(false);
+        server.getAofPersistence().flushAppendOnlyFile(false);
+
+        // 向广播模式的跟踪客户端发送本轮被修改的键，跟踪表超过上限时删除一部分键
+        Tracking.getTracking().broadcastInvalidationMessages();
+        Tracking.getTracking().limitTrackingTable(server.getServerConfig().getTrackingTableMaxKeys());
+
+        // 在进入select前直接发送本轮产生的回复，必须在AOF写入之后进行
+        // 开启io-threads时由IO线程并行发送
+        server.handleClientsWithPendingWrites();
+
+        // 关闭需要被异步关闭的客户端，比如回复缓冲区超过限制的客户端
+        server.freeClientsInAsyncFreeQueue();
     }
 }
@@ -1,8 +1,7 @@
 package event;
 
 import java.nio.channels.SelectionKey;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * FileEvent用于表示对IO事件的抽象
@@ -17,16 +16,23 @@ import java.util.Map;
  *     SelectionKey.OP_CONNECT
  * 这四类事件用SelectionKey中对应的int值表示
  *
- * 对应每种事件发生时的处理函数则记录在以这些事件int值为key的map中
+ * 这四个int值各自只占一个二进制位，对应每种事件发生时的处理函数记录在一个定长数组中，
+ * 数组下标就是事件int值中为1的那一位的位置，这样查找处理函数时不需要哈希和装箱
+ *
+ * FileEvent对象会作为附件（SelectionKey.attach()）挂在channel注册生成的SelectionKey上，
+ * 事件循环可以直接从就绪的key上取到它
  *
  * @author: huzihan
  * @create: 2021-06-27
  */
 public class FileEvent {
     private int ops;    // 该FileEvent对应的channel监听的事件类型集合（不同事件int值的或操作结果）
-    private Map<Integer, FileEventHandler> eventHandlerMap;    // 记录了对应事件类型的处理函数，key为事件类型，value为处理函数
+    private FileEventHandler[] eventHandlers;    // 记录了对应事件类型的处理函数，下标为事件类型所在的二进制位
     private Object clientData;     // 客户端传来的数据
 
+    // SelectionKey中最大的事件值是OP_ACCEPT（1 << 4），因此需要5个位置
+    private static final int HANDLER_SLOTS = Integer.numberOfTrailingZeros(SelectionKey.OP_ACCEPT) + 1;
+
     /**
      * FileEvent构造函数
      *
@@ -35,8 +41,8 @@ public class FileEvent {
      * @param clientData 客户端数据
      */
     public FileEvent(int interestOp, FileEventHandler handler, Object clientData) {
-        this.eventHandlerMap = new HashMap<>(4);
-        eventHandlerMap.put(interestOp, handler);
+        this.eventHandlers = new FileEventHandler[HANDLER_SLOTS];
+        this.eventHandlers[slot(interestOp)] = handler;
         this.ops = interestOp;
         this.clientData = clientData;
     }
@@ -66,7 +72,16 @@ public class FileEvent {
      * @return 处理对象
      */
     public FileEventHandler getEventHandler(int eventType) {
-        return eventHandlerMap.get(eventType);
+        return this.eventHandlers[slot(eventType)];
+    }
+
+    /**
+     * 计算事件类型对应的处理函数数组下标
+     * @param op 单个事件类型
+     * @return 数组下标
+     */
+    private static int slot(int op) {
+        return Integer.numberOfTrailingZeros(op);
     }
 
     /**
@@ -81,13 +96,13 @@ public class FileEvent {
      */
     public void addFileEventHandler(int interestOp, FileEventHandler handler, Object clientData) {
         this.ops |= interestOp;
-        this.eventHandlerMap.put(interestOp, handler);
+        this.eventHandlers[slot(interestOp)] = handler;
         this.clientData = clientData;
     }
 
     public void removeFileEventHandler(int uninterestOp) {
         this.ops = this.ops & ~uninterestOp;
-        this.eventHandlerMap.remove(uninterestOp);
+        this.eventHandlers[slot(uninterestOp)] = null;
     }
 
     public boolean isEmptyFileEvent() {
@@ -108,7 +123,7 @@ public class FileEvent {
 
         hashcode = hashcode * 31 + this.ops;
         hashcode = hashcode * 31 + this.clientData.hashCode();
-        hashcode = hashcode * 31 + this.eventHandlerMap.hashCode();
+        hashcode = hashcode * 31 + Arrays.hashCode(this.eventHandlers);
 
         return hashcode;
     }
@@ -127,7 +142,7 @@ public class FileEvent {
             FileEvent fo = (FileEvent) other;
             return (fo.ops == this.ops
                     && fo.clientData.equals(this.clientData)
-                    && fo.eventHandlerMap.equals(this.eventHandlerMap) )
+                    && Arrays.equals(fo.eventHandlers, this.eventHandlers) )
                     ? true : false;
         } else {
             return false;
@@ -2,6 +2,7 @@ package event;
 
 import common.expire.PeriodicExpirator;
 import common.persistence.AOFPersistence;
+import database.Database;
 import server.PandisServer;
 import server.ServerContext;
 
@@ -15,20 +16,20 @@ public class GlobalCycleTimeEvent implements CycleTimeEvent {
     private long when;
     private long period;
 
-    private PeriodicExpirator periodicExpirator;    // 用于执行定期删除策略
+    private int rehashDb;                           // 下一次执行主动rehash的数据库
+
+    private static final long DATABASE_REHASH_MILLISECONDS = 1;     // 每次cron主动rehash的时间上限
 
     public GlobalCycleTimeEvent(int id, long period) {
         this.id = id;
         this.period = period;
         this.when = System.currentTimeMillis() + period;
-        this.periodicExpirator = new PeriodicExpirator();
     }
 
     public GlobalCycleTimeEvent(long when) {
         this.id = 0;
         this.period = when - System.currentTimeMillis();
         this.when = when;
-        this.periodicExpirator = new PeriodicExpirator();
     }
 
     public long getWhen() {
@@ -67,9 +68,28 @@ public class GlobalCycleTimeEvent implements CycleTimeEvent {
         if (server.getServerConfig().isActiveExpiredEnable() && server.getMasterHost() == null) {
             delExpiredPeriodicaly(PeriodicExpirator.SLOW_MODE);
         }
+
+        // 缩小使用率过低的字典，BGSAVE期间不缩小，缩小后scan可能返回重复的键
+        Database[] dbs = ServerContext.getContext().getDatabases();
+        if (!server.getRdbPersistence().isInBackgroundSaveProcess()) {
+            for (Database db : dbs) {
+                db.tryResizeHashTables();
+            }
+        }
+
+        // 主动rehash，每次cron最多用1毫秒处理一个数据库，避免没有请求的数据库上rehash一直无法完成
+        if (server.getServerConfig().isActiveRehashing()) {
+            for (int i = 0; i < dbs.length; i++) {
+                Database db = dbs[this.rehashDb];
+                this.rehashDb = (this.rehashDb + 1) % dbs.length;
+                if (db.incrementallyRehash(DATABASE_REHASH_MILLISECONDS)) {
+                    break;
+                }
+            }
+        }
     }
 
     public void delExpiredPeriodicaly(int type) {
-        this.periodicExpirator.delExpiredPeriodicaly(type);
+        ServerContext.getContext().getServerInstance().getPeriodicExpirator().delExpiredPeriodicaly(type);
     }
 }
@@ -0,0 +1,60 @@
+package event;
+
+import event.handler.ReadQueryFromClientHandler;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import server.client.InnerClient;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * IO子反应器（sub reactor）
+ * 每个IoReactor拥有一个独立的线程和EventLoop（即独立的Selector），
+ * 主事件循环accept到新连接后，会把连接按轮询的方式分配给这些IoReactor，
+ * 之后该连接上的读取、请求解析以及回复发送都在IoReactor的线程中完成。
+ *
+ * 命令的执行仍然只在主事件循环中进行，这样数据库等数据结构依然不需要加锁：
+ * IoReactor解析出完整的命令后，通过EventLoop.execute()交给主事件循环执行，
+ * 主事件循环执行完后，再通过同样的方式通知IoReactor发送回复。
+ *
+ * @Author huzihan
+ * @Date 2021/10/10
+ **/
+public class IoReactor {
+    private static final Log logger = LogFactory.getLog(IoReactor.class);
+
+    private final int id;
+    private final EventLoop eventLoop;
+    private final Thread thread;
+
+    public IoReactor(int id) {
+        this.id = id;
+        this.eventLoop = EventLoop.createEventLoop();
+        this.thread = new Thread(this.eventLoop::eventLoopMain, "pandis-io-reactor-" + id);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        this.thread.start();
+        logger.info("IO reactor " + this.id + " started");
+    }
+
+    public void shutdown() {
+        this.eventLoop.stop();
+    }
+
+    /**
+     * 将新建立的连接交给该IoReactor，由IoReactor线程将其注册到自己的Selector上
+     * 可以在任意线程中调用
+     * @param socketChannel 新连接
+     * @param client 连接对应的客户端对象
+     */
+    public void register(SocketChannel socketChannel, InnerClient client) {
+        this.eventLoop.execute(() -> this.eventLoop.registerFileEvent(socketChannel, SelectionKey.OP_READ, ReadQueryFromClientHandler.getHandler(), client));
+    }
+
+    public EventLoop getEventLoop() {
+        return this.eventLoop;
+    }
+}
@@ -0,0 +1,140 @@
+package event;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import server.client.InnerClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * io-threads模式下的IO线程组，对应redis 6中的threaded I/O
+ *
+ * 与IoReactor不同，IO线程没有自己的事件循环，所有连接依然注册在主事件循环上。
+ * 主线程在每次事件循环中收集可读（或有回复待发送）的客户端，把它们平均分给各个IO线程和主线程自己，
+ * 所有线程并行地完成读取解析（或发送回复），主线程等待所有IO线程完成后，再单线程地执行解析出的命令。
+ * 任意时刻要么只有主线程在运行，要么所有线程都只处理分配给自己的客户端，因此数据库等数据结构不需要加锁。
+ *
+ * @Author huzihan
+ * @Date 2021/10/11
+ **/
+public class IoThreads {
+    private static final Log logger = LogFactory.getLog(IoThreads.class);
+
+    public static final int IO_THREADS_OP_READ = 0;     // 读取并解析请求
+    public static final int IO_THREADS_OP_WRITE = 1;    // 发送回复
+
+    private final int threadNum;                // IO线程数量，包括主线程
+    private final List<List<InnerClient>> clientLists;  // 分配给每个线程的客户端，下标0为主线程
+    private final Worker[] workers;             // 除主线程以外的IO线程
+
+    public IoThreads(int threadNum) {
+        this.threadNum = threadNum;
+        this.clientLists = new ArrayList<>(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            this.clientLists.add(new ArrayList<>());
+        }
+
+        this.workers = new Worker[threadNum - 1];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Worker(i + 1, this.clientLists.get(i + 1));
+        }
+    }
+
+    public void start() {
+        for (Worker worker : this.workers) {
+            worker.start();
+        }
+        logger.info("Started " + this.workers.length + " io threads");
+    }
+
+    public int getThreadNum() {
+        return this.threadNum;
+    }
+
+    /**
+     * 在主线程中调用
+     * 将客户端平均分配给所有IO线程，并行处理，返回时所有客户端都已处理完毕
+     * @param clients 要处理的客户端
+     * @param op IO_THREADS_OP_READ 或 IO_THREADS_OP_WRITE
+     */
+    public void process(List<InnerClient> clients, int op) {
+        // 按轮询的方式分配客户端
+        int index = 0;
+        for (InnerClient client : clients) {
+            this.clientLists.get(index % this.threadNum).add(client);
+            index++;
+        }
+
+        // 唤醒IO线程
+        for (Worker worker : this.workers) {
+            worker.assign(op);
+        }
+
+        // 主线程也处理自己的那一份
+        List<InnerClient> mainList = this.clientLists.get(0);
+        for (InnerClient client : mainList) {
+            handle(client, op);
+        }
+        mainList.clear();
+
+        // 等待所有IO线程完成
+        for (Worker worker : this.workers) {
+            while (worker.pending != 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static void handle(InnerClient client, int op) {
+        if (op == IO_THREADS_OP_READ) {
+            client.readAndParseInIoThread();
+        } else {
+            client.writeData();
+        }
+    }
+
+    private static class Worker extends Thread {
+        private final List<InnerClient> clients;
+        private int op;
+        // 分配给该线程还未处理完的客户端数量，主线程写入后唤醒IO线程，IO线程处理完后置为0
+        private volatile int pending;
+
+        Worker(int id, List<InnerClient> clients) {
+            super("pandis-io-thread-" + id);
+            this.clients = clients;
+            this.pending = 0;
+            setDaemon(true);
+        }
+
+        void assign(int op) {
+            if (this.clients.isEmpty()) {
+                return;
+            }
+            this.op = op;
+            this.pending = this.clients.size();
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                while (this.pending == 0) {
+                    LockSupport.park(this);
+                }
+
+                for (InnerClient client : this.clients) {
+                    try {
+                        handle(client, this.op);
+                    } catch (RuntimeException e) {
+                        logger.error("Handle client in io thread error", e);
+                    }
+                }
+                this.clients.clear();
+
+                this.pending = 0;
+            }
+        }
+    }
+}
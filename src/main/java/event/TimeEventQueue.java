@@ -0,0 +1,221 @@
+package event;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 时间事件队列，按事件的触发时间（when）组织成二叉最小堆
+ * 每个注册的时间事件都会分配一个唯一的id，堆中同时记录每个id所在的下标，因此：
+ * 插入、按id删除都是O(log n)，获取最近的时间事件是O(1)
+ * 触发时间相同的事件按注册的先后顺序触发
+ *
+ * 和EventLoop一样，该结构线程不安全，只能在事件循环线程中使用
+ * @Author huzihan
+ * @Date 2021/10/12
+ **/
+public class TimeEventQueue {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Entry[] heap;
+    private int size;
+    // 事件id到堆中节点的映射，用于按id取消事件
+    private final Map<Long, Entry> entries;
+    // 下一个分配的事件id
+    private long nextId;
+    // 插入序号，用于触发时间相同时保持注册顺序
+    private long nextSeq;
+
+    public TimeEventQueue() {
+        this.heap = new Entry[INITIAL_CAPACITY];
+        this.size = 0;
+        this.entries = new HashMap<>();
+        this.nextId = 1;
+        this.nextSeq = 0;
+    }
+
+    /**
+     * 插入一个新的时间事件
+     * @param event 时间事件
+     * @return 分配给该事件的id，之后可以用来取消该事件
+     */
+    public long add(TimeEvent event) {
+        if (event == null) {
+            throw new IllegalArgumentException("Illegal argument 'event', 'event' can not be null");
+        }
+
+        Entry entry = new Entry(this.nextId++, event);
+        this.entries.put(entry.id, entry);
+        offer(entry);
+        return entry.id;
+    }
+
+    /**
+     * 把之前取出的事件重新放回队列，保持原来的id，用于周期性事件重新计算触发时间后再次调度
+     * @param entry 之前通过poll取出的节点
+     */
+    void readd(Entry entry) {
+        if (entry.cancelled) {
+            return;
+        }
+        this.entries.put(entry.id, entry);
+        offer(entry);
+    }
+
+    /**
+     * 按id取消时间事件
+     * @param id 注册时返回的事件id
+     * @return 事件是否存在并被取消
+     */
+    public boolean remove(long id) {
+        Entry entry = this.entries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.cancelled = true;
+        // 已经被取出正在执行的事件不在堆中，只需要标记取消即可
+        if (entry.index < 0) {
+            return true;
+        }
+
+        int index = entry.index;
+        Entry last = this.heap[--this.size];
+        this.heap[this.size] = null;
+        entry.index = -1;
+
+        if (index != this.size) {
+            this.heap[index] = last;
+            last.index = index;
+            siftDown(index);
+            if (this.heap[index] == last) {
+                siftUp(index);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 触发时间最近的事件，队列为空时返回null
+     */
+    public TimeEvent peek() {
+        return this.size == 0 ? null : this.heap[0].event;
+    }
+
+    /**
+     * 如果最近的事件在now时或之前触发，则将其从队列中取出
+     * 取出的事件仍然保留id，执行过程中依然可以通过remove取消
+     * @param now 当前时间
+     * @return 到期的事件节点，没有到期事件时返回null
+     */
+    Entry pollExpired(long now) {
+        if (this.size == 0 || this.heap[0].when > now) {
+            return null;
+        }
+
+        Entry first = this.heap[0];
+        Entry last = this.heap[--this.size];
+        this.heap[this.size] = null;
+        if (this.size > 0) {
+            this.heap[0] = last;
+            last.index = 0;
+            siftDown(0);
+        }
+        first.index = -1;
+        return first;
+    }
+
+    /**
+     * 事件执行完毕且不再调度时调用，释放id
+     */
+    void release(Entry entry) {
+        this.entries.remove(entry.id);
+    }
+
+    public boolean contains(long id) {
+        return this.entries.containsKey(id);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    private void offer(Entry entry) {
+        entry.when = entry.event.getWhen();
+        entry.seq = this.nextSeq++;
+
+        if (this.size == this.heap.length) {
+            Entry[] newHeap = new Entry[this.heap.length << 1];
+            System.arraycopy(this.heap, 0, newHeap, 0, this.size);
+            this.heap = newHeap;
+        }
+
+        this.heap[this.size] = entry;
+        entry.index = this.size;
+        this.size++;
+        siftUp(entry.index);
+    }
+
+    private void siftUp(int index) {
+        Entry entry = this.heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            Entry p = this.heap[parent];
+            if (!less(entry, p)) {
+                break;
+            }
+            this.heap[index] = p;
+            p.index = index;
+            index = parent;
+        }
+        this.heap[index] = entry;
+        entry.index = index;
+    }
+
+    private void siftDown(int index) {
+        Entry entry = this.heap[index];
+        int half = this.size >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            int right = child + 1;
+            if (right < this.size && less(this.heap[right], this.heap[child])) {
+                child = right;
+            }
+            if (!less(this.heap[child], entry)) {
+                break;
+            }
+            this.heap[index] = this.heap[child];
+            this.heap[index].index = index;
+            index = child;
+        }
+        this.heap[index] = entry;
+        entry.index = index;
+    }
+
+    private static boolean less(Entry a, Entry b) {
+        return a.when < b.when || (a.when == b.when && a.seq < b.seq);
+    }
+
+    /**
+     * 堆中的节点
+     * 入堆时缓存事件的触发时间，避免事件自身修改触发时间破坏堆的顺序
+     */
+    static final class Entry {
+        final long id;
+        final TimeEvent event;
+        long when;
+        long seq;
+        int index;
+        boolean cancelled;
+
+        Entry(long id, TimeEvent event) {
+            this.id = id;
+            this.event = event;
+            this.index = -1;
+            this.cancelled = false;
+        }
+    }
+}
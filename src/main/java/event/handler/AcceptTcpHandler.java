@@ -1,12 +1,22 @@
 package event.handler;
 
+import event.ConnectionThreads;
+import event.EventLoop;
+import event.IoReactor;
 import server.client.InnerClient;
 import event.FileEventHandler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import server.PandisServer;
+import server.config.ServerConfig;
+import common.utils.SafeEncoder;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
@@ -24,6 +34,8 @@ import java.nio.channels.SocketChannel;
 public class AcceptTcpHandler implements FileEventHandler {
     private static Log logger = LogFactory.getLog(AcceptTcpHandler.class);
 
+    private static final byte[] MAX_CLIENTS_REACHED_ERROR = SafeEncoder.encode("-ERR max number of clients reached\r\n");
+
     private static volatile AcceptTcpHandler instance;
 
     private AcceptTcpHandler() {
@@ -49,31 +61,147 @@ public class AcceptTcpHandler implements FileEventHandler {
 
     /**
      * 实现ACCEPT事件到达时的处理逻辑：
-     * 从ServerSocketChannel处接收ACCEPT事件，为相应的连接建立SocketChannel和Client对象
+     * 从ServerSocketChannel（TCP端口或Unix域套接字）处接收ACCEPT事件，为相应的连接建立SocketChannel和Client对象
      * 并将这些创建的SocketChannel也存入事件循环
      *
+     * 一次ACCEPT事件中会循环接收所有已经完成握手的连接，直到没有待接收的连接或达到max-accepts-per-call，
+     * 这样大量客户端同时重连时，不需要为每个连接都经过一轮事件循环
+     *
      * @return 操作是否成功
      */
     @Override
     public boolean handle(PandisServer server, SelectionKey selectionKey, Object privateData) {
         ServerSocketChannel ssc = (ServerSocketChannel) selectionKey.channel();
-        SocketChannel socketChannel = null;
+        ServerConfig config = server.getServerConfig();
+
+        int maxAccepts = config.getMaxAcceptsPerCall();
+        while (maxAccepts-- > 0) {
+            SocketChannel socketChannel;
+            try {
+                socketChannel = ssc.accept();
+            } catch (IOException e) {
+                logger.warn("Accepting client connection error", e);
+                return false;
+            }
+
+            // 没有待接收的连接了
+            if (socketChannel == null) {
+                break;
+            }
+
+            acceptCommonHandler(server, config, socketChannel);
+        }
+
+        return true;
+    }
+
+    /**
+     * 设置新连接的套接字选项，检查客户端数量限制，并为连接创建客户端
+     */
+    private void acceptCommonHandler(PandisServer server, ServerConfig config, SocketChannel socketChannel) {
+        String peer;
         try {
-            socketChannel = ssc.accept();
             socketChannel.configureBlocking(false);
+            configureSocket(config, socketChannel);
+            // Unix域套接字的客户端地址没有名称，记录监听的路径
+            SocketAddress remote = socketChannel.getRemoteAddress();
+            peer = remote instanceof InetSocketAddress ? "from " + remote : "to " + socketChannel.getLocalAddress();
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.warn("Configuring client connection error", e);
+            closeQuietly(socketChannel);
+            return;
+        }
+
+        // 客户端数量达到上限，回复错误后直接关闭连接
+        // 新连接的发送缓冲区是空的，非阻塞地写入这条简短的错误一般都能一次写完，写不完也不再处理
+        if (server.getClients().size() >= config.getMaxClients()) {
+            try {
+                socketChannel.write(ByteBuffer.wrap(MAX_CLIENTS_REACHED_ERROR));
+            } catch (IOException e) {
+                // 连接马上就会被关闭，忽略写入错误
+            }
+            closeQuietly(socketChannel);
+            server.incrStatRejectedConnections();
+            return;
         }
 
+        // connection-threads模式下，连接交给自己的连接线程读写，不注册到事件循环
+        ConnectionThreads connectionThreads = server.getConnectionThreads();
+        if (connectionThreads != null) {
+            InnerClient newClient = (InnerClient) InnerClient.createClient(socketChannel, null);
+            server.addClient(newClient);
+            logger.info("Accepted server.client connection " + peer);
+            connectionThreads.serve(newClient);
+            return;
+        }
+
+        // 选择处理该连接的事件循环：配置了IO子反应器时按轮询分配，否则由主事件循环处理
+        IoReactor ioReactor = server.nextIoReactor();
+        EventLoop clientEventLoop = ioReactor == null ? server.getEventLoop() : ioReactor.getEventLoop();
+
         // 创建client
-        InnerClient newClient = (InnerClient) InnerClient.createClient(socketChannel);
+        InnerClient newClient = (InnerClient) InnerClient.createClient(socketChannel, clientEventLoop);
         server.addClient(newClient);
 
-        logger.info("Accepted server.client connection from " + socketChannel.socket().getRemoteSocketAddress());
+        logger.info("Accepted server.client connection " + peer);
 
-        // 将这个与客户端关连的socketChannel也注册到EventLoop, 其中，客户端对象client以事件的clientData传入，这里暂时以null代替
-        server.getEventLoop().registerFileEvent(socketChannel, SelectionKey.OP_READ, ReadQueryFromClientHandler.getHandler(), newClient);
+        // 将这个与客户端关连的socketChannel也注册到事件循环, 其中，客户端对象client以事件的clientData传入
+        if (ioReactor == null) {
+            server.getEventLoop().registerFileEvent(socketChannel, SelectionKey.OP_READ, ReadQueryFromClientHandler.getHandler(), newClient);
+        } else {
+            ioReactor.register(socketChannel, newClient);
+        }
+    }
 
-        return true;
+    /**
+     * 设置TCP_NODELAY和keepalive
+     * keepalive的探测周期通过扩展套接字选项TCP_KEEPIDLE/TCP_KEEPINTERVAL/TCP_KEEPCOUNT设置，
+     * 和Redis一样，空闲interval秒后开始探测，每interval/3秒探测一次，探测3次失败后断开，
+     * 这些选项不属于Java 8的标准选项，因此按名称在通道支持的选项中查找，当前平台不支持时只开启SO_KEEPALIVE
+     * Unix域套接字的连接不支持这些TCP选项，直接跳过
+     */
+    @SuppressWarnings("unchecked")
+    private void configureSocket(ServerConfig config, SocketChannel socketChannel) throws IOException {
+        if (!socketChannel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            return;
+        }
+
+        if (config.isTcpNoDelay()) {
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+
+        int interval = config.getTcpKeepalive();
+        if (interval <= 0) {
+            return;
+        }
+
+        socketChannel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        for (SocketOption<?> option : socketChannel.supportedOptions()) {
+            int value;
+            switch (option.name()) {
+                case "TCP_KEEPIDLE":
+                    value = interval;
+                    break;
+                case "TCP_KEEPINTERVAL":
+                    value = Math.max(interval / 3, 1);
+                    break;
+                case "TCP_KEEPCOUNT":
+                    value = 3;
+                    break;
+                default:
+                    continue;
+            }
+            if (option.type() == Integer.class) {
+                socketChannel.setOption((SocketOption<Integer>) option, value);
+            }
+        }
+    }
+
+    private void closeQuietly(SocketChannel socketChannel) {
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            logger.warn("Closing client connection error", e);
+        }
     }
 }
@@ -45,8 +45,10 @@ public class ReadQueryFromClientHandler implements FileEventHandler {
     public boolean handle(PandisServer server, SelectionKey key, Object privateData) {
         InnerClient client = (InnerClient) privateData;
 
-        // 设置服务器的当前客户端
-        server.setCurrentClient(client);
+        // 开启了io-threads模式的读取时，先记录下可读的客户端，稍后由IO线程统一读取
+        if (server.postponeClientRead(client)) {
+            return true;
+        }
 
         // 读入内容到查询缓冲区
         int readNum = client.readData();
@@ -55,9 +57,6 @@ public class ReadQueryFromClientHandler implements FileEventHandler {
         if (readNum > 0) {
             // 正常读取了数据，开始处理数据
             client.processInputData();
-
-            // 测试：从命令中网络输入中传输出来的命令
-            logger.debug("服务端解析出来的命令参数列表: " + client.getCommandArgs().toString());
         } else if (readNum == -1) {
             // 客户端断开连接，需要关闭SocketChannel
             server.distroyClient(key, client);
@@ -65,7 +64,6 @@ public class ReadQueryFromClientHandler implements FileEventHandler {
             logger.error("客户端数据读取异常");
         }
 
-        server.clearCurrentClient();
         return true;
     }
 }
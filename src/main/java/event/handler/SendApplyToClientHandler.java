@@ -49,9 +49,6 @@ public class SendApplyToClientHandler implements FileEventHandler {
 
         InnerClient client = (InnerClient) privateData;
 
-        // 设置服务器的当前客户端
-        server.setCurrentClient(client);
-
         // 读入内容到查询缓冲区
         int writeNum = client.writeData();
 
@@ -62,11 +59,9 @@ public class SendApplyToClientHandler implements FileEventHandler {
 
         // 如果回复缓冲区空了，则不需要在监听write事件
         if (client.isNothingToReply()) {
-            server.getEventLoop().unregisterFileEvent(key, SelectionKey.OP_WRITE);
+            client.getEventLoop().unregisterFileEvent(key, SelectionKey.OP_WRITE);
         }
 
-        server.clearCurrentClient();
-
         return true;
     }
 }
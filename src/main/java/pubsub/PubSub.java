@@ -83,7 +83,7 @@ public class PubSub {
             multiReply.add("unsubscribe");
             multiReply.add(channelName);
             multiReply.add(String.valueOf(innerClient.getPubSubChannels().size() + innerClient.getPubSubPatterns().size()));
-            innerClient.replyMultiBulk(multiReply);
+            innerClient.replyPush(multiReply);
         }
 
         return retval;
@@ -108,7 +108,7 @@ public class PubSub {
             multiReply.add("unsubscribe");
             multiReply.add("nil");
             multiReply.add(String.valueOf(innerClient.getPubSubChannels().size() + innerClient.getPubSubPatterns().size()));
-            innerClient.replyMultiBulk(multiReply);
+            innerClient.replyPush(multiReply);
         }
 
         return count;
@@ -149,7 +149,7 @@ public class PubSub {
         multiReply.add("subscribe");
         multiReply.add(channelName);
         multiReply.add(String.valueOf(innerClient.getPubSubChannels().size() + innerClient.getPubSubPatterns().size()));
-        innerClient.replyMultiBulk(multiReply);
+        innerClient.replyPush(multiReply);
     }
 
     public void subscribePattern(Client client, String patternName) {
@@ -181,7 +181,7 @@ public class PubSub {
         multiReply.add("psubscribe");
         multiReply.add(patternName);
         multiReply.add(String.valueOf(innerClient.getPubSubChannels().size() + innerClient.getPubSubPatterns().size()));
-        innerClient.replyMultiBulk(multiReply);
+        innerClient.replyPush(multiReply);
     }
 
     public int unsubscribeAllPatterns(Client client, boolean notify) {
@@ -203,7 +203,7 @@ public class PubSub {
             multiReply.add("punsubscribe");
             multiReply.add("nil");
             multiReply.add(String.valueOf(innerClient.getPubSubChannels().size() + innerClient.getPubSubPatterns().size()));
-            innerClient.replyMultiBulk(multiReply);
+            innerClient.replyPush(multiReply);
         }
 
         return count;
@@ -234,7 +234,7 @@ public class PubSub {
             multiReply.add("punsubscribe");
             multiReply.add(patternName);
             multiReply.add(String.valueOf(innerClient.getPubSubChannels().size() + innerClient.getPubSubPatterns().size()));
-            innerClient.replyMultiBulk(multiReply);
+            innerClient.replyPush(multiReply);
         }
 
         return retval;
@@ -269,7 +269,7 @@ public class PubSub {
                 multiReply.add("message");
                 multiReply.add(channelName);
                 multiReply.add(message.toString());
-                client.replyMultiBulk(multiReply);
+                client.replyPush(multiReply);
 
                 receivers++;
             }
@@ -295,7 +295,7 @@ public class PubSub {
                         multiReply.add(pattern.getName());
                         multiReply.add(channelName);
                         multiReply.add(message.toString());
-                        client.replyMultiBulk(multiReply);
+                        client.replyPush(multiReply);
 
                         // 对接收消息的客户端进行计数
                         receivers++;
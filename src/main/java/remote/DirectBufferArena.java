@@ -0,0 +1,92 @@
+package remote;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 回复缓冲区使用的直接内存（direct buffer）的共享分配器
+ * 直接内存一次按SLAB_BYTES大小成块（slab）分配，再切分成BUFFER_BYTES大小的缓冲区，
+ * 客户端只在有回复待发送时取出一个缓冲区，回复全部发送完后立即归还，
+ * 这样回复缓冲区占用的直接内存只和正在发送数据的客户端数量有关，而和连接数无关，
+ * 切分出的缓冲区会一直被复用，不依赖GC回收直接内存
+ *
+ * 分配的slab总数超过MAX_SLABS后不再申请直接内存，改为分配堆内存缓冲区，归还时直接丢弃
+ * 主事件循环、IO子反应器和IO线程都会使用，因此是线程安全的
+ *
+ * @Author huzihan
+ * @Date 2021/10/14
+ **/
+public class DirectBufferArena {
+    public static final int BUFFER_BYTES = 1024 * 16;                   // 每个缓冲区的大小 16KB，与回复缓冲区大小一致
+    private static final int SLAB_BYTES = 1024 * 1024;                  // 每次申请的直接内存大小 1MB
+    private static final int BUFFERS_PER_SLAB = SLAB_BYTES / BUFFER_BYTES;
+    private static final int MAX_SLABS = 256;                           // 最多申请的直接内存 256MB
+
+    private static final DirectBufferArena arena = new DirectBufferArena();
+
+    private final Queue<ByteBuffer> freeBuffers;
+    private final AtomicInteger slabs;
+
+    private DirectBufferArena() {
+        this.freeBuffers = new ConcurrentLinkedQueue<>();
+        this.slabs = new AtomicInteger(0);
+    }
+
+    public static DirectBufferArena getArena() {
+        return arena;
+    }
+
+    /**
+     * 取出一个BUFFER_BYTES大小、处于写模式的空缓冲区
+     * 没有空闲缓冲区时申请一个新的slab，slab数量达到上限时返回堆内存缓冲区
+     * @return 缓冲区，内容未清零
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = this.freeBuffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+
+        if (this.slabs.incrementAndGet() > MAX_SLABS) {
+            this.slabs.decrementAndGet();
+            return ByteBuffer.allocate(BUFFER_BYTES);
+        }
+
+        // 切分新的slab，第一个缓冲区直接返回，其余放入空闲队列
+        ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_BYTES);
+        buffer = slice(slab, 0);
+        for (int i = 1; i < BUFFERS_PER_SLAB; i++) {
+            this.freeBuffers.offer(slice(slab, i));
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，堆内存缓冲区直接丢弃
+     * 归还后调用方不能再使用该缓冲区及其副本
+     * @param buffer 通过acquire取出的缓冲区
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        buffer.clear();
+        this.freeBuffers.offer(buffer);
+    }
+
+    /**
+     * @return 已经申请的直接内存字节数
+     */
+    public long allocatedBytes() {
+        return (long) this.slabs.get() * SLAB_BYTES;
+    }
+
+    private static ByteBuffer slice(ByteBuffer slab, int index) {
+        ByteBuffer duplicate = slab.duplicate();
+        duplicate.position(index * BUFFER_BYTES);
+        duplicate.limit((index + 1) * BUFFER_BYTES);
+        return duplicate.slice();
+    }
+}
@@ -0,0 +1,241 @@
+package remote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 客户端的查询缓冲区
+ * 底层是一个字节数组，用读位置（readerIndex）和写位置（writerIndex）划分为三段：
+ * [0, readerIndex) 已经解析完的数据，[readerIndex, writerIndex) 等待解析的数据，[writerIndex, capacity) 空闲空间
+ *
+ * 解析器每解析完一条命令只需要移动读位置，而不是像Sds.cut那样把剩余数据整体移动到数组开头，
+ * 这样一次读入的pipeline中有N条命令时，解析的代价和数据量成正比，而不是O(N^2)的复制。
+ * 只有在两种情况下才会移动数据（压缩）：
+ * （1）数据全部解析完时，读写位置直接归零，不需要复制
+ * （2）读取前数组尾部的空闲空间不够，此时把未解析的数据移动到开头（必要时扩容），复制的只是未解析的部分
+ *
+ * 解析出的参数是直接引用底层数组的视图（SdsView）时，缓冲区处于固定（pinned）状态，直到这些参数所属的命令执行完：
+ * 固定期间已解析的数据不能被覆盖，因此读写位置不会归零、也不会原地压缩，空间不足时换用新的数组，底层数组也不会还给共享池
+ *
+ * 所有下标都是相对于底层数组的绝对下标
+ * 线程不安全，同一时刻只会被一个线程（主事件循环、IO子反应器或IO线程）访问
+ *
+ * @Author huzihan
+ * @Date 2021/10/14
+ **/
+public class QueryBuffer {
+    public static final int QUERY_BUFFER_MAX_PREALLOC = 1024 * 1024;   // 扩容时最多预分配的空间 1MB
+
+    private static final byte[] EMPTY_BUF = new byte[0];
+
+    private byte[] buf;
+    private int readerIndex;
+    private int writerIndex;
+    private boolean pinned;     // 是否有参数视图引用着已解析的数据
+
+    public QueryBuffer() {
+        this.buf = EMPTY_BUF;
+        this.readerIndex = 0;
+        this.writerIndex = 0;
+        this.pinned = false;
+    }
+
+    /**
+     * 从channel中读取数据，直接写入数组尾部的空闲空间
+     * 读取前保证至少有readLen的空闲空间
+     * @param channel 数据来源
+     * @param readLen 本次最少预留的读取空间
+     * @return channel.read()的返回值，即读取的字节数，-1表示连接已关闭
+     * @throws IOException 读取出错
+     */
+    public int readFrom(ReadableByteChannel channel, int readLen) throws IOException {
+        ensureWritable(readLen);
+
+        int nread = channel.read(ByteBuffer.wrap(this.buf, this.writerIndex, this.buf.length - this.writerIndex));
+        if (nread > 0) {
+            this.writerIndex += nread;
+        }
+        return nread;
+    }
+
+    /**
+     * 保证数组尾部至少有length的空闲空间
+     * 压缩后空间足够时只移动未解析的数据，否则扩容，扩容时同样只复制未解析的数据
+     * 缓冲区固定时不能原地压缩，未解析的数据总是复制到新的数组中，原数组留给参数视图继续使用
+     * @param length 需要的空闲空间
+     */
+    public void ensureWritable(int length) {
+        if (this.buf.length - this.writerIndex >= length) {
+            return;
+        }
+
+        int readable = readableBytes();
+        int required = readable + length;
+        if (required <= this.buf.length && !this.pinned) {
+            // 已解析的部分腾出的空间足够，压缩即可
+            System.arraycopy(this.buf, this.readerIndex, this.buf, 0, readable);
+        } else {
+            // 空间不足，需要扩容，扩容策略与Sds.expand一致
+            int newLength = required <= this.buf.length ? this.buf.length
+                    : required < QUERY_BUFFER_MAX_PREALLOC ? required * 2 : required + QUERY_BUFFER_MAX_PREALLOC;
+            byte[] newBuf = new byte[newLength];
+            System.arraycopy(this.buf, this.readerIndex, newBuf, 0, readable);
+            this.buf = newBuf;
+        }
+        this.readerIndex = 0;
+        this.writerIndex = readable;
+    }
+
+    /**
+     * 向缓冲区追加数据
+     * @param bytes 数据
+     */
+    public void append(byte[] bytes) {
+        append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 向缓冲区追加数组中的一段数据
+     * @param bytes 数据所在的数组
+     * @param offset 起始位置
+     * @param length 长度
+     */
+    public void append(byte[] bytes, int offset, int length) {
+        ensureWritable(length);
+        System.arraycopy(bytes, offset, this.buf, this.writerIndex, length);
+        this.writerIndex += length;
+    }
+
+    /**
+     * 解析器消费了length字节的数据，向后移动读位置
+     * 数据全部被消费且缓冲区没有固定时读写位置归零，之后的读取从数组开头开始
+     * @param length 消费的字节数
+     */
+    public void skipBytes(int length) {
+        if (length < 0 || length > readableBytes()) {
+            throw new IllegalArgumentException("The 'length' argument is illegal");
+        }
+
+        this.readerIndex += length;
+        if (this.readerIndex == this.writerIndex && !this.pinned) {
+            this.readerIndex = 0;
+            this.writerIndex = 0;
+        }
+    }
+
+    /**
+     * 解析器创建了引用底层数组的参数视图，固定缓冲区
+     */
+    public void pin() {
+        this.pinned = true;
+    }
+
+    /**
+     * 参数视图所属的命令都已执行完，取消固定，数据全部被消费时读写位置归零
+     */
+    public void unpin() {
+        this.pinned = false;
+        if (this.readerIndex == this.writerIndex) {
+            this.readerIndex = 0;
+            this.writerIndex = 0;
+        }
+    }
+
+    public boolean isPinned() {
+        return this.pinned;
+    }
+
+    /**
+     * 从下标start开始，在未解析的数据中查找字节b
+     * @param start 开始查找的绝对下标，小于读位置时从读位置开始
+     * @param b 查找的字节
+     * @return 字节b首次出现的绝对下标，查找失败返回-1
+     */
+    public int indexOf(int start, byte b) {
+        for (int i = Math.max(start, this.readerIndex); i < this.writerIndex; i++) {
+            if (this.buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 在未解析的数据中查找字节b
+     * @param b 查找的字节
+     * @return 字节b首次出现的绝对下标，查找失败返回-1
+     */
+    public int indexOf(byte b) {
+        return indexOf(this.readerIndex, b);
+    }
+
+    /**
+     * @param index 绝对下标
+     * @return 该下标处的字节
+     */
+    public byte getByte(int index) {
+        if (index < this.readerIndex || index >= this.writerIndex) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return this.buf[index];
+    }
+
+    /**
+     * 将空缓冲区的底层数组交给调用者，缓冲区本身变为不占用空间的空缓冲区
+     * 用于把空闲的缓冲区还给共享池
+     * @return 原来的底层数组，缓冲区非空或处于固定状态时返回null
+     */
+    public byte[] detachBuffer() {
+        if (!isEmpty() || this.pinned) {
+            return null;
+        }
+
+        byte[] detached = this.buf;
+        this.buf = EMPTY_BUF;
+        this.readerIndex = 0;
+        this.writerIndex = 0;
+        return detached;
+    }
+
+    /**
+     * 使用给定的数组作为空缓冲区的底层数组，与detachBuffer配合使用
+     * @param buffer 新的底层数组，其中的内容会被忽略
+     */
+    public void attachBuffer(byte[] buffer) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("Only an empty query buffer can attach a buffer");
+        }
+
+        this.buf = buffer;
+        this.readerIndex = 0;
+        this.writerIndex = 0;
+    }
+
+    public int readerIndex() {
+        return this.readerIndex;
+    }
+
+    public int writerIndex() {
+        return this.writerIndex;
+    }
+
+    public int readableBytes() {
+        return this.writerIndex - this.readerIndex;
+    }
+
+    public boolean isEmpty() {
+        return this.writerIndex == this.readerIndex;
+    }
+
+    public int capacity() {
+        return this.buf.length;
+    }
+
+    /**
+     * 返回底层数组，不复制，下标使用绝对下标
+     */
+    public byte[] array() {
+        return this.buf;
+    }
+}
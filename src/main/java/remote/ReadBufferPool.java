@@ -0,0 +1,71 @@
+package remote;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 查询缓冲区底层字节数组的共享池
+ * 客户端读取数据前从池中取出一个PROTO_IOBUF_LEN大小的数组作为查询缓冲区，
+ * 查询缓冲区中的请求全部被解析完（客户端空闲）后，再把数组还给池，
+ * 这样查询缓冲区占用的内存只和正在收发数据的客户端数量有关，而和连接数无关
+ *
+ * IO子反应器和IO线程都会使用，因此是线程安全的
+ * 只有标准大小的数组会被回收，扩容过的数组直接交给GC
+ * 大参数的内容不经过查询缓冲区，而是直接读入按参数长度分配的Sds，见RequestParser.isReceivingBigArg
+ *
+ * @Author huzihan
+ * @Date 2021/10/13
+ **/
+public class ReadBufferPool {
+    public static final int PROTO_IOBUF_LEN = 1024 * 16;        // 一次读取的默认长度 16KB
+    public static final int PROTO_MBULK_BIG_ARG = 1024 * 32;    // 超过该长度的bulk视为大参数，直接读入按参数长度分配的Sds
+    private static final int MAX_POOLED_BUFFERS = 1024;         // 池中最多保存的数组数量
+
+    private static final ReadBufferPool pool = new ReadBufferPool();
+
+    private final Queue<byte[]> buffers;
+    private final AtomicInteger pooled;
+
+    private ReadBufferPool() {
+        this.buffers = new ConcurrentLinkedQueue<>();
+        this.pooled = new AtomicInteger(0);
+    }
+
+    public static ReadBufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * 取出一个PROTO_IOBUF_LEN大小的数组，池为空时新建
+     * @return 字节数组，内容未清零
+     */
+    public byte[] acquire() {
+        byte[] buffer = this.buffers.poll();
+        if (buffer == null) {
+            return new byte[PROTO_IOBUF_LEN];
+        }
+        this.pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * 归还数组，非标准大小的数组或池已满时直接丢弃
+     * @param buffer 字节数组
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != PROTO_IOBUF_LEN) {
+            return;
+        }
+
+        if (this.pooled.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            this.pooled.decrementAndGet();
+            return;
+        }
+        this.buffers.offer(buffer);
+    }
+
+    public int size() {
+        return this.pooled.get();
+    }
+}
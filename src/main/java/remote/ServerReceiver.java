@@ -1,13 +1,13 @@
 package remote;
 
 import server.client.InnerClient;
-import common.struct.impl.Sds;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import remote.protocol.RequestParser;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
 
 /**
@@ -19,14 +19,15 @@ public class ServerReceiver implements Receiver {
 
     private static Log logger = LogFactory.getLog(ServerReceiver.class);
 
-    private final ByteBuffer socketBuffer;        // 用于从SocketChannel中读取数据
-    private final Sds queryBuffer;                // 查询缓冲区
+    private final QueryBuffer queryBuffer;        // 查询缓冲区，客户端读取数据时才从共享池中取得底层数组
     private final RequestParser requestParser;    // 请求解析器
     private final InnerClient client;             // 该receiver关联的client对象
+    private ByteBuffer idleReadBuffer;            // connection-threads模式下空闲连接阻塞读取时使用的小数组
+
+    private static final int IDLE_READ_LEN = 256;   // 空闲连接阻塞读取时读入的最大长度，常见的短命令可以一次读完
 
     public ServerReceiver(InnerClient client) {
-        this.socketBuffer = ByteBuffer.allocateDirect(8);
-        this.queryBuffer = Sds.createEmptySds();
+        this.queryBuffer = new QueryBuffer();
         this.requestParser = new RequestParser(client, this.queryBuffer);
         this.client = client;
     }
@@ -38,46 +39,52 @@ public class ServerReceiver implements Receiver {
     }
 
     /**
-     * 处理查询缓冲区的数据
+     * 处理查询缓冲区的数据，每次最多解析出一条完整的命令
+     * 查询缓冲区中的数据全部解析完时，把缓冲区的底层数组还给共享池
+     * @return 是否解析出了一条完整的命令
+     */
+    public boolean processRequest() {
+        boolean parsed = requestParser.parseRequest();
+        if (!parsed && this.queryBuffer.isEmpty()) {
+            releaseQueryBuffer();
+        }
+        return parsed;
+    }
+
+    /**
+     * 解析出的命令都已执行完时调用，命令参数不再引用查询缓冲区，取消查询缓冲区的固定
+     * 如果还有一条命令只解析了一部分，它的参数依然引用着查询缓冲区，此时保持固定
      */
-    public void processRequest() {
-        requestParser.parseRequest();
+    public void unpinQueryBuffer() {
+        if (this.queryBuffer.isPinned() && !this.requestParser.hasPendingArgs()) {
+            this.queryBuffer.unpin();
+        }
     }
 
     /**
      * 从客户端对应的SocketChannel中读取数据到客户端的查询缓冲区
+     * 数据直接读入查询缓冲区的底层数组，每次至少预留PROTO_IOBUF_LEN的空间；
+     * 如果正在接收一个大参数，那么数据直接读入为该参数分配好的Sds，直到该参数的内容结束
+     *
+     * 查询缓冲区中未解析的数据达到PROTO_MBULK_BIG_ARG时停止读取，先交给解析器，
+     * 这样大参数的长度头被解析后，剩余的内容才能直接读入大参数，而不是先全部堆积在查询缓冲区中，
+     * 套接字中剩余的数据等下一次可读事件再读取
      * @return 返回一个int值。返回值为-1表示客户端已经关闭连接，返回值为正数表示读取的字节数，0表示异常情况
      */
     public int readDataFromSocket() {
         SocketChannel channel = this.client.getSocketChannel();
         int bytesCount = 0;
+        int byteRead = 0;
         try {
-            this.socketBuffer.clear();
-
-            int byteRead = channel.read(this.socketBuffer);
-
-            while (byteRead > 0) {
-                bytesCount += byteRead;
-
-                // 将读取的数据写入查询缓冲区
-                this.socketBuffer.flip();
-                while (this.socketBuffer.hasRemaining()) {
-                    // 将从channel中读取到的数据写入查询缓冲区
-                    byte [] temp = new byte[this.socketBuffer.remaining()];
-                    this.socketBuffer.get(temp);
-                    this.queryBuffer.append(temp);
+            do {
+                byteRead = readOnce(channel);
+                if (byteRead > 0) {
+                    bytesCount += byteRead;
                 }
-
-                this.socketBuffer.clear();
-                byteRead = channel.read(this.socketBuffer);
-            };
+            } while (byteRead > 0 && this.queryBuffer.readableBytes() < ReadBufferPool.PROTO_MBULK_BIG_ARG);
 
             // 正常读取了数据，直接返回
             if (bytesCount > 0) {
-
-                // 测试，输出从网络中读取的数据
-                logger.debug("服务器接收到数据：" + this.queryBuffer.toString());
-
                 return bytesCount;
             }
 
@@ -89,11 +96,87 @@ public class ServerReceiver implements Receiver {
             logger.error("Read from SocketChannel error", e);
         }
 
+        // 没有读到数据，查询缓冲区依然为空时，把底层数组还给共享池
+        if (this.queryBuffer.isEmpty()) {
+            releaseQueryBuffer();
+        }
+
         // 异常情况，返回0
         return 0;
     }
 
-    public Sds getQueryBuffer() {
+    /**
+     * connection-threads模式下，在连接线程中调用
+     * 以阻塞的方式读取一次数据到查询缓冲区，没有数据可读时一直阻塞
+     *
+     * 查询缓冲区为空（连接空闲）时，先读入一个很小的数组，等到有数据到达后才从共享池中取出底层数组，
+     * 否则每个阻塞在读取上的空闲连接都要占用一个PROTO_IOBUF_LEN大小的数组
+     * @return 读取的字节数，-1表示客户端已经关闭连接或连接已被关闭，0表示异常情况
+     */
+    public int readDataFromSocketBlocking() {
+        SocketChannel channel = this.client.getSocketChannel();
+        try {
+            if (this.queryBuffer.capacity() > 0 || this.requestParser.isReceivingBigArg()) {
+                return readOnce(channel);
+            }
+
+            if (this.idleReadBuffer == null) {
+                this.idleReadBuffer = ByteBuffer.allocate(IDLE_READ_LEN);
+            }
+            this.idleReadBuffer.clear();
+            int byteRead = channel.read(this.idleReadBuffer);
+            if (byteRead > 0) {
+                this.queryBuffer.attachBuffer(ReadBufferPool.getPool().acquire());
+                this.queryBuffer.append(this.idleReadBuffer.array(), 0, byteRead);
+            }
+            return byteRead;
+        } catch (ClosedChannelException e) {
+            // 连接在读取期间被服务器关闭
+            return -1;
+        } catch (IOException e) {
+            logger.error("Read from SocketChannel error", e);
+        }
+        return 0;
+    }
+
+    /**
+     * 查询缓冲区为空且没有被固定时，把底层数组还给共享池
+     */
+    public void releaseQueryBufferIfIdle() {
+        if (this.queryBuffer.isEmpty() && !this.queryBuffer.isPinned()) {
+            releaseQueryBuffer();
+        }
+    }
+
+    /**
+     * 读取一次数据：正在接收大参数时读入该参数，否则读入查询缓冲区
+     * @return channel.read()的返回值，即读取的字节数，-1表示连接已关闭
+     */
+    private int readOnce(SocketChannel channel) throws IOException {
+        if (this.requestParser.isReceivingBigArg()) {
+            return this.requestParser.readBigArgFrom(channel);
+        }
+
+        if (this.queryBuffer.capacity() == 0) {
+            this.queryBuffer.attachBuffer(ReadBufferPool.getPool().acquire());
+        }
+        return this.queryBuffer.readFrom(channel, ReadBufferPool.PROTO_IOBUF_LEN);
+    }
+
+    /**
+     * 把空的查询缓冲区的底层数组还给共享池
+     */
+    private void releaseQueryBuffer() {
+        if (this.queryBuffer.capacity() > 0) {
+            ReadBufferPool.getPool().release(this.queryBuffer.detachBuffer());
+        }
+    }
+
+    public QueryBuffer getQueryBuffer() {
         return this.queryBuffer;
     }
+
+    public RequestParser getRequestParser() {
+        return this.requestParser;
+    }
 }
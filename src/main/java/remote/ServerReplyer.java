@@ -1,24 +1,40 @@
 package remote;
 
-import server.client.InnerClient;
+import common.shared.SharedObjects;
+import common.utils.SafeEncoder;
+import common.utils.SdsUtil;
 import event.EventLoop;
 import event.handler.SendApplyToClientHandler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import server.ServerContext;
-import common.utils.SafeEncoder;
+import remote.protocol.Protocol;
+import server.PandisServer;
+import server.client.InnerClient;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 服务器要发送给客户端的回复信息，都会先保存在对应客户端对象的回复缓冲区或回复列表中
  * 当客户端的套接字可写时，调用写处理器，将换成的回复信息发送给客户端
  * 回复消息优先缓存在缓冲区数组中，当缓冲区数组空间不足时，则存入队列中
+ *
+ * 回复直接按协议格式以字节的形式写入缓冲区，不再先拼接成String再编码：
+ * bulk回复的内容直接从Sds的字节数组复制，常用的回复（+OK、:0、:1、$-1以及较短的长度头）使用SharedObjects中预先编码好的字节
+ * RESP3的回复类型（map、set、double等）按客户端通过HELLO协商的协议版本编码，RESP2客户端收到的是最接近的RESP2类型
+ * 回复队列由若干16kb的块组成，较短的回复会追加到队尾块的空闲空间中，发送时缓冲区和队列中的块通过一次聚集写（gathering write）发出
+ *
+ * 回复缓冲区使用的直接内存从DirectBufferArena中按需取出：只有在有回复待发送时才持有，缓冲区中的数据全部发送后立即归还，
+ * 空闲的连接不占用直接内存
+ *
+ * 开启IO子反应器后，回复由主事件循环写入缓冲区，而由IO子反应器发送，
+ * 因此访问缓冲区的方法都需要在replyer上同步
+ * connection-threads模式下回复由连接线程以阻塞的方式发送，阻塞写入期间不持有replyer的锁，见flushPendingReplyBlocking
  * @Author huzihan
  * @Date 2021/9/29
  **/
@@ -27,49 +43,344 @@ public class ServerReplyer implements Replyer {
 
     public static final int REPLY_CHUNK_BYTES = 16 * 1024;      // 回复缓冲区大小：16kb
     public static final int MAX_WRITE_PER_EVENT = 1024 * 64;    // 每次给一个client回复的最大数据
+    private static final int MAX_WRITE_BUFFERS = 64;            // 一次聚集写最多使用的缓冲区数量
+
+    private static final byte[] ERROR_PREFIX_BYTES = SafeEncoder.encode(Protocol.ERROR_PREFIX);
+    private static final byte[] STATUS_PREFIX_BYTES = SafeEncoder.encode(Protocol.STATUS_PREFIX);
+    private static final byte[] DOUBLE_PREFIX_BYTES = SafeEncoder.encode(Protocol.DOUBLE_PREFIX);
+    private static final byte[] BIG_NUMBER_PREFIX_BYTES = SafeEncoder.encode(Protocol.BIG_NUMBER_PREFIX);
 
     private InnerClient client;                 // replyer关联的client
     private SocketChannel socketChannel;        // 对应客户端建立连接时创建的SocketChannel
-    private ByteBuffer responseBuffer;          // 固定大小的回复缓冲区，最大缓存16kb,当缓冲区用完或回复太大无法放入buf数组，就会开始使用缓冲队列
-    private boolean isWriteMode;                // 用于记录responseBuffer的当前的读/写模式，默认是write模式
-    private LinkedList<byte[]> responseQueue;   // 回复缓冲队列
-    private ByteBuffer responseQueueBuffer;     // 由于要将队列中的数据发送出去，还是需要借助ByteBuffer，因此另创建一个
+    private ByteBuffer responseBuffer;          // 固定大小的回复缓冲区，最大缓存16kb，始终处于写模式，position即已缓存的数据量，没有待发送数据时为null
+    private ByteBuffer responseBufferView;      // responseBuffer的副本，与其共享数据，发送时使用，避免在读写模式之间来回切换
+    private int sentLength;                     // responseBuffer中已经发送的字节数
+    private LinkedList<ReplyBlock> responseQueue;   // 回复缓冲队列，当缓冲区用完或回复太大无法放入时使用
+    private long responseQueueBytes;            // 回复缓冲队列中所有块占用的内存字节数，用于回复缓冲区限制
+    private final ByteBuffer[] writeBuffers;    // 聚集写时使用的缓冲区数组，重复使用
+    private final byte[] numberBuffer;          // 编码整数时使用的临时数组
+    private final ReentrantLock writeLock;      // connection-threads模式下串行化阻塞发送，与归还缓冲区互斥
 
     public ServerReplyer(InnerClient client) {
         this.client = client;
         this.socketChannel = client.getSocketChannel();
-        this.responseBuffer = ByteBuffer.allocateDirect(REPLY_CHUNK_BYTES);
-        this.isWriteMode = true;
+        this.responseBuffer = null;
+        this.responseBufferView = null;
+        this.sentLength = 0;
         this.responseQueue = new LinkedList<>();
-        this.responseQueueBuffer = ByteBuffer.allocateDirect(REPLY_CHUNK_BYTES);
+        this.responseQueueBytes = 0;
+        this.writeBuffers = new ByteBuffer[MAX_WRITE_BUFFERS];
+        this.numberBuffer = new byte[32];
+        this.writeLock = new ReentrantLock();
     }
 
     @Override
-    public void reply(Reply reply, Object clientData) {
+    public synchronized void reply(Reply reply, Object clientData) {
         if (!prepareClientToWrite(clientData)) {
             return;
         }
 
         // 将回复消息写入客户端缓冲区或缓冲队列
-        String replyMessage = reply.getReplyMessage();
-        addReply(replyMessage);
+        byte[] messageBytes = SafeEncoder.encode(reply.getReplyMessage());
+        addReply(messageBytes, 0, messageBytes.length);
     }
 
+    /*******************************************
+     * 按协议格式直接写入字节的回复方法
+     *******************************************/
+
     /**
-     * 将回复消息添加到缓冲区
-     * 注意缓冲区的优先级：
-     * （1）缓冲区：优先存入这里，当数据过大时无法放入时才考虑放入缓冲队列
-     * （2）缓冲列表：当缓冲队列有数据，则之后的数据也应该放入缓冲队列
-     * @param replyMessage
+     * 添加已经按协议编码好的回复，比如SharedObjects中的共享回复
+     * @param encoded 编码好的回复
+     */
+    public synchronized void addReplyBytes(byte[] encoded) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+        addReply(encoded, 0, encoded.length);
+    }
+
+    /**
+     * 添加bulk回复："$<len>\r\n<content>\r\n"
+     * @param content 内容所在的字节数组，通常就是Sds的内部数组
+     * @param offset 内容起始位置
+     * @param length 内容长度
+     */
+    public synchronized void addReplyBulk(byte[] content, int offset, int length) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+        addReplyLengthHeader((byte) '$', length);
+        addReply(content, offset, length);
+        addReply(SharedObjects.CRLF_BYTES, 0, SharedObjects.CRLF_BYTES.length);
+    }
+
+    /**
+     * 添加multi bulk回复的头部："*<count>\r\n"，之后需要再添加count个bulk回复
+     * @param count 元素个数
+     */
+    public synchronized void addReplyMultiBulkLength(int count) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+        addReplyLengthHeader((byte) '*', count);
+    }
+
+    /**
+     * 添加整数回复：":<value>\r\n"
+     * @param value 整数
+     */
+    public synchronized void addReplyInteger(long value) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        if (value == 0) {
+            addReply(SharedObjects.CZERO_BYTES, 0, SharedObjects.CZERO_BYTES.length);
+        } else if (value == 1) {
+            addReply(SharedObjects.CONE_BYTES, 0, SharedObjects.CONE_BYTES.length);
+        } else {
+            addReplyLongWithPrefix((byte) ':', value);
+        }
+    }
+
+    /**
+     * 添加状态回复："+<status>\r\n"
+     * @param status 状态信息
+     */
+    public synchronized void addReplyStatus(String status) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        byte[] statusBytes = SafeEncoder.encode(status);
+        addReply(STATUS_PREFIX_BYTES, 0, STATUS_PREFIX_BYTES.length);
+        addReply(statusBytes, 0, statusBytes.length);
+        addReply(SharedObjects.CRLF_BYTES, 0, SharedObjects.CRLF_BYTES.length);
+    }
+
+    /**
+     * 添加错误回复："-ERR <error>\r\n"
+     * 错误信息以'-'开头时表示自带错误码（比如"-NOPROTO ..."），此时不再添加"-ERR "前缀
+     * @param error 错误信息
+     */
+    public synchronized void addReplyError(String error) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        byte[] errorBytes = SafeEncoder.encode(error);
+        if (errorBytes.length == 0 || errorBytes[0] != '-') {
+            addReply(ERROR_PREFIX_BYTES, 0, ERROR_PREFIX_BYTES.length);
+        }
+        addReply(errorBytes, 0, errorBytes.length);
+        addReply(SharedObjects.CRLF_BYTES, 0, SharedObjects.CRLF_BYTES.length);
+    }
+
+    /*******************************************
+     * RESP3的回复类型
+     * 客户端没有通过HELLO 3切换到RESP3时，退化为RESP2中最接近的类型
+     *******************************************/
+
+    /**
+     * 添加空回复：RESP3为"_\r\n"，RESP2为空bulk回复"$-1\r\n"
+     */
+    public synchronized void addReplyNull() {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        byte[] encoded = this.client.getResp() > 2 ? SharedObjects.NULL_BYTES : SharedObjects.NULL_BULK_BYTES;
+        addReply(encoded, 0, encoded.length);
+    }
+
+    /**
+     * 添加空数组回复：RESP3为"_\r\n"，RESP2为"*-1\r\n"
+     */
+    public synchronized void addReplyNullArray() {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        byte[] encoded = this.client.getResp() > 2 ? SharedObjects.NULL_BYTES : SharedObjects.NULL_ARRAY_BYTES;
+        addReply(encoded, 0, encoded.length);
+    }
+
+    /**
+     * 添加map回复的头部：RESP3为"%<count>\r\n"，RESP2为"*<count*2>\r\n"，之后需要再添加count对键和值
+     * @param count 键值对数量
+     */
+    public synchronized void addReplyMapLength(int count) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        if (this.client.getResp() > 2) {
+            addReplyLongWithPrefix((byte) '%', count);
+        } else {
+            addReplyLengthHeader((byte) '*', count * 2L);
+        }
+    }
+
+    /**
+     * 添加set回复的头部：RESP3为"~<count>\r\n"，RESP2为"*<count>\r\n"
+     * @param count 元素个数
+     */
+    public synchronized void addReplySetLength(int count) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        if (this.client.getResp() > 2) {
+            addReplyLongWithPrefix((byte) '~', count);
+        } else {
+            addReplyLengthHeader((byte) '*', count);
+        }
+    }
+
+    /**
+     * 添加push回复的头部：RESP3为"><count>\r\n"，RESP2为"*<count>\r\n"
+     * push是服务器主动发送的带外数据，RESP3客户端可以把它和命令的回复区分开，从而在同一个连接上接收订阅消息和失效消息
+     * @param count 元素个数
+     */
+    public synchronized void addReplyPushLength(int count) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        if (this.client.getResp() > 2) {
+            addReplyLongWithPrefix((byte) '>', count);
+        } else {
+            addReplyLengthHeader((byte) '*', count);
+        }
+    }
+
+    /**
+     * 添加attribute回复的头部："|<count>\r\n"，之后需要再添加count对键和值，然后才是真正的回复
+     * RESP2没有对应的类型，只能发送给RESP3客户端
+     * @param count 键值对数量
      */
-    private void addReply(String replyMessage) {
-        byte [] messageBytes = SafeEncoder.encode(replyMessage);
+    public synchronized void addReplyAttributeLength(int count) {
+        if (this.client.getResp() < 3) {
+            throw new IllegalStateException("Attribute reply requires RESP3");
+        }
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+        addReplyLongWithPrefix((byte) '|', count);
+    }
 
-        if (!addReplyToBuffer(messageBytes)) {
-            addReplyToQueue(messageBytes);
+    /**
+     * 添加浮点数回复：RESP3为",<double>\r\n"，RESP2为内容是该浮点数的bulk回复
+     * 无穷大和NaN编码为inf、-inf和nan
+     * @param value 浮点数
+     */
+    public synchronized void addReplyDouble(double value) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
         }
+
+        byte[] doubleBytes = SafeEncoder.encode(doubleToString(value));
+        if (this.client.getResp() > 2) {
+            addReply(DOUBLE_PREFIX_BYTES, 0, DOUBLE_PREFIX_BYTES.length);
+        } else {
+            addReplyLengthHeader((byte) '$', doubleBytes.length);
+        }
+        addReply(doubleBytes, 0, doubleBytes.length);
+        addReply(SharedObjects.CRLF_BYTES, 0, SharedObjects.CRLF_BYTES.length);
     }
 
+    /**
+     * 添加布尔回复：RESP3为"#t\r\n"或"#f\r\n"，RESP2为整数回复1或0
+     * @param value 布尔值
+     */
+    public synchronized void addReplyBool(boolean value) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        byte[] encoded;
+        if (this.client.getResp() > 2) {
+            encoded = value ? SharedObjects.TRUE_BYTES : SharedObjects.FALSE_BYTES;
+        } else {
+            encoded = value ? SharedObjects.CONE_BYTES : SharedObjects.CZERO_BYTES;
+        }
+        addReply(encoded, 0, encoded.length);
+    }
+
+    /**
+     * 添加大整数回复：RESP3为"(<number>\r\n"，RESP2为内容是该整数的bulk回复
+     * @param number 十进制表示的整数，调用者保证格式正确
+     */
+    public synchronized void addReplyBigNumber(String number) {
+        if (!prepareClientToWrite(this.client)) {
+            return;
+        }
+
+        byte[] numberBytes = SafeEncoder.encode(number);
+        if (this.client.getResp() > 2) {
+            addReply(BIG_NUMBER_PREFIX_BYTES, 0, BIG_NUMBER_PREFIX_BYTES.length);
+        } else {
+            addReplyLengthHeader((byte) '$', numberBytes.length);
+        }
+        addReply(numberBytes, 0, numberBytes.length);
+        addReply(SharedObjects.CRLF_BYTES, 0, SharedObjects.CRLF_BYTES.length);
+    }
+
+    /**
+     * 按RESP3的格式把浮点数转换为字符串，整数值不带小数部分
+     */
+    static String doubleToString(double value) {
+        if (Double.isNaN(value)) {
+            return "nan";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e17) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * 添加"$<len>\r\n"或"*<len>\r\n"，较短的长度使用预先编码好的共享头部
+     */
+    private void addReplyLengthHeader(byte prefix, long length) {
+        if (length >= 0 && length < SharedObjects.SHARED_BULKHDR_LEN) {
+            byte[] header = prefix == '$' ? SharedObjects.BULK_HEADERS[(int) length] : SharedObjects.MULTI_BULK_HEADERS[(int) length];
+            addReply(header, 0, header.length);
+        } else {
+            addReplyLongWithPrefix(prefix, length);
+        }
+    }
+
+    /**
+     * 添加"<prefix><value>\r\n"，整数直接编码为字节，不经过String
+     */
+    private void addReplyLongWithPrefix(byte prefix, long value) {
+        this.numberBuffer[0] = prefix;
+        int length = 1 + SdsUtil.longToString(this.numberBuffer, 1, value);
+        this.numberBuffer[length++] = '\r';
+        this.numberBuffer[length++] = '\n';
+        addReply(this.numberBuffer, 0, length);
+    }
+
+    /**
+     * 将回复消息添加到缓冲区
+     * 注意缓冲区的优先级：
+     * （1）缓冲区：优先存入这里，放不下的部分存入缓冲队列
+     * （2）缓冲列表：当缓冲队列有数据，则之后的数据也应该放入缓冲队列，保证回复的顺序
+     * @param bytes 回复内容所在的数组
+     * @param offset 起始位置
+     * @param length 长度
+     */
+    private void addReply(byte[] bytes, int offset, int length) {
+        int added = addReplyToBuffer(bytes, offset, length);
+        if (added < length) {
+            addReplyToQueue(bytes, offset + added, length - added);
+        }
+    }
 
     /**
      * 这个函数在每次向客户端发送数据时都会被调用。
@@ -103,162 +414,347 @@ public class ServerReplyer implements Replyer {
             return false;
         }
 
+        // 客户端将被异步关闭，或者回复完协议错误后关闭，不需要再积累回复
+        if (this.client.hasFlags(InnerClient.CLIENT_CLOSE_ASAP) || this.client.hasFlags(InnerClient.CLIENT_CLOSE_AFTER_REPLY)) {
+            return false;
+        }
+
+        // 客户端已经关闭，不需要再发送数据
+        if (!this.socketChannel.isOpen()) {
+            return false;
+        }
+
+        // 客户端由连接线程负责，正在执行的一批命令的回复由连接线程在执行完后发送，
+        // 连接线程阻塞在读取上时产生的回复（比如订阅消息）由临时线程发送
+        if (this.client.isServedByConnectionThread()) {
+            if (!this.client.isExecuting()) {
+                this.client.scheduleConnectionThreadFlush();
+            }
+            return true;
+        }
+
         // 一般情况，为客户端套接字安装写处理器到事件循环
-        EventLoop eventLoop = ServerContext.getContext().getEventLoop();
+        EventLoop eventLoop = this.client.getEventLoop();
 
-        // 注册写数据事件和处理器
-        eventLoop.registerFileEvent(this.socketChannel, SelectionKey.OP_WRITE, SendApplyToClientHandler.getHandler(), client);
+        if (PandisServer.getInstance().postponeClientWrite(this.client)) {
+            // 客户端由主事件循环负责，回复在本轮事件循环进入select前统一发送
+            return true;
+        }
+
+        if (eventLoop.inEventLoop()) {
+            // 注册写数据事件和处理器
+            eventLoop.registerFileEvent(this.socketChannel, SelectionKey.OP_WRITE, SendApplyToClientHandler.getHandler(), client);
+        } else if (!this.client.isExecuting()) {
+            // 客户端属于其他IO子反应器，回复只能由该IO子反应器自己发送
+            // 如果该客户端的一批命令正在执行，命令执行完后IO子反应器会统一发送回复，这里不需要重复提交
+            eventLoop.execute(this::flushPendingReply);
+        }
 
         return true;
     }
 
+    /**
+     * 在客户端所属的事件循环线程中调用
+     * 先尝试直接发送待发送的回复，套接字发送缓冲区满了还没发完时，才注册写事件，等到套接字可写时继续发送
+     */
+    public void flushPendingReply() {
+        if (isNothingToReply() || !this.socketChannel.isOpen()) {
+            return;
+        }
+
+        writeDataToSocket();
+
+        if (!isNothingToReply() && this.socketChannel.isOpen()) {
+            this.client.getEventLoop().registerFileEvent(this.socketChannel, SelectionKey.OP_WRITE, SendApplyToClientHandler.getHandler(), this.client);
+        }
+    }
+
     /**
      * 将回复信息缓存到客户端的回复缓冲区中
-     * @param message 回复信息
-     * @return 写入是否成功
+     * @return 写入缓冲区的字节数，缓冲区空间不足时只写入一部分
      */
-    private boolean addReplyToBuffer(byte [] message) {
+    private int addReplyToBuffer(byte[] bytes, int offset, int length) {
         // TODO
         // 计算客户端状态
         // 如果正准备关闭客户端，无须再发送内容
 
         // 如果回复链表里已经有内容，再添加内容到回复缓冲区里面就是错误了
         if (!this.responseQueue.isEmpty()) {
-            return false;
+            return 0;
         }
 
-        // todo:这个操作会复制数组，需要优化
-        // 写入前要保证ByteBuffer处于写入状态
-        if (!this.isWriteMode) {
-            this.responseBuffer.compact();
-            this.isWriteMode = true;
+        if (length == 0) {
+            return 0;
         }
 
-        // 回复缓冲区的空间必须满足
-        if (message.length > this.responseBuffer.remaining()) {
-            return false;
+        if (this.responseBuffer == null) {
+            acquireResponseBuffer();
         }
 
-        // 复制message到回复缓冲区里面
-        this.responseBuffer.put(message);
+        int added = Math.min(length, this.responseBuffer.remaining());
+        this.responseBuffer.put(bytes, offset, added);
+        return added;
+    }
 
-        return true;
+    /**
+     * 从共享的分配器中取出回复缓冲区
+     */
+    private void acquireResponseBuffer() {
+        this.responseBuffer = DirectBufferArena.getArena().acquire();
+        this.responseBufferView = this.responseBuffer.duplicate();
+        this.sentLength = 0;
+    }
+
+    /**
+     * 把回复缓冲区还给共享的分配器
+     */
+    private void releaseResponseBuffer() {
+        if (this.responseBuffer == null) {
+            return;
+        }
+        DirectBufferArena.getArena().release(this.responseBuffer);
+        this.responseBuffer = null;
+        this.responseBufferView = null;
+        this.sentLength = 0;
+    }
+
+    /**
+     * 客户端关闭时调用，归还回复缓冲区并丢弃未发送的回复
+     */
+    public void release() {
+        // 等待正在进行的阻塞发送结束，避免缓冲区被归还后又被其他客户端取走时，这里还在从中发送数据
+        this.writeLock.lock();
+        try {
+            synchronized (this) {
+                releaseResponseBuffer();
+                this.responseQueue.clear();
+                this.responseQueueBytes = 0;
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
     }
 
     /**
      * 将回复消息写入回复缓冲队列
-     * @param message
+     * 先填满队尾块的空闲空间，剩余内容放入新的块中，新块至少为REPLY_CHUNK_BYTES大小
      */
-    private void addReplyToQueue(byte [] message) {
+    private void addReplyToQueue(byte[] bytes, int offset, int length) {
         // TODO
         // 计算客户端状态
         // 如果正准备关闭客户端，无须再发送内容
 
-        // 将回复消息加入缓冲队列
-        this.responseQueue.add(message);
+        ReplyBlock tail = this.responseQueue.peekLast();
+        if (tail != null) {
+            int added = tail.append(bytes, offset, length);
+            offset += added;
+            length -= added;
+        }
+
+        if (length > 0) {
+            ReplyBlock block = new ReplyBlock(Math.max(length, REPLY_CHUNK_BYTES));
+            block.append(bytes, offset, length);
+            this.responseQueue.add(block);
+            this.responseQueueBytes += block.buf.length;
+        }
+
+        // 回复开始在队列中积压，检查是否超过了回复缓冲区限制
+        this.client.closeClientOnOutputBufferLimitReachedAsync();
+    }
+
+    /**
+     * 获取回复缓冲区占用的内存，只计算回复队列，固定大小的回复缓冲区不计算在内，对应redis中的getClientOutputBufferMemoryUsage
+     * @return 占用的字节数
+     */
+    public synchronized long getOutputBufferMemoryUsage() {
+        return this.responseQueueBytes;
     }
 
     /**
      * 将缓冲区数据写入客户端对应的SocketChannel  buf->channel
-     * @return 返回一个int值。返回值为-1表示客户端已经关闭连接，返回值为正数表示写入的字节数，0表示异常情况
+     * 缓冲区和回复队列中的块通过聚集写一次写入，套接字发送缓冲区满或写入的数据量超过MAX_WRITE_PER_EVENT时停止
+     * @return 返回写入的字节数，0表示没有写入任何数据（套接字不可写或发生异常）
      */
-    public int writeDataToSocket() {
+    public synchronized int writeDataToSocket() {
         // 发给客户端的总数据大小
         int totalWrittenNum = 0;
 
-        // 使responseBuffer处于读模式
-        if (this.isWriteMode) {
-            this.responseBuffer.flip();
-            this.isWriteMode = false;
-        }
+        try {
+            while (!isNothingToReply()) {
+                int count = collectWriteBuffers();
+                long expected = remainingBytes(count);
 
-        // 有缓冲的回复内容待发
-        while (this.responseBuffer.hasRemaining() || !this.responseQueue.isEmpty()) {
-            // 如果缓冲区有数据，则优先发送缓冲区内的数据
-            if (this.responseBuffer.hasRemaining()) {
-                int writtenSum = 0; // 单次write写入的字节数
-                int writtenNum = 0; // 发送一条回复过程中的发送字节数量和
+                long writtenNum = this.socketChannel.write(this.writeBuffers, 0, count);
 
-                try {
-                    while (this.responseBuffer.hasRemaining()) {
-                        writtenNum = this.socketChannel.write(this.responseBuffer);
-                        writtenSum += writtenNum;
-                        totalWrittenNum += writtenNum;
-                    }
-                } catch (IOException e) {
-                    logger.error("Write reply to server.client error", e);
-                }
+                // 更新已发送的位置，删除已经发送完的内容
+                afterWrite(count);
 
-                return totalWrittenNum;
-            } else {
-                // 删除队列第一个元素
-                byte [] byteMessage = this.responseQueue.removeFirst();
+                totalWrittenNum += writtenNum;
 
-                // 该节点没有内容，直接跳过
-                if (byteMessage.length == 0) {
-                    this.responseQueue.removeFirst();
-                    continue;
+                // 套接字发送缓冲区已满，剩余内容等下次写入就绪再继续写入
+                if (writtenNum < expected) {
+                    break;
                 }
 
-                int writtenNum = 0; // 单次write写入的字节数
-                int writtenSum = 0; // 发送一条回复过程中的发送字节数量和
-
-                // 发送队列中的单条消息
-                int index = 0;      // 字符串的内容会分批先存入ByteBuffer，index用于标记已经写入的位置
-                while (index < byteMessage.length) {
-                    // 将需要写入的数据先写入辅助buf 通过buf写入到channel
-                    this.responseQueueBuffer.clear();
-
-                    int fillLength = Math.min(byteMessage.length - index, this.responseQueueBuffer.remaining());
-                    this.responseQueueBuffer.put(byteMessage, index, fillLength);
-
-                    this.responseQueueBuffer.flip();
+                /**
+                 * 为了避免一个非常大的回复独占服务器，
+                 * 当写入的总数量大于 PANDIS_MAX_WRITE_PER_EVENT
+                 * 临时中断写入，将处理时间让给其他客户端，
+                 * 剩余的内容等下次写入就绪再继续写入
+                 */
+                if (totalWrittenNum > MAX_WRITE_PER_EVENT) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Write reply to server.client error", e);
+        } finally {
+            clearWriteBuffers();
+        }
 
-                    try {
-                        while (this.responseQueueBuffer.hasRemaining()) {
-                            writtenNum = this.socketChannel.write(this.responseQueueBuffer);
-                            writtenSum += writtenNum;
-                            totalWrittenNum += writtenNum;
-                        }
-                    } catch (IOException e) {
-                        logger.error("Write reply to server.client error", e);
+        // 最后的回复（比如协议错误）已经发送完，关闭客户端
+        if (this.client.hasFlags(InnerClient.CLIENT_CLOSE_AFTER_REPLY) && isNothingToReply()) {
+            this.client.closeAfterReplySent();
+        }
 
-                        // 如果发送过程中发生异常，而消息又没有发完，则需要将这部分消息重新缓存起来
-                        if (writtenSum < byteMessage.length) {
-                            this.responseQueue.addFirst(Arrays.copyOfRange(byteMessage, writtenSum, byteMessage.length));
-                        }
+        return totalWrittenNum;
+    }
 
-                        // 返回发送异常前已经发送成功的数据长度
-                        return totalWrittenNum;
+    /**
+     * connection-threads模式下，在连接线程（或发送订阅消息的临时线程）中调用
+     * 以阻塞的方式发送所有待发送的回复，返回时回复已全部发送，或者连接已经关闭
+     *
+     * 收集待发送数据和更新发送位置时持有replyer的锁，阻塞写入期间不持有，
+     * 这样客户端消费得慢时，主事件循环依然可以向该客户端追加回复，而不会被阻塞：
+     * 写入的只是收集时已有的内容，即缓冲区中的[sentLength, position)和各个块中的[sent, used)，
+     * 追加的新内容总是位于这些区域之后，而缓冲区和块只会由发送方在持有锁时归还或删除
+     */
+    public void flushPendingReplyBlocking() {
+        this.writeLock.lock();
+        try {
+            while (true) {
+                int count;
+                synchronized (this) {
+                    if (isNothingToReply() || !this.socketChannel.isOpen()) {
+                        return;
                     }
+                    count = collectWriteBuffers();
+                }
+
+                // 阻塞模式下聚集写会写完所有数据才返回
+                this.socketChannel.write(this.writeBuffers, 0, count);
 
-                    index += writtenSum;
+                synchronized (this) {
+                    afterWrite(count);
                 }
             }
+        } catch (IOException e) {
+            if (this.socketChannel.isOpen()) {
+                logger.error("Write reply to server.client error", e);
+            }
+        } finally {
+            clearWriteBuffers();
+            this.writeLock.unlock();
+        }
+    }
 
-            /**
-             * 为了避免一个非常大的回复独占服务器，
-             * 当写入的总数量大于 PANDIS_MAX_WRITE_PER_EVENT
-             * 临时中断写入，将处理时间让给其他客户端，
-             * 剩余的内容等下次写入就绪再继续写入
-             */
-            if (totalWrittenNum > MAX_WRITE_PER_EVENT) {
+    /**
+     * 把缓冲区和回复队列中待发送的数据收集到writeBuffers中，用于一次聚集写
+     * @return 收集的缓冲区数量，缓冲区总是在第一个位置
+     */
+    private int collectWriteBuffers() {
+        int count = 0;
+        if (this.responseBuffer != null && this.sentLength < this.responseBuffer.position()) {
+            this.responseBufferView.limit(this.responseBuffer.position());
+            this.responseBufferView.position(this.sentLength);
+            this.writeBuffers[count++] = this.responseBufferView;
+        }
+        for (ReplyBlock block : this.responseQueue) {
+            if (count == MAX_WRITE_BUFFERS) {
                 break;
             }
+            this.writeBuffers[count++] = block.prepareToSend();
         }
+        return count;
+    }
 
-        if(totalWrittenNum > 0) {
-            return totalWrittenNum;
+    private long remainingBytes(int count) {
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            remaining += this.writeBuffers[i].remaining();
         }
+        return remaining;
+    }
 
-        // 异常情况，返回0
-        return 0;
+    /**
+     * 一次写入后更新已发送的位置，归还发送完的缓冲区，删除发送完的块
+     * @param count 参与写入的缓冲区数量
+     */
+    private void afterWrite(int count) {
+        if (count > 0 && this.writeBuffers[0] == this.responseBufferView) {
+            this.sentLength = this.responseBufferView.position();
+            if (this.sentLength == this.responseBuffer.position()) {
+                // 缓冲区中的数据已全部发送，归还缓冲区
+                releaseResponseBuffer();
+            }
+        }
+        Iterator<ReplyBlock> iterator = this.responseQueue.iterator();
+        while (iterator.hasNext()) {
+            ReplyBlock block = iterator.next();
+            if (!block.sendFinished()) {
+                break;
+            }
+            iterator.remove();
+            this.responseQueueBytes -= block.buf.length;
+        }
     }
 
-    public boolean isNothingToReply() {
-        if (!this.responseBuffer.hasRemaining() && this.responseQueue.isEmpty()) {
-            return true;
+    /**
+     * 不持有已发送块的引用
+     */
+    private void clearWriteBuffers() {
+        for (int i = 0; i < MAX_WRITE_BUFFERS && this.writeBuffers[i] != null; i++) {
+            this.writeBuffers[i] = null;
+        }
+    }
+
+    public synchronized boolean isNothingToReply() {
+        return (this.responseBuffer == null || this.sentLength == this.responseBuffer.position()) && this.responseQueue.isEmpty();
+    }
+
+    /**
+     * 回复队列中的一个块
+     * 写入内容时used增加，发送时sent增加，sent等于used时该块发送完毕
+     */
+    private static final class ReplyBlock {
+        private final byte[] buf;
+        private final ByteBuffer view;  // 包装buf，发送时使用
+        private int used;
+        private int sent;
+
+        ReplyBlock(int size) {
+            this.buf = new byte[size];
+            this.view = ByteBuffer.wrap(this.buf);
+            this.used = 0;
+            this.sent = 0;
+        }
+
+        int append(byte[] bytes, int offset, int length) {
+            int added = Math.min(length, this.buf.length - this.used);
+            System.arraycopy(bytes, offset, this.buf, this.used, added);
+            this.used += added;
+            return added;
+        }
+
+        ByteBuffer prepareToSend() {
+            this.view.limit(this.used);
+            this.view.position(this.sent);
+            return this.view;
+        }
+
+        boolean sendFinished() {
+            this.sent = this.view.position();
+            return this.sent == this.used;
         }
-        return false;
     }
 }
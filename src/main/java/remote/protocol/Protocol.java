@@ -19,6 +19,16 @@ public class Protocol {
     public static final String MULTI_BULK_PREFIX = "*";
     public static final String DELIMITER = "\r\n";
 
+    // RESP3新增的回复类型，只有通过HELLO 3切换到RESP3的客户端才会收到
+    public static final String NULL_PREFIX = "_";
+    public static final String DOUBLE_PREFIX = ",";
+    public static final String BOOLEAN_PREFIX = "#";
+    public static final String BIG_NUMBER_PREFIX = "(";
+    public static final String MAP_PREFIX = "%";
+    public static final String SET_PREFIX = "~";
+    public static final String ATTRIBUTE_PREFIX = "|";
+    public static final String PUSH_PREFIX = ">";
+
     public static final Charset CHARSET = StandardCharsets.UTF_8;
 
     /**
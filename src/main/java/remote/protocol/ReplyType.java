@@ -10,5 +10,13 @@ public enum ReplyType {
     INTEGER,    // 整数回复
     BULK,       // 字符串回复
     MULTI_BULK, // 多行字符串回复
-    NIL;        // 空回复
+    NIL,        // 空回复
+    // 以下为RESP3的回复类型
+    MAP,        // 键值对，元素个数为键值对数量的两倍
+    SET,        // 无序、不重复的集合
+    DOUBLE,     // 浮点数
+    BOOLEAN,    // 布尔值
+    BIG_NUMBER, // 大整数
+    PUSH,       // 服务器主动推送的带外数据，比如订阅消息和失效消息
+    ATTRIBUTE;  // 附加在下一个回复之前的属性
 }
@@ -1,11 +1,17 @@
 package remote.protocol;
 
+import common.struct.PandisString;
+import common.struct.impl.SdsView;
+import remote.QueryBuffer;
+import remote.ReadBufferPool;
 import server.client.InnerClient;
 import common.struct.impl.Sds;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import common.utils.SdsUtil;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -20,16 +26,19 @@ public class RequestParser {
 
     public static final int  INLINE_MAX_SIZE  = 1024 * 64;  /* Max size of inline reads */
 
-    private final Sds queryBuffer;                          // 该RequestParser关联的queryBuffer
+    private final QueryBuffer queryBuffer;                  // 该RequestParser关联的queryBuffer，解析时只移动读位置，不删除数据
     private final InnerClient client;                       // 该RequestParser关联的client对象
+    private ArrayList<PandisString> requestArgs;            // 当前正在解析的request中已经解析出的参数，request完整后才交给client
 
     private volatile RequestType currentParseRequestType;   // 表示当前正在解析的请求类型
     private volatile int currentMultiBulkRequestItemNum;    // 当前解析的multBulkRequest中的元素数量
     private volatile int currentBulkItemLength;             // 当前解析的multBulkRequest中当前bulk的内容长度
+    private Sds bigArg;                                     // 正在接收的大参数，按bulk长度一次分配好，内容直接读入其中
 
-    public RequestParser(InnerClient client, Sds queryBuffer) {
+    public RequestParser(InnerClient client, QueryBuffer queryBuffer) {
         this.queryBuffer = queryBuffer;
         this.client = client;
+        this.requestArgs = new ArrayList<>();
         this.currentParseRequestType = RequestType.NONE;
         this.currentMultiBulkRequestItemNum = 0;
         this.currentBulkItemLength = -1;
@@ -38,15 +47,34 @@ public class RequestParser {
     /**
      * 解析缓冲区的请求数据
      * 解析出来的命令参数存入client的命令参数列表中
+     * 每次调用最多解析出一条完整的命令，查询缓冲区中剩余的数据（pipeline中后续的命令）保留在缓冲区中，
+     * 调用者应该在执行完本条命令后再次调用该方法，直到返回false为止
+     * @return 是否解析出了一条完整的命令
      */
-    public void parseRequest() {
+    public boolean parseRequest() {
+        // 出现过协议错误的客户端在回复错误后会被关闭，之后收到的数据都直接丢弃
+        if (this.client.getProtocolError() != null || this.client.hasFlags(InnerClient.CLIENT_CLOSE_AFTER_REPLY)) {
+            this.queryBuffer.skipBytes(this.queryBuffer.readableBytes());
+            return false;
+        }
+
         // 一直循环，直到完整地解析一个request为止
         while (!this.queryBuffer.isEmpty()) {
             // 先从查询缓冲中截取出一段完整命令（以\n结尾）
-            int indexLast = this.queryBuffer.indexOf('\n');
+            int indexLast = this.queryBuffer.indexOf((byte) '\n');
             // 当前查询缓冲区内的数据还不完整，暂时无法进行解析
             if(indexLast == -1) {
-                return;
+                // 一行超过INLINE_MAX_SIZE还没有结束，说明格式错误，否则查询缓冲区会无限增长
+                if (this.queryBuffer.readableBytes() > INLINE_MAX_SIZE) {
+                    if (this.currentParseRequestType == RequestType.MULTI_BULK) {
+                        setProtocolError("too big bulk count string");
+                    } else if (this.queryBuffer.getByte(this.queryBuffer.readerIndex()) == RequestType.MULTI_BULK_PREFIX) {
+                        setProtocolError("too big mbulk count string");
+                    } else {
+                        setProtocolError("too big inline request");
+                    }
+                }
+                return false;
             }
 
             /******************************************************
@@ -57,9 +85,9 @@ public class RequestParser {
             // 在解析一个request前，会将当前request的类型记录到currentParseRequestType
             // 每当完整解析完当前request后，又会被设置为无类型
             if (this.currentParseRequestType == RequestType.NONE) {
-                // 当解析一个新的request，则将之前客户端内的命令列表中的参数清空
-                this.client.getCommandArgs().clear();
-                if (this.queryBuffer.charAt(0) == RequestType.MULTI_BULK_PREFIX) {
+                // 当解析一个新的request，则将之前解析的参数清空
+                this.requestArgs.clear();
+                if (this.queryBuffer.getByte(this.queryBuffer.readerIndex()) == RequestType.MULTI_BULK_PREFIX) {
                     // 多条查询，一般客户端发送来的
                     this.currentParseRequestType = RequestType.MULTI_BULK;
                 } else {
@@ -73,46 +101,50 @@ public class RequestParser {
             if (this.currentParseRequestType == RequestType.INLINE) {
                 // 执行了一次解析
                 // 但有可能没有成功，因为数据可能不全
-                parseInlineRequest();
-                break;
+                return parseInlineRequest();
             } else if (this.currentParseRequestType == RequestType.MULTI_BULK) {
                 // 执行了一次解析
                 // 但有可能没有成功，因为数据可能不全
                 // 也有可能只解析了一部分，因为数据可能不全
-                parseMultiBulkRequest();
-                break;
+                return parseMultiBulkRequest();
             } else {
                 logger.error("Unknow request type");
+                return false;
             }
         }
+
+        return false;
     }
 
     /**
      * 处理内联查询格式
      * 内联命令的各个参数以空格分开，并以 \r\n 结尾
      * 如果缓冲区内的数据不完整，无法构成一个完整的request，则暂停解析，直接返回false，等待新的数据进入缓冲区再解析
-     * @return 解析是否成功
+     * @return 是否完整地消费了一条request（空行被丢弃时也返回true，此时命令参数列表为空）
      */
     private boolean parseInlineRequest() {
         // 查找一行的行尾
-        int indexLast = this.queryBuffer.indexOf('\n');
+        int lineStart = this.queryBuffer.readerIndex();
+        int indexLast = this.queryBuffer.indexOf((byte) '\n');
 
         // 收到的查询内容不符合协议内容，出错
         if(indexLast == -1) {
-            if(this.queryBuffer.length() > INLINE_MAX_SIZE) {
-                // todo 错误处理 ，
-                // server.client.addReply(ReplyType.ERROR, "Protocol error: too big inline request");
+            if(this.queryBuffer.readableBytes() > INLINE_MAX_SIZE) {
+                setProtocolError("too big inline request");
             }
             return false;
         }
 
+        // 本条request在缓冲区中占用的总长度（包括行尾的\n）
+        int requestLength = indexLast + 1 - lineStart;
+
         // 处理\r\n
-        if (indexLast != 0 && this.queryBuffer.charAt(indexLast - 1) == '\r'){
+        if (indexLast != lineStart && this.queryBuffer.getByte(indexLast - 1) == '\r'){
             indexLast--;
         }
 
         // 提取该条request
-        Sds request = Sds.createSds(indexLast, this.queryBuffer.toArrayWithOutCopy());
+        Sds request = Sds.createSds(Arrays.copyOfRange(this.queryBuffer.array(), lineStart, indexLast));
 
         // 根据空格，分割命令的参数
         Sds[] commandArgs = SdsUtil.splitArgs(request);
@@ -120,24 +152,28 @@ public class RequestParser {
         if (commandArgs == null) {
             //todo 错误处理， Protocol error: unbalanced quotes in request
             // server.client.addReply(ReplyType.ERROR, "Protocol error: unbalanced quotes in request");
-            return false;
+
+            // 空行或格式错误的行直接丢弃，命令参数列表为空，调用者不会执行任何命令
+            // 如果不丢弃，这一行会一直留在缓冲区头部，导致pipeline中后续的命令都无法被解析
+            this.queryBuffer.skipBytes(requestLength);
+            completeRequest();
+            return true;
         }
 
         /******************************************************
          * 执行到此处，表示解析成功
          ******************************************************/
 
-        // 将解析的命令参数存入client的命令参数列表
-        ArrayList<Sds> clientCommandList = this.client.getCommandArgs();
+        // 将解析的命令参数存入当前request的参数列表
         for (Sds s : commandArgs) {
-            clientCommandList.add(s);
+            this.requestArgs.add(s);
         }
 
-        // 对当前request解析完成，则将request的内容从回复缓冲区中删除，剩余内容是未解析的
-        this.queryBuffer.cut(indexLast + 2, this.queryBuffer.length());
+        // 对当前request解析完成，则移动查询缓冲区的读位置，之后的内容是未解析的
+        this.queryBuffer.skipBytes(requestLength);
 
-        // 解析成功，将当前正在解析的请求类型设置为无类型
-        this.currentParseRequestType = RequestType.NONE;
+        // 解析成功，将参数交给client
+        completeRequest();
 
         return true;
     }
@@ -153,7 +189,9 @@ public class RequestParser {
      * @return 解析是否成功
      */
     private boolean parseMultiBulkRequest() {
-        int parsePosition = 0;
+        // 解析位置使用查询缓冲区底层数组的绝对下标，从读位置开始
+        final int requestStart = queryBuffer.readerIndex();
+        int parsePosition = requestStart;
 
         // 解析读入命令的参数个数
         // 比如 *3\r\n$3\r\nSET\r\n... 将令 c->multibulklen = 3
@@ -161,26 +199,36 @@ public class RequestParser {
         // 每当解析一个新的multi bulk request时，会将当前的request中item的数量记录下来
         // 如果为0，表示正在解析一个新的multi bulk request
         if (this.currentMultiBulkRequestItemNum == 0) {
-            int firstDelimiterIndex = queryBuffer.indexOf('\r');
+            int firstDelimiterIndex = queryBuffer.indexOf((byte) '\r');
             if (firstDelimiterIndex == -1) {
-                if (queryBuffer.length() > INLINE_MAX_SIZE) {
-                    // server.client.addReply(ReplyType.ERROR, "Protocol error: too big mbulk count string");
-                    return false;
+                if (queryBuffer.readableBytes() > INLINE_MAX_SIZE) {
+                    setProtocolError("too big mbulk count string");
                 }
+                return false;
             }
 
             // 缓冲区内的数据应该也要包含\r\n，否则说明是不完整的requst，暂时不解析
-            if (firstDelimiterIndex > queryBuffer.length() - 2) {
+            if (firstDelimiterIndex > queryBuffer.writerIndex() - 2) {
                 return false;
             }
 
             // 协议的第一个字符必须是 '*'，否则格式出错，不解析
-            if (queryBuffer.charAt(0) != '*') {
+            if (queryBuffer.getByte(requestStart) != '*') {
                 return false;
             }
 
-            // 解析出multi bulk request中指定的请求中bulk的个数
-            int requestItemNum = Integer.parseInt(new String(queryBuffer.toArrayWithOutCopy(), 1, firstDelimiterIndex - 1, Protocol.CHARSET));
+            // 解析出multi bulk request中指定的请求中bulk的个数，直接从字节解析，不创建String
+            long requestItemNum;
+            try {
+                requestItemNum = SdsUtil.stringToLong(queryBuffer.array(), requestStart + 1, firstDelimiterIndex - requestStart - 1);
+            } catch (NumberFormatException e) {
+                setProtocolError("invalid multibulk length");
+                return false;
+            }
+            if (requestItemNum > 1024 * 1024) {
+                setProtocolError("invalid multibulk length");
+                return false;
+            }
 
             // 参数数量之后的位置
             // 比如对于 *3\r\n$3\r\n$SET\r\n... 来说，
@@ -190,7 +238,15 @@ public class RequestParser {
             //              pos
             // 参数数量之后的位置
             parsePosition = firstDelimiterIndex + 2;
-            this.currentMultiBulkRequestItemNum = requestItemNum;
+
+            // *0\r\n 或 *-1\r\n 这类空请求，直接丢弃，不产生任何命令参数
+            if (requestItemNum <= 0) {
+                queryBuffer.skipBytes(parsePosition - requestStart);
+                completeRequest();
+                return true;
+            }
+
+            this.currentMultiBulkRequestItemNum = (int) requestItemNum;
         }
 
         // currentMultiBulkRequstItemNum 表示了该multi request剩余待解析的item数量
@@ -200,11 +256,11 @@ public class RequestParser {
             if (this.currentBulkItemLength == -1) {
                 // 从parsePosition位置处开始向后解析
                 // 首先确保能找到 "\r\n" 存在
-                int delimiterIndex = queryBuffer.indexOf(parsePosition, '\r');
+                int delimiterIndex = queryBuffer.indexOf(parsePosition, (byte) '\r');
                 if (delimiterIndex == -1) {
                     // 如果超过固定长度还没有\r\n，说明格式错误
-                    if (queryBuffer.length() > INLINE_MAX_SIZE) {
-                        // server.client.addReply(ReplyType.ERROR, "Protocol error: too big bulk count string");
+                    if (queryBuffer.writerIndex() - parsePosition > INLINE_MAX_SIZE) {
+                        setProtocolError("too big bulk count string");
                         return false;
                     }
                     // 如果只是单纯没找到\r\n，说明可能request数据还不全，暂时不解析
@@ -212,23 +268,27 @@ public class RequestParser {
                 }
 
                 // 缓冲区内的数据应该也要包含\r\n，否则说明是不完整的requst，暂时不解析
-                if (delimiterIndex > queryBuffer.length() - 2) {
+                if (delimiterIndex > queryBuffer.writerIndex() - 2) {
                     break;
                 }
 
                 // 确保协议符合参数格式，单个bulk以$开头，检查其中的 $...
                 // 比如 $3\r\nSET\r\n
-                if ((char) queryBuffer.charAt(parsePosition) != '$') {
-                    // todo "Protocol error: expected '$', got '%c'"
-                    // server.client.addReply(ReplyType.ERROR, "Protocol error: expected '$'");
+                if (queryBuffer.getByte(parsePosition) != '$') {
+                    setProtocolError("expected '$', got '" + (char) queryBuffer.getByte(parsePosition) + "'");
                     return false;
                 }
 
                 // 解析单个bulk中$后指定的长度
-                int bulkItemLength = Integer.parseInt(new String(queryBuffer.toArrayWithOutCopy(), parsePosition + 1, delimiterIndex - parsePosition - 1, Protocol.CHARSET));
+                long bulkItemLength;
+                try {
+                    bulkItemLength = SdsUtil.stringToLong(queryBuffer.array(), parsePosition + 1, delimiterIndex - parsePosition - 1);
+                } catch (NumberFormatException e) {
+                    setProtocolError("invalid bulk length");
+                    return false;
+                }
                 if (bulkItemLength < 0 || bulkItemLength > 512 * 1024 * 1024) {
-                    // todo Protocol error: invalid bulk length
-                    // server.client.addReply(ReplyType.ERROR, "Protocol error: invalid bulk length");
+                    setProtocolError("invalid bulk length");
                     return false;
                 }
 
@@ -236,21 +296,50 @@ public class RequestParser {
                 parsePosition = delimiterIndex + 2;
 
                 // 记录当前multi request中当前解析的bulk内容长度
-                this.currentBulkItemLength = bulkItemLength;
+                this.currentBulkItemLength = (int) bulkItemLength;
+
+                // 大参数不在查询缓冲区中等待完整，而是按长度分配好最终的Sds，之后读取的内容直接写入其中，
+                // 查询缓冲区不需要为它反复扩容，内容也不需要再从查询缓冲区复制出来
+                if (bulkItemLength >= ReadBufferPool.PROTO_MBULK_BIG_ARG) {
+                    this.bigArg = Sds.createSds(0, (int) bulkItemLength, null);
+                }
+            }
+
+            if (this.bigArg != null) {
+                // 先取走已经读入查询缓冲区的部分内容，剩余内容由receiver直接读入bigArg
+                int available = Math.min(queryBuffer.writerIndex() - parsePosition, this.bigArg.remainingCapacity());
+                if (available > 0) {
+                    this.bigArg.append(queryBuffer.array(), parsePosition, available);
+                    parsePosition += available;
+                }
+
+                // 内容还没有接收完，或者结尾的\r\n还没有到达
+                if (this.bigArg.remainingCapacity() > 0 || queryBuffer.writerIndex() - parsePosition < 2) {
+                    break;
+                }
+
+                // 大参数是独立的Sds，不引用查询缓冲区，不需要固定
+                this.requestArgs.add(this.bigArg);
+                this.bigArg = null;
+
+                parsePosition += 2;
+                this.currentBulkItemLength = -1;
+                this.currentMultiBulkRequestItemNum--;
+                continue;
             }
 
             // 当前parsePosition指向一个bulk item的内容部分的起始处
             // 确保内容符合协议格式，即单个bulk item的内容部分，后面也要确保包含\r\n
             // 比如 $3\r\nSET\r\n 就检查 SET 之后的 \r\n
             // 如果不满足，说明request数据不全，暂不解析
-            if (queryBuffer.length() - parsePosition < this.currentBulkItemLength + 2) {
+            if (queryBuffer.writerIndex() - parsePosition < this.currentBulkItemLength + 2) {
                 break;
             } else {
-                // 将单个bulk item的内容提取出来
-                // 由于multi bulk中的参数可能是分多次解析出来的，因此，是逐步添加到客户端的命令参数列表中
-                Sds arg = Sds.createSds(Arrays.copyOfRange(queryBuffer.toArrayWithOutCopy(), parsePosition, parsePosition + this.currentBulkItemLength));
-                ArrayList<Sds> clientCommandList = client.getCommandArgs();
-                clientCommandList.add(arg);
+                // 将单个bulk item的内容提取出来，参数是引用查询缓冲区的视图，不复制内容
+                // 创建视图后查询缓冲区被固定，直到命令执行完才能覆盖这部分数据
+                // 由于multi bulk中的参数可能是分多次解析出来的，因此，是逐步添加到当前request的参数列表中
+                this.requestArgs.add(new SdsView(queryBuffer.array(), parsePosition, this.currentBulkItemLength));
+                queryBuffer.pin();
 
                 // 将parsePosition的位置移动到下一个bulk item的起始处
                 parsePosition += this.currentBulkItemLength + 2;
@@ -262,18 +351,76 @@ public class RequestParser {
             }
         }
 
-        // 从 querybuf 中删除已被解析的内容
-        if (parsePosition > 0) {
-            queryBuffer.cut(parsePosition, queryBuffer.length());
+        // 移动 querybuf 的读位置，跳过已被解析的内容
+        if (parsePosition > requestStart) {
+            queryBuffer.skipBytes(parsePosition - requestStart);
         }
 
         // 如果本条命令的所有参数都已读取完，那么返回
         if (this.currentMultiBulkRequestItemNum == 0) {
-            this.currentParseRequestType = RequestType.NONE;
+            completeRequest();
             return true;
         }
 
         // 如果还有参数未读取完，那么就协议内容有错
         return false;
     }
+
+    /**
+     * 请求不符合协议，对应redis中的setProtocolError
+     * 解析可能发生在IO线程中，这里只记录错误，由主事件循环回复错误后关闭客户端，见InnerClient.replyProtocolErrorIfNeeded
+     * 出错的请求已经无法定位下一条请求的开始位置，查询缓冲区中剩余的数据和已经解析出的部分参数都被丢弃
+     * @param error 错误信息，不包括"Protocol error: "前缀
+     */
+    private void setProtocolError(String error) {
+        logger.warn("Protocol error from client " + this.client.getSocketChannel() + ": " + error);
+        this.client.setProtocolError("Protocol error: " + error);
+
+        this.queryBuffer.skipBytes(this.queryBuffer.readableBytes());
+        this.requestArgs.clear();
+        this.bigArg = null;
+        this.currentMultiBulkRequestItemNum = 0;
+        this.currentBulkItemLength = -1;
+        this.currentParseRequestType = RequestType.NONE;
+    }
+
+    /**
+     * @return 是否正在接收一个大参数的内容，此时读取的数据应该通过readBigArgFrom直接写入该参数
+     */
+    public boolean isReceivingBigArg() {
+        return this.bigArg != null && this.bigArg.remainingCapacity() > 0;
+    }
+
+    /**
+     * 从channel中读取大参数剩余的内容，直接写入分配好的Sds，最多读取到该参数的内容结束为止，
+     * 结尾的\r\n以及之后的命令留给查询缓冲区
+     * @param channel 数据来源
+     * @return channel.read()的返回值，即读取的字节数，-1表示连接已关闭
+     * @throws IOException 读取出错
+     */
+    public int readBigArgFrom(ReadableByteChannel channel) throws IOException {
+        return this.bigArg.readFrom(channel, this.bigArg.remainingCapacity());
+    }
+
+    /**
+     * @return 是否有一条request只解析了一部分参数，这些参数可能引用着查询缓冲区
+     */
+    public boolean hasPendingArgs() {
+        return !this.requestArgs.isEmpty();
+    }
+
+    /**
+     * 一条request解析完成，将解析出的参数交给client的命令参数列表
+     * 这里直接交换两个列表，而不是复制参数，
+     * 这样未完成的request的参数始终保存在解析器自己的列表中，不会和client正在执行的命令参数混在一起
+     */
+    private void completeRequest() {
+        ArrayList<PandisString> parsedArgs = this.requestArgs;
+        this.requestArgs = this.client.getCommandArgs();
+        this.requestArgs.clear();
+        this.client.setCommandArgs(parsedArgs);
+
+        // 解析成功，将当前正在解析的请求类型设置为无类型
+        this.currentParseRequestType = RequestType.NONE;
+    }
 }
@@ -3,7 +3,9 @@ package remote.protocol;
 import remote.Response;
 import remote.responses.*;
 import common.utils.SafeEncoder;
+import common.utils.SdsUtil;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -154,7 +156,8 @@ public class ResponseParser {
             if (num < 0) {
                 return null;
             }
-            index = index + 3;
+            // 跳过"*n"这里的\r\n
+            index = end + 2;
             List<String> ret = new ArrayList<>();
             for (int i = 0; i < num; i++) {
                 if (index < bytes.length) {
@@ -171,6 +174,135 @@ public class ResponseParser {
         return null;
     }
 
+    /**
+     * 解析任意类型的回复，支持RESP2和RESP3的所有类型，聚合类型的元素递归解析
+     * 只包含bulk元素的多条回复解析为MultiBulkResponse，其他聚合类型解析为AggregateResponse
+     * @param bytes 回复数据
+     * @param start 回复开始的位置
+     * @return 解析出的回复，数据还不完整时返回null
+     */
+    public static Response parseResponse(byte [] bytes, int start) {
+        if (start < 0 || start >= bytes.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        int end = seekNewLine(bytes, start);
+        if (end == -1) {
+            return null;
+        }
+        // 类型前缀和第一行占的字节数
+        int lineSize = end - start + 2;
+
+        char prefix = (char) bytes[start];
+        switch (prefix) {
+            case '+':
+                return new StatusResponse(encodeLine(bytes, start + 1, end), lineSize);
+            case '-':
+                return new ErrorResponse(encodeLine(bytes, start + 1, end), lineSize);
+            case ':':
+                return new IntegerResponse(parseInteger(bytes, start + 1, end), lineSize);
+            case '$': {
+                int len = (int) parseInteger(bytes, start + 1, end);
+                if (len < 0) {
+                    return NilResponse.NIL_RESPONSE;
+                }
+                int contentStart = end + 2;
+                int contentEnd = contentStart + len;
+                if (contentEnd + 2 > bytes.length) {
+                    return null;
+                }
+                return new BulkResponse(encodeLine(bytes, contentStart, contentEnd), contentEnd + 2 - start);
+            }
+            case '_':
+                return NilResponse.RESP3_NIL_RESPONSE;
+            case ',':
+                return new DoubleResponse(parseDouble(bytes, start + 1, end), lineSize);
+            case '#':
+                return new BooleanResponse(bytes[start + 1] == 't', lineSize);
+            case '(':
+                return new BigNumberResponse(new BigInteger(encodeLine(bytes, start + 1, end)), lineSize);
+            case '*':
+            case '%':
+            case '~':
+            case '>':
+            case '|':
+                return parseAggregateResponse(bytes, start, end);
+            default:
+                throw new IllegalStateException("Protocol error, got '" + prefix + "' as reply type byte");
+        }
+    }
+
+    /**
+     * 解析聚合类型的回复：多条回复、map、set、push和attribute
+     * @param end 第一行\r\n的位置
+     */
+    private static Response parseAggregateResponse(byte [] bytes, int start, int end) {
+        char prefix = (char) bytes[start];
+        long count = parseInteger(bytes, start + 1, end);
+        if (count < 0) {
+            return NilResponse.NIL_RESPONSE;
+        }
+
+        // map和attribute的元素个数是键值对数量的两倍
+        long elements = (prefix == '%' || prefix == '|') ? count * 2 : count;
+        List<Response> items = new ArrayList<>((int) Math.min(elements, 1024));
+        boolean allBulk = true;
+        int index = end + 2;
+        for (long i = 0; i < elements; i++) {
+            if (index >= bytes.length) {
+                return null;
+            }
+            Response item = parseResponse(bytes, index);
+            if (item == null) {
+                return null;
+            }
+            items.add(item);
+            allBulk &= item.getType() == ReplyType.BULK;
+            index += item.byteSize();
+        }
+        int parsedByteLength = index - start;
+
+        ReplyType type;
+        switch (prefix) {
+            case '%':
+                type = ReplyType.MAP;
+                break;
+            case '~':
+                type = ReplyType.SET;
+                break;
+            case '>':
+                type = ReplyType.PUSH;
+                break;
+            case '|':
+                type = ReplyType.ATTRIBUTE;
+                break;
+            default:
+                if (allBulk) {
+                    List<String> strings = new ArrayList<>(items.size());
+                    for (Response item : items) {
+                        strings.add((String) item.getContent());
+                    }
+                    return new MultiBulkResponse(strings, parsedByteLength);
+                }
+                type = ReplyType.MULTI_BULK;
+        }
+        return new AggregateResponse(type, items, parsedByteLength);
+    }
+
+    /**
+     * 解析RESP3的浮点数，字节数组[start, end)由SdsUtil.stringToDouble直接解析，另外支持nan
+     */
+    public static double parseDouble(byte [] bytes, int start, int end) {
+        if (end - start == 3 && bytes[start] == 'n' && bytes[start + 1] == 'a' && bytes[start + 2] == 'n') {
+            return Double.NaN;
+        }
+        return SdsUtil.stringToDouble(bytes, start, end - start);
+    }
+
+    private static String encodeLine(byte [] bytes, int start, int end) {
+        return SafeEncoder.encode(Arrays.copyOfRange(bytes, start, end));
+    }
+
     /**
      * 找到从start位置开始往后的第一个分割符\r\n
      * @param bytes 要查找的字节数组
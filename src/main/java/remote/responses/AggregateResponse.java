@@ -0,0 +1,44 @@
+package remote.responses;
+
+import remote.Response;
+import remote.protocol.ReplyType;
+
+import java.util.List;
+
+/**
+ * 元素可以是任意类型回复的聚合回复：RESP3的map、set、push、attribute，以及包含非bulk元素的多条回复
+ * map和attribute的元素按键、值交替存放，元素个数是键值对数量的两倍
+ * 只包含bulk元素的多条回复依然解析为MultiBulkResponse
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class AggregateResponse implements Response {
+    private final ReplyType type;
+    private final List<Response> content;
+    private final int byteSize;
+
+    public AggregateResponse(ReplyType type, List<Response> elements, int byteSize) {
+        this.type = type;
+        this.content = elements;
+        this.byteSize = byteSize;
+    }
+
+    @Override
+    public ReplyType getType() {
+        return this.type;
+    }
+
+    @Override
+    public int byteSize() {
+        return this.byteSize;
+    }
+
+    @Override
+    public Object getContent() {
+        return this.content;
+    }
+
+    public List<Response> getElements() {
+        return this.content;
+    }
+}
@@ -0,0 +1,36 @@
+package remote.responses;
+
+import remote.Response;
+import remote.protocol.ReplyType;
+
+import java.math.BigInteger;
+
+/**
+ * RESP3大整数回复："(<number>\r\n"，超出long范围的整数
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class BigNumberResponse implements Response {
+    private final BigInteger content;
+    private final int byteSize;
+
+    public BigNumberResponse(BigInteger value, int byteSize) {
+        this.content = value;
+        this.byteSize = byteSize;
+    }
+
+    @Override
+    public ReplyType getType() {
+        return ReplyType.BIG_NUMBER;
+    }
+
+    @Override
+    public int byteSize() {
+        return this.byteSize;
+    }
+
+    @Override
+    public Object getContent() {
+        return this.content;
+    }
+}
@@ -0,0 +1,34 @@
+package remote.responses;
+
+import remote.Response;
+import remote.protocol.ReplyType;
+
+/**
+ * RESP3布尔回复："#t\r\n"或"#f\r\n"
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class BooleanResponse implements Response {
+    private final boolean content;
+    private final int byteSize;
+
+    public BooleanResponse(boolean value, int byteSize) {
+        this.content = value;
+        this.byteSize = byteSize;
+    }
+
+    @Override
+    public ReplyType getType() {
+        return ReplyType.BOOLEAN;
+    }
+
+    @Override
+    public int byteSize() {
+        return this.byteSize;
+    }
+
+    @Override
+    public Object getContent() {
+        return this.content;
+    }
+}
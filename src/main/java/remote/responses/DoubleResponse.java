@@ -0,0 +1,34 @@
+package remote.responses;
+
+import remote.Response;
+import remote.protocol.ReplyType;
+
+/**
+ * RESP3浮点数回复：",<double>\r\n"，inf、-inf和nan分别解析为正负无穷大和NaN
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class DoubleResponse implements Response {
+    private final double content;
+    private final int byteSize;
+
+    public DoubleResponse(double value, int byteSize) {
+        this.content = value;
+        this.byteSize = byteSize;
+    }
+
+    @Override
+    public ReplyType getType() {
+        return ReplyType.DOUBLE;
+    }
+
+    @Override
+    public int byteSize() {
+        return this.byteSize;
+    }
+
+    @Override
+    public Object getContent() {
+        return this.content;
+    }
+}
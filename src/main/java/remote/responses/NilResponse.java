@@ -11,14 +11,16 @@ import remote.protocol.ReplyType;
  **/
 public class NilResponse implements Response {
     // 由于NilResponse没有什么可变的内容，因此直接创建一个静态实例，使用时直接复用该实例即可
-    public static final NilResponse NIL_RESPONSE = new NilResponse();
+    public static final NilResponse NIL_RESPONSE = new NilResponse(5);
+    // RESP3的空回复"_\r\n"
+    public static final NilResponse RESP3_NIL_RESPONSE = new NilResponse(3);
 
     private final String content;
     private final int byteSize;
 
-    private NilResponse() {
+    private NilResponse(int byteSize) {
         this.content = "nil";
-        this.byteSize = 5;
+        this.byteSize = byteSize;
     }
 
     @Override
@@ -1,13 +1,20 @@
 package server;
 
+import common.evict.Evictor;
+import common.expire.PeriodicExpirator;
 import common.persistence.AOFPersistence;
 import common.persistence.RDBPersistence;
+import common.utils.UnixSocketUtil;
 import database.Database;
 import event.EventLoopBeforeSleepProcedure;
 import event.GlobalCycleTimeEvent;
+import event.IoReactor;
+import event.IoThreads;
+import event.ConnectionThreads;
 import pubsub.PubSub;
 import server.client.InnerClient;
 import event.handler.AcceptTcpHandler;
+import event.handler.SendApplyToClientHandler;
 import event.EventLoop;
 import org.apache.commons.logging.LogFactory;
 import server.config.ServerConfig;
@@ -16,8 +23,11 @@ import org.apache.commons.logging.Log;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @description:
@@ -32,13 +42,32 @@ public class PandisServer {
 
     private ServerConfig serverConfig;  // 服务端配置
     private EventLoop eventLoop;        // 事件循环
+    private IoReactor[] ioReactors;     // IO子反应器，为空时所有连接都由主事件循环处理
+    private int nextIoReactor;          // 轮询分配连接时，下一个要分配的IO子反应器下标
+    private IoThreads ioThreads;        // io-threads模式下的IO线程组，未开启时为null
+    private ConnectionThreads connectionThreads;    // connection-threads模式下的连接线程，未开启时为null
+    private List<InnerClient> clientsPendingRead;   // 等待IO线程读取并解析请求的客户端
+    private List<InnerClient> clientsPendingWrite;  // 有回复等待发送的客户端
+    private List<InnerClient> clientsToClose;       // 等待被异步关闭的客户端
     private List<InnerClient> clients; // 保存了所有连接到服务器的客户端结构
+    private Map<Long, InnerClient> clientsById;     // 按id索引所有客户端，用于CLIENT TRACKING的REDIRECT等按id查找客户端的场景
     private static volatile PandisServer serverInstance; // 服务器实例
 
     private volatile InnerClient currentClient;    // 当前客户端，仅用于奔溃报告
 
+    /********************************************************
+     * 统计信息
+     *******************************************************/
+
+    private long statClientOutputBufferLimitDisconnections;    // 因为回复缓冲区超过限制而被断开的客户端数量
+    private long statRejectedConnections;       // 因为客户端数量达到maxclients而被拒绝的连接数量
+    private long statExpiredKeys;               // 被惰性删除和定期删除的过期键数量
+    private double statExpiredStalePerc;        // 定期删除采样到的键中已经过期的比例，按采样结果平滑
+
 
     private Database[] databases;
+    private PeriodicExpirator periodicExpirator;    // 用于执行定期删除策略
+    private Evictor evictor;                        // 内存超过maxmemory时淘汰键
 
     /**
      * slave模式
@@ -110,32 +139,67 @@ public class PandisServer {
 
         ServerContext.getContext().setEventLoop(this.eventLoop);
 
-        // 创建保存客户端结构的链表
-        this.clients = new LinkedList<>();
+        // connection-threads模式下每个连接由自己的线程读写，不使用IO子反应器和IO线程
+        boolean connectionThreads = this.serverConfig.isConnectionThreads();
+        if (connectionThreads) {
+            this.connectionThreads = new ConnectionThreads();
+            if (this.serverConfig.getIoReactors() > 0 || this.serverConfig.getIoThreads() > 1) {
+                logger.warn("io-reactors and io-threads are ignored when connection-threads is enabled");
+            }
+        }
 
-        // 订阅发布
-        this.pubSub = new PubSub();
+        // 创建并启动IO子反应器
+        this.ioReactors = new IoReactor[connectionThreads ? 0 : this.serverConfig.getIoReactors()];
+        for (int i = 0; i < this.ioReactors.length; i++) {
+            this.ioReactors[i] = new IoReactor(i);
+            this.ioReactors[i].start();
+        }
+        this.nextIoReactor = 0;
+
+        // 创建并启动io-threads模式的IO线程，和IO子反应器模式不能同时开启
+        if (this.serverConfig.getIoThreads() > 1 && !connectionThreads) {
+            if (this.ioReactors.length > 0) {
+                logger.warn("io-threads is ignored when io-reactors is enabled");
+            } else {
+                this.ioThreads = new IoThreads(this.serverConfig.getIoThreads());
+                this.ioThreads.start();
+            }
+        }
 
         // aof持久化
         this.aofPersistence = new AOFPersistence(this.serverConfig.getAofFileName(), this.serverConfig.getAppendFsync());
 
-        // rdb持久化
-        this.rdbPersistence = new RDBPersistence(this);
+        initDataStructures();
 
-        // 创建数据库
-        this.databases = new Database[this.serverConfig.getDbNumber()];
-        for (int i = 0; i < this.serverConfig.getDbNumber(); i++) {
-            this.databases[i] = new Database(i);
+        // 打开TCP监听端口，port为0时不监听TCP端口
+        ServerSocketChannel serverSocketChannel = null;
+        if (this.serverConfig.getPort() != 0) {
+            try {
+                serverSocketChannel = ServerSocketChannel.open();
+                serverSocketChannel.configureBlocking(false);
+                serverSocketChannel.socket().bind(new InetSocketAddress(this.serverConfig.getPort()), this.serverConfig.getTcpBacklog());
+            } catch (IOException e) {
+                logger.fatal("Init the server socket channel error", e);
+            }
         }
 
-        // 打开TCP监听端口
-        ServerSocketChannel serverSocketChannel = null;
-        try {
-            serverSocketChannel = ServerSocketChannel.open();
-            serverSocketChannel.configureBlocking(false);
-            serverSocketChannel.socket().bind(new InetSocketAddress(this.serverConfig.getPort()));
-        } catch (IOException e) {
-            logger.fatal("Init the server socket channel error", e);
+        // 打开Unix域套接字监听，同一主机上的客户端可以绕过TCP协议栈连接服务器
+        ServerSocketChannel unixSocketChannel = null;
+        String unixSocket = this.serverConfig.getUnixSocket();
+        if (unixSocket != null) {
+            try {
+                unixSocketChannel = UnixSocketUtil.listen(unixSocket, this.serverConfig.getTcpBacklog(), this.serverConfig.getUnixSocketPerm());
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> UnixSocketUtil.unlink(unixSocket)));
+                logger.info("The server is now ready to accept connections at " + unixSocket);
+            } catch (IOException e) {
+                logger.fatal("Opening Unix socket " + unixSocket + " error", e);
+                System.exit(1);
+            }
+        }
+
+        if (serverSocketChannel == null && unixSocketChannel == null) {
+            logger.fatal("Configured to not listen anywhere, exiting.");
+            System.exit(1);
         }
 
         // 注册时间事件
@@ -145,7 +209,64 @@ public class PandisServer {
         // 向事件循环中的监听模块注册事件
         // 为 TCP 连接关联连接应答（accept）处理器
         // 用于接受并应答客户端的 connect() 调用（accept）处理器
-        this.eventLoop.registerFileEvent(serverSocketChannel, SelectionKey.OP_ACCEPT, AcceptTcpHandler.getHandler(), null);
+        // Unix域套接字上的连接同样由AcceptTcpHandler接收，之后和TCP连接没有区别
+        if (serverSocketChannel != null) {
+            this.eventLoop.registerFileEvent(serverSocketChannel, SelectionKey.OP_ACCEPT, AcceptTcpHandler.getHandler(), null);
+        }
+        if (unixSocketChannel != null) {
+            this.eventLoop.registerFileEvent(unixSocketChannel, SelectionKey.OP_ACCEPT, AcceptTcpHandler.getHandler(), null);
+        }
+    }
+
+    /**
+     * 初始化客户端列表、数据库等服务器数据结构，不涉及网络和线程
+     */
+    private void initDataStructures() {
+        this.clientsPendingRead = new ArrayList<>();
+        this.clientsPendingWrite = new ArrayList<>();
+        this.clientsToClose = new ArrayList<>();
+
+        // 创建保存客户端结构的链表
+        this.clients = new LinkedList<>();
+        this.clientsById = new HashMap<>();
+
+        // 订阅发布
+        this.pubSub = new PubSub();
+
+        // rdb持久化
+        this.rdbPersistence = new RDBPersistence(this);
+
+        // 创建数据库
+        this.databases = new Database[this.serverConfig.getDbNumber()];
+        for (int i = 0; i < this.serverConfig.getDbNumber(); i++) {
+            this.databases[i] = new Database(i, this.serverConfig.isActiveExpireIndex());
+        }
+
+        // 定期删除过期键，慢速模式由serverCron执行，快速模式在每次事件循环进入select前执行
+        this.periodicExpirator = new PeriodicExpirator();
+        this.evictor = new Evictor();
+    }
+
+    /**
+     * 创建一个不监听端口、不启动任何线程的服务器实例，只初始化数据结构，供单元测试使用
+     * 事件循环只被创建而不会运行，提交给它的任务不会被执行；不开启AOF持久化
+     * @param config 服务器配置
+     * @return 服务器实例，同时成为当前的全局实例
+     */
+    static PandisServer createForTesting(ServerConfig config) {
+        PandisServer server = new PandisServer();
+        PandisServer.serverInstance = server;
+        ServerContext.getContext().setServerInstance(server);
+
+        server.serverConfig = config;
+        ServerContext.getContext().setServerConfig(config);
+
+        server.eventLoop = EventLoop.createEventLoop();
+        ServerContext.getContext().setEventLoop(server.eventLoop);
+
+        server.initDataStructures();
+        Tracking.getTracking().reset();
+        return server;
     }
 
     private void initServerConfig() {
@@ -221,6 +342,38 @@ public class PandisServer {
 
     public void addClient(InnerClient client) {
         this.clients.add(client);
+        this.clientsById.put(client.getId(), client);
+    }
+
+    /**
+     * 按id查找客户端，只在主事件循环中调用
+     * @param id 客户端id
+     * @return 客户端，不存在（或已经断开）时返回null
+     */
+    public InnerClient lookupClientById(long id) {
+        return this.clientsById.get(id);
+    }
+
+    /**
+     * 按轮询的方式为新连接选择一个IO子反应器
+     * 只在主事件循环中调用
+     * @return IO子反应器，没有配置IO子反应器时返回null
+     */
+    public IoReactor nextIoReactor() {
+        if (this.ioReactors.length == 0) {
+            return null;
+        }
+
+        IoReactor ioReactor = this.ioReactors[this.nextIoReactor];
+        this.nextIoReactor = (this.nextIoReactor + 1) % this.ioReactors.length;
+        return ioReactor;
+    }
+
+    /**
+     * @return connection-threads模式下的连接线程，未开启时返回null
+     */
+    public ConnectionThreads getConnectionThreads() {
+        return this.connectionThreads;
     }
 
     public static PandisServer getInstance() {
@@ -235,24 +388,250 @@ public class PandisServer {
         this.currentClient = null;
     }
 
+    public InnerClient getCurrentClient() {
+        return this.currentClient;
+    }
+
+    /**
+     * 如果开启了io-threads模式的读取，将客户端加入等待读取的列表，在下一次事件循环前由IO线程统一读取
+     * @param client 可读的客户端
+     * @return 客户端是否被延后读取，如果返回false，调用者需要自己读取数据
+     */
+    public boolean postponeClientRead(InnerClient client) {
+        if (this.ioThreads == null || !this.serverConfig.isIoThreadsDoReads()) {
+            return false;
+        }
+
+        if (!client.hasFlags(InnerClient.CLIENT_PENDING_READ)) {
+            client.addFlags(InnerClient.CLIENT_PENDING_READ);
+            this.clientsPendingRead.add(client);
+        }
+        return true;
+    }
+
+    /**
+     * 将有回复要发送的客户端加入等待发送回复的列表，在下一次事件循环进入select前统一发送（write-before-poll）
+     * 大多数情况下套接字发送缓冲区都有足够的空间，回复可以直接写完，不需要注册写事件、等待select返回后再写，
+     * 只有没写完的客户端才注册写事件
+     * 只处理由主事件循环负责读写的客户端，IO子反应器的客户端由IO子反应器自己发送
+     * @param client 有回复要发送的客户端
+     * @return 客户端是否被延后发送，如果返回false，调用者需要自己注册写事件
+     */
+    public boolean postponeClientWrite(InnerClient client) {
+        if (client.getEventLoop() != this.eventLoop) {
+            return false;
+        }
+
+        if (!client.hasFlags(InnerClient.CLIENT_PENDING_WRITE)) {
+            client.addFlags(InnerClient.CLIENT_PENDING_WRITE);
+            this.clientsPendingWrite.add(client);
+        }
+        return true;
+    }
+
+    /**
+     * 在事件循环每次进入select前调用
+     * 由IO线程并行地读取并解析等待读取的客户端的请求，然后在主线程中依次执行解析出的命令
+     * @return 处理的客户端数量
+     */
+    public int handleClientsWithPendingReadsUsingThreads() {
+        if (this.clientsPendingRead.isEmpty()) {
+            return 0;
+        }
+
+        int processed = this.clientsPendingRead.size();
+        List<InnerClient> clients = this.clientsPendingRead;
+        this.clientsPendingRead = new ArrayList<>();
+
+        // 客户端太少时，唤醒IO线程的开销比收益更大，直接在主线程中处理
+        if (processed < this.ioThreads.getThreadNum() * 2) {
+            for (InnerClient client : clients) {
+                client.readAndParseInIoThread();
+            }
+        } else {
+            this.ioThreads.process(clients, IoThreads.IO_THREADS_OP_READ);
+        }
+
+        // 命令只在主线程中执行
+        for (InnerClient client : clients) {
+            client.removeFlags(InnerClient.CLIENT_PENDING_READ);
+            client.processParsedCommands();
+        }
+
+        return processed;
+    }
+
+    /**
+     * 在事件循环每次进入select前调用，对应redis中的handleClientsWithPendingWrites
+     * 直接以非阻塞的方式发送等待发送回复的客户端的回复，开启了io-threads时由IO线程并行发送
+     * 没有发送完的客户端再注册写事件，等到套接字可写时继续发送
+     * @return 处理的客户端数量
+     */
+    public int handleClientsWithPendingWrites() {
+        if (this.clientsPendingWrite.isEmpty()) {
+            return 0;
+        }
+
+        int processed = this.clientsPendingWrite.size();
+        List<InnerClient> clients = new ArrayList<>(processed);
+        for (InnerClient client : this.clientsPendingWrite) {
+            client.removeFlags(InnerClient.CLIENT_PENDING_WRITE);
+            // 客户端可能已经断开连接
+            if (client.getSocketChannel().isOpen()) {
+                clients.add(client);
+            }
+        }
+        this.clientsPendingWrite.clear();
+
+        // 客户端太少时，唤醒IO线程的开销比收益更大，直接在主线程中发送
+        if (this.ioThreads == null || clients.size() < this.ioThreads.getThreadNum() * 2) {
+            for (InnerClient client : clients) {
+                client.writeData();
+            }
+        } else {
+            this.ioThreads.process(clients, IoThreads.IO_THREADS_OP_WRITE);
+        }
+
+        // 套接字发送缓冲区已满，剩余的回复等套接字可写时再发送
+        for (InnerClient client : clients) {
+            if (!client.isNothingToReply() && client.getSocketChannel().isOpen()) {
+                this.eventLoop.registerFileEvent(client.getSocketChannel(), SelectionKey.OP_WRITE, SendApplyToClientHandler.getHandler(), client);
+            }
+        }
+
+        return processed;
+    }
+
+    /**
+     * 将客户端加入异步关闭的列表，在下一次事件循环进入select前关闭，对应redis中的freeClientAsync
+     * 只在主事件循环中调用
+     * @param client 要关闭的客户端
+     */
+    public void freeClientAsync(InnerClient client) {
+        if (client.hasFlags(InnerClient.CLIENT_CLOSE_ASAP)) {
+            return;
+        }
+        client.addFlags(InnerClient.CLIENT_CLOSE_ASAP);
+        this.clientsToClose.add(client);
+    }
+
+    /**
+     * 关闭所有等待被异步关闭的客户端，对应redis中的freeClientsInAsyncFreeQueue
+     * 在事件循环每次进入select前调用
+     * @return 关闭的客户端数量
+     */
+    public int freeClientsInAsyncFreeQueue() {
+        if (this.clientsToClose.isEmpty()) {
+            return 0;
+        }
+
+        int freed = this.clientsToClose.size();
+        for (InnerClient client : this.clientsToClose) {
+            // 客户端的连接只能由负责该客户端的事件循环关闭
+            // 由连接线程负责的客户端直接在主事件循环中关闭，阻塞在读写上的连接线程会随之退出
+            EventLoop clientEventLoop = client.getEventLoop();
+            if (clientEventLoop == null || clientEventLoop.inEventLoop()) {
+                closeClient(client);
+            } else {
+                clientEventLoop.execute(() -> closeClient(client));
+            }
+        }
+        this.clientsToClose.clear();
+
+        return freed;
+    }
+
+    /**
+     * 在负责客户端的事件循环中关闭客户端
+     * @param client 客户端
+     */
+    private void closeClient(InnerClient client) {
+        SocketChannel socketChannel = client.getSocketChannel();
+        if (!socketChannel.isOpen()) {
+            return;
+        }
+
+        EventLoop clientEventLoop = client.getEventLoop();
+        distroyClient(clientEventLoop == null ? null : socketChannel.keyFor(clientEventLoop.getSelector()), client);
+    }
+
+    public void incrStatClientOutputBufferLimitDisconnections() {
+        this.statClientOutputBufferLimitDisconnections++;
+    }
+
+    public long getStatClientOutputBufferLimitDisconnections() {
+        return this.statClientOutputBufferLimitDisconnections;
+    }
+
+    public void incrStatRejectedConnections() {
+        this.statRejectedConnections++;
+    }
+
+    public long getStatRejectedConnections() {
+        return this.statRejectedConnections;
+    }
+
+    public void incrStatExpiredKeys() {
+        this.statExpiredKeys++;
+    }
+
+    public long getStatExpiredKeys() {
+        return this.statExpiredKeys;
+    }
+
+    public void setStatExpiredStalePerc(double statExpiredStalePerc) {
+        this.statExpiredStalePerc = statExpiredStalePerc;
+    }
+
+    public double getStatExpiredStalePerc() {
+        return this.statExpiredStalePerc;
+    }
+
+    public List<InnerClient> getClients() {
+        return this.clients;
+    }
+
     /**
      * 销毁连接的客户端
+     * 在客户端所属的事件循环线程中调用
      * @param client
      */
     public void distroyClient(SelectionKey key, InnerClient client) {
-        if (this.currentClient.equals(client)) {
+        if (client.getSocketChannel() != null) {
+            EventLoop clientEventLoop = client.getEventLoop();
+            if (key != null && key.isValid()) {
+                clientEventLoop.unregisterFileEvent(key, SelectionKey.OP_READ);
+                clientEventLoop.unregisterFileEvent(key, SelectionKey.OP_WRITE);
+            }
+            client.distroy();
+        }
+
+        // 客户端列表只能在主事件循环中修改，如果客户端属于某个IO子反应器，则交给主事件循环处理
+        if (this.eventLoop.inEventLoop()) {
+            removeClient(client);
+        } else {
+            this.eventLoop.execute(() -> removeClient(client));
+        }
+
+        logger.info("disconnect with server.client.");
+    }
+
+    private void removeClient(InnerClient client) {
+        if (client.equals(this.currentClient)) {
             this.clearCurrentClient();
         }
 
-        this.clients.remove(client);
+        // 退订所有频道和模式，否则发布消息时还会继续向已经断开的客户端发送
+        this.pubSub.unsubscribeAllChannels(client, false);
+        this.pubSub.unsubscribeAllPatterns(client, false);
 
-        if (client.getSocketChannel() != null) {
-            this.eventLoop.unregisterFileEvent(key, SelectionKey.OP_READ);
-            this.eventLoop.unregisterFileEvent(key, SelectionKey.OP_WRITE);
-            client.distroy();
+        // 关闭客户端缓存跟踪，广播模式下从前缀表中移除该客户端
+        if (client.hasFlags(InnerClient.CLIENT_TRACKING)) {
+            Tracking.getTracking().disableTracking(client);
         }
 
-        logger.info("disconnect with server.client.");
+        this.clients.remove(client);
+        this.clientsById.remove(client.getId());
     }
 
     public ServerConfig getServerConfig() {
@@ -283,6 +662,14 @@ public class PandisServer {
         return this.aofPersistence;
     }
 
+    public PeriodicExpirator getPeriodicExpirator() {
+        return this.periodicExpirator;
+    }
+
+    public Evictor getEvictor() {
+        return this.evictor;
+    }
+
     public RDBPersistence getRdbPersistence() {
         return this.rdbPersistence;
     }
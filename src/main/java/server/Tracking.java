@@ -0,0 +1,347 @@
+package server;
+
+import command.AbstractCommand;
+import common.struct.PandisString;
+import common.struct.impl.Sds;
+import common.struct.impl.SdsView;
+import server.client.InnerClient;
+
+import java.util.*;
+
+/**
+ * 客户端缓存（CLIENT TRACKING）的服务器端实现
+ *
+ * 默认模式下，跟踪表记录每个开启跟踪的客户端读取过的键，键被修改时向读取过它的客户端发送一次失效消息，
+ * 然后从跟踪表中删除这个键，客户端再次读取后才会重新被跟踪；
+ * 广播模式下不记录客户端读取了哪些键，而是在前缀表中记录每个前缀的订阅者，
+ * 匹配前缀的键被修改时先记录下来，在事件循环进入睡眠前一次性发送给订阅者，同一轮中多次修改的键只发送一次
+ *
+ * 跟踪表只记录客户端id而不引用客户端对象，客户端断开后不需要清理跟踪表，发送失效消息时找不到的客户端直接跳过
+ * RESP3客户端以push的形式在自己的连接上接收失效消息，和普通的命令回复共用一个连接；
+ * RESP2客户端只能通过发布订阅接收：开启跟踪时用REDIRECT指定一个订阅了__redis__:invalidate频道的连接
+ *
+ * 所有方法只在主事件循环中调用
+ * @Author huzihan
+ * @Date 2021/10/17
+ **/
+public class Tracking {
+    public static final String INVALIDATE_CHANNEL = "__redis__:invalidate";
+    // 每次清理跟踪表时最多删除的键数量，避免一次占用主事件循环太长时间
+    private static final int LIMIT_EFFORT = 100;
+
+    private static final Tracking tracking = new Tracking();
+
+    private final Map<PandisString, Set<Long>> trackingTable;   // 被跟踪的键 -> 读取过这个键的客户端id
+    private final Map<PandisString, BcastState> prefixTable;    // 广播模式的前缀 -> 订阅这个前缀的客户端和本轮被修改的键
+    private int trackingClients;    // 开启了跟踪的客户端数量，为0时修改键不需要查表
+    private long trackingItems;     // 跟踪表中记录的（键，客户端）的数量
+
+    /**
+     * 广播模式下一个前缀的状态
+     */
+    private static class BcastState {
+        private final Set<InnerClient> clients = new LinkedHashSet<>();     // 订阅这个前缀的客户端
+        private final Map<PandisString, Long> keys = new LinkedHashMap<>(); // 本轮被修改的键 -> 修改它的客户端id，用于NOLOOP
+    }
+
+    private Tracking() {
+        this.trackingTable = new HashMap<>();
+        this.prefixTable = new HashMap<>();
+        this.trackingClients = 0;
+        this.trackingItems = 0;
+    }
+
+    public static Tracking getTracking() {
+        return tracking;
+    }
+
+    /**
+     * 清空所有跟踪状态，单元测试每次创建新的服务器时调用
+     */
+    void reset() {
+        this.trackingTable.clear();
+        this.prefixTable.clear();
+        this.trackingClients = 0;
+        this.trackingItems = 0;
+    }
+
+    /**
+     * 为客户端开启跟踪，已经开启跟踪的客户端再次开启时可以增加广播模式的前缀
+     * @param client 客户端
+     * @param redirect 接收失效消息的客户端id，为0时发送给客户端自己
+     * @param bcast 是否使用广播模式
+     * @param noloop 是否不接收自己修改的键的失效消息
+     * @param prefixes 广播模式订阅的前缀，为空时订阅所有的键
+     */
+    public void enableTracking(InnerClient client, long redirect, boolean bcast, boolean noloop, List<PandisString> prefixes) {
+        if (!client.hasFlags(InnerClient.CLIENT_TRACKING)) {
+            this.trackingClients++;
+        }
+        client.addFlags(InnerClient.CLIENT_TRACKING);
+        client.removeFlags(InnerClient.CLIENT_TRACKING_NOLOOP);
+        if (noloop) {
+            client.addFlags(InnerClient.CLIENT_TRACKING_NOLOOP);
+        }
+        client.setTrackingRedirect(redirect);
+        client.removeFlags(InnerClient.CLIENT_TRACKING_BROKEN_REDIR);
+
+        if (bcast) {
+            client.addFlags(InnerClient.CLIENT_TRACKING_BCAST);
+            if (prefixes.isEmpty()) {
+                prefixes = Collections.<PandisString>singletonList(Sds.createEmptySds());
+            }
+            for (PandisString prefix : prefixes) {
+                BcastState state = this.prefixTable.get(prefix);
+                if (state == null) {
+                    state = new BcastState();
+                    this.prefixTable.put(prefix, state);
+                }
+                if (state.clients.add(client)) {
+                    client.getTrackingPrefixes().add(prefix);
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭客户端的跟踪，跟踪表中该客户端的记录不会立即删除，而是在键被修改时跳过
+     * @param client 客户端
+     */
+    public void disableTracking(InnerClient client) {
+        if (!client.hasFlags(InnerClient.CLIENT_TRACKING)) {
+            return;
+        }
+
+        if (client.hasFlags(InnerClient.CLIENT_TRACKING_BCAST)) {
+            for (PandisString prefix : client.getTrackingPrefixes()) {
+                BcastState state = this.prefixTable.get(prefix);
+                state.clients.remove(client);
+                if (state.clients.isEmpty()) {
+                    this.prefixTable.remove(prefix);
+                }
+            }
+            client.getTrackingPrefixes().clear();
+        }
+
+        client.removeFlags(InnerClient.CLIENT_TRACKING);
+        client.removeFlags(InnerClient.CLIENT_TRACKING_BCAST);
+        client.removeFlags(InnerClient.CLIENT_TRACKING_NOLOOP);
+        client.removeFlags(InnerClient.CLIENT_TRACKING_BROKEN_REDIR);
+        client.setTrackingRedirect(0);
+        this.trackingClients--;
+    }
+
+    /**
+     * 客户端执行只读命令后，在跟踪表中记录命令读取的键，广播模式的客户端不需要记录
+     * @param client 开启了跟踪的客户端
+     * @param command 执行的只读命令
+     */
+    public void rememberKeys(InnerClient client, AbstractCommand command) {
+        if (client.hasFlags(InnerClient.CLIENT_TRACKING_BCAST)) {
+            return;
+        }
+
+        List<PandisString> args = client.getCommandArgs();
+        int last = command.getLastKey(args.size());
+        for (int pos = command.getFirstKey(); pos <= last; pos += command.getKeyStep()) {
+            PandisString key = args.get(pos);
+            Set<Long> ids = this.trackingTable.get(key);
+            if (ids == null) {
+                // 命令参数可能是引用查询缓冲区的视图，存入跟踪表前复制为独立的Sds
+                ids = new HashSet<>();
+                this.trackingTable.put(SdsView.toOwned(key), ids);
+            }
+            if (ids.add(client.getId())) {
+                this.trackingItems++;
+            }
+        }
+    }
+
+    /**
+     * 键被修改时调用
+     * 立即向读取过这个键的客户端发送失效消息，广播模式下先记录到匹配的前缀中，在事件循环睡眠前统一发送
+     * @param key 被修改的键
+     */
+    public void invalidateKey(PandisString key) {
+        if (this.trackingClients == 0) {
+            return;
+        }
+
+        InnerClient current = PandisServer.getInstance().getCurrentClient();
+        long currentId = current == null ? 0 : current.getId();
+
+        if (!this.prefixTable.isEmpty()) {
+            PandisString ownedKey = null;
+            for (Map.Entry<PandisString, BcastState> entry : this.prefixTable.entrySet()) {
+                if (startsWith(key, entry.getKey())) {
+                    if (ownedKey == null) {
+                        ownedKey = SdsView.toOwned(key);
+                    }
+                    entry.getValue().keys.put(ownedKey, currentId);
+                }
+            }
+        }
+
+        Set<Long> ids = this.trackingTable.remove(key);
+        if (ids != null) {
+            this.trackingItems -= ids.size();
+            sendInvalidation(key, ids, currentId);
+        }
+    }
+
+    /**
+     * 向广播模式的客户端发送本轮被修改的键，在事件循环进入睡眠前调用
+     */
+    public void broadcastInvalidationMessages() {
+        if (this.prefixTable.isEmpty()) {
+            return;
+        }
+
+        for (BcastState state : this.prefixTable.values()) {
+            if (state.keys.isEmpty()) {
+                continue;
+            }
+
+            List<PandisString> keys = new ArrayList<>(state.keys.keySet());
+            for (InnerClient client : state.clients) {
+                if (!client.hasFlags(InnerClient.CLIENT_TRACKING_NOLOOP)) {
+                    sendTrackingMessage(client, keys);
+                    continue;
+                }
+
+                // NOLOOP：去掉客户端自己修改的键
+                List<PandisString> filtered = new ArrayList<>(keys.size());
+                for (Map.Entry<PandisString, Long> entry : state.keys.entrySet()) {
+                    if (entry.getValue() != client.getId()) {
+                        filtered.add(entry.getKey());
+                    }
+                }
+                if (!filtered.isEmpty()) {
+                    sendTrackingMessage(client, filtered);
+                }
+            }
+            state.keys.clear();
+        }
+    }
+
+    /**
+     * 跟踪表中的键超过上限时，删除一部分键并通知客户端这些键失效，限制跟踪表占用的内存
+     * 每次调用最多删除LIMIT_EFFORT个键，在事件循环进入睡眠前调用
+     * @param maxKeys 跟踪表最多记录的键数量，为0时不限制
+     */
+    public void limitTrackingTable(int maxKeys) {
+        if (maxKeys == 0 || this.trackingTable.size() <= maxKeys) {
+            return;
+        }
+
+        int effort = LIMIT_EFFORT;
+        Iterator<Map.Entry<PandisString, Set<Long>>> iterator = this.trackingTable.entrySet().iterator();
+        while (this.trackingTable.size() > maxKeys && effort-- > 0 && iterator.hasNext()) {
+            Map.Entry<PandisString, Set<Long>> entry = iterator.next();
+            iterator.remove();
+            this.trackingItems -= entry.getValue().size();
+            sendInvalidation(entry.getKey(), entry.getValue(), 0);
+        }
+    }
+
+    /**
+     * 向读取过key的客户端发送失效消息
+     * @param key 失效的键
+     * @param ids 读取过这个键的客户端id
+     * @param currentId 修改这个键的客户端id，开启了NOLOOP的客户端不会收到自己修改的键的消息
+     */
+    private void sendInvalidation(PandisString key, Set<Long> ids, long currentId) {
+        PandisServer server = PandisServer.getInstance();
+        List<PandisString> keys = Collections.singletonList(key);
+
+        for (long id : ids) {
+            InnerClient client = server.lookupClientById(id);
+            // 客户端已经断开、关闭了跟踪或者重新以广播模式开启了跟踪
+            if (client == null
+                || !client.hasFlags(InnerClient.CLIENT_TRACKING)
+                || client.hasFlags(InnerClient.CLIENT_TRACKING_BCAST)) {
+                continue;
+            }
+            if (id == currentId && client.hasFlags(InnerClient.CLIENT_TRACKING_NOLOOP)) {
+                continue;
+            }
+            sendTrackingMessage(client, keys);
+        }
+    }
+
+    /**
+     * 发送失效消息
+     * 接收消息的客户端（REDIRECT指定的客户端，没有指定时为客户端自己）使用RESP3时，以push的形式发送：
+     * 1) "invalidate"
+     * 2) 1) "key"
+     * 使用RESP2时只能通过发布订阅发送，该客户端必须是REDIRECT指定的并且订阅了__redis__:invalidate频道，
+     * 消息的格式和PUBLISH相同，只是消息内容是失效的键组成的数组：
+     * 1) "message"
+     * 2) "__redis__:invalidate"
+     * 3) 1) "key"
+     * @param client 开启了跟踪的客户端
+     * @param keys 失效的键
+     */
+    private void sendTrackingMessage(InnerClient client, List<PandisString> keys) {
+        InnerClient target = client;
+        long redirect = client.getTrackingRedirect();
+        if (redirect != 0) {
+            target = PandisServer.getInstance().lookupClientById(redirect);
+            if (target == null) {
+                // 重定向的客户端已经断开，RESP3客户端会收到一次通知，RESP2客户端无法得知
+                if (client.getResp() > 2 && !client.hasFlags(InnerClient.CLIENT_TRACKING_BROKEN_REDIR)) {
+                    client.addFlags(InnerClient.CLIENT_TRACKING_BROKEN_REDIR);
+                    client.replyPushLength(2);
+                    client.replyBulk("tracking-redir-broken");
+                    client.replyInteger(redirect);
+                }
+                return;
+            }
+        }
+
+        if (target.getResp() > 2) {
+            target.replyPushLength(2);
+            target.replyBulk("invalidate");
+        } else if (redirect != 0 && target.getPubSubChannels().containsKey(INVALIDATE_CHANNEL)) {
+            target.replyPushLength(3);
+            target.replyBulk("message");
+            target.replyBulk(INVALIDATE_CHANNEL);
+        } else {
+            return;
+        }
+
+        target.replyMultiBulkLength(keys.size());
+        for (PandisString key : keys) {
+            target.replyBulk(key);
+        }
+    }
+
+    private static boolean startsWith(PandisString key, PandisString prefix) {
+        int length = prefix.length();
+        if (key.length() < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getTrackingClients() {
+        return this.trackingClients;
+    }
+
+    public int getTrackingKeys() {
+        return this.trackingTable.size();
+    }
+
+    public long getTrackingItems() {
+        return this.trackingItems;
+    }
+
+    public int getTrackingPrefixes() {
+        return this.prefixTable.size();
+    }
+}
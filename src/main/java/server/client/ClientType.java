@@ -0,0 +1,41 @@
+package server.client;
+
+/**
+ * 客户端类别，用于为不同类别的客户端设置不同的回复缓冲区限制
+ * 主从复制还未实现，因此目前不会有客户端属于REPLICA类别，只保留其配置
+ * @Author huzihan
+ * @Date 2021/10/14
+ **/
+public enum ClientType {
+    NORMAL("normal"),       // 普通客户端
+    REPLICA("replica"),     // 从服务器
+    PUBSUB("pubsub");       // 至少订阅了一个频道或模式的客户端
+
+    private final String configName;
+
+    ClientType(String configName) {
+        this.configName = configName;
+    }
+
+    public String getConfigName() {
+        return this.configName;
+    }
+
+    /**
+     * 根据配置文件中的类别名称查找客户端类别，"slave"是"replica"的旧名称
+     * @param name 类别名称
+     * @return 客户端类别，名称无效时返回null
+     */
+    public static ClientType fromConfigName(String name) {
+        String lowerName = name.toLowerCase();
+        if ("slave".equals(lowerName)) {
+            return REPLICA;
+        }
+        for (ClientType type : values()) {
+            if (type.configName.equals(lowerName)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -3,8 +3,13 @@ package server.client;
 import command.AbstractCommand;
 import command.CommandExecutor;
 import command.commands.AuthCommand;
+import command.commands.HelloCommand;
+import common.constants.StatusConstants;
+import common.shared.SharedObjects;
 import common.struct.PandisString;
 import common.struct.impl.Sds;
+import common.struct.impl.SdsView;
+import common.utils.SafeEncoder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import pubsub.Channel;
@@ -12,12 +17,17 @@ import pubsub.Pattern;
 import remote.*;
 import remote.protocol.RequestType;
 import database.Database;
+import event.EventLoop;
 import server.PandisServer;
 import server.ServerContext;
+import server.config.ClientOutputBufferLimit;
 
 import java.io.IOException;
 import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * InnerClient是远程客户端在服务器内的一个抽象表示，记录了关于远程客户端的相关信息
@@ -27,10 +37,30 @@ import java.util.*;
 public class InnerClient implements Client {
     private static Log logger = LogFactory.getLog(InnerClient.class);
 
+    // 下一个客户端的id，id从1开始递增，不会重复使用
+    private static final AtomicLong nextClientId = new AtomicLong(1);
+
+    // 客户端id
+    private long id;
     // 客户端的名字
     private String name;
+    // 回复使用的协议版本，默认为RESP2，通过HELLO 3切换到RESP3
+    private int resp;
     // 套接字描述符
     private SocketChannel socketChannel;
+    // 负责该客户端网络读写的事件循环，可能是主事件循环，也可能是某个IO子反应器的事件循环
+    // connection-threads模式下为null，网络读写由连接线程负责
+    private EventLoop eventLoop;
+    // connection-threads模式下负责该客户端的连接线程
+    private volatile Thread connectionThread;
+    // connection-threads模式下是否已经有临时线程准备发送回复
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // 是否有一批命令已经交给主事件循环执行，还没有执行完
+    // 在这期间，命令参数列表和回复缓冲区归主事件循环使用，IO子反应器只读取数据到查询缓冲区，不解析新的命令
+    private volatile boolean executing;
+    // io-threads模式下，IO线程最近一次读取套接字的结果，以及从中解析出的命令，由主线程处理
+    private int lastReadNum;
+    private List<ArrayList<PandisString>> parsedCommands;
     // 回复缓冲部分将进行重构，以一个专门负责网络通信的ServerReplyer进行封装
     private ServerReplyer replyer;
     // 查询缓冲部分将进行重构，以一个专门负责网络通信的ServerReceiver进行封装
@@ -38,7 +68,7 @@ public class InnerClient implements Client {
     // 当前正在使用的数据库
     private Database database;
     // 参数对象数组,客户端通过网络收到的命令经过解析，都会被放到这个里面
-    private ArrayList<Sds> commandArgs;
+    private ArrayList<PandisString> commandArgs;
     // 代表认证的状态
     private boolean authenticated;
     // 创建客户端的时间
@@ -47,8 +77,22 @@ public class InnerClient implements Client {
     private Date lastInteractionTime;
     // 客户端状态标志
     private int flags;              /* REDIS_SLAVE | REDIS_MONITOR | REDIS_MULTI ... */
+
+    // 客户端状态标志
+    public static final int CLIENT_PENDING_READ = 1 << 0;   // 客户端在等待IO线程读取数据的列表中
+    public static final int CLIENT_PENDING_WRITE = 1 << 1;  // 客户端在等待发送回复的列表中
+    public static final int CLIENT_CLOSE_ASAP = 1 << 2;     // 客户端将在下一次事件循环前被异步关闭
+    public static final int CLIENT_TRACKING = 1 << 3;       // 客户端开启了CLIENT TRACKING
+    public static final int CLIENT_TRACKING_BCAST = 1 << 4; // 客户端跟踪使用广播模式，按前缀接收失效消息
+    public static final int CLIENT_TRACKING_NOLOOP = 1 << 5;    // 不接收自己修改的键的失效消息
+    public static final int CLIENT_TRACKING_BROKEN_REDIR = 1 << 6;  // 重定向的客户端已经断开，并且已经通知过客户端
+    public static final int CLIENT_CLOSE_AFTER_REPLY = 1 << 7;      // 回复发送完后关闭客户端，不再接收新的回复
+    // 回复缓冲区第一次达到软限制的时间（毫秒），0表示没有达到软限制
+    private long obufSoftLimitReachedTime;
     // 请求的类型：内联命令还是多条命令
     private volatile RequestType requestType;
+    // 解析请求时发现的协议错误，由主事件循环回复给客户端后置为null，见replyProtocolErrorIfNeeded
+    private volatile String protocolError;
 
     /**********************************************
      * 订阅发布功能
@@ -64,13 +108,37 @@ public class InnerClient implements Client {
     // 新 pubsubPattern 结构总是被添加到表尾
     private Map<String, Pattern> pubSubPatterns;
 
+    /**********************************************
+     * 客户端缓存跟踪
+     *********************************************/
+
+    // 接收失效消息的客户端id，为0时发送给客户端自己
+    private long trackingRedirect;
+
+    // 广播模式下订阅的键前缀
+    private List<PandisString> trackingPrefixes;
+
     public int getFlags() {
         return this.flags;
     }
 
+    public void addFlags(int flags) {
+        this.flags |= flags;
+    }
+
+    public void removeFlags(int flags) {
+        this.flags &= ~flags;
+    }
+
+    public boolean hasFlags(int flags) {
+        return (this.flags & flags) == flags;
+    }
+
     private InnerClient() {
         this.pubSubChannels = new HashMap<>();
         this.pubSubPatterns = new HashMap<>();
+        this.trackingRedirect = 0;
+        this.trackingPrefixes = new ArrayList<>();
     }
 
     /**
@@ -84,11 +152,25 @@ public class InnerClient implements Client {
      * @return
      */
     public static Client createClient(SocketChannel socketChannel) {
+        return createClient(socketChannel, ServerContext.getContext().getEventLoop());
+    }
+
+    /**
+     * 创建Client的静态工厂
+     * @param socketChannel
+     * @param eventLoop 负责该客户端网络读写的事件循环，为null时由连接线程负责
+     * @return
+     */
+    public static Client createClient(SocketChannel socketChannel, EventLoop eventLoop) {
         InnerClient client = new InnerClient();
 
         //初始化属性
+        client.id = nextClientId.getAndIncrement();
         client.name = null;
+        client.resp = 2;
         client.socketChannel = socketChannel;
+        client.eventLoop = eventLoop;
+        client.executing = false;
         client.replyer = new ServerReplyer(client);
         client.receiver = new ServerReceiver(client);
         client.commandArgs = new ArrayList<>();
@@ -96,6 +178,7 @@ public class InnerClient implements Client {
         client.createTime = client.lastInteractionTime = new Date();
         client.authenticated = false;
         client.flags = 0;
+        client.obufSoftLimitReachedTime = 0;
         client.requestType = RequestType.NONE; // 请求类型，默认为0，表示没有类型
 
         return client;
@@ -111,11 +194,291 @@ public class InnerClient implements Client {
 
     /**
      * 处理查询缓冲区的数据
+     * 客户端可能以pipeline的方式一次发送多条命令，这些命令会在同一次读事件中全部进入查询缓冲区，
+     * 因此这里需要循环地解析并执行缓冲区中所有完整的命令，而不能只处理第一条，
+     * 否则剩余的命令要等到下一次可读事件才会被处理，而客户端在收到回复前可能不会再发送数据。
+     * 各条命令的回复都会先追加到回复缓冲区中，等到套接字可写时再一并发送
      */
     public void processInputData() {
-        this.receiver.processRequest();
-        // 处理传入的命令
-        processCommandArgs();
+        EventLoop mainEventLoop = ServerContext.getContext().getEventLoop();
+
+        // 客户端属于某个IO子反应器，命令要交给主事件循环执行
+        if (this.eventLoop != mainEventLoop) {
+            dispatchCommandsToMainLoop(mainEventLoop);
+            return;
+        }
+
+        PandisServer server = PandisServer.getInstance();
+        server.setCurrentClient(this);
+
+        while (this.receiver.processRequest()) {
+            // 处理传入的命令
+            processCommandArgs();
+            // 命令执行完，参数不再引用查询缓冲区
+            this.receiver.unpinQueryBuffer();
+        }
+        if (this.protocolError != null) {
+            // 出错的请求中已经解析出的参数被丢弃，不再引用查询缓冲区
+            this.receiver.unpinQueryBuffer();
+            replyProtocolErrorIfNeeded();
+        }
+
+        server.clearCurrentClient();
+    }
+
+    /**
+     * 在IO子反应器线程中调用
+     * 将查询缓冲区中所有完整的命令解析出来，作为一批交给主事件循环执行
+     * @param mainEventLoop 主事件循环
+     */
+    private void dispatchCommandsToMainLoop(EventLoop mainEventLoop) {
+        // 上一批命令还没有执行完，新数据先留在查询缓冲区中，等上一批执行完再解析
+        if (this.executing) {
+            return;
+        }
+
+        List<ArrayList<PandisString>> parsed = parseCommands();
+        if (parsed == null && this.protocolError == null) {
+            return;
+        }
+        // 没有完整的命令时，协议错误也要交给主事件循环回复
+        List<ArrayList<PandisString>> commands = parsed != null ? parsed : Collections.emptyList();
+
+        this.executing = true;
+        mainEventLoop.execute(() -> executeCommands(commands));
+    }
+
+    /**
+     * 将查询缓冲区中所有完整的命令解析出来，但不执行
+     * @return 解析出的命令列表，没有完整的命令时返回null
+     */
+    private List<ArrayList<PandisString>> parseCommands() {
+        List<ArrayList<PandisString>> commands = null;
+        while (this.receiver.processRequest()) {
+            if (this.commandArgs.isEmpty()) {
+                continue;
+            }
+
+            if (commands == null) {
+                commands = new ArrayList<>();
+            }
+
+            // 解析出的参数列表整体交给执行命令的线程，之后的解析使用新的列表
+            commands.add(this.commandArgs);
+            this.commandArgs = new ArrayList<>();
+        }
+
+        return commands;
+    }
+
+    /**
+     * 在IO线程中调用（io-threads模式）
+     * 读取套接字中的数据并解析出所有完整的命令，命令留给主线程在processParsedCommands中执行
+     */
+    public void readAndParseInIoThread() {
+        this.lastReadNum = readData();
+        if (this.lastReadNum > 0) {
+            this.parsedCommands = parseCommands();
+        }
+    }
+
+    /**
+     * 在主线程中调用（io-threads模式）
+     * 处理IO线程读取的结果：执行解析出的命令，或者在连接关闭时销毁客户端
+     */
+    public void processParsedCommands() {
+        PandisServer server = PandisServer.getInstance();
+
+        if (this.lastReadNum == -1) {
+            // 客户端断开连接，需要关闭SocketChannel
+            server.distroyClient(this.socketChannel.keyFor(this.eventLoop.getSelector()), this);
+        } else if (this.lastReadNum == 0) {
+            logger.error("客户端数据读取异常");
+        } else {
+            if (this.parsedCommands != null) {
+                server.setCurrentClient(this);
+
+                for (ArrayList<PandisString> args : this.parsedCommands) {
+                    this.commandArgs = args;
+                    processCommandArgs();
+                }
+
+                server.clearCurrentClient();
+            }
+            this.receiver.unpinQueryBuffer();
+            replyProtocolErrorIfNeeded();
+        }
+
+        this.parsedCommands = null;
+    }
+
+    /**
+     * 在连接线程中调用（connection-threads模式）
+     * 以阻塞的方式读取请求，每次把解析出的所有完整命令作为一批交给主事件循环执行，
+     * 等待这批命令执行完后，再以阻塞的方式发送回复，直到连接关闭
+     */
+    public void serveOnConnectionThread() {
+        this.connectionThread = Thread.currentThread();
+        EventLoop mainEventLoop = ServerContext.getContext().getEventLoop();
+
+        try {
+            this.socketChannel.configureBlocking(true);
+        } catch (IOException e) {
+            logger.warn("Configure blocking mode for server.client error", e);
+            mainEventLoop.execute(this::closeOnConnectionThreadExit);
+            return;
+        }
+
+        while (true) {
+            // 连接关闭或读取出错时退出
+            if (this.receiver.readDataFromSocketBlocking() <= 0) {
+                break;
+            }
+
+            List<ArrayList<PandisString>> parsed = parseCommands();
+            if (parsed == null && this.protocolError == null) {
+                continue;
+            }
+            List<ArrayList<PandisString>> commands = parsed != null ? parsed : Collections.emptyList();
+
+            // 交给主事件循环执行，executeCommands执行完后清除executing并唤醒连接线程
+            this.executing = true;
+            mainEventLoop.execute(() -> executeCommands(commands));
+            while (this.executing) {
+                LockSupport.park(this);
+            }
+
+            this.receiver.unpinQueryBuffer();
+            this.replyer.flushPendingReplyBlocking();
+            this.receiver.releaseQueryBufferIfIdle();
+
+            // 协议错误已经回复，关闭连接
+            if (hasFlags(CLIENT_CLOSE_AFTER_REPLY)) {
+                break;
+            }
+        }
+
+        mainEventLoop.execute(this::closeOnConnectionThreadExit);
+    }
+
+    /**
+     * 在主事件循环中调用（connection-threads模式）
+     * 连接线程退出后销毁客户端，客户端可能已经被服务器关闭
+     */
+    private void closeOnConnectionThreadExit() {
+        if (this.socketChannel.isOpen()) {
+            PandisServer.getInstance().distroyClient(null, this);
+        }
+    }
+
+    /**
+     * 在主事件循环中调用（connection-threads模式）
+     * 连接线程阻塞在读取上时产生了回复，启动一个临时线程发送，已经有临时线程准备发送时不重复启动
+     */
+    public void scheduleConnectionThreadFlush() {
+        if (this.flushScheduled.compareAndSet(false, true)) {
+            PandisServer.getInstance().getConnectionThreads().flushAsync(this);
+        }
+    }
+
+    /**
+     * 在发送回复的临时线程中调用（connection-threads模式）
+     * 发送期间主事件循环不会再启动新的临时线程，因此发送完清除标记后要再检查一次，
+     * 避免清除标记前追加的回复没有线程发送
+     */
+    public void flushReplyOnConnectionThread() {
+        do {
+            this.replyer.flushPendingReplyBlocking();
+            this.flushScheduled.set(false);
+        } while (!this.replyer.isNothingToReply() && this.socketChannel.isOpen()
+                && this.flushScheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * 在主事件循环中调用
+     * 执行IO子反应器（或连接线程）交过来的一批命令，执行完后通知IO子反应器发送回复
+     * @param commands 一批命令
+     */
+    private void executeCommands(List<ArrayList<PandisString>> commands) {
+        // 客户端可能在等待执行期间断开了连接
+        if (this.socketChannel.isOpen()) {
+            PandisServer server = PandisServer.getInstance();
+            server.setCurrentClient(this);
+
+            for (ArrayList<PandisString> args : commands) {
+                this.commandArgs = args;
+                processCommandArgs();
+            }
+            replyProtocolErrorIfNeeded();
+
+            server.clearCurrentClient();
+        }
+
+        // 连接线程在等待这批命令执行完，唤醒它发送回复
+        if (isServedByConnectionThread()) {
+            this.executing = false;
+            LockSupport.unpark(this.connectionThread);
+            return;
+        }
+
+        this.eventLoop.execute(this::afterCommandsExecuted);
+    }
+
+    /**
+     * 在IO子反应器线程中调用
+     * 一批命令执行完成后，开始发送回复，并继续处理执行期间收到的新命令
+     */
+    private void afterCommandsExecuted() {
+        this.executing = false;
+        // 这一批命令的参数不再引用查询缓冲区
+        this.receiver.unpinQueryBuffer();
+
+        if (!this.socketChannel.isOpen()) {
+            return;
+        }
+
+        this.replyer.flushPendingReply();
+
+        dispatchCommandsToMainLoop(ServerContext.getContext().getEventLoop());
+    }
+
+    /**
+     * 在主事件循环中调用
+     * 解析请求时发现了协议错误，回复错误信息，并在回复发送完后关闭客户端，对应redis中的setProtocolError
+     */
+    private void replyProtocolErrorIfNeeded() {
+        String error = this.protocolError;
+        if (error == null) {
+            return;
+        }
+        replyError(error);
+        addFlags(CLIENT_CLOSE_AFTER_REPLY);
+        this.protocolError = null;
+    }
+
+    public String getProtocolError() {
+        return this.protocolError;
+    }
+
+    /**
+     * 在解析请求的线程中调用，记录协议错误，之后的数据不再解析
+     * @param protocolError 错误信息
+     */
+    public void setProtocolError(String protocolError) {
+        this.protocolError = protocolError;
+    }
+
+    /**
+     * 带有CLIENT_CLOSE_AFTER_REPLY标志的客户端的回复全部发送完后调用，由主事件循环异步关闭客户端
+     * 回复可能由IO子反应器或IO线程发送，此时把关闭交给主事件循环
+     */
+    public void closeAfterReplySent() {
+        EventLoop mainEventLoop = ServerContext.getContext().getEventLoop();
+        if (mainEventLoop.inEventLoop()) {
+            PandisServer.getInstance().freeClientAsync(this);
+        } else {
+            mainEventLoop.execute(() -> PandisServer.getInstance().freeClientAsync(this));
+        }
     }
 
     /**
@@ -143,27 +506,28 @@ public class InnerClient implements Client {
         // 如果找不到相应的命令实现，服务器不再执行后续步骤，并向客户端返回一个错误。
         // (2)根据命令名称获得的命令实现，可以获得该命令arity属性，
         // 检查命令请求所给定的参数个数是否正确，当参数个数不正确时，不再执行后续步骤，直接向客户端返回一个错误。
-        String commandName = this.commandArgs.get(0).toString();
-        AbstractCommand command = (AbstractCommand) CommandExecutor.getExecutor().lookupCommand(commandName);
+        // 命令名称不区分大小写，直接用参数的字节在命令表中查找
+        AbstractCommand command = CommandExecutor.getExecutor().lookupCommand(this.commandArgs.get(0));
 
         if (command == null) {
             // 没找到命令
             // 回复错误信息
-            replyError("unknow command " + commandName);
+            replyError("unknow command " + this.commandArgs.get(0));
             return;
         } else if ((!command.isGreaterThanArity() && command.getArity() != this.commandArgs.size()) || this.commandArgs.size() < command.getArity()) {
             // 参数个数错误
             // 回复错误信息
-            replyError("wrong number of arguments for " + commandName + " command");
+            replyError("wrong number of arguments for " + command.getName() + " command");
             return;
         }
 
         // (3)检查客户端是否已经通过了身份验证，
-        // 未通过身份验证的客户端只能执行AUTH命令，
+        // 未通过身份验证的客户端只能执行AUTH命令（以及带AUTH选项的HELLO命令），
         // 如果未通过身份验证的客户端试图执行除AUTH命令之外的其他命令，那么服务器将向客户端返回一个错误。
         if (PandisServer.getInstance().getServerConfig().getRequirePassword() != null
             && !this.authenticated
-            && ! (command instanceof AuthCommand)) {
+            && ! (command instanceof AuthCommand)
+            && ! (command instanceof HelloCommand)) {
             // 回复错误信息
             return;
         }
@@ -215,6 +579,8 @@ public class InnerClient implements Client {
         } catch (IOException e) {
             logger.warn("Close server.client socket error.");
         }
+        // 归还回复缓冲区占用的直接内存
+        this.replyer.release();
     }
 
     /**
@@ -229,6 +595,46 @@ public class InnerClient implements Client {
         return database;
     }
 
+    public long getId() {
+        return this.id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getResp() {
+        return this.resp;
+    }
+
+    public void setResp(int resp) {
+        this.resp = resp;
+    }
+
+    public boolean isAuthenticated() {
+        return this.authenticated;
+    }
+
+    public void setAuthenticated(boolean authenticated) {
+        this.authenticated = authenticated;
+    }
+
+    public long getTrackingRedirect() {
+        return this.trackingRedirect;
+    }
+
+    public void setTrackingRedirect(long trackingRedirect) {
+        this.trackingRedirect = trackingRedirect;
+    }
+
+    public List<PandisString> getTrackingPrefixes() {
+        return this.trackingPrefixes;
+    }
+
     public SocketChannel getSocketChannel() {
         return socketChannel;
     }
@@ -237,10 +643,29 @@ public class InnerClient implements Client {
         return receiver;
     }
 
-    public ArrayList<Sds> getCommandArgs() {
+    public ArrayList<PandisString> getCommandArgs() {
         return this.commandArgs;
     }
 
+    public void setCommandArgs(ArrayList<PandisString> commandArgs) {
+        this.commandArgs = commandArgs;
+    }
+
+    public EventLoop getEventLoop() {
+        return this.eventLoop;
+    }
+
+    public boolean isExecuting() {
+        return this.executing;
+    }
+
+    /**
+     * @return 客户端是否由连接线程负责（connection-threads模式）
+     */
+    public boolean isServedByConnectionThread() {
+        return this.eventLoop == null;
+    }
+
     public void updateLastInteraction() {
         this.lastInteractionTime = new Date();
     }
@@ -249,17 +674,87 @@ public class InnerClient implements Client {
         return this.replyer.isNothingToReply();
     }
 
+    /**
+     * 获取客户端的类别，用于确定客户端适用的回复缓冲区限制
+     * @return 客户端类别
+     */
+    public ClientType getClientType() {
+        if (!this.pubSubChannels.isEmpty() || !this.pubSubPatterns.isEmpty()) {
+            return ClientType.PUBSUB;
+        }
+        return ClientType.NORMAL;
+    }
+
+    /**
+     * 检查回复缓冲区是否超过了客户端所属类别的限制，对应redis中的checkClientOutputBufferLimits
+     * 超过硬限制时立即返回true；超过软限制时，只有持续超过soft seconds秒才返回true
+     * 同时会更新客户端第一次达到软限制的时间
+     * @return 是否需要断开客户端
+     */
+    public boolean checkClientOutputBufferLimits() {
+        long used = this.replyer.getOutputBufferMemoryUsage();
+        ClientOutputBufferLimit limit = ServerContext.getContext().getServerConfig().getClientOutputBufferLimit(getClientType());
+
+        boolean hard = limit.getHardLimitBytes() > 0 && used >= limit.getHardLimitBytes();
+        boolean soft = limit.getSoftLimitBytes() > 0 && used >= limit.getSoftLimitBytes();
+
+        if (soft) {
+            long now = System.currentTimeMillis();
+            if (this.obufSoftLimitReachedTime == 0) {
+                // 第一次达到软限制，记录下时间
+                this.obufSoftLimitReachedTime = now;
+                soft = false;
+            } else if ((now - this.obufSoftLimitReachedTime) / 1000 <= limit.getSoftLimitSeconds()) {
+                // 还没有持续足够长的时间
+                soft = false;
+            }
+        } else {
+            this.obufSoftLimitReachedTime = 0;
+        }
+
+        return hard || soft;
+    }
+
+    /**
+     * 如果回复缓冲区超过了限制，就将客户端加入异步关闭的列表
+     * 不能立即关闭客户端，因为此时可能正在执行命令，或者正在向一批客户端发布消息
+     * 只在主事件循环中调用
+     */
+    public void closeClientOnOutputBufferLimitReachedAsync() {
+        if (this.socketChannel == null || hasFlags(CLIENT_CLOSE_ASAP)) {
+            return;
+        }
+
+        if (checkClientOutputBufferLimits()) {
+            logger.warn("Client " + this.socketChannel + " scheduled to be closed ASAP for overcoming of output buffer limits.");
+            PandisServer.getInstance().freeClientAsync(this);
+            PandisServer.getInstance().incrStatClientOutputBufferLimitDisconnections();
+        }
+    }
+
+    public long getOutputBufferMemoryUsage() {
+        return this.replyer.getOutputBufferMemoryUsage();
+    }
+
     /*******************************************
      * 向客户端发送回复
      *******************************************/
     public void replyNil() {
-        Reply reply = ReplyBuilder.buildNilReply();
-        replyer.reply(reply, this);
+        replyer.addReplyNull();
+    }
+
+    public void replyNullArray() {
+        replyer.addReplyNullArray();
     }
 
     public void replyStatus(String str) {
-        Reply reply = ReplyBuilder.buildStatusReply(str);
-        replyer.reply(reply, this);
+        if (StatusConstants.OK_STATUS.equals(str)) {
+            replyer.addReplyBytes(SharedObjects.OK_BYTES);
+        } else if (StatusConstants.PONG_STATUS.equals(str)) {
+            replyer.addReplyBytes(SharedObjects.PONG_BYTES);
+        } else {
+            replyer.addReplyStatus(str);
+        }
     }
 
     public void replyStatus(PandisString s) {
@@ -267,8 +762,7 @@ public class InnerClient implements Client {
     }
 
     public void replyError(String str) {
-        Reply reply = ReplyBuilder.buildErrorReply(str);
-        replyer.reply(reply, this);
+        replyer.addReplyError(str);
     }
 
     public void replyError(PandisString s) {
@@ -276,22 +770,78 @@ public class InnerClient implements Client {
     }
 
     public void replyBulk(String str) {
-        Reply reply = ReplyBuilder.buildBulkReply(str);
-        replyer.reply(reply, this);
+        byte[] bytes = SafeEncoder.encode(str);
+        replyer.addReplyBulk(bytes, 0, bytes.length);
     }
 
+    /**
+     * 以bulk的形式回复字符串对象，Sds的内容直接从其内部数组复制到回复缓冲区
+     * @param s 字符串对象
+     */
     public void replyBulk(PandisString s) {
-        replyBulk(s.toString());
+        if (s instanceof Sds) {
+            Sds sds = (Sds) s;
+            replyer.addReplyBulk(sds.toArrayWithOutCopy(), 0, sds.length());
+        } else if (s instanceof SdsView) {
+            SdsView view = (SdsView) s;
+            replyer.addReplyBulk(view.array(), view.offset(), view.length());
+        } else {
+            replyBulk(s.toString());
+        }
     }
 
     public void replyInteger(long l) {
-        Reply reply = ReplyBuilder.buildIntegerReply(l);
-        replyer.reply(reply, this);
+        replyer.addReplyInteger(l);
+    }
+
+    public void replyMultiBulkLength(int count) {
+        replyer.addReplyMultiBulkLength(count);
     }
 
     public void replyMultiBulk(List<String> bulks) {
-        Reply reply = ReplyBuilder.buildMultiBulkReply(bulks);
-        replyer.reply(reply, this);
+        replyer.addReplyMultiBulkLength(bulks.size());
+        for (String bulk : bulks) {
+            replyBulk(bulk);
+        }
+    }
+
+    /**
+     * 以push的形式发送一组字符串，用于订阅消息等不是命令回复的带外数据，RESP2客户端收到的是普通的多条回复
+     * @param bulks 字符串
+     */
+    public void replyPush(List<String> bulks) {
+        replyer.addReplyPushLength(bulks.size());
+        for (String bulk : bulks) {
+            replyBulk(bulk);
+        }
+    }
+
+    public void replyPushLength(int count) {
+        replyer.addReplyPushLength(count);
+    }
+
+    public void replyMapLength(int count) {
+        replyer.addReplyMapLength(count);
+    }
+
+    public void replySetLength(int count) {
+        replyer.addReplySetLength(count);
+    }
+
+    public void replyAttributeLength(int count) {
+        replyer.addReplyAttributeLength(count);
+    }
+
+    public void replyDouble(double d) {
+        replyer.addReplyDouble(d);
+    }
+
+    public void replyBool(boolean b) {
+        replyer.addReplyBool(b);
+    }
+
+    public void replyBigNumber(String number) {
+        replyer.addReplyBigNumber(number);
     }
 
     public Map<String, Channel> getPubSubChannels() {
@@ -0,0 +1,38 @@
+package server.config;
+
+/**
+ * 一类客户端的回复缓冲区限制，对应配置项 client-output-buffer-limit <class> <hard limit> <soft limit> <soft seconds>
+ * 回复缓冲区的大小一旦达到硬限制，客户端会被立即断开；
+ * 如果达到软限制，并且持续超过soft seconds秒，客户端也会被断开
+ * 限制为0表示不限制
+ * @Author huzihan
+ * @Date 2021/10/14
+ **/
+public class ClientOutputBufferLimit {
+    private final long hardLimitBytes;
+    private final long softLimitBytes;
+    private final long softLimitSeconds;
+
+    public ClientOutputBufferLimit(long hardLimitBytes, long softLimitBytes, long softLimitSeconds) {
+        this.hardLimitBytes = hardLimitBytes;
+        this.softLimitBytes = softLimitBytes;
+        this.softLimitSeconds = softLimitSeconds;
+    }
+
+    public long getHardLimitBytes() {
+        return this.hardLimitBytes;
+    }
+
+    public long getSoftLimitBytes() {
+        return this.softLimitBytes;
+    }
+
+    public long getSoftLimitSeconds() {
+        return this.softLimitSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return this.hardLimitBytes + " " + this.softLimitBytes + " " + this.softLimitSeconds;
+    }
+}
@@ -1,9 +1,11 @@
 package server.config;
 
+import common.evict.MaxMemoryPolicy;
 import common.persistence.AofFsyncFrequency;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import common.utils.StringUtil;
+import server.client.ClientType;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -28,6 +30,27 @@ public class ServerConfig {
     private String aofFileName;     // aof持久化存储的文件路径
     private AofFsyncFrequency appendFsync;  // aof写入文件后，将数据从系统缓冲区强制同步到磁盘的频率
     private String rdbFileName;     // rdb持久化存储的文件路径
+    private int ioReactors;         // IO子反应器线程数量，为0时所有连接都由主事件循环处理
+    private int ioThreads;          // io-threads模式下的IO线程数量（包括主线程），为1时不开启
+    private boolean ioThreadsDoReads;   // io-threads模式下是否由IO线程读取和解析请求，否则只由IO线程发送回复
+    private boolean connectionThreads;  // 是否由每个连接自己的（虚拟）线程阻塞地读写，而不是由事件循环读写
+    private ClientOutputBufferLimit[] clientOutputBufferLimits;    // 各类客户端的回复缓冲区限制，下标为ClientType的序号
+    private int tcpBacklog;         // 监听套接字的连接队列长度
+    private boolean tcpNoDelay;     // 是否对客户端连接关闭Nagle算法
+    private int tcpKeepalive;       // 客户端连接的TCP keepalive周期（秒），为0时不开启
+    private int maxClients;         // 同时连接的客户端数量上限
+    private int maxAcceptsPerCall;  // 每次ACCEPT事件最多接收的连接数量
+    private String unixSocket;      // Unix域套接字的路径，为null时不监听
+    private int unixSocketPerm;     // Unix域套接字文件的权限，为0时不修改
+    private int trackingTableMaxKeys;   // CLIENT TRACKING跟踪表中最多记录的键数量，为0时不限制
+    private boolean activeRehashing;    // 是否在serverCron中对键空间执行主动rehash
+    private boolean activeExpireIndex;  // 是否按过期时间为过期键建立索引，定期删除时按索引回收到期的键
+    private int activeExpireEffort;     // 定期删除过期键的力度，1到10，越大过期键占用的内存越少、消耗的CPU越多
+    private long maxMemory;             // 数据集占用内存的上限（字节），为0时不限制
+    private MaxMemoryPolicy maxMemoryPolicy;    // 内存超过maxmemory时的淘汰策略
+    private int maxMemorySamples;       // 每次淘汰时每个数据库采样的键数量
+    private int lfuLogFactor;           // LFU计数器的对数因子，越大计数器增长越慢
+    private int lfuDecayTime;           // LFU计数器每过多少分钟减一，为0时不衰减
 
 
     private boolean isActiveExpiredEnable;
@@ -41,6 +64,33 @@ public class ServerConfig {
     public static final int MAX_HZ = 500;
     public static final String DEFAULT_AOF_FILE_NAME = "appendonly.aof";
     public static final String DEFAULT_RDB_FILE_NAME = "dump.rdb";
+    public static final int DEFAULT_IO_REACTORS = 0;
+    public static final int MAX_IO_REACTORS = 128;
+    public static final int DEFAULT_IO_THREADS = 1;
+    public static final int MAX_IO_THREADS = 128;
+    public static final int DEFAULT_TCP_BACKLOG = 511;
+    public static final int DEFAULT_TCP_KEEPALIVE = 300;
+    public static final int DEFAULT_MAX_CLIENTS = 10000;
+    public static final int DEFAULT_MAX_ACCEPTS_PER_CALL = 1000;
+    public static final int DEFAULT_TRACKING_TABLE_MAX_KEYS = 1000000;
+    public static final int DEFAULT_ACTIVE_EXPIRE_EFFORT = 1;
+    public static final int MAX_ACTIVE_EXPIRE_EFFORT = 10;
+    public static final int DEFAULT_MAXMEMORY_SAMPLES = 5;
+    public static final int DEFAULT_LFU_LOG_FACTOR = 10;
+    public static final int DEFAULT_LFU_DECAY_TIME = 1;
+
+    /**
+     * 各类客户端默认的回复缓冲区限制
+     * 普通客户端只在发送请求后才会收到回复，默认不限制；
+     * 订阅者和从服务器的数据是由服务器主动推送的，消费慢时回复会不断积压，因此默认有限制
+     */
+    public static ClientOutputBufferLimit[] defaultClientOutputBufferLimits() {
+        ClientOutputBufferLimit[] limits = new ClientOutputBufferLimit[ClientType.values().length];
+        limits[ClientType.NORMAL.ordinal()] = new ClientOutputBufferLimit(0, 0, 0);
+        limits[ClientType.REPLICA.ordinal()] = new ClientOutputBufferLimit(1024L * 1024 * 256, 1024L * 1024 * 64, 60);
+        limits[ClientType.PUBSUB.ordinal()] = new ClientOutputBufferLimit(1024L * 1024 * 32, 1024L * 1024 * 8, 60);
+        return limits;
+    }
 
     private ServerConfig() {
         super();
@@ -56,6 +106,27 @@ public class ServerConfig {
         this.appendFsync = AofFsyncFrequency.EVERY_SECONDS;
         this.rdbFileName = DEFAULT_RDB_FILE_NAME;
         this.isActiveExpiredEnable = true;
+        this.ioReactors = DEFAULT_IO_REACTORS;
+        this.ioThreads = DEFAULT_IO_THREADS;
+        this.ioThreadsDoReads = false;
+        this.connectionThreads = false;
+        this.clientOutputBufferLimits = defaultClientOutputBufferLimits();
+        this.tcpBacklog = DEFAULT_TCP_BACKLOG;
+        this.tcpNoDelay = true;
+        this.tcpKeepalive = DEFAULT_TCP_KEEPALIVE;
+        this.maxClients = DEFAULT_MAX_CLIENTS;
+        this.maxAcceptsPerCall = DEFAULT_MAX_ACCEPTS_PER_CALL;
+        this.unixSocket = null;
+        this.unixSocketPerm = 0;
+        this.trackingTableMaxKeys = DEFAULT_TRACKING_TABLE_MAX_KEYS;
+        this.activeRehashing = true;
+        this.activeExpireIndex = false;
+        this.activeExpireEffort = DEFAULT_ACTIVE_EXPIRE_EFFORT;
+        this.maxMemory = 0;
+        this.maxMemoryPolicy = MaxMemoryPolicy.NOEVICTION;
+        this.maxMemorySamples = DEFAULT_MAXMEMORY_SAMPLES;
+        this.lfuLogFactor = DEFAULT_LFU_LOG_FACTOR;
+        this.lfuDecayTime = DEFAULT_LFU_DECAY_TIME;
     }
 
     public static ServerConfig build() {
@@ -77,6 +148,27 @@ public class ServerConfig {
             serverConfig.appendFsync = builder.appendFsync;
             serverConfig.rdbFileName = builder.rdbFileName;
             serverConfig.isActiveExpiredEnable = builder.isActiveExpiredEnable;
+            serverConfig.ioReactors = builder.ioReactors;
+            serverConfig.ioThreads = builder.ioThreads;
+            serverConfig.ioThreadsDoReads = builder.ioThreadsDoReads;
+            serverConfig.connectionThreads = builder.connectionThreads;
+            serverConfig.clientOutputBufferLimits = builder.clientOutputBufferLimits.clone();
+            serverConfig.tcpBacklog = builder.tcpBacklog;
+            serverConfig.tcpNoDelay = builder.tcpNoDelay;
+            serverConfig.tcpKeepalive = builder.tcpKeepalive;
+            serverConfig.maxClients = builder.maxClients;
+            serverConfig.maxAcceptsPerCall = builder.maxAcceptsPerCall;
+            serverConfig.unixSocket = builder.unixSocket;
+            serverConfig.unixSocketPerm = builder.unixSocketPerm;
+            serverConfig.trackingTableMaxKeys = builder.trackingTableMaxKeys;
+            serverConfig.activeRehashing = builder.activeRehashing;
+            serverConfig.activeExpireIndex = builder.activeExpireIndex;
+            serverConfig.activeExpireEffort = builder.activeExpireEffort;
+            serverConfig.maxMemory = builder.maxMemory;
+            serverConfig.maxMemoryPolicy = builder.maxMemoryPolicy;
+            serverConfig.maxMemorySamples = builder.maxMemorySamples;
+            serverConfig.lfuLogFactor = builder.lfuLogFactor;
+            serverConfig.lfuDecayTime = builder.lfuDecayTime;
         }
 
         return serverConfig;
@@ -138,7 +230,22 @@ public class ServerConfig {
             if ("timeout".equals(option) && argv.length == 2) {
                 // TODO
             } else if ("tcp-keepalive".equals(option) && argv.length == 2) {
-                // TODO
+                int tcpKeepalive = Integer.valueOf(argv[1]);
+                if (tcpKeepalive < 0) {
+                    err = "Invalid tcp-keepalive value";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.tcpKeepalive = tcpKeepalive;
+            } else if ("tcp-nodelay".equals(option) && argv.length == 2) {
+                String param = argv[1].toLowerCase();
+                if ("yes".equals(param)) {
+                    this.tcpNoDelay = true;
+                } else if ("no".equals(param)) {
+                    this.tcpNoDelay = false;
+                } else {
+                    err = "argument must be 'yes' or 'no'";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
             } else if ("port".equals(option) && argv.length == 2) {
                 int port = Integer.valueOf(argv[1]);
                 if (port < 0 || port > 65535) {
@@ -147,13 +254,36 @@ public class ServerConfig {
                 }
                 this.port = port;
             } else if ("tcp-backlog".equals(option) && argv.length == 2) {
-                // TODO
+                int tcpBacklog = Integer.valueOf(argv[1]);
+                if (tcpBacklog < 0) {
+                    err = "Invalid backlog value";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.tcpBacklog = tcpBacklog;
+            } else if ("max-accepts-per-call".equals(option) && argv.length == 2) {
+                int maxAccepts = Integer.valueOf(argv[1]);
+                if (maxAccepts < 1) {
+                    err = "Invalid max-accepts-per-call value";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.maxAcceptsPerCall = maxAccepts;
             } else if ("bind".equals(option) && argv.length >= 2) {
                 // TODO
             } else if ("unixsocket".equals(option) && argv.length == 2) {
-                // TODO
+                this.unixSocket = argv[1];
             } else if ("unixsocketperm".equals(option) && argv.length == 2) {
-                // TODO
+                // 八进制的权限，如700
+                int perm = -1;
+                try {
+                    perm = Integer.parseInt(argv[1], 8);
+                } catch (NumberFormatException e) {
+                    perm = -1;
+                }
+                if (perm < 0 || perm > 0777) {
+                    err = "Invalid socket file permissions";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.unixSocketPerm = perm;
             } else if ("save".equals(option)) {
                 // TODO
             } else if ("dir".equals(option) && argv.length == 2) {
@@ -175,14 +305,67 @@ public class ServerConfig {
                     printFatalConfigError(lineNum, lines[i], err);
                 }
                 this.dbNumber = dbNums;
-            } else if ("maxclient".equals(option) && argv.length == 2) {
-                // TODO
+            } else if ("maxclients".equals(option) && argv.length == 2) {
+                int maxClients = Integer.valueOf(argv[1]);
+                if (maxClients < 1) {
+                    err = "Invalid max clients limit";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.maxClients = maxClients;
+            } else if ("tracking-table-max-keys".equals(option) && argv.length == 2) {
+                int maxKeys = Integer.valueOf(argv[1]);
+                if (maxKeys < 0) {
+                    err = "Invalid tracking table max keys";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.trackingTableMaxKeys = maxKeys;
+            } else if ("active-expire-effort".equals(option) && argv.length == 2) {
+                int effort = Integer.valueOf(argv[1]);
+                if (effort < 1 || effort > MAX_ACTIVE_EXPIRE_EFFORT) {
+                    err = "active-expire-effort must be between 1 and " + MAX_ACTIVE_EXPIRE_EFFORT;
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.activeExpireEffort = effort;
             } else if ("maxmemory".equals(option) && argv.length == 2) {
-                // TODO
+                long maxMemory;
+                try {
+                    maxMemory = StringUtil.memToLong(argv[1]);
+                } catch (NumberFormatException e) {
+                    maxMemory = -1;
+                }
+                if (maxMemory < 0) {
+                    err = "Invalid maxmemory value";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.maxMemory = maxMemory;
             } else if ("maxmemory-policy".equals(option) && argv.length == 2) {
-                // TODO
+                MaxMemoryPolicy policy = MaxMemoryPolicy.fromConfigName(argv[1]);
+                if (policy == null) {
+                    err = "Invalid maxmemory policy";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.maxMemoryPolicy = policy;
             } else if ("maxmemory-samples".equals(option) && argv.length == 2) {
-                // TODO
+                int samples = Integer.valueOf(argv[1]);
+                if (samples <= 0) {
+                    err = "maxmemory-samples must be 1 or greater";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.maxMemorySamples = samples;
+            } else if ("lfu-log-factor".equals(option) && argv.length == 2) {
+                int factor = Integer.valueOf(argv[1]);
+                if (factor < 0) {
+                    err = "lfu-log-factor must be 0 or greater";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.lfuLogFactor = factor;
+            } else if ("lfu-decay-time".equals(option) && argv.length == 2) {
+                int decayTime = Integer.valueOf(argv[1]);
+                if (decayTime < 0) {
+                    err = "lfu-decay-time must be 0 or greater";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.lfuDecayTime = decayTime;
             } else if ("slaveof".equals(option) && argv.length == 2) {
                 // TODO
             } else if ("repl-ping-slave-period".equals(option) && argv.length == 2) {
@@ -206,7 +389,25 @@ public class ServerConfig {
             } else if ("rdbchecksum".equals(option) && argv.length == 2) {
                 // TODO
             } else if ("activerehashing".equals(option) && argv.length == 2) {
-                // TODO
+                String param = argv[1].toLowerCase();
+                if ("yes".equals(param)) {
+                    this.activeRehashing = true;
+                } else if ("no".equals(param)) {
+                    this.activeRehashing = false;
+                } else {
+                    err = "argument must be 'yes' or 'no'";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+            } else if ("active-expire-index".equals(option) && argv.length == 2) {
+                String param = argv[1].toLowerCase();
+                if ("yes".equals(param)) {
+                    this.activeExpireIndex = true;
+                } else if ("no".equals(param)) {
+                    this.activeExpireIndex = false;
+                } else {
+                    err = "argument must be 'yes' or 'no'";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
             } else if ("daemonize".equals(option) && argv.length == 2) {
                 if ("yes".equals(argv[1])) {
                     this.daemonize = true;
@@ -224,6 +425,42 @@ public class ServerConfig {
                     hz = MAX_HZ;
                 }
                 this.hz = hz;
+            } else if ("io-reactors".equals(option) && argv.length == 2) {
+                // IO子反应器线程数量
+                int ioReactors = Integer.valueOf(argv[1]);
+                if (ioReactors < 0 || ioReactors > MAX_IO_REACTORS) {
+                    err = "Invalid number of io reactors";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.ioReactors = ioReactors;
+            } else if ("io-threads".equals(option) && argv.length == 2) {
+                // io-threads模式下的IO线程数量
+                int ioThreads = Integer.valueOf(argv[1]);
+                if (ioThreads < 1 || ioThreads > MAX_IO_THREADS) {
+                    err = "Invalid number of io threads";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.ioThreads = ioThreads;
+            } else if ("io-threads-do-reads".equals(option) && argv.length == 2) {
+                String param = argv[1].toLowerCase();
+                if ("yes".equals(param)) {
+                    this.ioThreadsDoReads = true;
+                } else if ("no".equals(param)) {
+                    this.ioThreadsDoReads = false;
+                } else {
+                    err = "argument must be 'yes' or 'no'";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+            } else if ("connection-threads".equals(option) && argv.length == 2) {
+                String param = argv[1].toLowerCase();
+                if ("yes".equals(param)) {
+                    this.connectionThreads = true;
+                } else if ("no".equals(param)) {
+                    this.connectionThreads = false;
+                } else {
+                    err = "argument must be 'yes' or 'no'";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
             } else if ("appendonly".equals(option) && argv.length == 2) {
                 // 是否开启aof持久化的配置选项
                 boolean yes = false;
@@ -313,8 +550,27 @@ public class ServerConfig {
                 // TODO
             } else if ("slowlog-max-len".equals(option) && argv.length == 2) {
                 // TODO
-            } else if ("server.client-output-buffer-limit".equals(option) && argv.length == 5) {
-                // TODO
+            } else if ("client-output-buffer-limit".equals(option) && argv.length == 5) {
+                // 某一类客户端的回复缓冲区限制：<class> <hard limit> <soft limit> <soft seconds>
+                ClientType type = ClientType.fromConfigName(argv[1]);
+                if (type == null) {
+                    err = "Invalid client class specified in client-output-buffer-limit";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+
+                long hard = 0, soft = 0, softSeconds = 0;
+                try {
+                    hard = StringUtil.memToLong(argv[2]);
+                    soft = StringUtil.memToLong(argv[3]);
+                    softSeconds = Long.parseLong(argv[4]);
+                } catch (NumberFormatException e) {
+                    hard = -1;
+                }
+                if (hard < 0 || soft < 0 || softSeconds < 0) {
+                    err = "Negative number of seconds or invalid memory limit in client-output-buffer-limit";
+                    printFatalConfigError(lineNum, lines[i], err);
+                }
+                this.clientOutputBufferLimits[type.ordinal()] = new ClientOutputBufferLimit(hard, soft, softSeconds);
             } else if ("stop-writes-on-bgsave-error".equals(option) && argv.length == 2) {
                 // TODO
             } else if ("slave-priority".equals(option) && argv.length == 2) {
@@ -396,6 +652,90 @@ public class ServerConfig {
         return this.isActiveExpiredEnable;
     }
 
+    public int getIoReactors() {
+        return this.ioReactors;
+    }
+
+    public int getIoThreads() {
+        return this.ioThreads;
+    }
+
+    public boolean isIoThreadsDoReads() {
+        return this.ioThreadsDoReads;
+    }
+
+    public boolean isConnectionThreads() {
+        return this.connectionThreads;
+    }
+
+    public ClientOutputBufferLimit getClientOutputBufferLimit(ClientType type) {
+        return this.clientOutputBufferLimits[type.ordinal()];
+    }
+
+    public int getTcpBacklog() {
+        return this.tcpBacklog;
+    }
+
+    public boolean isTcpNoDelay() {
+        return this.tcpNoDelay;
+    }
+
+    public int getTcpKeepalive() {
+        return this.tcpKeepalive;
+    }
+
+    public int getMaxClients() {
+        return this.maxClients;
+    }
+
+    public int getMaxAcceptsPerCall() {
+        return this.maxAcceptsPerCall;
+    }
+
+    public String getUnixSocket() {
+        return this.unixSocket;
+    }
+
+    public int getUnixSocketPerm() {
+        return this.unixSocketPerm;
+    }
+
+    public int getTrackingTableMaxKeys() {
+        return this.trackingTableMaxKeys;
+    }
+
+    public boolean isActiveRehashing() {
+        return this.activeRehashing;
+    }
+
+    public boolean isActiveExpireIndex() {
+        return this.activeExpireIndex;
+    }
+
+    public int getActiveExpireEffort() {
+        return this.activeExpireEffort;
+    }
+
+    public long getMaxMemory() {
+        return this.maxMemory;
+    }
+
+    public MaxMemoryPolicy getMaxMemoryPolicy() {
+        return this.maxMemoryPolicy;
+    }
+
+    public int getMaxMemorySamples() {
+        return this.maxMemorySamples;
+    }
+
+    public int getLfuLogFactor() {
+        return this.lfuLogFactor;
+    }
+
+    public int getLfuDecayTime() {
+        return this.lfuDecayTime;
+    }
+
     public static class ServerConfigBuilder {
         private String configfile;      // 配置文件路径
         private int port;               // 服务器默认端口
@@ -408,6 +748,27 @@ public class ServerConfig {
         private AofFsyncFrequency appendFsync;
         private String rdbFileName;
         private boolean isActiveExpiredEnable;
+        private int ioReactors;
+        private int ioThreads;
+        private boolean ioThreadsDoReads;
+        private boolean connectionThreads;
+        private ClientOutputBufferLimit[] clientOutputBufferLimits;
+        private int tcpBacklog;
+        private boolean tcpNoDelay;
+        private int tcpKeepalive;
+        private int maxClients;
+        private int maxAcceptsPerCall;
+        private String unixSocket;
+        private int unixSocketPerm;
+        private int trackingTableMaxKeys;
+        private boolean activeRehashing;
+        private boolean activeExpireIndex;
+        private int activeExpireEffort;
+        private long maxMemory;
+        private MaxMemoryPolicy maxMemoryPolicy;
+        private int maxMemorySamples;
+        private int lfuLogFactor;
+        private int lfuDecayTime;
 
         public ServerConfigBuilder() {
             this.configfile = null;      // 配置文件路径
@@ -421,6 +782,27 @@ public class ServerConfig {
             this.appendFsync = AofFsyncFrequency.EVERY_SECONDS;
             this.rdbFileName = DEFAULT_RDB_FILE_NAME;
             this.isActiveExpiredEnable = true;
+            this.ioReactors = DEFAULT_IO_REACTORS;
+            this.ioThreads = DEFAULT_IO_THREADS;
+            this.ioThreadsDoReads = false;
+            this.connectionThreads = false;
+            this.clientOutputBufferLimits = defaultClientOutputBufferLimits();
+            this.tcpBacklog = DEFAULT_TCP_BACKLOG;
+            this.tcpNoDelay = true;
+            this.tcpKeepalive = DEFAULT_TCP_KEEPALIVE;
+            this.maxClients = DEFAULT_MAX_CLIENTS;
+            this.maxAcceptsPerCall = DEFAULT_MAX_ACCEPTS_PER_CALL;
+            this.unixSocket = null;
+            this.unixSocketPerm = 0;
+            this.trackingTableMaxKeys = DEFAULT_TRACKING_TABLE_MAX_KEYS;
+            this.activeRehashing = true;
+            this.activeExpireIndex = false;
+            this.activeExpireEffort = DEFAULT_ACTIVE_EXPIRE_EFFORT;
+            this.maxMemory = 0;
+            this.maxMemoryPolicy = MaxMemoryPolicy.NOEVICTION;
+            this.maxMemorySamples = DEFAULT_MAXMEMORY_SAMPLES;
+            this.lfuLogFactor = DEFAULT_LFU_LOG_FACTOR;
+            this.lfuDecayTime = DEFAULT_LFU_DECAY_TIME;
         }
 
         public ServerConfigBuilder setPort(int port) {
@@ -472,6 +854,111 @@ public class ServerConfig {
             this.rdbFileName = fileName;
             return this;
         }
+
+        public ServerConfigBuilder setIoReactors(int ioReactors) {
+            this.ioReactors = ioReactors;
+            return this;
+        }
+
+        public ServerConfigBuilder setIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public ServerConfigBuilder setIoThreadsDoReads(boolean ioThreadsDoReads) {
+            this.ioThreadsDoReads = ioThreadsDoReads;
+            return this;
+        }
+
+        public ServerConfigBuilder setConnectionThreads(boolean connectionThreads) {
+            this.connectionThreads = connectionThreads;
+            return this;
+        }
+
+        public ServerConfigBuilder setClientOutputBufferLimit(ClientType type, ClientOutputBufferLimit limit) {
+            this.clientOutputBufferLimits[type.ordinal()] = limit;
+            return this;
+        }
+
+        public ServerConfigBuilder setTcpBacklog(int tcpBacklog) {
+            this.tcpBacklog = tcpBacklog;
+            return this;
+        }
+
+        public ServerConfigBuilder setTcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public ServerConfigBuilder setTcpKeepalive(int tcpKeepalive) {
+            this.tcpKeepalive = tcpKeepalive;
+            return this;
+        }
+
+        public ServerConfigBuilder setMaxClients(int maxClients) {
+            this.maxClients = maxClients;
+            return this;
+        }
+
+        public ServerConfigBuilder setMaxAcceptsPerCall(int maxAcceptsPerCall) {
+            this.maxAcceptsPerCall = maxAcceptsPerCall;
+            return this;
+        }
+
+        public ServerConfigBuilder setUnixSocket(String unixSocket) {
+            this.unixSocket = unixSocket;
+            return this;
+        }
+
+        public ServerConfigBuilder setUnixSocketPerm(int unixSocketPerm) {
+            this.unixSocketPerm = unixSocketPerm;
+            return this;
+        }
+
+        public ServerConfigBuilder setTrackingTableMaxKeys(int trackingTableMaxKeys) {
+            this.trackingTableMaxKeys = trackingTableMaxKeys;
+            return this;
+        }
+
+        public ServerConfigBuilder setActiveRehashing(boolean activeRehashing) {
+            this.activeRehashing = activeRehashing;
+            return this;
+        }
+
+        public ServerConfigBuilder setActiveExpireIndex(boolean activeExpireIndex) {
+            this.activeExpireIndex = activeExpireIndex;
+            return this;
+        }
+
+        public ServerConfigBuilder setActiveExpireEffort(int activeExpireEffort) {
+            this.activeExpireEffort = activeExpireEffort;
+            return this;
+        }
+
+        public ServerConfigBuilder setMaxMemory(long maxMemory) {
+            this.maxMemory = maxMemory;
+            return this;
+        }
+
+        public ServerConfigBuilder setMaxMemoryPolicy(MaxMemoryPolicy maxMemoryPolicy) {
+            this.maxMemoryPolicy = maxMemoryPolicy;
+            return this;
+        }
+
+        public ServerConfigBuilder setMaxMemorySamples(int maxMemorySamples) {
+            this.maxMemorySamples = maxMemorySamples;
+            return this;
+        }
+
+        public ServerConfigBuilder setLfuLogFactor(int lfuLogFactor) {
+            this.lfuLogFactor = lfuLogFactor;
+            return this;
+        }
+
+        public ServerConfigBuilder setLfuDecayTime(int lfuDecayTime) {
+            this.lfuDecayTime = lfuDecayTime;
+            return this;
+        }
     }
 
     public void printConfig() {
@@ -480,5 +967,23 @@ public class ServerConfig {
         System.out.println("databases:" + this.dbNumber);
         System.out.println("daemonize:" + this.daemonize);
         System.out.println("requirepass:" + this.requirePassword);
+        System.out.println("io-reactors:" + this.ioReactors);
+        System.out.println("io-threads:" + this.ioThreads);
+        System.out.println("connection-threads:" + this.connectionThreads);
+        System.out.println("tcp-backlog:" + this.tcpBacklog);
+        System.out.println("tcp-nodelay:" + this.tcpNoDelay);
+        System.out.println("tcp-keepalive:" + this.tcpKeepalive);
+        System.out.println("maxclients:" + this.maxClients);
+        System.out.println("unixsocket:" + this.unixSocket);
+        System.out.println("tracking-table-max-keys:" + this.trackingTableMaxKeys);
+        System.out.println("activerehashing:" + (this.activeRehashing ? "yes" : "no"));
+        System.out.println("active-expire-index:" + (this.activeExpireIndex ? "yes" : "no"));
+        System.out.println("active-expire-effort:" + this.activeExpireEffort);
+        System.out.println("maxmemory:" + this.maxMemory);
+        System.out.println("maxmemory-policy:" + this.maxMemoryPolicy.getConfigName());
+        System.out.println("maxmemory-samples:" + this.maxMemorySamples);
+        for (ClientType type : ClientType.values()) {
+            System.out.println("client-output-buffer-limit:" + type.getConfigName() + " " + this.clientOutputBufferLimits[type.ordinal()]);
+        }
     }
 }
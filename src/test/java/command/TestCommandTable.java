@@ -0,0 +1,83 @@
+package command;
+
+import command.commands.DelCommand;
+import command.commands.GetCommand;
+import command.commands.PingCommand;
+import common.struct.impl.Sds;
+import common.struct.impl.SdsView;
+import common.utils.SafeEncoder;
+import junit.framework.Assert;
+import org.junit.Test;
+import server.client.InnerClient;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/15
+ **/
+public class TestCommandTable {
+
+    private static AbstractCommand command(String name, String flags) {
+        return new AbstractCommand(name, 1, false, flags) {
+            @Override
+            public boolean checkCommandArgs(InnerClient client) {
+                return true;
+            }
+
+            @Override
+            public void doExecute(InnerClient client) {
+            }
+        };
+    }
+
+    @Test
+    public void testLookupIgnoreCase() {
+        CommandTable table = new CommandTable();
+        String[] names = {"get", "set", "setnx", "setex", "psetex", "append", "strlen", "del", "exists", "select",
+            "ping", "echo", "expire", "expireat", "pexpire", "pexpireat", "ttl", "pttl", "persist", "info"};
+        for (String name : names) {
+            table.register(name, command(name, "r"));
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            AbstractCommand command = table.lookup(Sds.createSds(names[i].toUpperCase()));
+            Assert.assertNotNull(command);
+            Assert.assertEquals(names[i], command.getName());
+            Assert.assertEquals(i, command.getId());
+            Assert.assertSame(command, table.getCommand(i));
+        }
+
+        byte[] request = SafeEncoder.encode("$3\r\nGeT\r\n");
+        Assert.assertEquals("get", table.lookup(new SdsView(request, 4, 3)).getName());
+        Assert.assertNull(table.lookup("gett"));
+        Assert.assertNull(table.lookup("ge"));
+    }
+
+    @Test
+    public void testParseFlags() {
+        AbstractCommand command = command("set", "wm");
+        Assert.assertTrue(command.hasFlag(AbstractCommand.CMD_WRITE));
+        Assert.assertTrue(command.hasFlag(AbstractCommand.CMD_DENYOOM));
+        Assert.assertFalse(command.hasFlag(AbstractCommand.CMD_READONLY));
+        Assert.assertEquals(AbstractCommand.CMD_PUBSUB | AbstractCommand.CMD_LOADING | AbstractCommand.CMD_STALE | AbstractCommand.CMD_READONLY,
+            AbstractCommand.parseFlags("pltr"));
+    }
+
+    @Test
+    public void testKeyPositions() {
+        // GET key
+        GetCommand get = new GetCommand();
+        Assert.assertEquals(1, get.getFirstKey());
+        Assert.assertEquals(1, get.getLastKey(2));
+
+        // DEL key [key ...]，最后一个键的位置从末尾倒数
+        DelCommand del = new DelCommand();
+        Assert.assertEquals(1, del.getFirstKey());
+        Assert.assertEquals(3, del.getLastKey(4));
+        Assert.assertEquals(1, del.getKeyStep());
+
+        // 没有键的命令
+        PingCommand ping = new PingCommand();
+        Assert.assertTrue(ping.getLastKey(2) < ping.getFirstKey());
+    }
+}
@@ -0,0 +1,70 @@
+package common.evict;
+
+import common.struct.impl.Sds;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class TestEvictionPool {
+
+    private static void assertIdles(EvictionPool pool, long... idles) {
+        for (int k = 0; k < EvictionPool.EVPOOL_SIZE; k++) {
+            if (k < idles.length) {
+                Assert.assertEquals(idles[k], pool.get(k).idle);
+            } else {
+                Assert.assertNull(pool.get(k));
+            }
+        }
+    }
+
+    @Test
+    public void testInsertOrdering() {
+        EvictionPool pool = new EvictionPool();
+        pool.insert(50, Sds.createSds("a"), 0);
+        pool.insert(10, Sds.createSds("b"), 0);
+        pool.insert(30, Sds.createSds("c"), 1);
+        pool.insert(70, Sds.createSds("d"), 0);
+        assertIdles(pool, 10, 30, 50, 70);
+        Assert.assertEquals("c", pool.get(1).key.toString());
+        Assert.assertEquals(1, pool.get(1).dbId);
+
+        // 取出最空闲的候选键后，之后的插入填补空位
+        Assert.assertEquals("d", pool.take(3).key.toString());
+        assertIdles(pool, 10, 30, 50);
+        pool.insert(40, Sds.createSds("e"), 0);
+        assertIdles(pool, 10, 30, 40, 50);
+    }
+
+    @Test
+    public void testFullPoolReplacement() {
+        EvictionPool pool = new EvictionPool();
+        long[] idles = new long[EvictionPool.EVPOOL_SIZE];
+        for (int i = 0; i < EvictionPool.EVPOOL_SIZE; i++) {
+            idles[i] = (i + 1) * 10;
+            pool.insert(idles[i], Sds.createSds("key:" + i), 0);
+        }
+        assertIdles(pool, idles);
+
+        // 池满时比所有候选键都更不应该被淘汰的键被丢弃
+        pool.insert(5, Sds.createSds("young"), 0);
+        assertIdles(pool, idles);
+
+        // 插入中间时丢弃idle最小的候选键
+        pool.insert(55, Sds.createSds("middle"), 0);
+        Assert.assertEquals(20, pool.get(0).idle);
+        Assert.assertEquals(50, pool.get(3).idle);
+        Assert.assertEquals("middle", pool.get(4).key.toString());
+        Assert.assertEquals(60, pool.get(5).idle);
+        Assert.assertEquals(160, pool.get(EvictionPool.EVPOOL_SIZE - 1).idle);
+
+        // 比所有候选键都空闲的键放在最后
+        pool.insert(1000, Sds.createSds("oldest"), 0);
+        Assert.assertEquals(30, pool.get(0).idle);
+        Assert.assertEquals(160, pool.get(EvictionPool.EVPOOL_SIZE - 2).idle);
+        Assert.assertEquals("oldest", pool.get(EvictionPool.EVPOOL_SIZE - 1).key.toString());
+    }
+}
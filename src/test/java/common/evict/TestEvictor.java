@@ -0,0 +1,178 @@
+package common.evict;
+
+import common.constants.ErrorConstants;
+import common.struct.PandisString;
+import common.struct.impl.Sds;
+import database.Database;
+import junit.framework.Assert;
+import org.junit.Test;
+import server.PandisServer;
+import server.ServerFixture;
+import server.config.ServerConfig;
+
+import java.io.IOException;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class TestEvictor {
+
+    @Test
+    public void testEstimateIdleTime() {
+        Sds value = Sds.createSds("value");
+        value.setLru(Evictor.getLruClock());
+        Assert.assertTrue(Evictor.estimateIdleTime(value) <= Evictor.LRU_CLOCK_RESOLUTION);
+
+        // 时钟回绕后仍然能得到正确的空闲时间
+        int clock = Evictor.getLruClock();
+        value.setLru((clock - 100) & Evictor.LRU_CLOCK_MAX);
+        long idle = Evictor.estimateIdleTime(value);
+        Assert.assertTrue(idle >= 99 * Evictor.LRU_CLOCK_RESOLUTION && idle <= 101 * Evictor.LRU_CLOCK_RESOLUTION);
+    }
+
+    @Test
+    public void testLfuDecay() {
+        Sds value = Sds.createSds("value");
+        int minutes = (int) ((System.currentTimeMillis() / 1000 / 60) & 65535);
+
+        // 刚访问过的键计数器不衰减
+        value.setLru((minutes << 8) | 100);
+        Assert.assertEquals(100, Evictor.lfuDecrAndReturn(value, 1));
+
+        // 每过lfu-decay-time分钟减一，减到0为止
+        value.setLru((((minutes - 30) & 65535) << 8) | 100);
+        int counter = Evictor.lfuDecrAndReturn(value, 1);
+        Assert.assertTrue(counter >= 69 && counter <= 70);
+        // lfu-decay-time为0时不衰减
+        Assert.assertEquals(100, Evictor.lfuDecrAndReturn(value, 0));
+        value.setLru((((minutes - 300) & 65535) << 8) | 100);
+        Assert.assertEquals(0, Evictor.lfuDecrAndReturn(value, 1));
+    }
+
+    @Test
+    public void testMaxMemoryPolicy() {
+        Assert.assertEquals(MaxMemoryPolicy.ALLKEYS_LFU, MaxMemoryPolicy.fromConfigName("AllKeys-LFU"));
+        Assert.assertTrue(MaxMemoryPolicy.ALLKEYS_LFU.isLfu());
+        Assert.assertFalse(MaxMemoryPolicy.VOLATILE_TTL.isAllKeys());
+        Assert.assertNull(MaxMemoryPolicy.fromConfigName("lru"));
+    }
+
+    private static PandisServer startServer(long maxMemory, MaxMemoryPolicy policy, int samples) {
+        ServerConfig.ServerConfigBuilder builder = new ServerConfig.ServerConfigBuilder();
+        builder.setMaxMemory(maxMemory);
+        builder.setMaxMemoryPolicy(policy);
+        builder.setMaxMemorySamples(samples);
+        return ServerFixture.start(ServerConfig.build(builder));
+    }
+
+    /**
+     * 向数据库写入count个键，其中前volatileCount个键设置过期时间，越靠前越早过期
+     */
+    private static void fill(Database db, int count, int volatileCount) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Sds key = Sds.createSds("key:" + i);
+            db.add(key, Sds.createSds("value"));
+            if (i < volatileCount) {
+                db.setExpire(key, now + 100000 + i * 1000L);
+            }
+        }
+    }
+
+    private static EvictionPool.Entry mostIdle(EvictionPool pool) {
+        for (int k = EvictionPool.EVPOOL_SIZE - 1; k >= 0; k--) {
+            if (pool.get(k) != null) {
+                return pool.get(k);
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testPopulatePoolVolatileLru() {
+        PandisServer server = startServer(0, MaxMemoryPolicy.VOLATILE_LRU, 40);
+        Database db = server.getDatabases()[0];
+        fill(db, 20, 3);
+        // key:1最久没有被访问
+        db.getKeySpace().get(Sds.createSds("key:1")).setLru((Evictor.getLruClock() - 100) & Evictor.LRU_CLOCK_MAX);
+
+        Evictor evictor = server.getEvictor();
+        Assert.assertEquals(40, evictor.populatePool(db, db.getExpires(), MaxMemoryPolicy.VOLATILE_LRU, server.getServerConfig()));
+
+        // 只从设置了过期时间的键中采样
+        EvictionPool pool = evictor.getPool();
+        for (int k = 0; k < EvictionPool.EVPOOL_SIZE; k++) {
+            EvictionPool.Entry entry = pool.get(k);
+            if (entry != null) {
+                Assert.assertTrue(db.getExpires().getKey(entry.key) != null);
+            }
+        }
+        Assert.assertEquals("key:1", mostIdle(pool).key.toString());
+    }
+
+    @Test
+    public void testPopulatePoolVolatileTtl() {
+        PandisServer server = startServer(0, MaxMemoryPolicy.VOLATILE_TTL, 40);
+        Database db = server.getDatabases()[0];
+        fill(db, 20, 3);
+
+        Evictor evictor = server.getEvictor();
+        evictor.populatePool(db, db.getExpires(), MaxMemoryPolicy.VOLATILE_TTL, server.getServerConfig());
+
+        // 最早过期的键最先被淘汰
+        EvictionPool.Entry entry = mostIdle(evictor.getPool());
+        Assert.assertEquals("key:0", entry.key.toString());
+        Assert.assertEquals(Long.MAX_VALUE - db.getExpire(entry.key), entry.idle);
+    }
+
+    @Test
+    public void testPerformEvictionsStopsUnderMaxMemory() {
+        PandisString key = Sds.createSds("key:0");
+        long entryMemory = Evictor.entryMemory(key, Sds.createSds("value"));
+        PandisServer server = startServer(entryMemory * 10, MaxMemoryPolicy.ALLKEYS_LRU, 5);
+        Database db = server.getDatabases()[0];
+        fill(db, 25, 0);
+
+        Evictor evictor = server.getEvictor();
+        Assert.assertTrue(evictor.usedMemory() > server.getServerConfig().getMaxMemory());
+        Assert.assertTrue(evictor.performEvictions());
+
+        // 回到限制以内就停止，不多淘汰
+        Assert.assertEquals(10, db.getKeySpace().size());
+        Assert.assertEquals(15, evictor.getStatEvictedKeys());
+        Assert.assertTrue(evictor.usedMemory() <= server.getServerConfig().getMaxMemory());
+
+        // 没有超过限制时不淘汰
+        Assert.assertTrue(evictor.performEvictions());
+        Assert.assertEquals(15, evictor.getStatEvictedKeys());
+    }
+
+    @Test
+    public void testPerformEvictionsWithoutCandidates() {
+        // volatile策略下没有设置过期时间的键可以淘汰
+        PandisServer server = startServer(1, MaxMemoryPolicy.VOLATILE_LRU, 5);
+        fill(server.getDatabases()[0], 5, 0);
+        Assert.assertFalse(server.getEvictor().performEvictions());
+        Assert.assertEquals(5, server.getDatabases()[0].getKeySpace().size());
+    }
+
+    @Test
+    public void testDenyOom() throws IOException {
+        PandisServer server = startServer(1, MaxMemoryPolicy.NOEVICTION, 5);
+        fill(server.getDatabases()[0], 1, 0);
+
+        ServerFixture.Connection connection = ServerFixture.connect();
+        try {
+            // 带有denyoom标志的写入命令被拒绝，读取命令和DEL这样可以释放内存的写入命令照常执行
+            Assert.assertEquals(ErrorConstants.OOM_ERROR + "\r\n", connection.call("SET", "k", "v"));
+            Assert.assertFalse(server.getDatabases()[0].exists(Sds.createSds("k")));
+            Assert.assertEquals("$5\r\nvalue\r\n", connection.call("GET", "key:0"));
+            Assert.assertEquals(":1\r\n", connection.call("DEL", "key:0"));
+            Assert.assertEquals("$2\r\nOK\r\n", connection.call("SET", "k", "v"));
+        } finally {
+            connection.close();
+        }
+    }
+}
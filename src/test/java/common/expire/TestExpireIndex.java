@@ -0,0 +1,51 @@
+package common.expire;
+
+import common.struct.PandisString;
+import common.struct.impl.Dict;
+import common.struct.impl.Sds;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class TestExpireIndex {
+
+    @Test
+    public void testFirstDue() {
+        ExpireIndex index = new ExpireIndex();
+        Dict<Long> expires = new Dict<>();
+        long base = 1000000;
+        for (int i = 0; i < 10; i++) {
+            PandisString key = Sds.createSds("key:" + i);
+            long when = base + i * 50;
+            index.add(key, when);
+            expires.put(key, when);
+        }
+        Assert.assertEquals(10, index.size());
+
+        // 当前时间所在的桶只有部分键到期，不回收
+        long now = base + 120;
+        Assert.assertEquals(3, index.countDue(now, expires));
+
+        int reclaimed = 0;
+        PandisString key;
+        while ((key = index.firstDue(now)) != null) {
+            Assert.assertTrue(expires.get(key) < now);
+            index.remove(key, expires.remove(key));
+            reclaimed++;
+        }
+        Assert.assertEquals(2, reclaimed);
+        Assert.assertEquals(8, index.size());
+        Assert.assertEquals(1, index.countDue(now, expires));
+
+        // 修改过期时间时从原来的桶中移除
+        PandisString moved = Sds.createSds("key:9");
+        index.remove(moved, expires.get(moved));
+        index.add(moved, base);
+        expires.put(moved, base);
+        Assert.assertEquals(moved, index.firstDue(now));
+    }
+}
@@ -0,0 +1,64 @@
+package common.expire;
+
+import common.struct.impl.Sds;
+import database.Database;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import server.PandisServer;
+import server.ServerFixture;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class TestPeriodicExpirator {
+    private static final int EXPIRED_KEYS = 20;
+
+    private PandisServer server;
+    private PeriodicExpirator expirator;
+    private Database db;
+
+    @Before
+    public void setUp() {
+        this.server = ServerFixture.start();
+        this.expirator = this.server.getPeriodicExpirator();
+        this.db = this.server.getDatabases()[0];
+
+        // 没有设置过期时间的键，慢速模式很快完成，不会达到时间上限
+        this.expirator.delExpiredPeriodicaly(PeriodicExpiration.SLOW_MODE);
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < EXPIRED_KEYS; i++) {
+            Sds key = Sds.createSds("key:" + i);
+            this.db.add(key, Sds.createSds("value"));
+            this.db.setExpire(key, now - 1000);
+        }
+    }
+
+    @Test
+    public void testFastCycleSkipped() {
+        // 上一次慢速模式在时间上限内完成，并且过期键比例可以接受，不执行快速模式
+        this.server.setStatExpiredStalePerc(0);
+        this.expirator.delExpiredPeriodicaly(PeriodicExpiration.FAST_MODE);
+        Assert.assertEquals(EXPIRED_KEYS, this.db.expiredKeyNums());
+    }
+
+    @Test
+    public void testFastCycleAfterTimeLimitExit() {
+        // 上一次执行达到了时间上限
+        this.server.setStatExpiredStalePerc(0);
+        this.expirator.setTimeLimitExit(true);
+        this.expirator.delExpiredPeriodicaly(PeriodicExpiration.FAST_MODE);
+        Assert.assertEquals(0, this.db.expiredKeyNums());
+    }
+
+    @Test
+    public void testFastCycleWithStaleKeys() {
+        // 估计的过期键比例超过可以接受的比例
+        this.server.setStatExpiredStalePerc(PeriodicExpirator.EXPIRE_CYCLE_ACCEPTABLE_STALE / 100.0);
+        this.expirator.delExpiredPeriodicaly(PeriodicExpiration.FAST_MODE);
+        Assert.assertEquals(0, this.db.expiredKeyNums());
+    }
+}
@@ -0,0 +1,157 @@
+package common.struct.impl;
+
+import common.struct.PandisString;
+import common.utils.SafeEncoder;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class TestDict {
+
+    @Test
+    public void testPutGetRemove() {
+        Dict<Integer> dict = new Dict<>();
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertNull(dict.put(Sds.createSds("key:" + i), i));
+        }
+        Assert.assertEquals(10000, dict.size());
+        Assert.assertEquals(Integer.valueOf(1), dict.put(Sds.createSds("key:1"), 100));
+
+        // 可以用视图查找
+        byte[] buffer = SafeEncoder.encode("$5\r\nkey:2\r\n");
+        Assert.assertEquals(Integer.valueOf(2), dict.get(new SdsView(buffer, 4, 5)));
+
+        for (int i = 0; i < 10000; i += 2) {
+            Assert.assertNotNull(dict.remove(Sds.createSds("key:" + i)));
+        }
+        Assert.assertEquals(5000, dict.size());
+        for (int i = 0; i < 10000; i++) {
+            Integer value = dict.get(Sds.createSds("key:" + i));
+            if (i % 2 == 0) {
+                Assert.assertNull(value);
+            } else {
+                Assert.assertEquals(i == 1 ? 100 : i, value.intValue());
+            }
+        }
+        Assert.assertNull(dict.remove(Sds.createSds("key:0")));
+    }
+
+    @Test
+    public void testIncrementalRehash() {
+        Dict<Integer> dict = new Dict<>();
+        for (int i = 0; i < 12; i++) {
+            dict.put(Sds.createSds("key:" + i), i);
+        }
+        // 超过3/4的使用率后开始扩容，之后的操作逐步迁移
+        dict.put(Sds.createSds("key:12"), 12);
+        Assert.assertTrue(dict.isRehashing());
+
+        // rehash期间删除和查找都要能找到两张表中的键
+        Assert.assertEquals(Integer.valueOf(0), dict.remove(Sds.createSds("key:0")));
+        for (int i = 1; i <= 12; i++) {
+            Assert.assertEquals(i, dict.get(Sds.createSds("key:" + i)).intValue());
+        }
+        while (dict.rehash(1)) {
+        }
+        Assert.assertFalse(dict.isRehashing());
+        Assert.assertEquals(12, dict.size());
+
+        // 删除大部分键后由cron缩容
+        for (int i = 0; i < 10000; i++) {
+            dict.put(Sds.createSds("key:" + i), i);
+        }
+        for (int i = 10; i < 10000; i++) {
+            dict.remove(Sds.createSds("key:" + i));
+        }
+        dict.rehashMilliseconds(1000);
+        Assert.assertTrue(dict.resizeIfNeeded());
+        dict.rehashMilliseconds(1000);
+        Assert.assertFalse(dict.isRehashing());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, dict.get(Sds.createSds("key:" + i)).intValue());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testPutDuringShrink() {
+        Dict<Integer> dict = new Dict<>();
+        for (int i = 0; i < 10000; i++) {
+            dict.put(Sds.createSds("key:" + i), i);
+        }
+        for (int i = 10; i < 10000; i++) {
+            dict.remove(Sds.createSds("key:" + i));
+        }
+        dict.rehashMilliseconds(1000);
+        Assert.assertTrue(dict.resizeIfNeeded());
+        Assert.assertTrue(dict.isRehashing());
+
+        // 缩容还没有完成时插入的键超过新表的容量，剩余的键和新插入的键要一起放进足够大的表中
+        int inserted = 100;
+        for (int i = 0; i < inserted; i++) {
+            dict.put(Sds.createSds("new:" + i), i);
+        }
+        Assert.assertEquals(10 + inserted, dict.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, dict.get(Sds.createSds("key:" + i)).intValue());
+        }
+        for (int i = 0; i < inserted; i++) {
+            Assert.assertEquals(i, dict.get(Sds.createSds("new:" + i)).intValue());
+        }
+    }
+
+    @Test
+    public void testRandomEntry() {
+        Dict<Integer> dict = new Dict<>();
+        Assert.assertNull(dict.randomEntry());
+
+        for (int i = 0; i < 1000; i++) {
+            dict.put(Sds.createSds("key:" + i), i);
+        }
+        // rehash期间也只返回存在的键，多次采样能覆盖到大部分的键
+        dict.put(Sds.createSds("key:1000"), 1000);
+        Assert.assertTrue(dict.isRehashing());
+        Set<PandisString> seen = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            Map.Entry<PandisString, Integer> entry = dict.randomEntry();
+            Assert.assertEquals(entry.getValue(), dict.get(entry.getKey()));
+            seen.add(entry.getKey());
+        }
+        Assert.assertTrue(seen.size() > 900);
+
+        for (int i = 1; i <= 1000; i++) {
+            dict.remove(Sds.createSds("key:" + i));
+        }
+        Assert.assertEquals(Sds.createSds("key:0"), dict.randomEntry().getKey());
+    }
+
+    @Test
+    public void testScanDuringResize() {
+        Dict<Integer> dict = new Dict<>();
+        for (int i = 0; i < 1000; i++) {
+            dict.put(Sds.createSds("key:" + i), i);
+        }
+
+        // 遍历过程中字典扩容，原有的键都要至少返回一次
+        Set<PandisString> seen = new HashSet<>();
+        long cursor = 0;
+        int next = 1000;
+        do {
+            cursor = dict.scan(cursor, (key, value) -> seen.add(key));
+            for (int i = 0; i < 20 && next < 5000; i++, next++) {
+                dict.put(Sds.createSds("key:" + next), next);
+            }
+        } while (cursor != 0);
+
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(seen.contains(Sds.createSds("key:" + i)));
+        }
+    }
+}
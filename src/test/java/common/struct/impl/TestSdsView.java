@@ -0,0 +1,48 @@
+package common.struct.impl;
+
+import common.struct.PandisObject;
+import common.struct.PandisString;
+import common.utils.SafeEncoder;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/14
+ **/
+public class TestSdsView {
+
+    @Test
+    public void testEqualsSds() {
+        byte[] buffer = SafeEncoder.encode("$3\r\nkey\r\n");
+        SdsView view = new SdsView(buffer, 4, 3);
+        Sds sds = Sds.createSds("key");
+
+        Assert.assertEquals("key", view.toString());
+        Assert.assertEquals(sds.hashCode(), view.hashCode());
+        Assert.assertTrue(view.equals(sds));
+        Assert.assertTrue(sds.equals(view));
+        Assert.assertFalse(view.equals(Sds.createSds("ke")));
+
+        // 可以直接用视图在以Sds为键的表中查找
+        Map<PandisString, PandisObject> keySpace = new HashMap<>();
+        keySpace.put(sds, Sds.createSds("value"));
+        Assert.assertNotNull(keySpace.get(view));
+    }
+
+    @Test
+    public void testToSds() {
+        byte[] buffer = SafeEncoder.encode("value");
+        SdsView view = new SdsView(buffer, 0, 5);
+        Sds sds = view.toSds();
+
+        // 复制出的Sds不再受原数组修改的影响
+        buffer[0] = 'x';
+        Assert.assertEquals("value", sds.toString());
+        Assert.assertEquals("xalue", view.toString());
+    }
+}
@@ -1,6 +1,7 @@
 package common.utils;
 
 import common.struct.impl.Sds;
+import junit.framework.Assert;
 import org.junit.Test;
 
 /**
@@ -34,4 +35,57 @@ public class TestSdsUtil {
 //        Sds [] res5 = SdsUtil.splitArgs(test5);
 //        System.out.println(Arrays.toString(res5));
     }
+
+    @Test
+    public void testLongToString() {
+        long[] values = {0, 1, 9, 10, -1, -10, 123456789, Long.MAX_VALUE, Long.MIN_VALUE};
+        byte[] buf = new byte[32];
+        for (long value : values) {
+            int length = SdsUtil.longToString(buf, 2, value);
+            Assert.assertEquals(String.valueOf(value), new String(buf, 2, length));
+        }
+    }
+
+    @Test
+    public void testStringToLong() {
+        String[] valid = {"0", "1", "-1", "123456789", "9223372036854775807", "-9223372036854775808"};
+        for (String str : valid) {
+            byte[] bytes = SafeEncoder.encode("*" + str + "\r\n");
+            Assert.assertEquals(Long.parseLong(str), SdsUtil.stringToLong(bytes, 1, bytes.length - 3));
+        }
+
+        String[] invalid = {"", "-", "+1", " 1", "1 ", "01", "-0", "1a", "9223372036854775808", "-9223372036854775809"};
+        for (String str : invalid) {
+            byte[] bytes = SafeEncoder.encode(str);
+            try {
+                SdsUtil.stringToLong(bytes, 0, bytes.length);
+                Assert.fail("should not parse '" + str + "'");
+            } catch (NumberFormatException e) {
+                // 预期的异常
+            }
+        }
+
+        Assert.assertEquals(42, SdsUtil.stringToLong(Sds.createSds("42")));
+    }
+
+    @Test
+    public void testStringToDouble() {
+        String[] valid = {"0", "3.14", "-0.5", ".5", "5.", "1e10", "-2.5E-3", "123456789012345678901234567890", "0.1", "1.7976931348623157e308"};
+        for (String str : valid) {
+            byte[] bytes = SafeEncoder.encode(str);
+            Assert.assertEquals(Double.parseDouble(str), SdsUtil.stringToDouble(bytes, 0, bytes.length));
+        }
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, SdsUtil.stringToDouble(Sds.createSds("-inf")));
+
+        String[] invalid = {"", "-", ".", "1e", "1.5d", " 1", "1 ", "nan", "1..2"};
+        for (String str : invalid) {
+            byte[] bytes = SafeEncoder.encode(str);
+            try {
+                SdsUtil.stringToDouble(bytes, 0, bytes.length);
+                Assert.fail("should not parse '" + str + "'");
+            } catch (NumberFormatException e) {
+                // 预期的异常
+            }
+        }
+    }
 }
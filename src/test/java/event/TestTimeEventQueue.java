@@ -0,0 +1,82 @@
+package event;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/12
+ **/
+public class TestTimeEventQueue {
+
+    private static TimeEvent timeEvent(long when) {
+        return new TimeEvent() {
+            @Override
+            public void execute() {
+            }
+
+            @Override
+            public long getWhen() {
+                return when;
+            }
+        };
+    }
+
+    @Test
+    public void testPeekNearest() {
+        TimeEventQueue queue = new TimeEventQueue();
+        for (int i = 0; i < 100; i++) {
+            queue.add(timeEvent((i * 37) % 100 + 10));
+        }
+
+        Assert.assertEquals(100, queue.size());
+        Assert.assertEquals(10, queue.peek().getWhen());
+
+        long last = Long.MIN_VALUE;
+        TimeEventQueue.Entry entry;
+        while ((entry = queue.pollExpired(Long.MAX_VALUE)) != null) {
+            Assert.assertTrue(entry.when >= last);
+            last = entry.when;
+            queue.release(entry);
+        }
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testPollExpired() {
+        TimeEventQueue queue = new TimeEventQueue();
+        queue.add(timeEvent(30));
+        queue.add(timeEvent(10));
+        queue.add(timeEvent(20));
+
+        Assert.assertEquals(10, queue.pollExpired(25).when);
+        Assert.assertEquals(20, queue.pollExpired(25).when);
+        Assert.assertNull(queue.pollExpired(25));
+        Assert.assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testRemove() {
+        TimeEventQueue queue = new TimeEventQueue();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(queue.add(timeEvent(i)));
+        }
+
+        Assert.assertTrue(queue.remove(ids.get(0)));
+        Assert.assertTrue(queue.remove(ids.get(5)));
+        Assert.assertFalse(queue.remove(ids.get(5)));
+        Assert.assertFalse(queue.contains(ids.get(5)));
+        Assert.assertEquals(8, queue.size());
+        Assert.assertEquals(1, queue.peek().getWhen());
+
+        long[] expected = {1, 2, 3, 4, 6, 7, 8, 9};
+        for (long when : expected) {
+            Assert.assertEquals(when, queue.pollExpired(Long.MAX_VALUE).when);
+        }
+    }
+}
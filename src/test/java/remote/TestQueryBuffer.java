@@ -0,0 +1,74 @@
+package remote;
+
+import common.utils.SafeEncoder;
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/14
+ **/
+public class TestQueryBuffer {
+
+    @Test
+    public void testSkipBytes() {
+        QueryBuffer buffer = new QueryBuffer();
+        buffer.attachBuffer(new byte[64]);
+        buffer.append(SafeEncoder.encode("ping\r\nping\r\n"));
+
+        Assert.assertEquals(4, buffer.indexOf((byte) '\r'));
+        buffer.skipBytes(6);
+        Assert.assertEquals(6, buffer.readerIndex());
+        Assert.assertEquals(10, buffer.indexOf((byte) '\r'));
+        Assert.assertEquals('p', buffer.getByte(6));
+
+        // 数据全部消费后读写位置归零
+        buffer.skipBytes(6);
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertEquals(0, buffer.readerIndex());
+        Assert.assertEquals(0, buffer.writerIndex());
+    }
+
+    @Test
+    public void testCompactBeforeGrow() {
+        QueryBuffer buffer = new QueryBuffer();
+        buffer.attachBuffer(new byte[16]);
+        buffer.append(SafeEncoder.encode("0123456789ab"));
+        buffer.skipBytes(10);
+
+        // 尾部只剩4字节，压缩后有14字节，不需要扩容
+        buffer.ensureWritable(8);
+        Assert.assertEquals(16, buffer.capacity());
+        Assert.assertEquals(0, buffer.readerIndex());
+        Assert.assertEquals(2, buffer.readableBytes());
+        Assert.assertEquals('a', buffer.getByte(0));
+
+        // 压缩后空间依然不足，扩容并只保留未解析的数据
+        buffer.ensureWritable(32);
+        Assert.assertTrue(buffer.capacity() >= 34);
+        Assert.assertEquals(2, buffer.readableBytes());
+        Assert.assertEquals('b', buffer.getByte(1));
+    }
+
+    @Test
+    public void testPinned() {
+        QueryBuffer buffer = new QueryBuffer();
+        byte[] array = new byte[16];
+        buffer.attachBuffer(array);
+        buffer.append(SafeEncoder.encode("0123456789ab"));
+        buffer.pin();
+
+        // 固定期间消费完数据也不归零，不原地压缩，也不能还给共享池
+        buffer.skipBytes(12);
+        Assert.assertEquals(12, buffer.readerIndex());
+        Assert.assertNull(buffer.detachBuffer());
+        buffer.ensureWritable(8);
+        Assert.assertNotSame(array, buffer.array());
+        Assert.assertEquals('0', array[0]);
+
+        buffer.unpin();
+        Assert.assertEquals(0, buffer.readerIndex());
+        Assert.assertNotNull(buffer.detachBuffer());
+    }
+}
@@ -0,0 +1,123 @@
+package remote;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import remote.protocol.ResponseParser;
+import server.ServerFixture;
+import server.client.InnerClient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class TestServerReplyer {
+    private ServerFixture.Connection connection;
+    private InnerClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        ServerFixture.start();
+        this.connection = ServerFixture.connect();
+        this.client = this.connection.getClient();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.connection.close();
+    }
+
+    @Test
+    public void testNullArray() throws IOException {
+        this.client.setResp(2);
+        this.client.replyNullArray();
+        Assert.assertEquals("*-1\r\n", this.connection.readReply());
+
+        this.client.setResp(3);
+        this.client.replyNullArray();
+        Assert.assertEquals("_\r\n", this.connection.readReply());
+    }
+
+    @Test
+    public void testSetLength() throws IOException {
+        this.client.setResp(2);
+        this.client.replySetLength(2);
+        Assert.assertEquals("*2\r\n", this.connection.readReply());
+
+        this.client.setResp(3);
+        this.client.replySetLength(2);
+        Assert.assertEquals("~2\r\n", this.connection.readReply());
+    }
+
+    @Test
+    public void testAttributeLength() throws IOException {
+        this.client.setResp(3);
+        this.client.replyAttributeLength(1);
+        Assert.assertEquals("|1\r\n", this.connection.readReply());
+
+        // RESP2没有attribute类型
+        this.client.setResp(2);
+        try {
+            this.client.replyAttributeLength(1);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("", this.connection.readReply());
+        }
+    }
+
+    @Test
+    public void testDouble() throws IOException {
+        this.client.setResp(2);
+        this.client.replyDouble(1.5);
+        this.client.replyDouble(3);
+        this.client.replyDouble(Double.NEGATIVE_INFINITY);
+        Assert.assertEquals("$3\r\n1.5\r\n$1\r\n3\r\n$4\r\n-inf\r\n", this.connection.readReply());
+
+        this.client.setResp(3);
+        this.client.replyDouble(1.5);
+        this.client.replyDouble(3);
+        this.client.replyDouble(Double.POSITIVE_INFINITY);
+        this.client.replyDouble(Double.NaN);
+        String reply = this.connection.readReply();
+        Assert.assertEquals(",1.5\r\n,3\r\n,inf\r\n,nan\r\n", reply);
+
+        // 客户端能解析出同样的值
+        byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+        double[] expected = {1.5, 3, Double.POSITIVE_INFINITY, Double.NaN};
+        int index = 0;
+        for (double value : expected) {
+            Response response = ResponseParser.parseResponse(bytes, index);
+            Assert.assertEquals(value, (Double) response.getContent(), 0);
+            index += response.byteSize();
+        }
+    }
+
+    @Test
+    public void testBool() throws IOException {
+        this.client.setResp(2);
+        this.client.replyBool(true);
+        this.client.replyBool(false);
+        Assert.assertEquals(":1\r\n:0\r\n", this.connection.readReply());
+
+        this.client.setResp(3);
+        this.client.replyBool(true);
+        this.client.replyBool(false);
+        Assert.assertEquals("#t\r\n#f\r\n", this.connection.readReply());
+    }
+
+    @Test
+    public void testBigNumber() throws IOException {
+        this.client.setResp(2);
+        this.client.replyBigNumber("12345678901234567890");
+        Assert.assertEquals("$20\r\n12345678901234567890\r\n", this.connection.readReply());
+
+        this.client.setResp(3);
+        this.client.replyBigNumber("-12345678901234567890");
+        Assert.assertEquals("(-12345678901234567890\r\n", this.connection.readReply());
+    }
+}
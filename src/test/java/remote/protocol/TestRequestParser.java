@@ -1,5 +1,12 @@
 package remote.protocol;
 
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import remote.ReadBufferPool;
+import remote.ServerReceiver;
+import server.PandisServer;
+import server.ServerFixture;
 import server.client.InnerClient;
 import common.struct.impl.Sds;
 import org.junit.Test;
@@ -7,6 +14,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * @ClassName TestRequestProcessor
@@ -16,6 +24,19 @@ import java.nio.charset.StandardCharsets;
  * @Version
  */
 public class TestRequestParser {
+    private ServerFixture.Connection connection;
+
+    @Before
+    public void setUp() throws IOException {
+        ServerFixture.start();
+        this.connection = ServerFixture.connect();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.connection.close();
+    }
+
     @Test
     public void testProcessInlineRequest() {
         Sds s = Sds.createSds("SET msg hello \r\n ".getBytes(StandardCharsets.UTF_8));
@@ -38,4 +59,79 @@ public class TestRequestParser {
 //        }
 
     }
+
+    @Test
+    public void testInvalidMultibulkLength() throws IOException {
+        InnerClient client = this.connection.getClient();
+        this.connection.feed("*abc\r\n*1\r\n$4\r\nPING\r\n");
+        client.processInputData();
+
+        // 回复错误后关闭客户端，之后的命令不再执行
+        Assert.assertEquals("-ERR Protocol error: invalid multibulk length\r\n", this.connection.readReply());
+        Assert.assertTrue(client.hasFlags(InnerClient.CLIENT_CLOSE_AFTER_REPLY));
+        Assert.assertTrue(client.getReceiver().getQueryBuffer().isEmpty());
+
+        this.connection.feed("*1\r\n$4\r\nPING\r\n");
+        client.processInputData();
+        Assert.assertEquals("", this.connection.readReply());
+    }
+
+    @Test
+    public void testTooManyMultibulkItems() throws IOException {
+        this.connection.feed("*1048577\r\n");
+        this.connection.getClient().processInputData();
+        Assert.assertEquals("-ERR Protocol error: invalid multibulk length\r\n", this.connection.readReply());
+    }
+
+    @Test
+    public void testInvalidBulkLength() throws IOException {
+        // 前面完整的命令照常执行，出错的命令中已经解析出的参数被丢弃
+        this.connection.feed("*1\r\n$4\r\nPING\r\n*2\r\n$4\r\nECHO\r\n$x1\r\nhello\r\n");
+        this.connection.getClient().processInputData();
+        Assert.assertEquals("+PONG\r\n-ERR Protocol error: invalid bulk length\r\n", this.connection.readReply());
+        Assert.assertFalse(this.connection.getClient().getReceiver().getQueryBuffer().isPinned());
+    }
+
+    @Test
+    public void testBigArgStreaming() throws IOException {
+        InnerClient client = this.connection.getClient();
+        ServerReceiver receiver = client.getReceiver();
+        RequestParser parser = receiver.getRequestParser();
+
+        int length = ReadBufferPool.PROTO_MBULK_BIG_ARG + 8000;
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+
+        // 头部和一部分内容先读入查询缓冲区，解析到大参数时按bulk长度分配，取走已经读入的内容
+        this.connection.feed("*3\r\n$3\r\nSET\r\n$1\r\nk\r\n$" + length + "\r\n");
+        this.connection.feed(Arrays.copyOfRange(content, 0, 1000));
+        Assert.assertFalse(receiver.processRequest());
+        Assert.assertTrue(parser.isReceivingBigArg());
+        Assert.assertEquals(0, receiver.getQueryBuffer().readableBytes());
+        int capacity = receiver.getQueryBuffer().capacity();
+        Assert.assertTrue(capacity < length);
+
+        // 剩余内容分多次直接读入大参数，不经过查询缓冲区
+        int chunk = 12000;
+        for (int offset = 1000; offset < length; offset += chunk) {
+            this.connection.feed(Arrays.copyOfRange(content, offset, Math.min(offset + chunk, length)));
+            Assert.assertEquals(0, receiver.getQueryBuffer().readableBytes());
+            Assert.assertEquals(capacity, receiver.getQueryBuffer().capacity());
+            Assert.assertFalse(receiver.processRequest());
+        }
+        Assert.assertFalse(parser.isReceivingBigArg());
+
+        // 结尾的CRLF单独到达，后面跟着流水线中的下一条命令
+        this.connection.feed("\r\n");
+        this.connection.feed("*1\r\n$4\r\nPING\r\n");
+        client.processInputData();
+        Assert.assertEquals("$2\r\nOK\r\n+PONG\r\n", this.connection.readReply());
+
+        Sds value = (Sds) PandisServer.getInstance().getDatabases()[0].lookupByKey(Sds.createSds("k"));
+        Assert.assertEquals(length, value.length());
+        Assert.assertTrue(Arrays.equals(content, Arrays.copyOf(value.toArrayWithOutCopy(), value.length())));
+        Assert.assertTrue(receiver.getQueryBuffer().isEmpty());
+    }
 }
@@ -3,7 +3,12 @@ package remote.protocol;
 import org.junit.Assert;
 import org.junit.Test;
 
+import remote.Response;
+import remote.responses.AggregateResponse;
+
+import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -74,4 +79,39 @@ public class TestResponseParser {
 //            System.out.println(s);
 //        }
     }
+
+    @Test
+    public void testParseResp3Response() {
+        byte [] bytes = "%2\r\n$5\r\nproto\r\n:3\r\n$3\r\nset\r\n~2\r\n,1.5\r\n#t\r\n".getBytes(StandardCharsets.UTF_8);
+        Response map = ResponseParser.parseResponse(bytes, 0);
+        Assert.assertEquals(ReplyType.MAP, map.getType());
+        Assert.assertEquals(bytes.length, map.byteSize());
+        List<Response> elements = ((AggregateResponse) map).getElements();
+        Assert.assertEquals(4, elements.size());
+        Assert.assertEquals("proto", elements.get(0).getContent());
+        Assert.assertEquals(3L, elements.get(1).getContent());
+        List<Response> set = ((AggregateResponse) elements.get(3)).getElements();
+        Assert.assertEquals(ReplyType.SET, elements.get(3).getType());
+        Assert.assertEquals(1.5, (Double) set.get(0).getContent(), 0);
+        Assert.assertEquals(true, set.get(1).getContent());
+
+        // 数据不完整时返回null
+        Assert.assertNull(ResponseParser.parseResponse(Arrays.copyOf(bytes, bytes.length - 2), 0));
+
+        byte [] push = ">2\r\n$10\r\ninvalidate\r\n*1\r\n$3\r\nfoo\r\n_\r\n(12345678901234567890\r\n,-inf\r\n".getBytes(StandardCharsets.UTF_8);
+        Response invalidate = ResponseParser.parseResponse(push, 0);
+        Assert.assertEquals(ReplyType.PUSH, invalidate.getType());
+        Response keys = ((AggregateResponse) invalidate).getElements().get(1);
+        Assert.assertEquals(ReplyType.MULTI_BULK, keys.getType());
+        Assert.assertEquals(1, ((List<?>) keys.getContent()).size());
+
+        int index = invalidate.byteSize();
+        Response nil = ResponseParser.parseResponse(push, index);
+        Assert.assertEquals(ReplyType.NIL, nil.getType());
+        index += nil.byteSize();
+        Response bigNumber = ResponseParser.parseResponse(push, index);
+        Assert.assertEquals(new BigInteger("12345678901234567890"), bigNumber.getContent());
+        index += bigNumber.byteSize();
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, (Double) ResponseParser.parseResponse(push, index).getContent(), 0);
+    }
 }
@@ -0,0 +1,147 @@
+package server;
+
+import common.utils.SafeEncoder;
+import remote.protocol.Protocol;
+import server.client.InnerClient;
+import server.config.ServerConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * @Description 单元测试使用的服务器：不监听端口、不运行事件循环，客户端通过本地回环连接和服务器一侧的InnerClient相连
+ * 命令在测试线程中直接执行，回复由测试线程发送并从远端读出，可以按字节检查
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public final class ServerFixture {
+
+    private ServerFixture() {
+    }
+
+    public static PandisServer start() {
+        return start(ServerConfig.build());
+    }
+
+    public static PandisServer start(ServerConfig config) {
+        return PandisServer.createForTesting(config);
+    }
+
+    /**
+     * 创建一个连接到当前服务器的客户端
+     * @return 连接
+     * @throws IOException 建立本地连接失败
+     */
+    public static Connection connect() throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            SocketChannel remote = SocketChannel.open(listener.getLocalAddress());
+            SocketChannel accepted = listener.accept();
+            accepted.configureBlocking(false);
+
+            InnerClient client = (InnerClient) InnerClient.createClient(accepted);
+            PandisServer.getInstance().addClient(client);
+            return new Connection(client, remote);
+        }
+    }
+
+    /**
+     * 服务器一侧的InnerClient和远端的SocketChannel
+     */
+    public static final class Connection implements Closeable {
+        private final InnerClient client;
+        private final SocketChannel remote;
+
+        private Connection(InnerClient client, SocketChannel remote) {
+            this.client = client;
+            this.remote = remote;
+        }
+
+        public InnerClient getClient() {
+            return this.client;
+        }
+
+        /**
+         * 执行一条命令，返回客户端收到的全部回复
+         * 命令按协议编码后从远端发送，和真实的请求一样经过读取、解析和执行
+         * @param args 命令和参数
+         * @return 回复
+         */
+        public String call(String... args) throws IOException {
+            StringBuilder request = new StringBuilder();
+            request.append('*').append(args.length).append("\r\n");
+            for (String arg : args) {
+                request.append('$').append(SafeEncoder.encode(arg).length).append("\r\n").append(arg).append("\r\n");
+            }
+            feed(request.toString());
+            this.client.processInputData();
+            return readReply();
+        }
+
+        /**
+         * 从远端发送原始数据给服务器
+         * @param data 按协议编码的请求
+         */
+        public void send(byte[] data) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                this.remote.write(buffer);
+            }
+        }
+
+        public void send(String data) throws IOException {
+            send(SafeEncoder.encode(data));
+        }
+
+        /**
+         * 从远端发送数据，并由服务器一侧读取到查询缓冲区（或者正在接收的大参数）中，不解析
+         * @param data 按协议编码的请求
+         */
+        public void feed(byte[] data) throws IOException {
+            send(data);
+            long deadline = System.currentTimeMillis() + 5000;
+            int received = 0;
+            while (received < data.length && System.currentTimeMillis() < deadline) {
+                int read = this.client.readData();
+                if (read > 0) {
+                    received += read;
+                } else {
+                    Thread.yield();
+                }
+            }
+            if (received < data.length) {
+                throw new IOException("Only " + received + " of " + data.length + " bytes received");
+            }
+        }
+
+        public void feed(String data) throws IOException {
+            feed(SafeEncoder.encode(data));
+        }
+
+        /**
+         * 发送服务器为该客户端缓存的回复，并从远端读出
+         * @return 回复，没有回复时返回空字符串
+         */
+        public String readReply() throws IOException {
+            int written = this.client.writeData();
+            ByteBuffer buffer = ByteBuffer.allocate(written);
+            while (buffer.hasRemaining()) {
+                if (this.remote.read(buffer) < 0) {
+                    break;
+                }
+            }
+            return new String(buffer.array(), 0, buffer.position(), Protocol.CHARSET);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.remote.close();
+            this.client.getSocketChannel().close();
+        }
+    }
+}
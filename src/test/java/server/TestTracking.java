@@ -0,0 +1,171 @@
+package server;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.config.ServerConfig;
+
+import java.io.IOException;
+
+/**
+ * @Description
+ * @Author huzihan
+ * @Date 2021/10/18
+ **/
+public class TestTracking {
+    private ServerFixture.Connection tracker;   // 开启跟踪的客户端
+    private ServerFixture.Connection writer;    // 修改键的客户端
+
+    @Before
+    public void setUp() throws IOException {
+        ServerFixture.start();
+        connect();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.tracker.close();
+        this.writer.close();
+    }
+
+    private void connect() throws IOException {
+        this.tracker = ServerFixture.connect();
+        this.writer = ServerFixture.connect();
+        this.tracker.getClient().setResp(3);
+    }
+
+    private static String invalidate(String... keys) {
+        StringBuilder push = new StringBuilder(">2\r\n$10\r\ninvalidate\r\n*").append(keys.length).append("\r\n");
+        for (String key : keys) {
+            push.append('$').append(key.length()).append("\r\n").append(key).append("\r\n");
+        }
+        return push.toString();
+    }
+
+    @Test
+    public void testInvalidateAfterWrite() throws IOException {
+        Assert.assertEquals("+OK\r\n", this.tracker.call("CLIENT", "TRACKING", "on"));
+        this.writer.call("SET", "k", "v1");
+
+        // 没有读取过的键被修改时不发送失效消息
+        this.writer.call("SET", "other", "v1");
+        Assert.assertEquals("", this.tracker.readReply());
+
+        Assert.assertEquals("$2\r\nv1\r\n", this.tracker.call("GET", "k"));
+        this.writer.call("SET", "k", "v2");
+        Assert.assertEquals(invalidate("k"), this.tracker.readReply());
+
+        // 失效消息只发送一次，再次读取后才会重新跟踪
+        this.writer.call("SET", "k", "v3");
+        Assert.assertEquals("", this.tracker.readReply());
+        this.tracker.call("GET", "k");
+        this.writer.call("DEL", "k");
+        Assert.assertEquals(invalidate("k"), this.tracker.readReply());
+        Assert.assertEquals(0, Tracking.getTracking().getTrackingKeys());
+    }
+
+    @Test
+    public void testInvalidateOnExpire() throws IOException, InterruptedException {
+        this.writer.call("SET", "k", "v");
+        this.writer.call("PEXPIRE", "k", "20");
+        this.tracker.call("CLIENT", "TRACKING", "on");
+        Assert.assertEquals("$1\r\nv\r\n", this.tracker.call("GET", "k"));
+
+        // 其他客户端访问时惰性删除过期的键
+        Thread.sleep(30);
+        Assert.assertEquals("$-1\r\n", this.writer.call("GET", "k"));
+        Assert.assertEquals(invalidate("k"), this.tracker.readReply());
+    }
+
+    @Test
+    public void testBcastPrefixes() throws IOException {
+        Assert.assertEquals("+OK\r\n", this.tracker.call("CLIENT", "TRACKING", "on", "BCAST", "PREFIX", "user:", "PREFIX", "session:"));
+        Assert.assertEquals(2, Tracking.getTracking().getTrackingPrefixes());
+
+        // 广播模式不需要先读取，匹配前缀的键被修改后在事件循环睡眠前统一发送，同一轮中多次修改的键只发送一次
+        this.writer.call("SET", "user:1", "a");
+        this.writer.call("SET", "order:1", "a");
+        this.writer.call("SET", "user:2", "a");
+        this.writer.call("SET", "user:1", "b");
+        Assert.assertEquals("", this.tracker.readReply());
+
+        Tracking.getTracking().broadcastInvalidationMessages();
+        Assert.assertEquals(invalidate("user:1", "user:2"), this.tracker.readReply());
+        Assert.assertEquals(0, Tracking.getTracking().getTrackingKeys());
+
+        // 没有修改时不发送
+        Tracking.getTracking().broadcastInvalidationMessages();
+        Assert.assertEquals("", this.tracker.readReply());
+    }
+
+    @Test
+    public void testNoloop() throws IOException {
+        this.tracker.call("CLIENT", "TRACKING", "on", "NOLOOP");
+        this.tracker.call("GET", "k");
+
+        // 自己修改的键不发送失效消息
+        Assert.assertEquals("$2\r\nOK\r\n", this.tracker.call("SET", "k", "v"));
+        this.tracker.call("GET", "k");
+        this.writer.call("SET", "k", "v2");
+        Assert.assertEquals(invalidate("k"), this.tracker.readReply());
+
+        // 广播模式下只去掉自己修改的键
+        this.tracker.call("CLIENT", "TRACKING", "off");
+        this.tracker.call("CLIENT", "TRACKING", "on", "BCAST", "NOLOOP");
+        this.tracker.call("SET", "mine", "v");
+        this.writer.call("SET", "theirs", "v");
+        this.tracker.readReply();
+        Tracking.getTracking().broadcastInvalidationMessages();
+        Assert.assertEquals(invalidate("theirs"), this.tracker.readReply());
+    }
+
+    @Test
+    public void testRedirect() throws IOException {
+        // RESP2客户端通过订阅了__redis__:invalidate频道的连接接收失效消息
+        this.tracker.getClient().setResp(2);
+        ServerFixture.Connection receiver = ServerFixture.connect();
+        try {
+            receiver.call("SUBSCRIBE", Tracking.INVALIDATE_CHANNEL);
+            long receiverId = receiver.getClient().getId();
+            Assert.assertEquals("+OK\r\n", this.tracker.call("CLIENT", "TRACKING", "on", "REDIRECT", Long.toString(receiverId)));
+            Assert.assertEquals("-ERR The client ID you want redirect to does not exist\r\n",
+                this.writer.call("CLIENT", "TRACKING", "on", "REDIRECT", Long.toString(receiverId + 100)));
+
+            this.tracker.call("GET", "k");
+            this.writer.call("SET", "k", "v");
+            Assert.assertEquals("", this.tracker.readReply());
+            Assert.assertEquals("*3\r\n$7\r\nmessage\r\n$20\r\n__redis__:invalidate\r\n*1\r\n$1\r\nk\r\n", receiver.readReply());
+        } finally {
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testTrackingTableMaxKeys() throws IOException {
+        this.tracker.close();
+        this.writer.close();
+        ServerConfig.ServerConfigBuilder builder = new ServerConfig.ServerConfigBuilder();
+        builder.setTrackingTableMaxKeys(3);
+        PandisServer server = ServerFixture.start(ServerConfig.build(builder));
+        connect();
+
+        this.tracker.call("CLIENT", "TRACKING", "on");
+        for (int i = 0; i < 5; i++) {
+            this.tracker.call("GET", "key:" + i);
+        }
+        Assert.assertEquals(5, Tracking.getTracking().getTrackingKeys());
+
+        // 超过上限的键被删除，客户端收到这些键的失效消息
+        Tracking.getTracking().limitTrackingTable(server.getServerConfig().getTrackingTableMaxKeys());
+        Assert.assertEquals(3, Tracking.getTracking().getTrackingKeys());
+        Assert.assertEquals(3, Tracking.getTracking().getTrackingItems());
+        String reply = this.tracker.readReply();
+        Assert.assertEquals(2, reply.split(">2\r\n").length - 1);
+
+        // 没有超过上限时不删除
+        Tracking.getTracking().limitTrackingTable(server.getServerConfig().getTrackingTableMaxKeys());
+        Assert.assertEquals(3, Tracking.getTracking().getTrackingKeys());
+        Assert.assertEquals("", this.tracker.readReply());
+    }
+}